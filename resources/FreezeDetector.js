@@ -0,0 +1,245 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* jshint -W101 */
+
+/**
+ * Detects frozen remote videos. Every interval each displayed remote video
+ * is drawn on a tiny canvas and a hash of the downscaled luma is computed.
+ * While the hash does not change the video is frozen, and a freeze lasting
+ * at least the minimum duration is recorded with the number of frames the
+ * element decoded meanwhile. Only the freezes are kept, they are taken by
+ * the harness with window._freezeDetector.drain().
+ *
+ * Injected by FreezeDetector.java with the interval and the minimum freeze
+ * duration in milliseconds as arguments.
+ */
+(function (intervalMs, minFreezeMs) {
+    if (window._freezeDetector) {
+        return;
+    }
+
+    /**
+     * The size of the samples, small enough to cost nothing and large
+     * enough to see any motion.
+     * @const
+     */
+    var WIDTH = 16;
+    var HEIGHT = 12;
+
+    /**
+     * The freezes kept when nobody drains them, older ones are dropped.
+     * @const
+     */
+    var MAX_FREEZES = 1000;
+
+    var canvas = document.createElement('canvas');
+    canvas.width = WIDTH;
+    canvas.height = HEIGHT;
+    var context = canvas.getContext('2d');
+
+    /**
+     * The state of every sampled video, by key.
+     */
+    var videos = {};
+
+    /**
+     * The freezes which ended since the last drain, as
+     * [key, start, end, framesDecoded].
+     */
+    var freezes = [];
+
+    /**
+     * Returns the key of a remote video, the id of its thumbnail, which
+     * stays the same when the stream is replaced.
+     * @param {HTMLVideoElement} video
+     */
+    function getKey(video) {
+        var parent = video.parentNode;
+
+        return parent && parent.id ? parent.id : video.id;
+    }
+
+    /**
+     * Returns the number of frames an element decoded so far.
+     * @param {HTMLVideoElement} video
+     * @returns {number|null}
+     */
+    function getDecodedFrames(video) {
+        if (typeof video.webkitDecodedFrameCount === 'number') {
+            return video.webkitDecodedFrameCount;
+        }
+        if (typeof video.getVideoPlaybackQuality === 'function') {
+            return video.getVideoPlaybackQuality().totalVideoFrames;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the hash of the current frame of a video: FNV-1a over the
+     * luma of the downscaled frame, quantized to ignore rounding noise.
+     * @param {HTMLVideoElement} video
+     * @returns {number|null} the hash or null if it cannot be drawn
+     */
+    function getHash(video) {
+        var data;
+
+        try {
+            context.drawImage(video, 0, 0, WIDTH, HEIGHT);
+            data = context.getImageData(0, 0, WIDTH, HEIGHT).data;
+        } catch (e) {
+            return null;
+        }
+
+        var hash = 0x811c9dc5;
+        for (var i = 0; i < data.length; i += 4) {
+            var luma = (data[i] * 77 + data[i + 1] * 150 + data[i + 2] * 29)
+                >> 10;
+            hash = Math.imul(hash ^ luma, 0x01000193) >>> 0;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns whether a video is playing and visible.
+     * @param {HTMLVideoElement} video
+     */
+    function isShown(video) {
+        return video.readyState >= 2
+            && !video.paused
+            && video.videoWidth > 0
+            && video.offsetParent !== null;
+    }
+
+    /**
+     * Records the freeze of a video if it lasted long enough.
+     * @param key the key of the video
+     * @param state the state of the video
+     * @param {number} end the time the freeze ended
+     * @param {number|null} frames the decoded frames at the end
+     */
+    function endFreeze(key, state, end, frames) {
+        if (end - state.since < minFreezeMs) {
+            return;
+        }
+
+        freezes.push([
+            key,
+            state.since,
+            end,
+            frames === null || state.frames === null
+                ? null : frames - state.frames
+        ]);
+        if (freezes.length > MAX_FREEZES) {
+            freezes.shift();
+        }
+    }
+
+    /**
+     * Samples all remote videos.
+     */
+    function sample() {
+        var time = Date.now();
+        var seen = {};
+        var elements = document.querySelectorAll(
+            '#remoteVideos video:not([id^="localVideo_"])');
+
+        for (var i = 0; i < elements.length; i++) {
+            var video = elements[i];
+            var key = getKey(video);
+
+            if (seen[key] || !isShown(video)) {
+                continue;
+            }
+
+            var hash = getHash(video);
+            if (hash === null) {
+                continue;
+            }
+            seen[key] = true;
+
+            var frames = getDecodedFrames(video);
+            var state = videos[key];
+            if (state && state.hash === hash) {
+                state.last = time;
+                state.lastFrames = frames;
+                continue;
+            }
+            if (state) {
+                endFreeze(key, state, time, frames);
+            }
+            videos[key] = {
+                video: video,
+                hash: hash,
+                since: time,
+                last: time,
+                frames: frames,
+                lastFrames: frames
+            };
+        }
+
+        // muted, hidden or gone, the last time seen ends the freeze with the
+        // frames decoded by then
+        Object.keys(videos).forEach(function (key) {
+            if (!seen[key]) {
+                endFreeze(
+                    key, videos[key], videos[key].last,
+                    videos[key].lastFrames);
+                delete videos[key];
+            }
+        });
+    }
+
+    window._freezeDetector = {
+        /**
+         * Returns the freezes which ended since the previous call, and the
+         * ongoing ones which already last long enough.
+         * @returns {{freezes: Array, ongoing: Array}}
+         */
+        drain: function () {
+            var result = { freezes: freezes, ongoing: [] };
+            var time = Date.now();
+
+            freezes = [];
+            Object.keys(videos).forEach(function (key) {
+                var state = videos[key];
+                var frames = getDecodedFrames(state.video);
+
+                if (time - state.since >= minFreezeMs) {
+                    result.ongoing.push([
+                        key,
+                        state.since,
+                        time,
+                        frames === null || state.frames === null
+                            ? null : frames - state.frames
+                    ]);
+                }
+            });
+
+            return result;
+        },
+
+        /**
+         * Stops sampling.
+         */
+        stop: function () {
+            window.clearInterval(this.timer);
+        },
+
+        timer: window.setInterval(sample, intervalMs || 250)
+    };
+})(arguments[0], arguments[1]);
@@ -0,0 +1,256 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* jshint -W101 */
+
+/**
+ * Periodically reads the getStats() reports of the JVB and the P2P peer
+ * connections and keeps one compact row per RTP stream and interval, with
+ * the counters turned into deltas. The rows are taken by the harness with
+ * window._webrtcStats.drain(), so only numbers cross the WebDriver boundary
+ * and not the full reports.
+ *
+ * Injected by WebRTCStatsCollector.java with the interval in milliseconds as
+ * the first argument.
+ */
+(function (intervalMs) {
+    if (window._webrtcStats) {
+        return;
+    }
+
+    /**
+     * The columns of a row, the harness reads them by name.
+     * @const
+     */
+    var COLUMNS = [
+        'time', 'pc', 'ssrc', 'kind', 'direction',
+        'packets', 'packetsLost', 'bitrate', 'jitter', 'rtt',
+        'frames', 'framesDropped', 'frameWidth', 'frameHeight', 'fps',
+        'concealedSamples', 'totalSamples'
+    ];
+
+    /**
+     * The rows kept when nobody drains them, older ones are dropped.
+     * @const
+     */
+    var MAX_ROWS = 5000;
+
+    /**
+     * The rows since the last drain.
+     */
+    var rows = [];
+
+    /**
+     * The cumulative counters of the previous reports, by stream.
+     */
+    var previous = {};
+
+    /**
+     * The number of rows dropped since the last drain.
+     */
+    var dropped = 0;
+
+    /**
+     * Returns the RTCPeerConnection of a jingle session, if any.
+     * @param session the jingle session of lib-jitsi-meet.
+     * @returns {RTCPeerConnection|null}
+     */
+    function getPeerConnection(session) {
+        var pc = session && session.peerconnection;
+
+        // lib-jitsi-meet wraps the native one in a TraceablePeerConnection
+        if (pc && pc.peerconnection) {
+            pc = pc.peerconnection;
+        }
+
+        return pc && typeof pc.getStats === 'function' ? pc : null;
+    }
+
+    /**
+     * Returns a number or null.
+     */
+    function num(value) {
+        return typeof value === 'number' && !isNaN(value) ? value : null;
+    }
+
+    /**
+     * Returns the increase of a cumulative counter since the previous
+     * report of the stream, null on the first report.
+     */
+    function delta(prev, report, name) {
+        var value = num(report[name]);
+
+        if (value === null || !prev || num(prev[name]) === null) {
+            return null;
+        }
+
+        return Math.max(0, value - prev[name]);
+    }
+
+    /**
+     * Turns the reports of a peer connection into rows.
+     * @param {string} pcName 'jvb' or 'p2p'.
+     * @param stats the RTCStatsReport.
+     * @param {number} time the time of the reports.
+     */
+    function addRows(pcName, stats, time) {
+        var byId = {};
+        var remote = {};
+
+        stats.forEach(function (report) {
+            byId[report.id] = report;
+            if (report.type === 'remote-inbound-rtp') {
+                remote[report.ssrc] = report;
+            }
+        });
+
+        stats.forEach(function (report) {
+            var inbound = report.type === 'inbound-rtp';
+
+            if ((!inbound && report.type !== 'outbound-rtp')
+                    || report.isRemote) {
+                return;
+            }
+
+            // older browsers keep the frame and sample counters on the track
+            var track = byId[report.trackId] || {};
+            var merged = {};
+            var name;
+
+            for (name in track) {
+                merged[name] = track[name];
+            }
+            for (name in report) {
+                merged[name] = report[name];
+            }
+
+            var kind = report.kind || report.mediaType;
+            var key = pcName + ':' + report.ssrc + ':' + report.type;
+            var prev = previous[key];
+            var rtcp = remote[report.ssrc] || {};
+            var bytes = delta(prev, merged,
+                inbound ? 'bytesReceived' : 'bytesSent');
+            var seconds = prev ? (time - prev.time) / 1000 : 0;
+            var rtt = num(rtcp.roundTripTime);
+            var jitter = num(inbound ? merged.jitter : rtcp.jitter);
+
+            rows.push([
+                time,
+                pcName,
+                report.ssrc,
+                kind,
+                inbound ? 'in' : 'out',
+                delta(prev, merged,
+                    inbound ? 'packetsReceived' : 'packetsSent'),
+                inbound ? delta(prev, merged, 'packetsLost')
+                    : delta(prev && prev.remote, rtcp, 'packetsLost'),
+                bytes !== null && seconds > 0
+                    ? Math.round(bytes * 8 / seconds / 1000) : null,
+                jitter === null ? null : jitter * 1000,
+                rtt === null ? null : rtt * 1000,
+                delta(prev, merged,
+                    inbound ? 'framesDecoded' : 'framesEncoded'),
+                delta(prev, merged, 'framesDropped'),
+                num(merged.frameWidth),
+                num(merged.frameHeight),
+                num(merged.framesPerSecond),
+                delta(prev, merged, 'concealedSamples'),
+                delta(prev, merged, 'totalSamplesReceived')
+            ]);
+
+            previous[key] = {
+                time: time,
+                bytesReceived: num(merged.bytesReceived),
+                bytesSent: num(merged.bytesSent),
+                packetsReceived: num(merged.packetsReceived),
+                packetsSent: num(merged.packetsSent),
+                packetsLost: num(merged.packetsLost),
+                framesDecoded: num(merged.framesDecoded),
+                framesEncoded: num(merged.framesEncoded),
+                framesDropped: num(merged.framesDropped),
+                concealedSamples: num(merged.concealedSamples),
+                totalSamplesReceived: num(merged.totalSamplesReceived),
+                remote: { packetsLost: num(rtcp.packetsLost) }
+            };
+        });
+
+        if (rows.length > MAX_ROWS) {
+            dropped += rows.length - MAX_ROWS;
+            rows.splice(0, rows.length - MAX_ROWS);
+        }
+    }
+
+    /**
+     * Reads the reports of all peer connections.
+     */
+    function collect() {
+        var room;
+
+        try {
+            room = APP.conference._room;
+        } catch (e) {
+            return;
+        }
+        if (!room) {
+            return;
+        }
+
+        var pcs = {
+            jvb: getPeerConnection(room.jvbJingleSession),
+            p2p: getPeerConnection(room.p2pJingleSession)
+        };
+
+        Object.keys(pcs).forEach(function (pcName) {
+            var pc = pcs[pcName];
+
+            if (!pc) {
+                return;
+            }
+            pc.getStats().then(function (stats) {
+                addRows(pcName, stats, Date.now());
+            }, function () {
+                // closed in the meantime, the next interval will tell
+            });
+        });
+    }
+
+    window._webrtcStats = {
+        columns: COLUMNS,
+
+        /**
+         * Returns the rows collected since the previous call and forgets
+         * them.
+         * @returns {{rows: Array, dropped: number}}
+         */
+        drain: function () {
+            var result = { rows: rows, dropped: dropped };
+
+            rows = [];
+            dropped = 0;
+
+            return result;
+        },
+
+        /**
+         * Stops collecting.
+         */
+        stop: function () {
+            window.clearInterval(this.timer);
+        },
+
+        timer: window.setInterval(collect, intervalMs || 1000)
+    };
+})(arguments[0]);
@@ -0,0 +1,773 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* jshint -W101 */
+
+/**
+ * A stand-in for jitsi-meet implementing the parts of <tt>APP</tt>,
+ * <tt>JitsiMeetJS</tt>, <tt>config</tt> and the DOM the torture tests use.
+ * Connecting, joining, ICE and the data channel are simulated with the
+ * delays of <tt>window.fakeMeetOptions</tt>, the participants of a room
+ * are shared through the server and every video is drawn on a canvas.
+ */
+(function () {
+    'use strict';
+
+    /**
+     * The options written by the server.
+     */
+    var options = window.fakeMeetOptions || {};
+
+    /**
+     * @returns {number} the current time, as used by jitsi-meet for the
+     * connection times
+     */
+    function now() {
+        return window.performance.now();
+    }
+
+    /**
+     * Returns a delay of the options with the jitter applied.
+     * @param {string} name the name of the option
+     * @returns {number} the delay in milliseconds
+     */
+    function delay(name) {
+        var base = options[name] || 0;
+        var jitter = options.jitter || 0;
+
+        return Math.max(0, base * (1 + jitter * (2 * Math.random() - 1)));
+    }
+
+    /**
+     * @returns {string} a random id like the MUC resources of jitsi-meet
+     */
+    function randomId() {
+        return Math.random().toString(16).substring(2, 10);
+    }
+
+    /**
+     * Simple event emitter.
+     * @constructor
+     */
+    function Emitter() {
+        this.listeners = {};
+    }
+
+    Emitter.prototype.addListener = function (type, listener) {
+        (this.listeners[type] || (this.listeners[type] = [])).push(listener);
+    };
+
+    Emitter.prototype.removeListener = function (type, listener) {
+        var listeners = this.listeners[type] || [];
+        var idx = listeners.indexOf(listener);
+        if (idx !== -1) {
+            listeners.splice(idx, 1);
+        }
+    };
+
+    Emitter.prototype.emit = function (type) {
+        var args = Array.prototype.slice.call(arguments, 1);
+        (this.listeners[type] || []).slice().forEach(function (listener) {
+            try {
+                listener.apply(null, args);
+            } catch (e) {
+                log('listener of ' + type + ' failed: ' + e);
+            }
+        });
+    };
+
+    /**
+     * The debug log returned by <tt>APP.conference.getLogs()</tt>.
+     */
+    var logs = { metadata: { app: 'fake-meet' }, log: [] };
+
+    /**
+     * Adds an entry to the debug log.
+     * @param {string} text the entry
+     */
+    function log(text) {
+        logs.log.push({ timestamp: Date.now(), text: text });
+        if (window.console) {
+            console.log('[fake-meet] ' + text);
+        }
+    }
+
+    /**
+     * A video drawn on a canvas, standing in for a camera or a received
+     * stream.
+     * @param {string} label the text drawn on the video
+     * @constructor
+     */
+    function FakeVideo(label) {
+        var frameRate = options.frameRate || 15;
+
+        this.label = label;
+        this.frame = 0;
+        this.hue = parseInt(label, 16) % 360 || 0;
+        this.canvas = document.createElement('canvas');
+        this.canvas.width = 320;
+        this.canvas.height = 180;
+        this.stream = this.canvas.captureStream
+            ? this.canvas.captureStream(frameRate) : null;
+        this.draw();
+        this.interval
+            = window.setInterval(this.draw.bind(this), 1000 / frameRate);
+    }
+
+    /**
+     * Draws the next frame.
+     */
+    FakeVideo.prototype.draw = function () {
+        var ctx = this.canvas.getContext('2d');
+        var width = this.canvas.width;
+        var height = this.canvas.height;
+
+        ctx.fillStyle = 'hsl(' + this.hue + ', 50%, 30%)';
+        ctx.fillRect(0, 0, width, height);
+        ctx.fillStyle = '#fff';
+        ctx.fillRect((this.frame * 4) % width, height - 20, 20, 20);
+        ctx.font = '20px sans-serif';
+        ctx.fillText(this.label, 10, 30);
+        ctx.fillText(String(this.frame), 10, 60);
+        this.frame++;
+    };
+
+    /**
+     * @returns {string} the id of the stream
+     */
+    FakeVideo.prototype.getId = function () {
+        return this.stream ? this.stream.id : this.label;
+    };
+
+    /**
+     * Shows the video in a video element.
+     * @param {HTMLVideoElement} video the element
+     */
+    FakeVideo.prototype.attach = function (video) {
+        if (this.stream) {
+            video.srcObject = this.stream;
+            var playing = video.play();
+            if (playing && playing.catch) {
+                playing.catch(function () {});
+            }
+        }
+    };
+
+    /**
+     * Stops drawing.
+     */
+    FakeVideo.prototype.dispose = function () {
+        window.clearInterval(this.interval);
+        if (this.stream) {
+            this.stream.getTracks().forEach(function (track) {
+                track.stop();
+            });
+        }
+    };
+
+    /**
+     * Parses the <tt>config.</tt> and <tt>interfaceConfig.</tt> overrides of
+     * the fragment, like jitsi-meet does.
+     */
+    function parseFragment() {
+        var hash = window.location.hash.substring(1);
+        if (!hash) {
+            return;
+        }
+        hash.split('&').forEach(function (param) {
+            var idx = param.indexOf('=');
+            var key = decodeURIComponent(idx === -1 ? param
+                : param.substring(0, idx));
+            var value = idx === -1 ? 'true'
+                : decodeURIComponent(param.substring(idx + 1));
+            var dot = key.indexOf('.');
+            var target = key.substring(0, dot);
+
+            if (target !== 'config' && target !== 'interfaceConfig') {
+                return;
+            }
+            try {
+                value = JSON.parse(value);
+            } catch (e) {
+                // a plain string
+            }
+            window[target][key.substring(dot + 1)] = value;
+        });
+    }
+
+    /**
+     * Minimal <tt>$</tt>, for the scripts the tests run after opening the
+     * page.
+     * @param {Array} elements the selected elements
+     * @constructor
+     */
+    function Query(elements) {
+        this.elements = elements;
+    }
+
+    Query.prototype.appendTo = function (target) {
+        var parent = typeof target === 'string'
+            ? document.querySelector(target) : target;
+        this.elements.forEach(function (el) {
+            parent.appendChild(el);
+        });
+        return this;
+    };
+
+    Query.prototype.toggleClass = function (name) {
+        this.elements.forEach(function (el) {
+            el.classList.toggle(name);
+        });
+        return this;
+    };
+
+    Query.prototype.addClass = function (name) {
+        this.elements.forEach(function (el) {
+            el.classList.add(name);
+        });
+        return this;
+    };
+
+    Query.prototype.removeClass = function (name) {
+        this.elements.forEach(function (el) {
+            el.classList.remove(name);
+        });
+        return this;
+    };
+
+    window.$ = window.jQuery = function (selector) {
+        if (typeof selector !== 'string') {
+            return new Query([ selector ]);
+        }
+        if (selector.charAt(0) === '<') {
+            var div = document.createElement('div');
+            div.innerHTML = selector;
+            return new Query(Array.prototype.slice.call(div.childNodes));
+        }
+        return new Query(
+            Array.prototype.slice.call(document.querySelectorAll(selector)));
+    };
+    window.jQuery.fx = { off: false };
+
+    window.config = {};
+    window.interfaceConfig = { DEFAULT_REMOTE_DISPLAY_NAME: 'Fellow Jitster' };
+    parseFragment();
+
+    var events = {
+        conference: {
+            CONFERENCE_JOINED: 'conference.joined',
+            CONFERENCE_LEFT: 'conference.left',
+            TRACK_ADDED: 'conference.trackAdded',
+            TRACK_REMOVED: 'conference.trackRemoved',
+            USER_JOINED: 'conference.userJoined',
+            USER_LEFT: 'conference.userLeft'
+        }
+    };
+
+    window.JitsiMeetJS = {
+        version: 'fake-meet',
+        events: events,
+        constants: {
+            participantConnectionStatus: {
+                ACTIVE: 'active',
+                INACTIVE: 'inactive',
+                INTERRUPTED: 'interrupted'
+            }
+        }
+    };
+
+    // without a room it is the welcome page, which loads the app and stays
+    var roomName = decodeURIComponent(window.location.pathname.substring(1));
+    var myId = randomId();
+    var joined = false;
+    var iceState = 'new';
+    var p2pState = 'new';
+    var localVideo = null;
+    var remotes = {};
+    var pinned = null;
+    var largeVideoId = null;
+    var stats = {};
+    var rtpCounters = {};
+    var connectionTimes = {};
+
+    var dataChannel = {
+        readyState: 'connecting',
+        send: function (message) {
+            var msg = JSON.parse(message);
+            if (msg.colibriClass === 'ClientHello') {
+                window.setTimeout(function () {
+                    room.rtc.emit(
+                        'rtc.datachannel.ServerHello',
+                        { colibriClass: 'ServerHello' });
+                }, delay('dataChannelDelay') / 2);
+            }
+        }
+    };
+
+    var room = {
+        xmpp: { connection: { connected: false } },
+        jvbJingleSession: null,
+        events: new Emitter(),
+        rtc: new Emitter(),
+        getConnectionTimes: function () {
+            return connectionTimes;
+        },
+        addEventListener: function (type, listener) {
+            room.events.addListener(type, listener);
+        },
+        removeEventListener: function (type, listener) {
+            room.events.removeListener(type, listener);
+        }
+    };
+    room.rtc.dataChannels = {
+        receivedServerHello: false,
+        _some: function (fn) {
+            return [ dataChannel ].some(fn);
+        }
+    };
+
+    var connection = {
+        times: {},
+        getConnectionTimes: function () {
+            return connection.times;
+        }
+    };
+
+    window.APP = {
+        connectionTimes: { 'index.loaded': now() },
+        connection: connection,
+        xmpp: {
+            myJid: function () {
+                return roomName + '@conference.fake-meet/' + myId;
+            },
+            getConnection: function () {
+                return room.xmpp.connection;
+            }
+        },
+        UI: {
+            dockToolbar: function () {},
+            getLargeVideoID: function () {
+                return largeVideoId;
+            },
+            getLargeVideo: function () {
+                return { containers: {} };
+            },
+            getRemoteVideoType: function (id) {
+                return remotes[id] ? 'camera' : undefined;
+            }
+        },
+        conference: {
+            _room: null,
+            membersCount: 1,
+            isJoined: function () {
+                return joined;
+            },
+            getConnectionState: function () {
+                return iceState;
+            },
+            getP2PConnectionState: function () {
+                return p2pState;
+            },
+            _startP2P: function () {
+                setP2PState('checking');
+                window.setTimeout(function () {
+                    if (p2pState === 'checking') {
+                        setP2PState('connected');
+                    }
+                }, delay('iceDelay'));
+            },
+            _stopP2P: function () {
+                setP2PState('closed');
+            },
+            getStats: function () {
+                return stats;
+            },
+            getMyUserId: function () {
+                return myId;
+            },
+            getNumberOfParticipantsWithTracks: function () {
+                return Object.keys(remotes).length;
+            },
+            getParticipantConnectionStatus: function (id) {
+                return remotes[id] && iceState === 'connected'
+                    ? 'active' : 'inactive';
+            },
+            isConnectionInterrupted: function () {
+                return iceState !== 'connected';
+            },
+            getPeerSSRCAudioLevel: function (id) {
+                if (!remotes[id] || iceState !== 'connected') {
+                    return null;
+                }
+                return 0.5 + 0.5 * Math.sin(now() / 300);
+            },
+            getLogs: function () {
+                return logs;
+            }
+        }
+    };
+
+    /**
+     * Sets the state of the JVB ICE connection and records its time.
+     * @param {string} state the new state
+     */
+    function setIceState(state) {
+        iceState = state;
+        connectionTimes['ice.state.' + state] = now();
+        log('ICE ' + state);
+    }
+
+    /**
+     * Sets the state of the P2P ICE connection.
+     * @param {string} state the new state
+     */
+    function setP2PState(state) {
+        p2pState = state;
+        log('P2P ICE ' + state);
+    }
+
+    /**
+     * Recomputes the stats, as jitsi-meet does periodically.
+     */
+    function updateStats() {
+        var connected = iceState === 'connected';
+        var jitter = options.jitter || 0;
+        var remoteCount = Object.keys(remotes).length;
+        var upload = connected
+            ? Math.round(options.bitrate * (1 + jitter * (Math.random() - 0.5)))
+            : 0;
+        var download = connected
+            ? Math.round(remoteCount * options.bitrate
+                * (1 + jitter * (Math.random() - 0.5)))
+            : 0;
+
+        stats = {
+            bitrate: {
+                upload: upload,
+                download: download,
+                audio: { upload: 0, download: 0 },
+                video: { upload: upload, download: download }
+            },
+            bandwidth: { upload: upload * 2, download: download * 2 },
+            packetLoss: { total: 0, upload: 0, download: 0 },
+            resolution: {},
+            transport: connected ? [ {
+                ip: '127.0.0.1:10000',
+                type: 'udp',
+                localip: '127.0.0.1:50000',
+                p2p: p2pState === 'connected'
+            } ] : []
+        };
+    }
+
+    /**
+     * Returns a positive SSRC for an id.
+     * @param {string} id the id of a participant
+     * @returns {number}
+     */
+    function ssrcOf(id) {
+        var hash = 0;
+        for (var i = 0; i < id.length; i++) {
+            hash = (hash * 31 + id.charCodeAt(i)) % 2147483647;
+        }
+        return hash + 1;
+    }
+
+    /**
+     * Adds the report of a video stream of the peer connection, with its
+     * counters advanced at the configured bitrate and frame rate.
+     * @param {Map} reports the reports
+     * @param {string} type 'inbound-rtp' or 'outbound-rtp'
+     * @param {number} ssrc the SSRC of the stream
+     * @param {number} time the time of the reports
+     */
+    function addRtpReport(reports, type, ssrc, time) {
+        var inbound = type === 'inbound-rtp';
+        var frameRate = options.frameRate || 15;
+        var jitter = options.jitter || 0;
+        var c = rtpCounters[type + ssrc];
+
+        if (!c) {
+            c = rtpCounters[type + ssrc]
+                = { time: time, bytes: 0, packets: 0, frames: 0 };
+        }
+        var seconds = iceState === 'connected' ? (time - c.time) / 1000 : 0;
+
+        c.time = time;
+        c.bytes += Math.round(seconds * options.bitrate * 125
+            * (1 + jitter * (Math.random() - 0.5)));
+        c.packets = Math.ceil(c.bytes / 1200);
+        c.frames += Math.round(seconds * frameRate);
+
+        var report = {
+            id: type + '_' + ssrc,
+            type: type,
+            ssrc: ssrc,
+            kind: 'video',
+            timestamp: time,
+            frameWidth: 640,
+            frameHeight: 360,
+            framesPerSecond: frameRate
+        };
+        if (inbound) {
+            report.bytesReceived = c.bytes;
+            report.packetsReceived = c.packets;
+            report.packetsLost = 0;
+            report.jitter = 0.005;
+            report.framesDecoded = c.frames;
+            report.framesDropped = 0;
+        } else {
+            report.bytesSent = c.bytes;
+            report.packetsSent = c.packets;
+            report.framesEncoded = c.frames;
+            reports.set('remote_' + ssrc, {
+                id: 'remote_' + ssrc,
+                type: 'remote-inbound-rtp',
+                ssrc: ssrc,
+                kind: 'video',
+                timestamp: time,
+                packetsLost: 0,
+                jitter: 0.005,
+                roundTripTime: 0.02
+            });
+        }
+        reports.set(report.id, report);
+    }
+
+    /**
+     * Simulates RTCPeerConnection.getStats() of the bridge connection: the
+     * local video stream and one received video stream per remote
+     * participant.
+     * @returns {Promise<Map>}
+     */
+    function getPeerConnectionStats() {
+        var reports = new Map();
+        var time = Date.now();
+
+        addRtpReport(reports, 'outbound-rtp', ssrcOf(myId), time);
+        Object.keys(remotes).forEach(function (id) {
+            addRtpReport(reports, 'inbound-rtp', ssrcOf(id), time);
+        });
+
+        return Promise.resolve(reports);
+    }
+
+    /**
+     * Shows the pinned participant, or else the first remote one, on the
+     * large video.
+     */
+    function updateLargeVideo() {
+        var id = pinned && (pinned === myId || remotes[pinned]) ? pinned
+            : Object.keys(remotes)[0] || myId;
+        if (id === largeVideoId) {
+            return;
+        }
+        largeVideoId = id;
+        var video = id === myId ? localVideo : remotes[id].video;
+        if (video) {
+            video.attach(document.getElementById('largeVideo'));
+        }
+    }
+
+    /**
+     * Adds a remote participant and its thumbnail.
+     * @param {string} id the id of the participant
+     */
+    function addRemote(id) {
+        var video = new FakeVideo(id);
+        var container = document.createElement('span');
+        container.id = 'participant_' + id;
+        container.className = 'videocontainer';
+        container.onclick = function () {
+            pinned = pinned === id ? null : id;
+            updateLargeVideo();
+        };
+        var element = document.createElement('video');
+        element.id = 'remoteVideo_' + video.getId();
+        element.autoplay = true;
+        element.muted = true;
+        container.appendChild(element);
+        document.getElementById('remoteVideos').appendChild(container);
+        video.attach(element);
+
+        remotes[id] = { video: video, container: container };
+        log('participant joined ' + id);
+        room.events.emit(events.conference.USER_JOINED, id);
+        room.events.emit(events.conference.TRACK_ADDED,
+            { getParticipantId: function () { return id; } });
+    }
+
+    /**
+     * Removes a remote participant.
+     * @param {string} id the id of the participant
+     */
+    function removeRemote(id) {
+        var remote = remotes[id];
+        delete remotes[id];
+        remote.video.dispose();
+        remote.container.parentNode.removeChild(remote.container);
+
+        log('participant left ' + id);
+        room.events.emit(events.conference.TRACK_REMOVED,
+            { getParticipantId: function () { return id; } });
+        room.events.emit(events.conference.USER_LEFT, id);
+    }
+
+    /**
+     * Sends a request to the room of the server.
+     * @param {string} params the query parameters
+     * @param {function} callback called with the ids of the members
+     * @param {boolean} sync whether to wait for the response
+     */
+    function roomRequest(params, callback, sync) {
+        var xhr = new XMLHttpRequest();
+        xhr.open('GET',
+            '/fake-meet/room/' + encodeURIComponent(roomName)
+                + '?id=' + myId + params,
+            !sync);
+        if (callback) {
+            xhr.onload = function () {
+                if (xhr.status === 200) {
+                    callback(JSON.parse(xhr.responseText));
+                }
+            };
+        }
+        xhr.send();
+    }
+
+    /**
+     * Updates the remote participants from the members of the room.
+     * @param {Array} members the ids of the members
+     */
+    function updateMembers(members) {
+        if (!joined) {
+            return;
+        }
+        var present = {};
+        members.forEach(function (id) {
+            present[id] = true;
+            if (id !== myId && !remotes[id]) {
+                addRemote(id);
+            }
+        });
+        Object.keys(remotes).forEach(function (id) {
+            if (!present[id]) {
+                removeRemote(id);
+            }
+        });
+        window.APP.conference.membersCount = Object.keys(remotes).length + 1;
+        updateLargeVideo();
+    }
+
+    /**
+     * Polls the members of the room while joined.
+     */
+    function pollRoom() {
+        if (!joined) {
+            return;
+        }
+        roomRequest('', updateMembers);
+        window.setTimeout(pollRoom, options.pollInterval || 500);
+    }
+
+    /**
+     * Simulates the jingle session and the ICE connection to the bridge.
+     */
+    function startSession() {
+        connectionTimes['session.initiate'] = now();
+        room.jvbJingleSession = {
+            peerconnection: {
+                getStats: getPeerConnectionStats,
+                localDescription: {
+                    sdp: 'v=0\r\n'
+                        + 'a=candidate:1 1 udp 2130706431 127.0.0.1 50000'
+                        + ' typ host generation 0\r\n'
+                }
+            }
+        };
+        setIceState('checking');
+
+        window.setTimeout(function () {
+            setIceState('connected');
+            updateStats();
+            window.setTimeout(function () {
+                connectionTimes['audio.render'] = now();
+                connectionTimes['video.render'] = now();
+            }, 1000 / (options.frameRate || 15));
+            window.setTimeout(function () {
+                dataChannel.readyState = 'open';
+                connectionTimes['data.channel.opened'] = now();
+                room.rtc.dataChannels.receivedServerHello = true;
+            }, delay('dataChannelDelay'));
+        }, delay('iceDelay'));
+    }
+
+    /**
+     * Joins the room.
+     */
+    function joinMuc() {
+        joined = true;
+        connectionTimes['muc.joined'] = now();
+        log('joined ' + roomName + ' as ' + myId);
+        room.events.emit(events.conference.CONFERENCE_JOINED);
+        pollRoom();
+        window.setTimeout(startSession, delay('sessionDelay'));
+    }
+
+    /**
+     * Connects and joins once the document is ready.
+     */
+    function start() {
+        window.APP.connectionTimes['document.ready'] = now();
+        if (!roomName) {
+            log('welcome page');
+            return;
+        }
+
+        localVideo = new FakeVideo(myId);
+        var element = document.createElement('video');
+        element.id = 'localVideo_' + localVideo.getId();
+        element.autoplay = true;
+        element.muted = true;
+        document.getElementById('localVideoWrapper').appendChild(element);
+        localVideo.attach(element);
+        document.getElementById('localVideoContainer').onclick = function () {
+            pinned = pinned === myId ? null : myId;
+            updateLargeVideo();
+        };
+        updateLargeVideo();
+
+        connection.times.connecting = now();
+        window.setTimeout(function () {
+            connection.times.connected = now();
+            room.xmpp.connection.connected = true;
+            window.APP.conference._room = room;
+            log('connected');
+            window.setTimeout(joinMuc, delay('mucJoinDelay'));
+        }, delay('connectDelay'));
+
+        window.setInterval(updateStats, options.statsInterval || 1000);
+    }
+
+    document.addEventListener('DOMContentLoaded', start);
+    window.addEventListener('beforeunload', function () {
+        if (joined) {
+            joined = false;
+            roomRequest('&leave=true', null, true);
+            room.events.emit(events.conference.CONFERENCE_LEFT);
+        }
+    });
+})();
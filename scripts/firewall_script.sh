@@ -1,27 +1,59 @@
 #!/usr/bin/env bash
 
+# The iptables commands blocking a port, one per line.
+block_rules() {
+echo "-I INPUT 1 -p udp --dport $1 -j DROP"
+echo "-I OUTPUT 1 -p udp --sport $1 -j DROP"
+echo "-I OUTPUT 1 -p tcp --dport 4443 -j DROP"
+}
+
+# The iptables commands unblocking a port, one per line.
+unblock_rules() {
+echo "-D INPUT -p udp --dport $1 -j DROP"
+echo "-D OUTPUT -p udp --sport $1 -j DROP"
+echo "-D OUTPUT -p tcp --dport 4443 -j DROP"
+}
+
+# Runs iptables commands read from stdin with a single sudo and lists the
+# rules once, numerically to avoid the reverse lookups.
+apply_rules() {
+sudo sh -c 'while read -r rule; do iptables $rule; done; iptables -L -n'
+}
+
 block_port() {
-sudo iptables -I INPUT 1 -p udp --dport $1 -j DROP
-sudo iptables -I OUTPUT 1 -p udp --sport $1 -j DROP
-sudo iptables -I OUTPUT 1 -p tcp --dport 4443 -j DROP
-sudo iptables -L
+block_rules $1 | apply_rules
 }
 
 unblock_port() {
-sudo iptables -D INPUT -p udp --dport $1 -j DROP
-sudo iptables -D OUTPUT -p udp --sport $1 -j DROP
-sudo iptables -D OUTPUT -p tcp --dport 4443 -j DROP
-sudo iptables -L
+unblock_rules $1 | apply_rules
+}
+
+# Applies any number of "--block-port {port}" and "--unblock-port {port}"
+# in order, with a single invocation of sudo.
+batch() {
+while [ $# -gt 0 ]; do
+    case $1 in
+        --block-port)
+            block_rules $2;;
+        --unblock-port)
+            unblock_rules $2;;
+        *)
+            echo "invalid command: $1" >&2;;
+    esac
+    shift 2
+done | apply_rules
 }
 
-echo "cmd $1 port $2";
+echo "cmd $*";
 
 case $1 in
     --block-port)
         block_port $2;;
     --unblock-port)
         unblock_port $2;;
+    --batch)
+        shift
+        batch "$@";;
     *)
         echo "invalid command: $1";;
 esac
-
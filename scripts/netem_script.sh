@@ -0,0 +1,28 @@
+#!/usr/bin/env bash
+
+# Applies network impairments with tc, see NetworkImpairment.
+#
+# --apply reads tc commands (without "tc") from stdin, one per line, and runs
+#         them all with a single sudo. Exits with 1 if any of them failed.
+# --show {interface} prints the qdiscs, classes and filters with their stats.
+# --clear {interface} removes all the impairments of the interface.
+
+case $1 in
+    --apply)
+        sudo sh -c 'status=0
+while read -r cmd; do
+    [ -z "$cmd" ] && continue
+    echo "tc $cmd"
+    tc $cmd || status=1
+done
+exit $status';;
+    --show)
+        sudo tc -s qdisc show dev $2
+        sudo tc -s class show dev $2
+        sudo tc filter show dev $2;;
+    --clear)
+        sudo tc qdisc del dev $2 root;;
+    *)
+        echo "invalid command: $1"
+        exit 1;;
+esac
@@ -27,6 +27,7 @@ import java.util.*;
  *
  * @author Pawel Domas
  */
+@FixtureRequirements(starts = 1)
 public class ActiveSpeakerTest
     extends TestCase
 {
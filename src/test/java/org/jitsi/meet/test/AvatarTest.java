@@ -24,6 +24,7 @@ import org.openqa.selenium.support.ui.*;
 /**
  * Tests for users' avatars.
  */
+@FixtureRequirements(starts = 2)
 public class AvatarTest
     extends TestCase
 {
@@ -15,6 +15,8 @@
  */
 package org.jitsi.meet.test;
 
+import org.jitsi.meet.test.perf.*;
+import org.jitsi.meet.test.tasks.*;
 import org.jitsi.meet.test.util.*;
 import org.openqa.selenium.*;
 import org.openqa.selenium.chrome.*;
@@ -28,8 +30,10 @@ import io.github.bonigarcia.wdm.*;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
 import static org.junit.Assert.*;
@@ -113,6 +117,12 @@ public class ConferenceFixture
     public static final String DISABLE_NOSANBOX_PARAM
         = "chrome.disable.nosanbox";
 
+    /**
+     * The property to run chrome headless.
+     */
+    public static final String ENABLE_HEADLESS_PARAM
+        = "chrome.enable.headless";
+
     /**
      * The property to change remote selenium grid URL, defaults to
      * http://localhost:4444/wd/hub if requiring remote browser and property
@@ -128,6 +138,19 @@ public class ConferenceFixture
     public static final String BROWSER_REMOTE_RESOURCE_PARENT_PATH_NAME_PROP
         = "browser.remote.resource.path";
 
+    /**
+     * The property to disable the recording of the latency of every
+     * WebDriver command (enabled by default).
+     */
+    public static final String INSTRUMENT_DRIVERS_PROP
+        = "jitsi-meet.webdriver.instrument";
+
+    /**
+     * The property with the prefix of the generated room names, so that the
+     * rooms of parallel runs can be told apart. Defaults to "torture".
+     */
+    public static final String ROOM_PREFIX_PROP = "jitsi-meet.room.prefix";
+
     /**
      * The available browser type value.
      */
@@ -199,6 +222,28 @@ public class ConferenceFixture
      */
     private static boolean thirdParticipantHungUp = false;
 
+    /**
+     * The version of lib-jitsi-meet of the last room opened.
+     */
+    private static volatile String libJitsiMeetVersion;
+
+    /**
+     * The number of drivers started which are not the owner, second or third
+     * participant.
+     */
+    private static final AtomicInteger otherDriversCount = new AtomicInteger();
+
+    /**
+     * Whether the chrome driver binary was set up.
+     */
+    private static boolean chromeDriverSetUp = false;
+
+    /**
+     * Guards the set up of the chrome driver binary, as participants can
+     * be started from several threads.
+     */
+    private static final Object chromeDriverSetUpLock = new Object();
+
     /**
      * Participant drivers enum.
      */
@@ -312,7 +357,8 @@ public class ConferenceFixture
         String roomName = currentRoomName;
         if(owner == null || roomParameter!= null)
         {
-            roomName = currentRoomName = "torture"
+            roomName = currentRoomName
+                = System.getProperty(ROOM_PREFIX_PROP, "torture")
                 + String.valueOf((int)(Math.random()*1000000));
 
             // we do not persist room params for now, in case of jwt
@@ -367,6 +413,9 @@ public class ConferenceFixture
         String participantName = getParticipantName(participant);
         System.err.println(participantName + " is opening URL: " + URL);
 
+        PhaseTimes.Scope scope
+            = PhaseTimes.enter(PhaseTimes.Phase.PAGE_LOAD);
+        try
         {
             // with chrome v52 we start getting error:
             // "Timed out receiving message from renderer" and
@@ -389,8 +438,13 @@ public class ConferenceFixture
                 System.err.println("TimeoutException while loading page, "
                     + "will skip it and continue:" + ex.getMessage());
             }
+
+            MeetUtils.waitForPageToLoad(participant);
+        }
+        finally
+        {
+            scope.end();
         }
-        MeetUtils.waitForPageToLoad(participant);
 
         // disables animations
         ((JavascriptExecutor) participant)
@@ -423,6 +477,17 @@ public class ConferenceFixture
             "return JitsiMeetJS.version;");
         System.err.println(
             participantName + " lib-jitsi-meet version: " + version);
+        if (version != null)
+            libJitsiMeetVersion = version;
+    }
+
+    /**
+     * Returns the version of lib-jitsi-meet of the last room opened.
+     * @return the version, <tt>null</tt> if no room was opened yet.
+     */
+    public static String getLibJitsiMeetVersion()
+    {
+        return libJitsiMeetVersion;
     }
 
     /**
@@ -436,7 +501,27 @@ public class ConferenceFixture
     private static WebDriver startDriver(BrowserType browser,
         Participant participant, boolean isRemote)
     {
-        WebDriver wd = startDriverInstance(browser, participant, isRemote);
+        String logName = getLogName(participant);
+
+        WebDriver wd;
+        PhaseTimes.Scope scope
+            = PhaseTimes.enter(PhaseTimes.Phase.BROWSER_STARTUP);
+        try
+        {
+            wd = startDriverInstance(browser, participant, logName, isRemote);
+        }
+        finally
+        {
+            scope.end();
+        }
+        if (Boolean.parseBoolean(
+                System.getProperty(INSTRUMENT_DRIVERS_PROP, "true")))
+        {
+            wd = InstrumentedDriver.wrap(wd, logName);
+        }
+
+        for (ParticipantPollingTask<?> task : getParticipantPollingTasks())
+            task.register(wd, logName);
 
         //wd.manage().timeouts().pageLoadTimeout(60, TimeUnit.SECONDS);
 
@@ -451,6 +536,8 @@ public class ConferenceFixture
      * Starts a <tt>WebDriver</tt> instance using default settings.
      * @param browser the browser type.
      * @param participant the participant we are creating a driver for.
+     * @param logName the name of the logs of the driver, unique for every
+     *                driver started at the same time.
      * @param isRemote <tt>true</tt> if the driver
      *                 to create is a RemoteWebDriver.
      * @return the <tt>WebDriver</tt> instance.
@@ -458,6 +545,7 @@ public class ConferenceFixture
     private static WebDriver startDriverInstance(
         BrowserType browser,
         Participant participant,
+        final String logName,
         boolean isRemote)
     {
         // by default we load chrome, but we can load safari or firefox
@@ -493,7 +581,7 @@ public class ConferenceFixture
             {
                 DesiredCapabilities caps = DesiredCapabilities.firefox();
                 caps.setCapability(FirefoxDriver.PROFILE, profile);
-                return new RemoteWebDriver(getRemoteDriverAddress(), caps);
+                return startRemoteDriver(caps);
             }
 
             return new FirefoxDriver(profile);
@@ -514,12 +602,7 @@ public class ConferenceFixture
         }
         else
         {
-            ChromeDriverManager.getInstance().setup();
-
-            System.setProperty("webdriver.chrome.verboseLogging", "true");
-            System.setProperty("webdriver.chrome.logfile",
-                FailureListener.createLogsFolder() +
-                "/chrome-console-" + getParticipantName(participant) + ".log");
+            setUpChromeDriver();
 
             DesiredCapabilities caps = DesiredCapabilities.chrome();
             LoggingPreferences logPrefs = new LoggingPreferences();
@@ -548,6 +631,9 @@ public class ConferenceFixture
             // fallback to software graphics, we try to disable gpu for now
             ops.addArguments("disable-gpu");
 
+            if (Boolean.getBoolean(ENABLE_HEADLESS_PARAM))
+                ops.addArguments("headless");
+
             String browserProp;
             if (participant == Participant.secondParticipantDriver)
                 browserProp = BROWSER_CHROME_BINARY_SECOND_NAME_PROP;
@@ -595,7 +681,7 @@ public class ConferenceFixture
 
             if (isRemote)
             {
-                return new RemoteWebDriver(getRemoteDriverAddress(), caps);
+                return startRemoteDriver(caps);
             }
 
             try
@@ -616,7 +702,9 @@ public class ConferenceFixture
                                 public ChromeDriver call() throws Exception
                                 {
                                     long start = System.currentTimeMillis();
-                                    ChromeDriver resDr = new ChromeDriver(ops);
+                                    ChromeDriver resDr = new ChromeDriver(
+                                        createChromeDriverService(logName),
+                                        ops);
                                     System.err.println(
                                         "ChromeDriver created for:"
                                         + (System.currentTimeMillis() - start)
@@ -649,10 +737,58 @@ public class ConferenceFixture
 
             // keep the old code
             System.err.println("Just create ChromeDriver, may hang!");
-            return new ChromeDriver(ops);
+            return new ChromeDriver(createChromeDriverService(logName), ops);
         }
     }
 
+    /**
+     * Sets up the chrome driver binary, once for all the participants.
+     */
+    private static void setUpChromeDriver()
+    {
+        synchronized (chromeDriverSetUpLock)
+        {
+            if (!chromeDriverSetUp)
+            {
+                ChromeDriverManager.getInstance().setup();
+                chromeDriverSetUp = true;
+            }
+        }
+    }
+
+    /**
+     * Creates the chrome driver service of a driver, which writes its
+     * verbose log to its own file, so that drivers started at the same time
+     * do not share one.
+     * @param logName the name of the logs of the driver.
+     * @return the service.
+     */
+    private static ChromeDriverService createChromeDriverService(
+        String logName)
+    {
+        return new ChromeDriverService.Builder()
+            .usingAnyFreePort()
+            .withVerbose(true)
+            .withLogFile(new File(FailureListener.createLogsFolder(),
+                "chrome-console-" + logName + ".log"))
+            .build();
+    }
+
+    /**
+     * Starts a remote driver, placed by {@link GridPlacement} if enabled or
+     * on the remote driver address otherwise.
+     * @param caps the capabilities of the browser.
+     * @return the <tt>WebDriver</tt> instance.
+     */
+    private static WebDriver startRemoteDriver(DesiredCapabilities caps)
+    {
+        GridPlacement placement = GridPlacement.getInstance();
+
+        return placement != null
+            ? placement.start(caps)
+            : new RemoteWebDriver(getRemoteDriverAddress(), caps);
+    }
+
     /**
      * Returns the remote driver address or the default one.
      * @return the remote driver address or the default one.
@@ -765,24 +901,51 @@ public class ConferenceFixture
      */
     public static WebDriver startParticipant(String fragment)
     {
-        System.err.println("Starting participant");
+        return startParticipant(currentRoomName, fragment);
+    }
 
-        BrowserType browser
-            = BrowserType.valueOfString(
-                System.getProperty(BROWSER_OWNER_NAME_PROP));
-        
-        WebDriver participant = 
-            startDriver(browser,
-                Participant.otherParticipantDriver,
-                Boolean.getBoolean(BROWSER_OWNER_ISREMOTE_NAME_PROP));
+    /**
+     * Starts a new participant in a room.
+     * @param roomName the room name to join
+     * @param fragment A string to be added to the URL as a parameter (i.e.
+     * prefixed with a '&').
+     * @return the {@code WebDriver} which was started.
+     * NOTE: Uses the browser type set for the owner.
+     */
+    public static WebDriver startParticipant(String roomName, String fragment)
+    {
+        WebDriver participant = startParticipantDriver();
 
-        openRoom(participant, currentRoomName, fragment, browser);
+        openRoom(participant, roomName, fragment,
+            BrowserType.valueOfString(
+                System.getProperty(BROWSER_OWNER_NAME_PROP)));
 
         ((JavascriptExecutor) participant)
             .executeScript("document.title='Participant'");
 
         return participant;
     }
+
+    /**
+     * Starts the driver of a new participant, without opening a room, so
+     * that several participants can be started first and then join at the
+     * same time. Safe to call from several threads with chrome or remote
+     * browsers: every driver gets its own chrome log.
+     * @return the {@code WebDriver} which was started.
+     * NOTE: Uses the browser type set for the owner.
+     */
+    public static WebDriver startParticipantDriver()
+    {
+        System.err.println("Starting participant");
+
+        BrowserType browser
+            = BrowserType.valueOfString(
+                System.getProperty(BROWSER_OWNER_NAME_PROP));
+
+        return startDriver(browser,
+            Participant.otherParticipantDriver,
+            Boolean.getBoolean(BROWSER_OWNER_ISREMOTE_NAME_PROP));
+    }
     
     /**
      * Opens URL using new WebDriver.
@@ -873,6 +1036,9 @@ public class ConferenceFixture
         if(hangup)
             close(participant);
 
+        for (ParticipantPollingTask<?> task : getParticipantPollingTasks())
+            task.unregister(participant);
+
         try
         {
             participant.quit();
@@ -884,6 +1050,10 @@ public class ConferenceFixture
             t.printStackTrace();
         }
 
+        GridPlacement placement = GridPlacement.getInstance();
+        if (placement != null)
+            placement.release(participant);
+
         String instanceName = getParticipantName(participant);
         System.err.println("Closed " + instanceName + ".");
 
@@ -1122,6 +1292,59 @@ public class ConferenceFixture
         }
     }
 
+    /**
+     * Returns the enabled background tasks which poll every started
+     * participant.
+     * @return the enabled participant polling tasks.
+     */
+    private static List<ParticipantPollingTask<?>> getParticipantPollingTasks()
+    {
+        List<ParticipantPollingTask<?>> tasks = new LinkedList<>();
+
+        BrowserLogDrainer browserLogDrainer = BrowserLogDrainer.getInstance();
+        if (browserLogDrainer != null)
+            tasks.add(browserLogDrainer);
+
+        MeetLogDrainer meetLogDrainer = MeetLogDrainer.getInstance();
+        if (meetLogDrainer != null)
+            tasks.add(meetLogDrainer);
+
+        ScreenshotFlightRecorder flightRecorder
+            = ScreenshotFlightRecorder.getInstance();
+        if (flightRecorder != null)
+            tasks.add(flightRecorder);
+
+        WebRTCStatsCollector statsCollector
+            = WebRTCStatsCollector.getInstance();
+        if (statsCollector != null)
+            tasks.add(statsCollector);
+
+        FreezeDetector freezeDetector = FreezeDetector.getInstance();
+        if (freezeDetector != null)
+            tasks.add(freezeDetector);
+
+        return tasks;
+    }
+
+    /**
+     * Returns the name used for the log files of a participant. The owner,
+     * second and third participants always use the same name, so their logs
+     * continue in the same files after a restart, all other drivers get a
+     * unique name.
+     * @param p the participant.
+     * @return the name used for the log files of the participant.
+     */
+    private static String getLogName(Participant p)
+    {
+        if (p == Participant.otherParticipantDriver
+            || p == Participant.otherDriver)
+        {
+            return p.name() + "-" + otherDriversCount.incrementAndGet();
+        }
+
+        return getParticipantName(p);
+    }
+
     /**
      * Restarts the two participants so we clear states of this test.
      */
@@ -39,6 +39,7 @@ import static org.junit.Assert.fail;
  *
  * @author Pawel Domas
  */
+@FixtureRequirements(fresh = true, destructive = true)
 @RunWith(JUnit4.class)
 public class ConferenceMigrationTest
 {
@@ -16,7 +16,10 @@
 package org.jitsi.meet.test;
 
 import java.util.*;
+import java.util.concurrent.*;
 
+import com.google.common.util.concurrent.*;
+import org.jitsi.meet.test.perf.*;
 import org.jitsi.meet.test.util.*;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.*;
@@ -26,75 +29,282 @@ import junit.framework.*;
 /**
  * This test is going to get the connection times measurements from Jitsi Meet
  * and fail if they are too slow.
- * 
+ *
+ * The second participant joins {@link #SAMPLES_PNAME} times. For every step
+ * the p50, p90, p99 and max of the time since the previous step are compared
+ * with the thresholds of the step, and recorded with
+ * {@link BenchmarkResults} (benchmark <tt>connectionTime</tt>). The p50
+ * thresholds are defined below, any threshold can be set with
+ * <tt>jitsi-meet.connectionTime.threshold.{STEP}.{p50|p90|p99|max}</tt>,
+ * e.g. <tt>jitsi-meet.connectionTime.threshold.ICE_CONNECTED.p99=1500</tt>.
+ *
+ * Setting {@link #CONCURRENCY_PNAME} instead measures how the join times
+ * degrade under concurrent joins: for every concurrency level K, K new
+ * participants are started and then join at the same time, each in its own
+ * room with a host (or all in the room of the owner with
+ * {@link #SAME_ROOM_PNAME}). The percentiles of every step and of the whole
+ * join per level are recorded (benchmark <tt>joinConcurrency</tt>) without
+ * thresholds.
+ *
+ * Setting {@link #CACHE_MODES_PNAME} instead compares the join times with
+ * a cold cache (a new browser profile), a warm cache (the same profile
+ * rejoining) and a warm cache after a config-only change (the same profile
+ * loading a new document while the bundles stay cached). The percentiles of
+ * every step per mode are recorded (benchmark <tt>cacheConnectionTime</tt>)
+ * without thresholds.
+ *
+ * Every sample is read with a single call to {@link #TIMELINE_SCRIPT}, which
+ * also returns the navigation timing and the slowest resources of the page.
+ * Their load times are recorded as well (benchmarks
+ * <tt>navigationTiming</tt> and <tt>resourceTiming</tt>), to tell which
+ * asset slows down <tt>INDEX_LOADED</tt> and <tt>DOCUMENT_READY</tt>.
  *
  * @author Hristo Terezov
  */
+@FixtureRequirements(
+    starts = ConnectionTimeTest.DEFAULT_SAMPLES,
+    startsProperty = ConnectionTimeTest.SAMPLES_PNAME)
 public class ConnectionTimeTest
     extends TestCase
 {
     /**
-     * Number of conferences that are going to be started and closed to 
-     * gather the data.
+     * The name of the property with the number of conferences that are going
+     * to be started and closed to gather the data.
+     */
+    public static final String SAMPLES_PNAME
+        = "jitsi-meet.connectionTime.samples";
+
+    /**
+     * The prefix of the names of the properties with the thresholds, followed
+     * by the name of the step, a dot and the name of the percentile.
+     */
+    public static final String THRESHOLD_PNAME_PREFIX
+        = "jitsi-meet.connectionTime.threshold.";
+
+    /**
+     * The name of the property with the comma separated concurrency levels,
+     * e.g. <tt>1,2,4,8</tt>, which enables the concurrent mode.
+     */
+    public static final String CONCURRENCY_PNAME
+        = "jitsi-meet.connectionTime.concurrency";
+
+    /**
+     * The name of the property which makes the concurrent joiners join the
+     * room of the owner instead of separate rooms.
+     */
+    public static final String SAME_ROOM_PNAME
+        = "jitsi-meet.connectionTime.sameRoom";
+
+    /**
+     * The name of the property with the number of rounds of concurrent joins
+     * per concurrency level.
+     */
+    public static final String ROUNDS_PNAME
+        = "jitsi-meet.connectionTime.rounds";
+
+    /**
+     * The name of the property with the comma separated cache modes, e.g.
+     * <tt>cold,warm,config</tt>, which enables the cache mode.
+     */
+    public static final String CACHE_MODES_PNAME
+        = "jitsi-meet.connectionTime.cacheModes";
+
+    /**
+     * The name of the property with the number of slowest resources of every
+     * sample which are reported.
      */
-    private static int NUMBER_OF_CONFERENCES = 10;
+    public static final String RESOURCES_PNAME
+        = "jitsi-meet.connectionTime.resources";
+
+    /**
+     * The default number of conferences.
+     */
+    static final int DEFAULT_SAMPLES = 10;
+
+    /**
+     * The default number of slowest resources reported per sample.
+     */
+    private static final int DEFAULT_RESOURCES = 10;
+
+    /**
+     * The percentiles which are reported and can have a threshold.
+     */
+    private enum Percentile
+    {
+        P50("p50", 0.5),
+        P90("p90", 0.9),
+        P99("p99", 0.99),
+        MAX("max", 1.0);
+
+        /**
+         * The name in the properties and the results.
+         */
+        private final String name;
+
+        /**
+         * The quantile, between 0 and 1.
+         */
+        private final double quantile;
+
+        /**
+         * Construct new Percentile instance.
+         * @param name the name in the properties and the results.
+         * @param quantile the quantile.
+         */
+        Percentile(String name, double quantile)
+        {
+            this.name = name;
+            this.quantile = quantile;
+        }
+
+        /**
+         * Returns the percentile of sorted values, using the nearest rank.
+         * @param sorted the values, sorted.
+         * @return the percentile.
+         */
+        public double of(double[] sorted)
+        {
+            int rank = (int) Math.ceil(quantile * sorted.length);
+
+            return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+        }
+    }
     
     /**
-     * Script that checks if the mandatory objects that are going to be used to
-     * get the connection time measurements are created or not. 
+     * The states of the browser cache the join times are compared in.
+     */
+    private enum CacheMode
+    {
+        /**
+         * A new browser profile, nothing is cached.
+         */
+        COLD("cold"),
+
+        /**
+         * The same profile rejoining, everything cacheable is cached.
+         */
+        WARM("warm"),
+
+        /**
+         * The same profile after a config-only change. The config is
+         * inlined in the document, so a new document is loaded while the
+         * bundles stay cached.
+         */
+        CONFIG("config");
+
+        /**
+         * The name in the properties and the results.
+         */
+        private final String name;
+
+        /**
+         * Construct new CacheMode instance.
+         * @param name the name in the properties and the results.
+         */
+        CacheMode(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Returns the mode with a name.
+         * @param name the name in the properties.
+         * @return the mode.
+         */
+        public static CacheMode of(String name)
+        {
+            for (CacheMode mode : values())
+            {
+                if (mode.name.equalsIgnoreCase(name.trim()))
+                    return mode;
+            }
+
+            throw new IllegalArgumentException("Unknown cache mode: " + name);
+        }
+    }
+
+    /**
+     * Script that returns the whole timeline of the page in one call: the
+     * connection times of jitsi-meet, of the connection and of the room,
+     * whether the objects holding them are created, the navigation timing
+     * and the slowest resources (up to the first argument) as name without
+     * query, duration and transferred bytes.
      */
-    private static final String CHECK_OBJECTS_CREATED_SCRIPT 
-        = "return (APP && APP.connection "
-            + "&& APP.conference && APP.conference._room)? true : false";
+    private static final String TIMELINE_SCRIPT
+        = "var t = { ready: false };"
+        + "try {"
+        + "  t.app = APP.connectionTimes;"
+        + "  t.connection = APP.connection"
+        + "    ? APP.connection.getConnectionTimes() : null;"
+        + "  t.room = APP.conference && APP.conference._room"
+        + "    ? APP.conference._room.getConnectionTimes() : null;"
+        + "  t.ready = !!(t.connection && t.room);"
+        + "} catch (e) {}"
+        + "var p = window.performance;"
+        + "var n = p.getEntriesByType"
+        + "  && p.getEntriesByType('navigation')[0];"
+        + "if (!n && p.timing) {"
+        + "  n = {};"
+        + "  for (var k in p.timing) {"
+        + "    if (typeof p.timing[k] === 'number')"
+        + "      n[k] = p.timing[k]"
+        + "        ? p.timing[k] - p.timing.navigationStart : 0;"
+        + "  }"
+        + "}"
+        + "if (n) {"
+        + "  t.navigation = {"
+        + "    dns: n.domainLookupEnd - n.domainLookupStart,"
+        + "    connect: n.connectEnd - n.connectStart,"
+        + "    ttfb: n.responseStart - n.requestStart,"
+        + "    download: n.responseEnd - n.responseStart,"
+        + "    domInteractive: n.domInteractive,"
+        + "    domContentLoaded: n.domContentLoadedEventEnd,"
+        + "    load: n.loadEventEnd };"
+        + "}"
+        + "t.resources = (p.getEntriesByType"
+        + "    ? p.getEntriesByType('resource') : [])"
+        + "  .map(function (r) {"
+        + "    return [ r.name.replace(/[?#].*$/, ''), r.duration,"
+        + "      r.transferSize || 0 ]; })"
+        + "  .sort(function (a, b) { return b[1] - a[1]; })"
+        + "  .slice(0, arguments[0]);"
+        + "return t;";
 
     /**
      * Enum that represents the types of time measurements. We are storing the
-     * scripts that is used to get the value for that type, a previous step and
-     * threshold.
+     * map of the timeline and the key of the value for that type, a previous
+     * step and threshold.
      */
     private enum TimeMeasurements
     {
-        INDEX_LOADED("return APP.connectionTimes['index.loaded']", null, 200.0),
+        INDEX_LOADED("app", "index.loaded", null, 200.0),
         
-        DOCUMENT_READY("return APP.connectionTimes['document.ready']", 
-            INDEX_LOADED, 600.0),
+        DOCUMENT_READY("app", "document.ready", INDEX_LOADED, 600.0),
         
         CONNECTION_ATTACHING(
-            "return APP.connection.getConnectionTimes()['attaching']",
-            DOCUMENT_READY, 500.0),
+            "connection", "attaching", DOCUMENT_READY, 500.0),
         
         CONNECTION_ATTACHED(
-            "return APP.connection.getConnectionTimes()['attached']", 
-            CONNECTION_ATTACHING, 5.0),
+            "connection", "attached", CONNECTION_ATTACHING, 5.0),
         
         CONNECTION_CONNECTING(
-            "return APP.connection.getConnectionTimes()['connecting']", 
-            DOCUMENT_READY, 500.0),
+            "connection", "connecting", DOCUMENT_READY, 500.0),
         
         CONNECTION_CONNECTED(
-            "return APP.connection.getConnectionTimes()['connected']", 
-            CONNECTION_CONNECTING, 1000.0),
+            "connection", "connected", CONNECTION_CONNECTING, 1000.0),
         
-        MUC_JOINED(
-            "return APP.conference._room.getConnectionTimes()['muc.joined']",
-            null, 500.0),
+        MUC_JOINED("room", "muc.joined", null, 500.0),
         
-        SESSION_INITIATE("return APP.conference._room.getConnectionTimes()"
-            + "['session.initiate']", MUC_JOINED, 600.0),
+        SESSION_INITIATE("room", "session.initiate", MUC_JOINED, 600.0),
         
-        ICE_CHECKING("return APP.conference._room.getConnectionTimes()"
-            + "['ice.state.checking']", SESSION_INITIATE, 150.0),
+        ICE_CHECKING(
+            "room", "ice.state.checking", SESSION_INITIATE, 150.0),
         
-        ICE_CONNECTED("return APP.conference._room.getConnectionTimes()"
-            + "['ice.state.connected']", ICE_CHECKING, 500.0),
+        ICE_CONNECTED("room", "ice.state.connected", ICE_CHECKING, 500.0),
         
-        AUDIO_RENDER(
-            "return APP.conference._room.getConnectionTimes()['audio.render']",
-            ICE_CONNECTED, 200.0),
+        AUDIO_RENDER("room", "audio.render", ICE_CONNECTED, 200.0),
         
-        VIDEO_RENDER(
-            "return APP.conference._room.getConnectionTimes()['video.render']",
-            ICE_CONNECTED, 200.0),
+        VIDEO_RENDER("room", "video.render", ICE_CONNECTED, 200.0),
 
         // The data channel should open about 2 RTTs after DTLS completes, so
         // this threshold should go down to something like 200ms.
@@ -102,17 +312,20 @@ public class ConnectionTimeTest
         // delay of about 3 seconds. Another bug, recently fixed, would cause
         // a delay of ~15 seconds, which is why we now use a threshold of 4s.
         DATA_CHANNEL_OPENED(
-            "return APP.conference._room.getConnectionTimes()"
-                + "['data.channel.opened']",
-            ICE_CONNECTED, 4000.0);
+            "room", "data.channel.opened", ICE_CONNECTED, 4000.0);
+
+        /**
+         * The map of the timeline with the value of this type.
+         */
+        private String source;
 
         /**
-         * The script used to get the data for a time measurement type.
+         * The key of the value in the map.
          */
-        private String script;
+        private String key;
         
         /**
-         * Max time between the previous measurement and 
+         * Max median time between the previous measurement and
          * the current one
          */
         private Double threshold;
@@ -131,27 +344,35 @@ public class ConnectionTimeTest
         
         /** 
          * Construct new TimeMeasurements instance.
-         * @param script The script used to get the data for a time 
-         * measurement type.
+         * @param source the map of the timeline with the value.
+         * @param key the key of the value in the map.
          * @param prevStep previous measurement.
          * @param threshold Max time between the previous measurement and 
          * the current one 
          */
-        TimeMeasurements(String script, TimeMeasurements prevStep,
-            Double threshold)
+        TimeMeasurements(String source, String key,
+            TimeMeasurements prevStep, Double threshold)
         {
-            this.script = script;
+            this.source = source;
+            this.key = key;
             this.prevStep = prevStep;
             this.threshold = threshold;
         }
         
         /**
-         * Returns the threshold property.
-         * @return the threshold property.
+         * Returns the threshold of a percentile, from the properties or the
+         * threshold property for the median.
+         * @param p the percentile.
+         * @return the threshold, <tt>NaN</tt> if there is none.
          */
-        public Double getThreshold()
+        public double getThreshold(Percentile p)
         {
-            return threshold;
+            String value = System.getProperty(
+                THRESHOLD_PNAME_PREFIX + name() + "." + p.name);
+            if (value != null)
+                return Double.parseDouble(value);
+
+            return p == Percentile.P50 ? threshold : Double.NaN;
         }
         
         /**
@@ -164,15 +385,17 @@ public class ConnectionTimeTest
         }
         
         /**
-         * Executes the script property for passed WebDriver and returns
-         * time measurement
-         * @param w participant
-         * @return time in ms for the measurement.
+         * Returns the time measurement from a timeline returned by
+         * {@link #TIMELINE_SCRIPT}.
+         * @param timeline the timeline.
+         * @return time in ms for the measurement, <tt>null</tt> if not
+         * available.
          */
-        public Double execute(WebDriver w) 
+        public Double get(Map<?, ?> timeline)
         {
-            Object res = ((JavascriptExecutor) w).executeScript(script);
-            
+            Object map = timeline.get(source);
+            Object res = map instanceof Map ? ((Map<?, ?>) map).get(key) : null;
+
             if(res instanceof Number)
                 return ((Number)res).doubleValue();
             else if(res == null)
@@ -181,27 +404,6 @@ public class ConnectionTimeTest
                 fail("Wrong type returned from selenium!");
             return null;
         }
-        
-        /**
-         * Executes CHECK_OBJECTS_CREATED_SCRIPT for passed WebDriver and 
-         * returns the result. That way we can check if all objects that are 
-         * used to get the time measurements are created or not. 
-         * @param w participant
-         * @return true if ready and false if not.
-         */
-        public static Boolean isReadyToStart(WebDriver w)
-        {
-            Object res = ((JavascriptExecutor) w).executeScript(
-                CHECK_OBJECTS_CREATED_SCRIPT);
-            
-            if(res instanceof Boolean)
-                return (Boolean)res;
-            else 
-                fail("Wrong type returned from selenium!");
-            return null;
-        }
-        
-        
     }
 
     /**
@@ -224,10 +426,28 @@ public class ConnectionTimeTest
     private TimeMeasurements timeMeasurementToProcess = null;
     
     /**
-     * Property used to store the gathered data.
+     * Property used to store the gathered data, <tt>NaN</tt> for the
+     * measurements which were not available.
      */
-    private static Double[][] data 
-        = new Double[TimeMeasurements.length][NUMBER_OF_CONFERENCES];
+    private static double[][] data;
+
+    /**
+     * The load times of the slowest resources of the samples in
+     * microseconds, by name.
+     */
+    private static final Map<String, LatencyHistogram> resourceTimes
+        = new TreeMap<>();
+
+    /**
+     * The largest transferred bytes of the slowest resources, by name.
+     */
+    private static final Map<String, Long> resourceBytes = new HashMap<>();
+
+    /**
+     * The navigation timing of the samples in microseconds, by metric.
+     */
+    private static final Map<String, LatencyHistogram> navigationTimes
+        = new LinkedHashMap<>();
     
     /**
      * Constructs test
@@ -247,6 +467,18 @@ public class ConnectionTimeTest
     public static junit.framework.Test suite()
     {
         TestSuite suite = new TestSuite();
+        if (System.getProperty(CONCURRENCY_PNAME) != null)
+        {
+            suite.addTest(
+                new ConnectionTimeTest("collectConcurrentData", null));
+            return suite;
+        }
+        if (System.getProperty(CACHE_MODES_PNAME) != null)
+        {
+            suite.addTest(new ConnectionTimeTest("collectCacheData", null));
+            return suite;
+        }
+
         suite.addTest(
             new ConnectionTimeTest("collectData", null));
         suite.addTest(
@@ -287,6 +519,12 @@ public class ConnectionTimeTest
         case "collectData":
             collectData();
             break;
+        case "collectConcurrentData":
+            collectConcurrentData();
+            break;
+        case "collectCacheData":
+            collectCacheData();
+            break;
         case "checkConnectMethodAndValidateData":
             checkConnectMethodAndValidateData();
             break;
@@ -327,49 +565,195 @@ public class ConnectionTimeTest
     }
     
     /**
-     * Fails if the array has null elements.
+     * Fails if the array has missing elements.
      * @param arr the array to be checked
-     * @returns true if there aren't any null elements and false otherwise.
      */
-    private boolean checkForNullInArray(Double[] arr)
+    private static void checkForNullInArray(double[] arr)
     {
         for (int i = 0; i < arr.length; i++)
         {
-            if(arr[i] == null)
-            {
+            if (Double.isNaN(arr[i]))
                 fail("Null value measured");
-                return false;
-            }
         }
-        return true;
     }
 
     /**
-     * Gets the time measurements for NUMBER_OF_CONFERENCES different 
+     * Returns the number of samples, failing if it is not positive, as the
+     * percentiles of no sample cannot be compared with the thresholds.
+     * @return the value of {@link #SAMPLES_PNAME}.
+     */
+    private static int getSamples()
+    {
+        int samples = Integer.getInteger(SAMPLES_PNAME, DEFAULT_SAMPLES);
+        assertTrue(
+            SAMPLES_PNAME + " must be at least 1, was " + samples,
+            samples > 0);
+
+        return samples;
+    }
+
+    /**
+     * Gets the time measurements for {@link #SAMPLES_PNAME} different
      * conferences and stores them in data array. Initializes
      * connectingTime and connectedTime that are going to be used later. 
      */
     public static void collectData() 
     {
-        for(int i = 0; i < NUMBER_OF_CONFERENCES; i++)
+        int samples = getSamples();
+        data = new double[TimeMeasurements.length][samples];
+
+        for(int i = 0; i < samples; i++)
         {
             refreshSecondParticipant();
             
-            waitForMeasurements();
-            
+            waitForMeasurements(ConferenceFixture.getSecondParticipant(), 10);
+
+            Map<?, ?> timeline
+                = getTimeline(ConferenceFixture.getSecondParticipant());
+            addPageTimings(timeline, "");
+            double[] values = getMeasurements(timeline);
+            StringBuilder line = new StringBuilder("Sample " + i + ":");
             for(TimeMeasurements s : TimeMeasurements.values())
             {
-                data[s.ordinal()][i] 
-                    = s.execute(ConferenceFixture.getSecondParticipant());
-                System.err.println(s + ": " + data[s.ordinal()][i] );
+                data[s.ordinal()][i] = values[s.ordinal()];
+                line.append(' ').append(s).append('=')
+                    .append(values[s.ordinal()]);
             }
-            
+            System.err.println(line);
         }
-        
-        for(TimeMeasurements s : TimeMeasurements.values())
+
+        recordPageTimings("");
+    }
+
+    /**
+     * Returns the whole timeline of a participant in a single call.
+     * @param participant the participant.
+     * @return the timeline returned by {@link #TIMELINE_SCRIPT}.
+     */
+    private static Map<?, ?> getTimeline(WebDriver participant)
+    {
+        Object timeline = ((JavascriptExecutor) participant).executeScript(
+            TIMELINE_SCRIPT,
+            Integer.getInteger(RESOURCES_PNAME, DEFAULT_RESOURCES));
+
+        return timeline instanceof Map
+            ? (Map<?, ?>) timeline : Collections.emptyMap();
+    }
+
+    /**
+     * Returns the time measurements of a timeline.
+     * @param timeline the timeline.
+     * @return the measurements by ordinal, <tt>NaN</tt> when missing.
+     */
+    private static double[] getMeasurements(Map<?, ?> timeline)
+    {
+        double[] values = new double[TimeMeasurements.length];
+        for (TimeMeasurements s : TimeMeasurements.values())
+        {
+            Double value = s.get(timeline);
+            values[s.ordinal()] = value == null ? Double.NaN : value;
+        }
+
+        return values;
+    }
+
+    /**
+     * Adds the navigation timing and the slowest resources of a timeline
+     * to the page timings which will be recorded.
+     * @param timeline the timeline.
+     * @param prefix the prefix of the names of the timings.
+     */
+    private static synchronized void addPageTimings(
+        Map<?, ?> timeline, String prefix)
+    {
+        Object navigation = timeline.get("navigation");
+        if (navigation instanceof Map)
+        {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) navigation).entrySet())
+            {
+                if (e.getValue() instanceof Number)
+                {
+                    getHistogram(navigationTimes, prefix + e.getKey())
+                        .record(toMicros((Number) e.getValue()));
+                }
+            }
+        }
+
+        Object resources = timeline.get("resources");
+        if (resources instanceof List)
+        {
+            for (Object o : (List<?>) resources)
+            {
+                List<?> resource = (List<?>) o;
+                String name = prefix + resource.get(0);
+                long bytes = ((Number) resource.get(2)).longValue();
+                Long max = resourceBytes.get(name);
+
+                getHistogram(resourceTimes, name)
+                    .record(toMicros((Number) resource.get(1)));
+                resourceBytes.put(
+                    name, max == null ? bytes : Math.max(max, bytes));
+            }
+        }
+    }
+
+    /**
+     * Records the page timings added since the previous call with
+     * {@link BenchmarkResults}: the navigation timing (benchmark
+     * <tt>navigationTiming</tt>) and the load time of every asset which was
+     * among the slowest resources of a sample (benchmark
+     * <tt>resourceTiming</tt>), and forgets them.
+     * @param prefix the prefix of the names of the measurements.
+     */
+    private static synchronized void recordPageTimings(String prefix)
+    {
+        for (Map.Entry<String, LatencyHistogram> e
+                : navigationTimes.entrySet())
+        {
+            BenchmarkResults.record(
+                "navigationTiming", prefix + e.getKey(), e.getValue(), null);
+        }
+        for (Map.Entry<String, LatencyHistogram> e : resourceTimes.entrySet())
+        {
+            Map<String, Number> extra = new LinkedHashMap<>();
+            extra.put("transferBytes", resourceBytes.get(e.getKey()));
+            BenchmarkResults.record(
+                "resourceTiming", prefix + e.getKey(), e.getValue(), extra);
+        }
+
+        navigationTimes.clear();
+        resourceTimes.clear();
+        resourceBytes.clear();
+    }
+
+    /**
+     * Returns the histogram of a name, creating it if needed.
+     * @param histograms the histograms by name.
+     * @param name the name.
+     * @return the histogram.
+     */
+    private static LatencyHistogram getHistogram(
+        Map<String, LatencyHistogram> histograms, String name)
+    {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null)
         {
-            System.err.println(s + ": " + Arrays.toString(data[s.ordinal()]) );
+            histogram = new LatencyHistogram();
+            histograms.put(name, histogram);
         }
+
+        return histogram;
+    }
+
+    /**
+     * Converts a time in milliseconds, as reported by the browser, to
+     * microseconds.
+     * @param millis the time in milliseconds.
+     * @return the time in microseconds, 0 for negative times.
+     */
+    private static long toMicros(Number millis)
+    {
+        return Math.max(0, Math.round(millis.doubleValue() * 1000));
     }
     
     /**
@@ -381,25 +765,434 @@ public class ConnectionTimeTest
         ConferenceFixture.startSecondParticipant();
     }
     
+    /**
+     * Runs K joiners at the same time for every concurrency level and records
+     * the percentiles of their time measurements per level.
+     */
+    private static void collectConcurrentData()
+    {
+        boolean sameRoom = Boolean.getBoolean(SAME_ROOM_PNAME);
+        int rounds = Integer.getInteger(ROUNDS_PNAME, 1);
+        if (sameRoom)
+        {
+            WebDriver owner = ConferenceFixture.getOwner();
+            assertNotNull("The owner is not started", owner);
+            MeetUtils.waitForParticipantToJoinMUC(owner, 10);
+        }
+
+        StringBuilder curve
+            = new StringBuilder("concurrency\tjoins\tp50\tp90\tp99\tmax");
+        for (String level : System.getProperty(CONCURRENCY_PNAME).split(","))
+        {
+            int k = Integer.parseInt(level.trim());
+            double[][] timelines = new double[TimeMeasurements.length][];
+            for (int i = 0; i < timelines.length; i++)
+                timelines[i] = new double[k * rounds];
+
+            for (int round = 0; round < rounds; round++)
+            {
+                List<double[]> joins = joinConcurrently(k, sameRoom, round);
+                for (int j = 0; j < k; j++)
+                {
+                    for (TimeMeasurements s : TimeMeasurements.values())
+                    {
+                        timelines[s.ordinal()][round * k + j]
+                            = joins.get(j)[s.ordinal()];
+                    }
+                }
+            }
+
+            for (TimeMeasurements s : TimeMeasurements.values())
+            {
+                Map<String, Number> results
+                    = getPercentiles(getStepTimes(timelines, s));
+                results.put("concurrency", k);
+                BenchmarkResults.record(
+                    "joinConcurrency", "k" + k + "." + s.name(), null, results);
+            }
+
+            // the whole join, from the navigation to the first remote video
+            Map<String, Number> join = getPercentiles(
+                timelines[TimeMeasurements.VIDEO_RENDER.ordinal()]);
+            join.put("concurrency", k);
+            BenchmarkResults.record("joinConcurrency", "k" + k, null, join);
+            recordPageTimings("k" + k + ".");
+            curve.append('\n').append(k);
+            for (String name
+                    : new String[] { "samples", "p50Ms", "p90Ms", "p99Ms",
+                        "maxMs" })
+            {
+                curve.append('\t').append(join.get(name));
+            }
+        }
+
+        System.err.println(curve);
+    }
+
+    /**
+     * Joins {@link #SAMPLES_PNAME} times in every cache mode and records the
+     * percentiles of the time measurements per mode. Every sample joins once
+     * per mode, so that the modes see the same server conditions.
+     */
+    private static void collectCacheData()
+    {
+        List<CacheMode> modes = new ArrayList<>();
+        for (String mode : System.getProperty(CACHE_MODES_PNAME).split(","))
+            modes.add(CacheMode.of(mode));
+        int samples = getSamples();
+
+        WebDriver owner = ConferenceFixture.getOwner();
+        assertNotNull("The owner is not started", owner);
+        MeetUtils.waitForParticipantToJoinMUC(owner, 10);
+
+        Map<CacheMode, double[][]> timelines = new EnumMap<>(CacheMode.class);
+        for (CacheMode mode : modes)
+            timelines.put(mode, new double[TimeMeasurements.length][samples]);
+
+        WebDriver warm = null;
+        try
+        {
+            if (modes.contains(CacheMode.WARM)
+                || modes.contains(CacheMode.CONFIG))
+            {
+                // the first join fills the cache of the profile
+                warm = ConferenceFixture.startParticipant(
+                    ConferenceFixture.currentRoomName, null);
+                waitForMeasurements(warm, 30);
+            }
+
+            for (int i = 0; i < samples; i++)
+            {
+                for (CacheMode mode : modes)
+                {
+                    double[] values = joinWithCache(mode, warm, i);
+                    double[][] timeline = timelines.get(mode);
+                    for (TimeMeasurements s : TimeMeasurements.values())
+                        timeline[s.ordinal()][i] = values[s.ordinal()];
+                }
+            }
+        }
+        finally
+        {
+            if (warm != null)
+                ConferenceFixture.quit(warm);
+        }
+
+        StringBuilder table = new StringBuilder("step");
+        for (CacheMode mode : modes)
+            table.append('\t').append(mode.name).append(" p50");
+        for (TimeMeasurements s : TimeMeasurements.values())
+        {
+            table.append('\n').append(s);
+            for (CacheMode mode : modes)
+            {
+                Map<String, Number> results
+                    = getPercentiles(getStepTimes(timelines.get(mode), s));
+                BenchmarkResults.record("cacheConnectionTime",
+                    mode.name + "." + s.name(), null, results);
+                table.append('\t').append(results.get("p50Ms"));
+            }
+        }
+        for (CacheMode mode : modes)
+        {
+            // the whole join, from the navigation to the first remote video
+            BenchmarkResults.record("cacheConnectionTime", mode.name, null,
+                getPercentiles(timelines.get(mode)
+                    [TimeMeasurements.VIDEO_RENDER.ordinal()]));
+        }
+        recordPageTimings("");
+
+        System.err.println(table);
+    }
+
+    /**
+     * Joins the room of the owner once in a cache mode and returns the
+     * measurements.
+     * @param mode the cache mode.
+     * @param warm the participant with a warm cache, used by the warm modes.
+     * @param sample the number of the sample.
+     * @return the measurements, <tt>NaN</tt> when missing.
+     */
+    private static double[] joinWithCache(
+        CacheMode mode, WebDriver warm, int sample)
+    {
+        WebDriver participant = null;
+        try
+        {
+            if (mode == CacheMode.COLD)
+            {
+                participant = ConferenceFixture.startParticipant(
+                    ConferenceFixture.currentRoomName, null);
+            }
+            else
+            {
+                participant = warm;
+                ConferenceFixture.close(warm);
+
+                // a new document URL misses the cache for the document only,
+                // like a new config does, the room is in the path
+                String room = ConferenceFixture.currentRoomName;
+                if (mode == CacheMode.CONFIG)
+                    room += "?configChange=" + sample + "-" + System.nanoTime();
+
+                ConferenceFixture.openRoom(warm, room, null,
+                    ConferenceFixture.getBrowserType(warm));
+            }
+            waitForMeasurements(participant, 30);
+
+            Map<?, ?> timeline = getTimeline(participant);
+            addPageTimings(timeline, mode.name + ".");
+
+            return getMeasurements(timeline);
+        }
+        finally
+        {
+            if (mode == CacheMode.COLD && participant != null)
+                ConferenceFixture.quit(participant);
+        }
+    }
+
+    /**
+     * Returns the times of a step since the previous step.
+     * @param timelines the measurements, by ordinal of the step.
+     * @param s the step.
+     * @return the times, <tt>NaN</tt> when missing.
+     */
+    private static double[] getStepTimes(
+        double[][] timelines, TimeMeasurements s)
+    {
+        TimeMeasurements prev = s == TimeMeasurements.MUC_JOINED
+            ? getConnectedTime(timelines) : s.getPrevStep();
+
+        return prev == null
+            ? timelines[s.ordinal()]
+            : subtractArrays(
+                timelines[prev.ordinal()], timelines[s.ordinal()]);
+    }
+
+    /**
+     * Returns the connected step of the connect method used by the joiners:
+     * attached if no joiner connected by itself.
+     * @param timelines the measurements of the joiners.
+     * @return the connected step.
+     */
+    private static TimeMeasurements getConnectedTime(double[][] timelines)
+    {
+        for (double connected
+                : timelines[TimeMeasurements.CONNECTION_CONNECTED.ordinal()])
+        {
+            if (!Double.isNaN(connected))
+                return TimeMeasurements.CONNECTION_CONNECTED;
+        }
+
+        return TimeMeasurements.CONNECTION_ATTACHED;
+    }
+
+    /**
+     * Starts K new participants, then makes them join at the same time and
+     * returns their measurements. In separate rooms every room gets a host
+     * first, so that the joiners get media.
+     * @param k the number of joiners.
+     * @param sameRoom whether the joiners join the room of the owner.
+     * @param round the round, for unique room names.
+     * @return the measurements of every joiner, <tt>NaN</tt> for those
+     * which failed to join.
+     */
+    private static List<double[]> joinConcurrently(
+        int k, boolean sameRoom, int round)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(
+            k,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("joiner-%d")
+                .build());
+        final List<WebDriver> drivers
+            = Collections.synchronizedList(new ArrayList<WebDriver>());
+        try
+        {
+            List<String> rooms = new ArrayList<>();
+            List<Future<WebDriver>> hosts = new ArrayList<>();
+            for (int i = 0; i < k; i++)
+            {
+                final String room = sameRoom
+                    ? ConferenceFixture.currentRoomName
+                    : ConferenceFixture.currentRoomName
+                        + "-k" + k + "-r" + round + "-" + i;
+                rooms.add(room);
+                if (!sameRoom)
+                {
+                    hosts.add(pool.submit(new Callable<WebDriver>()
+                    {
+                        @Override
+                        public WebDriver call()
+                        {
+                            WebDriver host = ConferenceFixture
+                                .startParticipant(room, null);
+                            drivers.add(host);
+                            MeetUtils.waitForParticipantToJoinMUC(host, 30);
+                            return host;
+                        }
+                    }));
+                }
+            }
+            for (Future<WebDriver> host : hosts)
+                getQuietly(host);
+
+            List<Future<WebDriver>> started = new ArrayList<>();
+            for (int i = 0; i < k; i++)
+            {
+                started.add(pool.submit(new Callable<WebDriver>()
+                {
+                    @Override
+                    public WebDriver call()
+                    {
+                        WebDriver joiner
+                            = ConferenceFixture.startParticipantDriver();
+                        drivers.add(joiner);
+                        return joiner;
+                    }
+                }));
+            }
+
+            final CountDownLatch gate = new CountDownLatch(1);
+            List<Future<double[]>> joins = new ArrayList<>();
+            for (int i = 0; i < k; i++)
+            {
+                final WebDriver joiner = getQuietly(started.get(i));
+                final String room = rooms.get(i);
+                joins.add(pool.submit(new Callable<double[]>()
+                {
+                    @Override
+                    public double[] call()
+                        throws Exception
+                    {
+                        gate.await();
+                        ConferenceFixture.openRoom(joiner, room, null,
+                            ConferenceFixture.getBrowserType(joiner));
+                        waitForMeasurements(joiner, 30);
+
+                        Map<?, ?> timeline = getTimeline(joiner);
+                        addPageTimings(timeline, "");
+                        return getMeasurements(timeline);
+                    }
+                }));
+            }
+            gate.countDown();
+
+            List<double[]> timelines = new ArrayList<>();
+            for (Future<double[]> join : joins)
+            {
+                double[] timeline = getQuietly(join);
+                if (timeline == null)
+                {
+                    timeline = new double[TimeMeasurements.length];
+                    Arrays.fill(timeline, Double.NaN);
+                }
+                timelines.add(timeline);
+            }
+
+            return timelines;
+        }
+        finally
+        {
+            pool.shutdownNow();
+            synchronized (drivers)
+            {
+                for (WebDriver driver : drivers)
+                {
+                    try
+                    {
+                        ConferenceFixture.quit(driver);
+                    }
+                    catch (Throwable t)
+                    {
+                        t.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a future, printing its failure.
+     * @param future the future.
+     * @param <T> the type of the result.
+     * @return the result, <tt>null</tt> if it failed.
+     */
+    private static <T> T getQuietly(Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            e.getCause().printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the percentiles of values, ignoring the missing ones.
+     * @param values the values, <tt>NaN</tt> when missing.
+     * @return the number of values, <tt>samples</tt>, and the percentiles
+     * in milliseconds, e.g. <tt>p50Ms</tt>.
+     */
+    private static Map<String, Number> getPercentiles(double[] values)
+    {
+        double[] sorted = new double[values.length];
+        int count = 0;
+        for (double value : values)
+        {
+            if (!Double.isNaN(value))
+                sorted[count++] = value;
+        }
+        sorted = Arrays.copyOf(sorted, count);
+        Arrays.sort(sorted);
+
+        Map<String, Number> results = new LinkedHashMap<>();
+        results.put("samples", count);
+        results.put("failed", values.length - count);
+        if (count > 0)
+        {
+            for (Percentile p : Percentile.values())
+                results.put(p.name + "Ms", p.of(sorted));
+        }
+
+        return results;
+    }
+
     /**
      * Waits for all measurements to be complete. We only wait for VIDEO_RENDER,
      * AUDIO_RENDER and DATA_CHANNEL_OPEN, assuming all the rest would have
      * completed before these three.
+     * @param participant the participant.
+     * @param timeout the timeout in seconds.
      */
-    private static void waitForMeasurements()
+    private static void waitForMeasurements(
+        WebDriver participant, int timeout)
     {
-        TestUtils.waitForCondition(ConferenceFixture.getSecondParticipant(), 10,
+        TestUtils.waitForCondition(participant, timeout,
             new ExpectedCondition<Boolean>()
             {
 
                 @Override
                 public Boolean apply(WebDriver w)
                 {
+                    Map<?, ?> timeline = getTimeline(w);
+
                     return
-                        TimeMeasurements.isReadyToStart(w)
-                        && TimeMeasurements.AUDIO_RENDER.execute(w) != null
-                        && TimeMeasurements.VIDEO_RENDER.execute(w) != null
-                        && TimeMeasurements.DATA_CHANNEL_OPENED.execute(w) != null;
+                        Boolean.TRUE.equals(timeline.get("ready"))
+                        && TimeMeasurements.AUDIO_RENDER.get(timeline) != null
+                        && TimeMeasurements.VIDEO_RENDER.get(timeline) != null
+                        && TimeMeasurements.DATA_CHANNEL_OPENED.get(timeline)
+                            != null;
                 }
             });
     }
@@ -418,40 +1211,48 @@ public class ConnectionTimeTest
         }
         else
         {
-            Double[] prevStepData = s.getPrevStep() == null ? null : 
+            double[] prevStepData = s.getPrevStep() == null ? null :
                 data[s.getPrevStep().ordinal()];
             checkThreshold(prevStepData, s);
         }
     }
     
     /**
-     * Compares the threshold for the passed time measurement with the 
-     * median of the subtracted values of the data from the passed time 
-     * measurement and the passed array. 
+     * Compares the thresholds for the passed time measurement with the
+     * percentiles of the subtracted values of the data from the passed time
+     * measurement and the passed array, and records the percentiles.
      * @param previousStepTimes array with times that will be subtract
      * @param s the time measurement
      */
-    private void checkThreshold(Double[] previousStepTimes, TimeMeasurements s)
+    private void checkThreshold(double[] previousStepTimes, TimeMeasurements s)
     {
-        Double[] difference = (previousStepTimes == null)?  data[s.ordinal()] :
-            subtractArrays(previousStepTimes, data[s.ordinal()]);
-        if(difference == null || checkForNullInArray(difference))
-            return;
-        Double medianValue = getMedian(difference);
-        System.err.println(s + ":" + medianValue);
-        assertTrue(
-            "Expected:" + s.getThreshold() + ", was:" + medianValue,
-            medianValue < s.getThreshold());
-    }
-    
-    /**
-     * Returns the median from passed array.
-     * @param data the array
-     * @return the median
-     */
-    private static Double getMedian(Double[] data) {
-        Arrays.sort(data);
-        return data[data.length/2];
+        double[] difference = (previousStepTimes == null)
+            ? data[s.ordinal()]
+            : subtractArrays(previousStepTimes, data[s.ordinal()]);
+        checkForNullInArray(difference);
+
+        Map<String, Number> results = getPercentiles(difference);
+        results.remove("failed");
+        StringBuilder failures = new StringBuilder();
+        for (Percentile p : Percentile.values())
+        {
+            double value = results.get(p.name + "Ms").doubleValue();
+            double threshold = s.getThreshold(p);
+
+            if (!Double.isNaN(threshold))
+            {
+                results.put(p.name + "ThresholdMs", threshold);
+                if (value >= threshold)
+                {
+                    failures.append(" ").append(p.name)
+                        .append(" expected:").append(threshold)
+                        .append(", was:").append(value);
+                }
+            }
+        }
+        BenchmarkResults.record("connectionTime", s.name(), null, results);
+
+        assertTrue(s + failures.toString(), failures.length() == 0);
     }
     
     /**
@@ -461,21 +1262,12 @@ public class ConnectionTimeTest
      * @param b 
      * @return new array
      */
-    private static Double[] subtractArrays(Double[] a, Double[] b)
+    private static double[] subtractArrays(double[] a, double[] b)
     {
-        Double[] res = b.clone();
+        double[] res = new double[b.length];
         for(int i = 0; i < res.length; i++) 
-        {
-            if(res[i] != null && a[i] != null)
-            {
-                res[i] -= a[i];
-            }
-            else
-            {
-                fail("Null value is measured");
-                return null;
-            }
-        }
+            res[i] = b[i] - a[i];
+
         return res;
     }
 }
@@ -28,6 +28,7 @@ import org.openqa.selenium.support.ui.WebDriverWait;
  *
  * @author Yana Stamcheva
  */
+@FixtureRequirements(starts = 1)
 public class ContactListTest
         extends TestCase
 {
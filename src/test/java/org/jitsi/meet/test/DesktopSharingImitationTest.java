@@ -31,6 +31,7 @@ import org.openqa.selenium.JavascriptExecutor;
  *
  * @author Damian Minkov
  */
+@FixtureRequirements(starts = 2)
 public class DesktopSharingImitationTest
     extends TestCase
 {
@@ -30,6 +30,7 @@ import java.util.concurrent.*;
  * Launches a hook script that will launch a participant that will join
  * the conference and that participant will be sharing its screen.
  */
+@FixtureRequirements(starts = 1)
 public class DesktopSharingTest
     extends TestCase
 {
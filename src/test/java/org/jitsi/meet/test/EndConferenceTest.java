@@ -23,6 +23,7 @@ import org.jitsi.meet.test.util.*;
 /**
  * Test if we can hangup the call.
  */
+@FixtureRequirements(leaves = 1, destructive = true, anyParticipants = true)
 public class EndConferenceTest
     extends TestCase
 {
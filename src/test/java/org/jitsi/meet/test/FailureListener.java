@@ -15,9 +15,13 @@
  */
 package org.jitsi.meet.test;
 
+import com.google.common.util.concurrent.*;
 import junit.framework.*;
-import org.apache.commons.io.*;
+import org.apache.tools.ant.*;
 import org.apache.tools.ant.taskdefs.optional.junit.*;
+import org.jitsi.meet.test.perf.*;
+import org.jitsi.meet.test.tasks.*;
+import org.jitsi.meet.test.util.*;
 import org.openqa.selenium.*;
 
 import org.openqa.selenium.logging.*;
@@ -25,10 +29,19 @@ import org.openqa.selenium.logging.*;
 import java.io.*;
 import java.lang.management.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.*;
 
 /**
  * Extends the xml formatter so we can detect failures and make screenshots
  * when this happen.
+ *
+ * The artifacts of all participants are collected in parallel, every
+ * participant in its own thread, and every artifact is bounded by a timeout
+ * so a hung browser cannot block the whole run. Everything collected for a
+ * failed test is stored in a single zip archive in the failures folder.
+ *
  * @author Damian Minkov
  */
 public class FailureListener
@@ -40,14 +53,63 @@ public class FailureListener
     private static final String TEST_REPORT_DIR = "test.reports.dir";
 
     /**
-     * The folder where the screenshost will be saved.
+     * The name of the property which sets the time in seconds we wait for
+     * a single artifact (screenshot, html source, log...) to be collected.
+     */
+    public static final String ARTIFACT_TIMEOUT_PNAME
+        = "jitsi-meet.failure.artifactTimeout";
+
+    /**
+     * The name of the property which limits the disk space in MB used by
+     * the failure archives of the whole run.
+     */
+    public static final String MAX_DISK_USAGE_PNAME
+        = "jitsi-meet.failure.maxDiskUsage";
+
+    /**
+     * The default time in seconds to wait for a single artifact.
+     */
+    private static final long DEFAULT_ARTIFACT_TIMEOUT = 30;
+
+    /**
+     * The default disk space in MB the failure archives can use.
+     */
+    private static final long DEFAULT_MAX_DISK_USAGE = 1024;
+
+    /**
+     * The executor collecting the artifacts. Its threads are daemons as
+     * a call to a hung browser may never return.
      */
-    private File outputScreenshotsParentFolder = null;
+    private static final ExecutorService artifactsExecutor
+        = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("failure-artifacts-%d")
+                .build());
 
     /**
-     * The folder where the htmls will be saved.
+     * The name of the file in the reports folder where the WebDriver command
+     * latencies are saved.
      */
-    private File outputHtmlSourceParentFolder = null;
+    private static final String DRIVER_LATENCY_REPORT
+        = "webdriver-latency.json";
+
+    /**
+     * The name without extension of the files where the phase times of the
+     * tests are saved, as json in the reports folder and as html next to
+     * the junit html report.
+     */
+    private static final String PHASE_TIMES_REPORT = "phase-times";
+
+    /**
+     * The folder where the failure archives will be saved.
+     */
+    private File outputFailuresParentFolder = null;
+
+    /**
+     * The folder of the test reports.
+     */
+    private File outputReportsFolder = null;
 
     /**
      * The folder where the logs will be saved.
@@ -68,26 +130,7 @@ public class FailureListener
             t.printStackTrace();
         }
 
-        try
-        {
-            String fileNamePrefix
-                = JUnitVersionHelper.getTestCaseClassName(test)
-                    + "." + JUnitVersionHelper.getTestCaseName(test);
-
-            takeScreenshots(test);
-
-            saveHtmlSources(test);
-
-            saveMeetDebugLog(fileNamePrefix);
-
-            saveBrowserLogs(fileNamePrefix);
-
-            saveThreadDump(fileNamePrefix);
-        }
-        catch(Throwable ex)
-        {
-            ex.printStackTrace();
-        }
+        saveFailureArtifacts(test);
 
         super.addFailure(test, t);
     }
@@ -106,28 +149,128 @@ public class FailureListener
             t.printStackTrace();
         }
 
-        try
-        {
-            String fileNamePrefix
-                = JUnitVersionHelper.getTestCaseClassName(test)
-                + "." + JUnitVersionHelper.getTestCaseName(test);
+        saveFailureArtifacts(test);
+
+        super.addError(test, t);
+    }
+
+    /**
+     * Marks the start of the test for the WebDriver command statistics.
+     * @param test the test
+     */
+    @Override
+    public void startTest(Test test)
+    {
+        String testName = JUnitVersionHelper.getTestCaseClassName(test)
+            + "." + JUnitVersionHelper.getTestCaseName(test);
+
+        DriverCommandStats.testStarted(testName);
+        PhaseTimes.testStarted(testName);
+
+        BridgeStatsSampler sampler
+            = BridgeStatsSampler.getInstance(outputReportsFolder);
+        if (sampler != null)
+            sampler.testStarted(testName);
+
+        WebRTCStatsCollector statsCollector
+            = WebRTCStatsCollector.getInstance();
+        if (statsCollector != null)
+            statsCollector.testStarted(testName);
+
+        FreezeDetector freezeDetector = FreezeDetector.getInstance();
+        if (freezeDetector != null)
+            freezeDetector.testStarted(testName);
+
+        MeetLogDrainer meetLogDrainer = MeetLogDrainer.getInstance();
+        if (meetLogDrainer != null)
+            meetLogDrainer.testStarted();
 
-            takeScreenshots(test);
+        super.startTest(test);
+    }
+
+    /**
+     * Marks the end of the test for the WebDriver command statistics.
+     * @param test the test
+     */
+    @Override
+    public void endTest(Test test)
+    {
+        DriverCommandStats.testEnded();
+        PhaseTimes.testEnded();
 
-            saveHtmlSources(test);
+        BridgeStatsSampler sampler = BridgeStatsSampler.getInstance();
+        if (sampler != null)
+            sampler.testEnded();
 
-            saveMeetDebugLog(fileNamePrefix);
+        WebRTCStatsCollector statsCollector
+            = WebRTCStatsCollector.getInstance();
+        if (statsCollector != null)
+            statsCollector.testEnded();
 
-            saveBrowserLogs(fileNamePrefix);
+        FreezeDetector freezeDetector = FreezeDetector.getInstance();
+        if (freezeDetector != null)
+            freezeDetector.testEnded();
 
-            saveThreadDump(fileNamePrefix);
+        super.endTest(test);
+    }
+
+    /**
+     * Saves the WebDriver command latencies collected so far and stops the
+     * browser log drainer.
+     * @param suite the suite
+     * @throws BuildException on error
+     */
+    @Override
+    public void endTestSuite(JUnitTest suite)
+        throws BuildException
+    {
+        try
+        {
+            DriverCommandStats.writeReport(
+                new File(outputReportsFolder, DRIVER_LATENCY_REPORT));
+            DriverCommandStats.printSummary(System.err);
+
+            PhaseTimes.writeReport(
+                new File(outputReportsFolder, PHASE_TIMES_REPORT + ".json"));
+            File htmlFolder = new File(outputReportsFolder, "html");
+            htmlFolder.mkdirs();
+            PhaseTimes.writeHtml(
+                new File(htmlFolder, PHASE_TIMES_REPORT + ".html"));
+
+            BridgeStatsSampler sampler = BridgeStatsSampler.getInstance();
+            if (sampler != null)
+            {
+                sampler.writeSummary();
+                // stops the sampling thread and closes the samples file
+                sampler.stop();
+            }
+
+            WebRTCStatsCollector statsCollector
+                = WebRTCStatsCollector.getInstance();
+            if (statsCollector != null)
+                statsCollector.writeReport(outputReportsFolder);
+
+            BaselineStore baseline = BaselineStore.getInstance();
+            if (baseline != null)
+            {
+                baseline.flush();
+                baseline.writeReport(outputReportsFolder);
+            }
+
+            // closes the log files still open
+            BrowserLogDrainer logDrainer = BrowserLogDrainer.getInstance();
+            if (logDrainer != null)
+                logDrainer.stop();
+            MeetLogDrainer meetLogDrainer = MeetLogDrainer.getInstance();
+            if (meetLogDrainer != null)
+                meetLogDrainer.stop();
         }
-        catch(Throwable ex)
+        catch (IOException e)
         {
-            ex.printStackTrace();
+            e.printStackTrace();
         }
 
-        super.addError(test, t);
+        super.endTestSuite(suite);
     }
 
     /**
@@ -140,10 +283,9 @@ public class FailureListener
         // default reports folder
         String reportsDir = System.getProperty(TEST_REPORT_DIR);
 
-        outputScreenshotsParentFolder = new File(reportsDir + "/screenshots");
-
-        outputHtmlSourceParentFolder = new File(reportsDir + "/html-sources");
-        outputHtmlSourceParentFolder.mkdirs();
+        outputReportsFolder = new File(reportsDir);
+        outputFailuresParentFolder = new File(reportsDir + "/failures");
+        outputFailuresParentFolder.mkdirs();
 
         createLogsFolder();
 
@@ -167,250 +309,444 @@ public class FailureListener
     }
 
     /**
-     * Takes screenshot of owner and participant.
+     * Collects screenshots, html sources, meet and browser logs of all
+     * participants and the java thread dump into the failure archive of
+     * the test.
      *
      * @param test which failed
      */
-    private void takeScreenshots(Test test)
+    private void saveFailureArtifacts(Test test)
     {
-        String fileName = JUnitVersionHelper.getTestCaseClassName(test)
-            + "." + JUnitVersionHelper.getTestCaseName(test);
-
-        takeScreenshot(ConferenceFixture.getOwnerInstance(),
-            fileName + "-owner.png");
-
-        WebDriver secondParticipant =
-            ConferenceFixture.getSecondParticipantInstance();
+        String fileNamePrefix
+            = JUnitVersionHelper.getTestCaseClassName(test)
+                + "." + JUnitVersionHelper.getTestCaseName(test);
 
-        if(secondParticipant != null)
-            takeScreenshot(secondParticipant,
-                fileName + "-participant.png");
+        long start = System.currentTimeMillis();
 
-        WebDriver thirdParticipant =
-            ConferenceFixture.getThirdParticipantInstance();
+        PhaseTimes.Scope scope
+            = PhaseTimes.enter(PhaseTimes.Phase.FAILURE_ARTIFACTS);
+        try (ArtifactArchive archive = new ArtifactArchive(
+                new File(outputFailuresParentFolder, fileNamePrefix + ".zip"),
+                Long.getLong(MAX_DISK_USAGE_PNAME, DEFAULT_MAX_DISK_USAGE)
+                    * 1024 * 1024))
+        {
+            List<Future<?>> participantTasks = new LinkedList<>();
 
-        if(thirdParticipant != null)
-            takeScreenshot(thirdParticipant,
-                fileName + "-third.png");
-    }
+            for (ParticipantArtifacts p : getParticipants(fileNamePrefix))
+            {
+                participantTasks.add(
+                    artifactsExecutor.submit(p.collectTask(archive)));
+            }
 
-    /**
-     * Takes screenshot for the supplied page.
-     * @param driver the driver controlling the page.
-     * @param fileName the destination screenshot file name.
-     */
-    private void takeScreenshot(WebDriver driver, String fileName)
-    {
-        TakesScreenshot takesScreenshot = (TakesScreenshot) driver;
+            saveThreadDump(archive, fileNamePrefix);
 
-        if(takesScreenshot == null)
-        {
-            System.err.println("No driver to take screenshot from! FileName:"
-                + fileName);
-            return;
+            // every participant task bounds its own artifacts with
+            // a timeout, so this will not wait forever
+            for (Future<?> f : participantTasks)
+            {
+                try
+                {
+                    f.get();
+                }
+                catch (ExecutionException e)
+                {
+                    e.getCause().printStackTrace();
+                }
+            }
         }
-
-        File scrFile = takesScreenshot.getScreenshotAs(OutputType.FILE);
-        File destFile = new File(outputScreenshotsParentFolder, fileName);
-        try
+        catch(Throwable ex)
         {
-            FileUtils.copyFile(scrFile, destFile);
-        } catch (IOException ioe)
+            ex.printStackTrace();
+        }
+        finally
         {
-            throw new RuntimeException(ioe);
+            scope.end();
         }
+
+        System.err.println("Failure artifacts for " + fileNamePrefix
+            + " collected for " + (System.currentTimeMillis() - start)
+            + " ms.");
     }
 
     /**
-     * Saves html sources of owner and participant in the moment of failure.
-     *
-     * @param test which failed
+     * Returns the participants which are currently started.
+     * @param fileNamePrefix the prefix of the artifact names.
+     * @return the participants which are currently started.
      */
-    private void saveHtmlSources(Test test)
+    private List<ParticipantArtifacts> getParticipants(String fileNamePrefix)
     {
-        String fileName = JUnitVersionHelper.getTestCaseClassName(test)
-            + "." + JUnitVersionHelper.getTestCaseName(test);
+        List<ParticipantArtifacts> participants = new LinkedList<>();
 
-        saveHtmlSource(ConferenceFixture.getOwnerInstance(),
-            fileName + "-owner.html");
+        WebDriver owner = ConferenceFixture.getOwnerInstance();
+        if (owner != null)
+            participants.add(
+                new ParticipantArtifacts(owner, fileNamePrefix, "owner"));
 
         WebDriver secondParticipant =
             ConferenceFixture.getSecondParticipantInstance();
-
-        if(secondParticipant != null)
-            saveHtmlSource(secondParticipant,
-                fileName + "-participant.html");
+        if (secondParticipant != null)
+            participants.add(
+                new ParticipantArtifacts(
+                    secondParticipant, fileNamePrefix, "participant"));
 
         WebDriver thirdParticipant =
             ConferenceFixture.getThirdParticipantInstance();
+        if (thirdParticipant != null)
+            participants.add(
+                new ParticipantArtifacts(
+                    thirdParticipant, fileNamePrefix, "third"));
 
-        if(thirdParticipant != null)
-            saveHtmlSource(thirdParticipant,
-                fileName + "-third.html");
+        return participants;
     }
 
     /**
-     * Saves the html source of the supplied page.
-     * @param driver the driver controlling the page.
-     * @param fileName the destination html file name.
+     * Saves current java thread dump.
      */
-    private void saveHtmlSource(WebDriver driver, String fileName)
+    private void saveThreadDump(ArtifactArchive archive, String fileNamePrefix)
     {
-        try
-        {
-            FileUtils.openOutputStream(
-                new File(outputHtmlSourceParentFolder, fileName))
-                .write(driver.getPageSource().getBytes());
-        }
-        catch(Throwable t)
+        StringBuilder dump = new StringBuilder();
+        ThreadMXBean tbean = ManagementFactory.getThreadMXBean();
+        ThreadInfo[] threads
+            = tbean.getThreadInfo(tbean.getAllThreadIds(), 150);
+        for (ThreadInfo tinfo : threads)
         {
-            t.printStackTrace();
+            dump.append(tinfo);
+            dump.append("\n");
         }
+
+        archive.add(
+            "logs/" + fileNamePrefix + ".tdump", dump.toString().getBytes());
     }
 
     /**
-     * Saves the log from meet. Normally when clicked it is saved in Downloads
-     * if we do not find it we skip it.
+     * Collects the artifacts of a single participant. The artifacts are
+     * collected one after another, as the browser executes the commands
+     * one at a time anyway.
      */
-    private void saveMeetDebugLog(String fileNamePrefix)
+    private static class ParticipantArtifacts
     {
-        saveMeetDebugLog(ConferenceFixture.getOwner(),
-            fileNamePrefix + "-meetlog-owner.json");
-
-        WebDriver secondParticipant =
-            ConferenceFixture.getSecondParticipantInstance();
-
-        if(secondParticipant != null)
+        /**
+         * The driver of the participant.
+         */
+        private final WebDriver driver;
+
+        /**
+         * The prefix of the artifact names.
+         */
+        private final String fileNamePrefix;
+
+        /**
+         * The short name used for screenshots and html sources.
+         */
+        private final String shortName;
+
+        /**
+         * The name used for the logs.
+         */
+        private final String logName;
+
+        /**
+         * Takes the screenshots recorded before the failure, oldest first.
+         */
+        private final Future<List<ScreenshotFlightRecorder.Frame>>
+            recordedFrames;
+
+        /**
+         * The time the recorded screenshots were taken from the recorder.
+         */
+        private final long failureTime = System.currentTimeMillis();
+
+        /**
+         * Creates new participant artifacts collector.
+         * @param driver the driver of the participant.
+         * @param fileNamePrefix the prefix of the artifact names.
+         * @param shortName the short name used for screenshots and html
+         * sources.
+         */
+        ParticipantArtifacts(
+            WebDriver driver, String fileNamePrefix, String shortName)
         {
-            saveMeetDebugLog(secondParticipant,
-                fileNamePrefix + "-meetlog-participant.json");
+            this.driver = driver;
+            this.fileNamePrefix = fileNamePrefix;
+            this.shortName = shortName;
+            this.logName = ConferenceFixture.getParticipantName(driver);
+
+            // take them right away, the recorder keeps recording, but not on
+            // the test thread, as a hung screenshot of the recorder holds
+            // them
+            this.recordedFrames = artifactsExecutor.submit(
+                new Callable<List<ScreenshotFlightRecorder.Frame>>()
+                {
+                    @Override
+                    public List<ScreenshotFlightRecorder.Frame> call()
+                    {
+                        ScreenshotFlightRecorder recorder
+                            = ScreenshotFlightRecorder.getInstance();
+
+                        return recorder == null
+                            ? Collections
+                                .<ScreenshotFlightRecorder.Frame>emptyList()
+                            : recorder.getFrames(
+                                ParticipantArtifacts.this.driver);
+                    }
+                });
         }
 
-        WebDriver thirdParticipant =
-            ConferenceFixture.getThirdParticipantInstance();
-
-        if(thirdParticipant != null)
+        /**
+         * Returns the task which collects all artifacts of the participant.
+         * @param archive where to store the artifacts.
+         * @return the task which collects all artifacts of the participant.
+         */
+        Runnable collectTask(final ArtifactArchive archive)
         {
-            saveMeetDebugLog(thirdParticipant,
-                fileNamePrefix + "-meetlog-third.json");
+            return new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    collect(archive);
+                }
+            };
         }
-    }
 
-    /**
-     * Saves the log from meet. Normally when clicked it is saved in Downloads
-     * if we do not find it we skip it.
-     */
-    private void saveMeetDebugLog(WebDriver driver, String fileName)
-    {
-        try
+        /**
+         * Collects all artifacts of the participant. If the browser does not
+         * respond in time for one artifact, we skip the rest of the artifacts
+         * which need the browser.
+         * @param archive where to store the artifacts.
+         */
+        private void collect(final ArtifactArchive archive)
         {
-            Object log = ((JavascriptExecutor) driver)
-                .executeScript(
-            "try{ "
-            + "return JSON.stringify(APP.conference.getLogs(), null, '    ');"
-            + "}catch (e) {}");
-
-            if(log == null)
-                return;
+            final String meetLogName = "logs/" + fileNamePrefix + "-meetlog-"
+                + shortName + ".jsonl.gz";
+
+            saveRecordedFrames(archive);
+
+            boolean responsive
+                = save(archive,
+                    "screenshots/" + fileNamePrefix + "-" + shortName + ".png",
+                    new Callable<byte[]>()
+                    {
+                        @Override
+                        public byte[] call()
+                        {
+                            return ((TakesScreenshot) driver)
+                                .getScreenshotAs(OutputType.BYTES);
+                        }
+                    })
+                && save(archive,
+                    "html-sources/" + fileNamePrefix
+                        + "-" + shortName + ".html",
+                    new Callable<byte[]>()
+                    {
+                        @Override
+                        public byte[] call()
+                        {
+                            return driver.getPageSource().getBytes();
+                        }
+                    })
+                && save(archive,
+                    meetLogName,
+                    new Callable<byte[]>()
+                    {
+                        @Override
+                        public byte[] call()
+                            throws IOException
+                        {
+                            return getMeetDebugLog();
+                        }
+                    })
+                && save(archive,
+                    "logs/" + fileNamePrefix + "-console-" + logName
+                        + "-driver.log",
+                    new Callable<byte[]>()
+                    {
+                        @Override
+                        public byte[] call()
+                        {
+                            return getBrowserLogs();
+                        }
+                    });
+
+            if (!responsive)
+            {
+                System.err.println("Browser of " + logName
+                    + " is not responding, skipped the rest of its"
+                    + " artifacts");
+            }
 
-            FileUtils.write(
-                new File(outputLogsParentFolder, fileName),
-                (String)log);
+            // the chrome log is written by chromedriver, we do not need
+            // the browser to copy it
+            if (ConferenceFixture.getBrowserType(driver)
+                == ConferenceFixture.BrowserType.chrome)
+            {
+                archive.add(
+                    "logs/" + fileNamePrefix + "-console-" + logName
+                        + "-chrome.log",
+                    new File(outputLogsParentFolder,
+                        "chrome-console-" + logName + ".log"));
+            }
         }
-        catch (Exception e)
+
+        /**
+         * Stores the screenshots recorded before the failure as an image
+         * sequence, waiting for them at most the configured timeout. The
+         * names contain the sequence number and how many milliseconds before
+         * the failure the screenshot was taken.
+         * @param archive where to store the screenshots.
+         */
+        private void saveRecordedFrames(ArtifactArchive archive)
         {
-            //e.printStackTrace();
-        }
-    }
+            List<ScreenshotFlightRecorder.Frame> frames;
+            try
+            {
+                frames = recordedFrames.get(
+                    Long.getLong(
+                        ARTIFACT_TIMEOUT_PNAME, DEFAULT_ARTIFACT_TIMEOUT),
+                    TimeUnit.SECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                recordedFrames.cancel(true);
+                archive.skip(
+                    "flight-recorder/" + fileNamePrefix + "-" + shortName,
+                    "timeout");
+                return;
+            }
+            catch (InterruptedException e)
+            {
+                recordedFrames.cancel(true);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e)
+            {
+                archive.skip(
+                    "flight-recorder/" + fileNamePrefix + "-" + shortName,
+                    String.valueOf(e.getCause()));
+                return;
+            }
 
-    /**
-     * Saves browser console logs.
-     */
-    private void saveBrowserLogs(String fileNamePrefix)
-    {
-        saveBrowserLogs(ConferenceFixture.getOwner(),
-            fileNamePrefix, "-console-owner", ".log");
+            int index = 0;
+            for (ScreenshotFlightRecorder.Frame frame : frames)
+            {
+                archive.add(
+                    String.format(
+                        "flight-recorder/%s-%s-%03d-minus%dms.jpg",
+                        fileNamePrefix, shortName, index++,
+                        failureTime - frame.timestamp),
+                    frame.jpeg);
+            }
+        }
 
-        WebDriver secondParticipant =
-            ConferenceFixture.getSecondParticipantInstance();
-        if(secondParticipant != null)
-            saveBrowserLogs(secondParticipant,
-                fileNamePrefix, "-console-secondParticipant", ".log");
+        /**
+         * Obtains an artifact waiting at most the configured timeout and
+         * stores it in the archive.
+         * @param archive where to store the artifact.
+         * @param name the name of the artifact in the archive.
+         * @param artifact obtains the content of the artifact.
+         * @return <tt>false</tt> if the artifact was not obtained in time,
+         * <tt>true</tt> otherwise (even if obtaining it failed).
+         */
+        private boolean save(
+            ArtifactArchive archive, String name, Callable<byte[]> artifact)
+        {
+            Future<byte[]> future = artifactsExecutor.submit(artifact);
+            try
+            {
+                byte[] content = future.get(
+                    Long.getLong(
+                        ARTIFACT_TIMEOUT_PNAME, DEFAULT_ARTIFACT_TIMEOUT),
+                    TimeUnit.SECONDS);
 
-        WebDriver thirdParticipant =
-            ConferenceFixture.getThirdParticipantInstance();
-        if(thirdParticipant != null)
-            saveBrowserLogs(thirdParticipant,
-                fileNamePrefix, "-console-thirdParticipant", ".log");
-    }
+                if (content != null)
+                    archive.add(name, content);
 
-    /**
-     * Saves current java thread dump.
-     */
-    private void saveThreadDump(String fileNamePrefix)
-    {
-        StringBuilder dump = new StringBuilder();
-        ThreadMXBean tbean = ManagementFactory.getThreadMXBean();
-        ThreadInfo[] threads
-            = tbean.getThreadInfo(tbean.getAllThreadIds(), 150);
-        for (ThreadInfo tinfo : threads)
-        {
-            dump.append(tinfo);
-            dump.append("\n");
+                return true;
+            }
+            catch (TimeoutException e)
+            {
+                future.cancel(true);
+                archive.skip(name, "timeout");
+                return false;
+            }
+            catch (InterruptedException e)
+            {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            catch (ExecutionException e)
+            {
+                archive.skip(name, String.valueOf(e.getCause()));
+                return true;
+            }
         }
 
-        try
+        /**
+         * Returns the log from meet, gzipped. If the logs are drained during
+         * the run only the tail is retrieved now, and only the part of the
+         * drained log of the failing test is returned, the complete log is
+         * in the participant's meet log file.
+         * @return the log from meet.
+         * @throws IOException if the log cannot be retrieved.
+         */
+        private byte[] getMeetDebugLog()
+            throws IOException
         {
-            BufferedWriter out = new BufferedWriter(new FileWriter(
-                new File(outputLogsParentFolder,
-                    fileNamePrefix + ".tdump")));
-            out.write(dump.toString());
-            out.flush();
-            out.close();
+            MeetLogDrainer meetLogDrainer = MeetLogDrainer.getInstance();
+            byte[] drained
+                = meetLogDrainer == null ? null
+                    : meetLogDrainer.drainForFailure(driver);
+
+            if (drained != null)
+                return drained;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (Writer out = new OutputStreamWriter(
+                    new GZIPOutputStream(bytes), "UTF-8"))
+            {
+                // the whole log, without moving the cursor of the drains, so
+                // a later failure on the same page gets it all again
+                MeetLogDrainer.dump(driver, out);
+            }
+
+            return bytes.toByteArray();
         }
-        catch (IOException e){}
-    }
 
-    /**
-     * Saves browser console logs.
-     */
-    private void saveBrowserLogs(WebDriver driver,
-        String fileNamePrefix, String suffix, String extension)
-    {
-        try
+        /**
+         * Returns browser console logs. If the logs are drained during the
+         * run, only the last lines are returned, the complete log is in the
+         * participant's browser console log file.
+         * @return browser console logs.
+         */
+        private byte[] getBrowserLogs()
         {
-            LogEntries logs = driver.manage().logs().get(LogType.BROWSER);
+            StringBuilder out = new StringBuilder();
 
-            BufferedWriter out = new BufferedWriter(new FileWriter(
-                new File(outputLogsParentFolder,
-                        fileNamePrefix + suffix + "-driver" + extension)));
+            BrowserLogDrainer logDrainer = BrowserLogDrainer.getInstance();
+            List<String> tail
+                = logDrainer == null ? null
+                    : logDrainer.drainAndGetTail(driver);
 
-            Iterator<LogEntry> iter = logs.iterator();
-            while (iter.hasNext())
+            if (tail != null)
             {
-                LogEntry e = iter.next();
+                for (String line : tail)
+                {
+                    out.append(line).append("\n");
+                }
 
-                out.write(e.toString());
-                out.newLine();
-                out.newLine();
+                return out.toString().getBytes();
             }
-            out.flush();
-            out.close();
 
-            if (ConferenceFixture.getBrowserType(driver)
-                == ConferenceFixture.BrowserType.chrome)
+            LogEntries logs = driver.manage().logs().get(LogType.BROWSER);
+
+            for (LogEntry e : logs)
             {
-                FileUtils.copyFile(
-                    new File(outputLogsParentFolder,
-                            "chrome" + suffix + ".log"),
-                    new File(outputLogsParentFolder,
-                            fileNamePrefix + suffix + "-chrome" + extension)
-                    );
+                out.append(e.toString()).append("\n\n");
             }
-        }
-        catch (IOException e)
-        {
-            // cannot create file or something
+
+            return out.toString().getBytes();
         }
     }
 }
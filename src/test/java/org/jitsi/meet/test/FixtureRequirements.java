@@ -0,0 +1,94 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares what a test needs from {@link ConferenceFixture} and what it
+ * leaves behind, so that {@link FixtureScheduler} can order the tests to
+ * reuse the running participants. A test without it runs with the two
+ * participants started by {@link SetupConference}, starts no browser itself
+ * and leaves them usable.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface FixtureRequirements
+{
+    /**
+     * The number of participants the test runs with. The missing ones are
+     * started when it begins, unless it is {@link #fresh()}.
+     */
+    int participants() default 2;
+
+    /**
+     * The number of participants the test leaves running, -1 for
+     * {@link #participants()}.
+     */
+    int leaves() default -1;
+
+    /**
+     * The number of browsers the test starts itself whatever runs before it,
+     * e.g. to join again or to add a third participant, besides the ones of
+     * a {@link #fresh()} start.
+     */
+    int starts() default 0;
+
+    /**
+     * The name of the integer property which overrides {@link #starts()},
+     * for a test which starts a configurable number of browsers, empty if
+     * there is none.
+     */
+    String startsProperty() default "";
+
+    /**
+     * The URL fragment config the participants are started with, e.g.
+     * <tt>config.enableP2P=false</tt>, empty for the default config.
+     */
+    String config() default "";
+
+    /**
+     * The fake video file the participants are started with, empty for the
+     * one of the run.
+     */
+    String videoFile() default "";
+
+    /**
+     * The fake audio file the participants are started with, empty for the
+     * one of the run.
+     */
+    String audioFile() default "";
+
+    /**
+     * Whether the test starts its own participants whatever runs before it,
+     * so it does not reuse any. It leaves them with its config and media.
+     */
+    boolean fresh() default false;
+
+    /**
+     * Whether the test leaves the fixture unusable for the tests after it,
+     * e.g. with the owner gone or the fake media of the run changed. Such
+     * tests are run after all the others.
+     */
+    boolean destructive() default false;
+
+    /**
+     * Whether the test runs with any participants left running, whatever
+     * their config and media, even after a destructive test.
+     */
+    boolean anyParticipants() default false;
+}
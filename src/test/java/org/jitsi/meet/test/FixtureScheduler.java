@@ -0,0 +1,429 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test;
+
+import junit.framework.*;
+
+import java.util.*;
+
+/**
+ * Orders the tests from their {@link FixtureRequirements} so that they reuse
+ * the running participants as much as possible. The tests which need the
+ * same config, media and number of participants are run together, and the
+ * destructive tests after all the others, in the order they were given.
+ * Before a test which needs participants the fixture cannot give (another
+ * config or media, or after a destructive test), a {@link RestartFixture}
+ * step restarts them.
+ *
+ * The cost of an order is the number of browsers it starts after
+ * {@link SetupConference}: the restarts, the participants started when a
+ * test begins or by a fresh test, and the browsers the tests declare to
+ * start themselves. The costs of the given order and of the schedule are
+ * printed, so the browser starts the schedule saves are visible in the
+ * output of the run.
+ */
+public class FixtureScheduler
+{
+    /**
+     * The name of the property which enables the scheduling of the tests,
+     * defaults to <tt>false</tt>: the tests are run in the order they are
+     * given.
+     */
+    public static final String SCHEDULE_PNAME = "jitsi-meet.tests.schedule";
+
+    /**
+     * The requirements of the tests without {@link FixtureRequirements}.
+     */
+    private static final FixtureRequirements DEFAULT_REQUIREMENTS
+        = Defaults.class.getAnnotation(FixtureRequirements.class);
+
+    /**
+     * The steps of the schedule.
+     */
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * The browsers started by the given order.
+     */
+    private final int givenStarts;
+
+    /**
+     * The browsers started by the schedule.
+     */
+    private final int scheduledStarts;
+
+    /**
+     * Schedules tests.
+     * @param tests the simple class names of the tests, in the order they
+     * were given, without <tt>SetupConference</tt> and
+     * <tt>DisposeConference</tt>.
+     */
+    public FixtureScheduler(List<String> tests)
+    {
+        givenStarts = simulate(tests, null);
+
+        List<String> remaining = new LinkedList<>();
+        List<String> destructive = new ArrayList<>();
+        for (String test : tests)
+        {
+            if (getRequirements(test).destructive())
+                destructive.add(test);
+            else
+                remaining.add(test);
+        }
+
+        // picks the test which starts the fewest participants in the current
+        // state, then the one keeping the number of participants, then the
+        // first given
+        List<String> order = new ArrayList<>();
+        State state = new State();
+        while (!remaining.isEmpty())
+        {
+            String best = null;
+            int bestStarts = Integer.MAX_VALUE;
+            boolean bestKeepsCount = false;
+            for (String test : remaining)
+            {
+                FixtureRequirements requirements = getRequirements(test);
+                int starts = state.getStarts(requirements);
+                boolean keepsCount
+                    = requirements.participants() == state.count;
+                if (starts < bestStarts
+                    || (starts == bestStarts && keepsCount && !bestKeepsCount))
+                {
+                    best = test;
+                    bestStarts = starts;
+                    bestKeepsCount = keepsCount;
+                }
+            }
+            remaining.remove(best);
+            order.add(best);
+            state.apply(getRequirements(best));
+        }
+        order.addAll(destructive);
+
+        scheduledStarts = simulate(order, steps);
+    }
+
+    /**
+     * Returns the requirements of a test.
+     * @param test the simple class name of the test.
+     * @return the requirements of the test, the default ones if it does not
+     * declare any or cannot be found.
+     */
+    public static FixtureRequirements getRequirements(String test)
+    {
+        try
+        {
+            // reads the annotation without initializing the test
+            FixtureRequirements requirements
+                = Class.forName(
+                        FixtureScheduler.class.getPackage().getName()
+                            + "." + test,
+                        false,
+                        FixtureScheduler.class.getClassLoader())
+                    .getAnnotation(FixtureRequirements.class);
+            if (requirements != null)
+                return requirements;
+        }
+        catch (ClassNotFoundException e)
+        {
+            // TestsRunner reports it
+        }
+
+        return DEFAULT_REQUIREMENTS;
+    }
+
+    /**
+     * Returns what participants started for a test share, so that the tests
+     * with the same key can reuse them.
+     * @param requirements the requirements of the test.
+     * @return the config and media of the test.
+     */
+    static String getKey(FixtureRequirements requirements)
+    {
+        return requirements.config() + "|" + requirements.videoFile()
+            + "|" + requirements.audioFile();
+    }
+
+    /**
+     * Returns the browsers a test starts itself.
+     * @param requirements the requirements of the test.
+     * @return the value of {@link FixtureRequirements#startsProperty()} if
+     * it is set, {@link FixtureRequirements#starts()} otherwise.
+     */
+    static int getStarts(FixtureRequirements requirements)
+    {
+        return requirements.startsProperty().isEmpty()
+            ? requirements.starts()
+            : Integer.getInteger(
+                requirements.startsProperty(), requirements.starts());
+    }
+
+    /**
+     * Counts the browsers an order starts and adds its steps.
+     * @param order the simple class names of the tests.
+     * @param steps the list the steps are added to, <tt>null</tt> to only
+     * count.
+     * @return the browsers started.
+     */
+    private static int simulate(List<String> order, List<Step> steps)
+    {
+        State state = new State();
+        int starts = 0;
+        for (String test : order)
+        {
+            FixtureRequirements requirements = getRequirements(test);
+            if (steps != null && state.needsRestart(requirements))
+                steps.add(new Step(null, requirements));
+            if (steps != null)
+                steps.add(new Step(test, requirements));
+
+            starts += state.getStarts(requirements) + getStarts(requirements);
+            state.apply(requirements);
+        }
+
+        return starts;
+    }
+
+    /**
+     * Returns the steps of the schedule.
+     * @return the steps, the tests and the restarts before them.
+     */
+    public List<Step> getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * Returns the browsers started by the given order.
+     * @return the browsers started.
+     */
+    public int getGivenStarts()
+    {
+        return givenStarts;
+    }
+
+    /**
+     * Returns the browsers started by the schedule.
+     * @return the browsers started.
+     */
+    public int getScheduledStarts()
+    {
+        return scheduledStarts;
+    }
+
+    /**
+     * Describes the schedule and what it saves.
+     * @return the description.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder order = new StringBuilder();
+        for (Step step : steps)
+        {
+            if (order.length() > 0)
+                order.append(", ");
+            order.append(step.test == null ? "(restart)" : step.test);
+        }
+
+        return "Scheduled " + order + ": starts " + scheduledStarts
+            + " browsers instead of " + givenStarts + ", saving "
+            + (givenStarts - scheduledStarts) + " browser starts";
+    }
+
+    /**
+     * A test of the schedule or a restart of the fixture.
+     */
+    public static class Step
+    {
+        /**
+         * The simple class name of the test, <tt>null</tt> for a restart.
+         */
+        private final String test;
+
+        /**
+         * The requirements of the test, or the ones the restart meets.
+         */
+        private final FixtureRequirements requirements;
+
+        /**
+         * Creates new step.
+         * @param test the simple class name of the test, <tt>null</tt> for a
+         * restart.
+         * @param requirements the requirements of the test.
+         */
+        Step(String test, FixtureRequirements requirements)
+        {
+            this.test = test;
+            this.requirements = requirements;
+        }
+
+        /**
+         * Returns the simple class name of the test.
+         * @return the simple class name of the test, <tt>null</tt> for a
+         * restart.
+         */
+        public String getTest()
+        {
+            return test;
+        }
+
+        /**
+         * Returns the restart of this step.
+         * @return the test restarting the fixture, <tt>null</tt> if this step
+         * is not a restart.
+         */
+        public TestCase getRestart()
+        {
+            return test == null ? new RestartFixture(requirements) : null;
+        }
+    }
+
+    /**
+     * The state of the fixture after a test.
+     */
+    private static class State
+    {
+        /**
+         * The config and media the participants were started with.
+         */
+        private String key = getKey(DEFAULT_REQUIREMENTS);
+
+        /**
+         * Whether the participants can be reused.
+         */
+        private boolean usable = true;
+
+        /**
+         * The number of participants running.
+         */
+        private int count = DEFAULT_REQUIREMENTS.participants();
+
+        /**
+         * Checks whether the fixture must be restarted for a test.
+         * @param requirements the requirements of the test.
+         * @return <tt>true</tt> if the participants must be restarted.
+         */
+        boolean needsRestart(FixtureRequirements requirements)
+        {
+            if (requirements.fresh())
+                return false;
+            if (requirements.anyParticipants())
+                return count == 0;
+
+            return !usable || !key.equals(getKey(requirements));
+        }
+
+        /**
+         * Returns the participants which are started for a test.
+         * @param requirements the requirements of the test.
+         * @return the number of participants started.
+         */
+        int getStarts(FixtureRequirements requirements)
+        {
+            if (requirements.fresh() || needsRestart(requirements))
+                return requirements.participants();
+
+            return Math.max(0, requirements.participants() - count);
+        }
+
+        /**
+         * Updates the state after a test.
+         * @param requirements the requirements of the test.
+         */
+        void apply(FixtureRequirements requirements)
+        {
+            // participants reused whatever their config keep it
+            if (!requirements.anyParticipants() || count == 0)
+                key = getKey(requirements);
+            usable = !requirements.destructive();
+            count = requirements.leaves() < 0
+                ? requirements.participants() : requirements.leaves();
+        }
+    }
+
+    /**
+     * Restarts the participants with the config and media of the next test.
+     */
+    public static class RestartFixture
+        extends TestCase
+    {
+        /**
+         * The requirements of the next test.
+         */
+        private final FixtureRequirements requirements;
+
+        /**
+         * Creates new restart.
+         * @param requirements the requirements of the next test.
+         */
+        RestartFixture(FixtureRequirements requirements)
+        {
+            super("restartFixture");
+            this.requirements = requirements;
+        }
+
+        /**
+         * Quits the participants and starts them again.
+         */
+        public void restartFixture()
+        {
+            System.err.println("Restarting the participants for "
+                + requirements.participants() + " participants, config '"
+                + requirements.config() + "'");
+
+            new DisposeConference().testDispose();
+
+            TestsRunner.setFakeAudioStreamFile();
+            TestsRunner.setFakeVideoStreamFile();
+            if (!requirements.audioFile().isEmpty())
+            {
+                ConferenceFixture.setFakeStreamAudioFile(
+                    requirements.audioFile());
+            }
+            if (!requirements.videoFile().isEmpty())
+            {
+                ConferenceFixture.setFakeStreamVideoFile(
+                    requirements.videoFile());
+            }
+
+            String config = requirements.config().isEmpty()
+                ? null : requirements.config();
+            ConferenceFixture.startOwner(config);
+            ConferenceFixture.waitForOwnerToJoinMUC();
+            if (requirements.participants() > 1)
+            {
+                ConferenceFixture.startSecondParticipant(config);
+                ConferenceFixture.waitForSecondParticipantToConnect();
+            }
+            if (requirements.participants() > 2)
+            {
+                ConferenceFixture.startThirdParticipant(config);
+                ConferenceFixture.waitForThirdParticipantToConnect();
+            }
+        }
+    }
+
+    /**
+     * Carries the default requirements.
+     */
+    @FixtureRequirements
+    private static class Defaults
+    {
+    }
+}
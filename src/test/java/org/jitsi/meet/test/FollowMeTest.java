@@ -28,6 +28,7 @@ import org.openqa.selenium.*;
  *
  * @author Kostiantyn Tsaregradskyi
  */
+@FixtureRequirements(starts = 2)
 public class FollowMeTest
     extends TestCase
 {
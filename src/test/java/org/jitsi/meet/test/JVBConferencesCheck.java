@@ -16,12 +16,7 @@
 package org.jitsi.meet.test;
 
 import junit.framework.*;
-import org.apache.http.*;
-import org.apache.http.client.methods.*;
-import org.apache.http.impl.client.*;
-import org.apache.http.protocol.*;
-import org.apache.http.util.*;
-import com.google.gson.*;
+import org.jitsi.meet.test.util.*;
 
 import java.net.*;
 import java.util.*;
@@ -39,10 +34,10 @@ public class JVBConferencesCheck
     extends TestCase
 {
     /**
-     * List used to save the list of available conferences on the first run
-     * of the test.
+     * Keeps the conferences available on the first run of the test, so
+     * the second run can find the new ones.
      */
-    private static List<String> firstRunConferences = null;
+    private static ConferenceTracker tracker = null;
 
     /**
      * Just gets the url to connect to the jvb instance and saves
@@ -53,7 +48,7 @@ public class JVBConferencesCheck
     {
         String jvbAddress = System.getProperty("jitsi-meet.jvb.address");
 
-        HttpHost targetHost = null;
+        String endpoint = null;
 
         if(jvbAddress == null)
         {
@@ -63,7 +58,7 @@ public class JVBConferencesCheck
             {
                 String host = new URL(meetAddress).getHost();
 
-                targetHost = new HttpHost(host, 8080, "http");
+                endpoint = "http://" + host + ":8080";
             }
             catch(Throwable t)
             {
@@ -75,8 +70,8 @@ public class JVBConferencesCheck
             try
             {
                 URL url = new URL(jvbAddress);
-                targetHost = new HttpHost(
-                    url.getHost(), url.getPort(), url.getProtocol());
+                endpoint = url.getProtocol() + "://" + url.getHost()
+                    + (url.getPort() == -1 ? "" : ":" + url.getPort());
             }
             catch(Throwable t)
             {
@@ -84,60 +79,26 @@ public class JVBConferencesCheck
             }
         }
 
-        CloseableHttpClient httpClient = HttpClientBuilder.create().build();
+        boolean firstRun = tracker == null;
+        if(firstRun)
+            tracker = new ConferenceTracker(endpoint);
 
-        HttpGet httpget = new HttpGet("/colibri/conferences");
-
-        CloseableHttpResponse response = null;
-
-        ArrayList<String> conferencesList = new ArrayList<String>();
+        Set<String> newConferences = Collections.emptySet();
         try
         {
-            response = httpClient.execute(
-                targetHost, httpget, (HttpContext)null);
-
-            HttpEntity entity = response.getEntity();
-            String value = EntityUtils.toString(entity);
-
-            JsonElement jsonElem = new JsonParser().parse(value);
-            if(jsonElem.isJsonArray())
-            {
-                JsonArray jsonArray = jsonElem.getAsJsonArray();
-                for(int i = 0; i < jsonArray.size(); i++)
-                {
-                    conferencesList.add(
-                        ((JsonObject)jsonArray.get(i)).get("id").getAsString());
-                }
-            }
+            newConferences = tracker.sample().created;
         }
         catch(Throwable t)
         {
             t.printStackTrace();
         }
-        finally
-        {
-            if(response != null)
-            {
-                try
-                {
-                    response.close();
-                }
-                catch(Throwable t){}
-            }
-        }
 
-        if(firstRunConferences == null)
+        if(!firstRun)
         {
-            firstRunConferences = conferencesList;
-        }
-        else
-        {
-            conferencesList.removeAll(firstRunConferences);
-
-            System.err.println("NEW_CONFERENCES=" + conferencesList);
+            System.err.println("NEW_CONFERENCES=" + newConferences);
 
             assertFalse("The list of conferences must not be empty",
-                conferencesList.isEmpty());
+                newConferences.isEmpty());
         }
     }
 }
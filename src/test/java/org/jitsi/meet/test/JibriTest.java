@@ -28,6 +28,7 @@ import junit.framework.*;
  *
  * @author Hristo Terezov
  */
+@FixtureRequirements(starts = 2)
 public class JibriTest
     extends TestCase
 {
@@ -0,0 +1,334 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test;
+
+import com.google.common.util.concurrent.*;
+import junit.framework.*;
+
+import org.jitsi.meet.test.perf.*;
+import org.jitsi.meet.test.util.*;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.support.ui.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Simulates a scheduled meeting starting: N browsers are started and load
+ * the app (the welcome page) first, then all of them join the same empty
+ * room at once, released by a barrier. For every participant the time to
+ * join the MUC (since the room page started to load), from the MUC join to
+ * the session-initiate and from the session-initiate to the ICE connection
+ * are read from the connection times of the room. Their distributions and
+ * the number of participants which did not get there are recorded with
+ * {@link BenchmarkResults} (benchmark <tt>joinStorm</tt>).
+ *
+ * Starts many browsers, so it is not run by default (like
+ * {@link LoadTest}). Works at a small N against the fake app
+ * (<tt>-Djitsi-meet.fakeMeet=true</tt>).
+ */
+public class JoinStormTest
+    extends TestCase
+{
+    /**
+     * The name of the property with the comma separated numbers of
+     * participants of the storms, e.g. <tt>5,50</tt>.
+     */
+    public static final String PARTICIPANTS_PNAME
+        = "jitsi-meet.joinStorm.participants";
+
+    /**
+     * The name of the property with the time the participants have to get
+     * connected after the release, in seconds.
+     */
+    public static final String TIMEOUT_PNAME = "jitsi-meet.joinStorm.timeout";
+
+    /**
+     * The name of the benchmark in the results.
+     */
+    private static final String BENCHMARK = "joinStorm";
+
+    /**
+     * The steps of a join which are measured: the name in the results, the
+     * connection time it starts from (<tt>null</tt> for the start of the
+     * page load) and the connection time it ends with.
+     */
+    private static final String[][] STEPS = {
+        { "mucJoin", null, "muc.joined" },
+        { "sessionInitiate", "muc.joined", "session.initiate" },
+        { "iceConnect", "session.initiate", "ice.state.connected" },
+        { "join", null, "ice.state.connected" }
+    };
+
+    /**
+     * Runs a storm for every number of participants.
+     */
+    public void testJoinStorm()
+        throws Exception
+    {
+        for (String n
+                : System.getProperty(PARTICIPANTS_PNAME, "10").split(","))
+        {
+            storm(Integer.parseInt(n.trim()));
+        }
+    }
+
+    /**
+     * Runs a storm and records its results.
+     * @param n the number of participants.
+     * @throws InterruptedException if interrupted.
+     */
+    private void storm(int n)
+        throws InterruptedException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(
+            n,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("storm-%d")
+                .build());
+        final List<WebDriver> drivers
+            = Collections.synchronizedList(new ArrayList<WebDriver>());
+        try
+        {
+            // pre-launch the browsers with the app loaded
+            final String welcomePage
+                = System.getProperty(ConferenceFixture.JITSI_MEET_URL_PROP)
+                    + "/";
+            List<Future<WebDriver>> launches = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+            {
+                launches.add(pool.submit(new Callable<WebDriver>()
+                {
+                    @Override
+                    public WebDriver call()
+                    {
+                        WebDriver driver
+                            = ConferenceFixture.startParticipantDriver();
+                        drivers.add(driver);
+                        driver.get(welcomePage);
+                        MeetUtils.waitForPageToLoad(driver);
+                        return driver;
+                    }
+                }));
+            }
+            List<WebDriver> launched = new ArrayList<>();
+            for (Future<WebDriver> launch : launches)
+            {
+                try
+                {
+                    launched.add(launch.get());
+                }
+                catch (ExecutionException e)
+                {
+                    e.getCause().printStackTrace();
+                }
+            }
+            if (launched.isEmpty())
+                fail("No browser could be started");
+
+            final String room
+                = ConferenceFixture.currentRoomName + "-storm" + n;
+            final int timeout = Integer.getInteger(TIMEOUT_PNAME, 60);
+            final CyclicBarrier barrier = new CyclicBarrier(launched.size());
+            List<Future<Join>> joins = new ArrayList<>();
+            for (final WebDriver driver : launched)
+            {
+                joins.add(pool.submit(new Callable<Join>()
+                {
+                    @Override
+                    public Join call()
+                        throws Exception
+                    {
+                        barrier.await();
+                        return join(driver, room, timeout);
+                    }
+                }));
+            }
+
+            List<Join> results = new ArrayList<>();
+            for (Future<Join> join : joins)
+            {
+                try
+                {
+                    results.add(join.get());
+                }
+                catch (ExecutionException e)
+                {
+                    e.getCause().printStackTrace();
+                    results.add(new Join());
+                }
+            }
+
+            record(n, launched.size(), results);
+        }
+        finally
+        {
+            pool.shutdownNow();
+            synchronized (drivers)
+            {
+                for (WebDriver driver : drivers)
+                {
+                    try
+                    {
+                        ConferenceFixture.quit(driver, false);
+                    }
+                    catch (Throwable t)
+                    {
+                        t.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the room and waits for the ICE connection.
+     * @param driver the participant.
+     * @param room the room.
+     * @param timeout the time to get connected in seconds.
+     * @return the join.
+     */
+    private static Join join(WebDriver driver, String room, int timeout)
+    {
+        Join join = new Join();
+        join.released = System.currentTimeMillis();
+        try
+        {
+            ConferenceFixture.openRoom(driver, room, null,
+                ConferenceFixture.getBrowserType(driver));
+            TestUtils.waitForCondition(driver, timeout,
+                new ExpectedCondition<Boolean>()
+                {
+                    @Override
+                    public Boolean apply(WebDriver w)
+                    {
+                        return MeetUtils.getRoomConnectionTimes(w)
+                            .containsKey("ice.state.connected");
+                    }
+                });
+        }
+        catch (RuntimeException e)
+        {
+            join.error = e.toString();
+        }
+
+        try
+        {
+            join.times = MeetUtils.getRoomConnectionTimes(driver);
+        }
+        catch (RuntimeException e)
+        {
+            if (join.error == null)
+                join.error = e.toString();
+        }
+
+        return join;
+    }
+
+    /**
+     * Records and prints the results of a storm.
+     * @param n the number of participants.
+     * @param launched the number of browsers which were started.
+     * @param joins the joins.
+     */
+    private static void record(int n, int launched, List<Join> joins)
+    {
+        long firstRelease = Long.MAX_VALUE;
+        long lastRelease = Long.MIN_VALUE;
+        for (Join join : joins)
+        {
+            if (join.released == 0)
+                continue;
+            firstRelease = Math.min(firstRelease, join.released);
+            lastRelease = Math.max(lastRelease, join.released);
+        }
+
+        StringBuilder table = new StringBuilder(
+            "Join storm of " + n + ": step\tjoined\tfailed\tp50\tp95\tmax");
+        int failed = 0;
+        for (String[] step : STEPS)
+        {
+            LatencyHistogram times = new LatencyHistogram();
+            int stepFailed = 0;
+            for (Join join : joins)
+            {
+                Double from = step[1] == null ? Double.valueOf(0)
+                    : join.times.get(step[1]);
+                Double to = join.times.get(step[2]);
+                if (from == null || to == null)
+                    stepFailed++;
+                else
+                    times.record(Math.max(0, Math.round((to - from) * 1000)));
+            }
+            if (step[0].equals("join"))
+                failed = stepFailed;
+
+            Map<String, Number> extra = new LinkedHashMap<>();
+            extra.put("participants", n);
+            extra.put("failed", stepFailed);
+            BenchmarkResults.record(BENCHMARK, "n" + n + "." + step[0],
+                times.getCount() > 0 ? times : null, extra);
+
+            table.append('\n').append(step[0])
+                .append('\t').append(times.getCount())
+                .append('\t').append(stepFailed);
+            if (times.getCount() > 0)
+            {
+                table.append('\t').append(times.getQuantile(0.5) / 1000)
+                    .append('\t').append(times.getQuantile(0.95) / 1000)
+                    .append('\t').append(times.getMax() / 1000);
+            }
+        }
+
+        Map<String, Number> extra = new LinkedHashMap<>();
+        extra.put("participants", n);
+        extra.put("launched", launched);
+        extra.put("failed", failed + n - joins.size());
+        if (firstRelease <= lastRelease)
+            extra.put("releaseSpreadMs", lastRelease - firstRelease);
+        BenchmarkResults.record(BENCHMARK, "n" + n, null, extra);
+
+        for (Join join : joins)
+        {
+            if (join.error != null)
+                System.err.println("Join storm failure: " + join.error);
+        }
+        System.err.println(table);
+    }
+
+    /**
+     * The join of a participant.
+     */
+    private static class Join
+    {
+        /**
+         * The time the participant was released, 0 if it was not.
+         */
+        private long released;
+
+        /**
+         * The connection times of the room.
+         */
+        private Map<String, Double> times = Collections.emptyMap();
+
+        /**
+         * Why the participant did not get connected.
+         */
+        private String error;
+    }
+}
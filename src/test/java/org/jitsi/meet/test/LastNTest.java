@@ -26,6 +26,7 @@ import java.util.*;
  * The tests for LastN feature.
  *
  */
+@FixtureRequirements(participants = 3, leaves = 2, fresh = true, starts = 2)
 public class LastNTest
     extends TestCase
 {
@@ -18,6 +18,7 @@ package org.jitsi.meet.test;
 import junit.framework.*;
 
 import org.jitsi.meet.test.capture.*;
+import org.jitsi.meet.test.perf.*;
 import org.jitsi.meet.test.tasks.*;
 import org.jitsi.meet.test.util.*;
 
@@ -61,6 +62,13 @@ import java.util.concurrent.*;
  *
  * @author Pawel Domas
  */
+@FixtureRequirements(
+    config = "config.enableLipSync=true&config.audioPacketDelay=15"
+        + "&config.audioLevelsInterval=100",
+    videoFile = "resources/fakeVideoStream.y4m",
+    audioFile = "resources/fakeAudioStream-lipsync.wav",
+    fresh = true,
+    destructive = true)
 public class LipSyncTest
     extends TestCase
 {
@@ -205,6 +213,12 @@ public class LipSyncTest
         double syncRatio = lastGreenAvg / beepAvg;
         System.err.println("A/V sync ratio: " + syncRatio);
 
+        Map<String, Number> results = new LinkedHashMap<>();
+        results.put("beepDelayMs", beepAvg);
+        results.put("lastGreenDelayMs", lastGreenAvg);
+        results.put("syncRatio", syncRatio);
+        BenchmarkResults.record("lipSync", "owner", null, results);
+
         ownerOperator.dispose();
         participantOperator.dispose();
 
@@ -0,0 +1,726 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test;
+
+import com.google.common.util.concurrent.*;
+import com.google.gson.stream.*;
+import junit.framework.*;
+
+import org.jitsi.meet.test.perf.*;
+import org.jitsi.meet.test.tasks.*;
+import org.jitsi.meet.test.util.*;
+
+import org.openqa.selenium.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Generates load: participants join rooms of {@link #ROOM_SIZE_PNAME}
+ * following a ramp profile. They join at {@link #RATE_PNAME} per second up
+ * to {@link #TARGET_PNAME}, stay for {@link #HOLD_PNAME} seconds and leave
+ * at {@link #RAMP_DOWN_RATE_PNAME} per second, {@link #CYCLES_PNAME} times.
+ * At most {@link #CONCURRENCY_PNAME} browsers are started or join at the
+ * same time; when the limit is reached the ramp is late rather than
+ * queueing joins. Participants which leave or fail keep their browser,
+ * hung up, for the next joins.
+ *
+ * Every join, with its result and latency from opening the room to joining
+ * the MUC, is written to <tt>load-participants.jsonl</tt>. For every
+ * {@link #STEP_PNAME} participants the join success ratio, the join times
+ * and the bridge statistics at that point are recorded with
+ * {@link BenchmarkResults} (benchmark <tt>load</tt>), and the load curve is
+ * printed.
+ *
+ * Starts many browsers, so it is not run by default (like
+ * {@link NetworkImpairmentTest}).
+ */
+public class LoadTest
+    extends TestCase
+{
+    /**
+     * The name of the property with the number of participants to reach.
+     */
+    public static final String TARGET_PNAME = "jitsi-meet.load.target";
+
+    /**
+     * The name of the property with the joins per second of the ramp-up.
+     */
+    public static final String RATE_PNAME = "jitsi-meet.load.rate";
+
+    /**
+     * The name of the property with how long the target is held in seconds.
+     */
+    public static final String HOLD_PNAME = "jitsi-meet.load.hold";
+
+    /**
+     * The name of the property with the leaves per second of the ramp-down,
+     * defaults to the rate of the ramp-up.
+     */
+    public static final String RAMP_DOWN_RATE_PNAME
+        = "jitsi-meet.load.rampDownRate";
+
+    /**
+     * The name of the property with the number of participants per room.
+     */
+    public static final String ROOM_SIZE_PNAME = "jitsi-meet.load.roomSize";
+
+    /**
+     * The name of the property with the number of browsers which can be
+     * started or join at the same time.
+     */
+    public static final String CONCURRENCY_PNAME
+        = "jitsi-meet.load.concurrency";
+
+    /**
+     * The name of the property with the number of participants between two
+     * points of the load curve.
+     */
+    public static final String STEP_PNAME = "jitsi-meet.load.step";
+
+    /**
+     * The name of the property with the number of times the whole profile
+     * is run. The cycles after the first join with recycled browsers.
+     */
+    public static final String CYCLES_PNAME = "jitsi-meet.load.cycles";
+
+    /**
+     * The name of the property with the time a participant has to join the
+     * MUC in seconds.
+     */
+    public static final String JOIN_TIMEOUT_PNAME
+        = "jitsi-meet.load.joinTimeout";
+
+    /**
+     * The name of the property with the interval between two reads of the
+     * bridge statistics in milliseconds, 0 to not read them.
+     */
+    public static final String STATS_INTERVAL_PNAME
+        = "jitsi-meet.load.statsInterval";
+
+    /**
+     * The name of the property with the smallest join success ratio for the
+     * test to pass, between 0 and 1. Defaults to 0, i.e. the test only
+     * reports.
+     */
+    public static final String MIN_SUCCESS_RATIO_PNAME
+        = "jitsi-meet.load.minSuccessRatio";
+
+    /**
+     * The name of the file with the joins.
+     */
+    public static final String PARTICIPANTS_FILE = "load-participants.jsonl";
+
+    /**
+     * The name of the benchmark in the results.
+     */
+    private static final String BENCHMARK = "load";
+
+    /**
+     * The number of participants to reach.
+     */
+    private final int target = Integer.getInteger(TARGET_PNAME, 20);
+
+    /**
+     * The joins per second of the ramp-up.
+     */
+    private final double rate
+        = Double.parseDouble(System.getProperty(RATE_PNAME, "1"));
+
+    /**
+     * The leaves per second of the ramp-down.
+     */
+    private final double rampDownRate = Double.parseDouble(
+        System.getProperty(RAMP_DOWN_RATE_PNAME, Double.toString(rate)));
+
+    /**
+     * The number of participants per room.
+     */
+    private final int roomSize = Integer.getInteger(ROOM_SIZE_PNAME, 10);
+
+    /**
+     * The number of participants between two points of the load curve.
+     */
+    private final int step = Math.max(1, Integer.getInteger(STEP_PNAME, 10));
+
+    /**
+     * The time a participant has to join the MUC in seconds.
+     */
+    private final int joinTimeout = Integer.getInteger(JOIN_TIMEOUT_PNAME, 30);
+
+    /**
+     * The browsers which are hung up and can join again.
+     */
+    private final Deque<WebDriver> idle = new ArrayDeque<>();
+
+    /**
+     * All the browsers started.
+     */
+    private final List<WebDriver> drivers = new ArrayList<>();
+
+    /**
+     * All the joins, in the order they were scheduled.
+     */
+    private final List<Join> joins = new ArrayList<>();
+
+    /**
+     * The bridge statistics read during the test, in time order.
+     */
+    private final List<ColibriClient.Stats> bridgeStats
+        = Collections.synchronizedList(new ArrayList<ColibriClient.Stats>());
+
+    /**
+     * Runs the ramp profile and records the load curve.
+     */
+    public void testLoad()
+        throws Exception
+    {
+        int concurrency = Integer.getInteger(CONCURRENCY_PNAME, 8);
+        ExecutorService pool = Executors.newFixedThreadPool(
+            concurrency,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("load-%d")
+                .build());
+        ScheduledExecutorService statsReader
+            = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("load-stats")
+                    .build());
+        Semaphore slots = new Semaphore(concurrency);
+
+        long statsInterval = Long.getLong(STATS_INTERVAL_PNAME, 2000);
+        if (statsInterval > 0)
+        {
+            final String endpoint = BridgeStatsSampler.getDefaultJvbEndpoint();
+            statsReader.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        bridgeStats.add(ColibriClient.getStats(endpoint));
+                    }
+                    catch (IOException e)
+                    {
+                        // the curve goes without the bridge statistics
+                    }
+                }
+            }, 0, statsInterval, TimeUnit.MILLISECONDS);
+        }
+
+        int cycles = Integer.getInteger(CYCLES_PNAME, 1);
+        try
+        {
+            for (int cycle = 0; cycle < cycles; cycle++)
+            {
+                List<Join> active = rampUp(cycle, pool, slots);
+                System.err.println("Load cycle " + cycle + ": "
+                    + active.size() + "/" + target + " joined, holding.");
+                Thread.sleep(Long.getLong(HOLD_PNAME, 60) * 1000);
+                rampDown(active, pool, slots);
+            }
+        }
+        finally
+        {
+            statsReader.shutdownNow();
+            pool.shutdownNow();
+            synchronized (drivers)
+            {
+                for (WebDriver driver : drivers)
+                {
+                    try
+                    {
+                        ConferenceFixture.quit(driver, false);
+                    }
+                    catch (Throwable t)
+                    {
+                        t.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        writeParticipants();
+        double successRatio = recordCurve();
+
+        double minSuccessRatio = Double.parseDouble(
+            System.getProperty(MIN_SUCCESS_RATIO_PNAME, "0"));
+        assertTrue(
+            "Join success ratio " + successRatio + " below " + minSuccessRatio,
+            successRatio >= minSuccessRatio);
+    }
+
+    /**
+     * Makes {@link #target} participants join at {@link #rate} per second.
+     * @param cycle the number of the cycle.
+     * @param pool runs the joins.
+     * @param slots limits the joins in progress.
+     * @return the joins which succeeded.
+     * @throws InterruptedException if interrupted.
+     */
+    private List<Join> rampUp(int cycle, ExecutorService pool, Semaphore slots)
+        throws InterruptedException
+    {
+        List<Future<?>> futures = new ArrayList<>();
+        List<Join> cycleJoins = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < target; i++)
+        {
+            sleepUntil(start, i / rate);
+            slots.acquire();
+
+            Join join = new Join(cycle, i,
+                ConferenceFixture.currentRoomName
+                    + "-load" + cycle + "-" + (i / roomSize));
+            synchronized (joins)
+            {
+                joins.add(join);
+            }
+            cycleJoins.add(join);
+            futures.add(pool.submit(release(join, slots)));
+        }
+        waitFor(futures);
+
+        List<Join> active = new ArrayList<>();
+        for (Join join : cycleJoins)
+        {
+            if (join.success)
+                active.add(join);
+        }
+
+        return active;
+    }
+
+    /**
+     * Makes the participants leave at {@link #rampDownRate} per second, the
+     * last joined first, keeping their browsers for the next joins.
+     * @param active the participants.
+     * @param pool runs the leaves.
+     * @param slots limits the leaves in progress.
+     * @throws InterruptedException if interrupted.
+     */
+    private void rampDown(
+        List<Join> active, ExecutorService pool, Semaphore slots)
+        throws InterruptedException
+    {
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < active.size(); i++)
+        {
+            sleepUntil(start, i / rampDownRate);
+            slots.acquire();
+
+            final WebDriver driver = active.get(active.size() - 1 - i).driver;
+            futures.add(pool.submit(release(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    recycle(driver);
+                }
+            }, slots)));
+        }
+        waitFor(futures);
+    }
+
+    /**
+     * Wraps a task so that it releases a slot when done.
+     * @param task the task.
+     * @param slots the slots.
+     * @return the wrapped task.
+     */
+    private static Runnable release(final Runnable task, final Semaphore slots)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    slots.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits for tasks, printing their failures.
+     * @param futures the tasks.
+     * @throws InterruptedException if interrupted.
+     */
+    private static void waitFor(List<Future<?>> futures)
+        throws InterruptedException
+    {
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Sleeps until a time of the schedule.
+     * @param start the start of the schedule, from {@link System#nanoTime()}.
+     * @param seconds the time in the schedule, in seconds since the start.
+     * @throws InterruptedException if interrupted.
+     */
+    private static void sleepUntil(long start, double seconds)
+        throws InterruptedException
+    {
+        long wait = start + (long) (seconds * 1000000000L) - System.nanoTime();
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * Returns a hung up browser.
+     * @return the browser, <tt>null</tt> if none.
+     */
+    private WebDriver pollIdleDriver()
+    {
+        synchronized (idle)
+        {
+            return idle.poll();
+        }
+    }
+
+    /**
+     * Starts a new browser.
+     * @return the browser.
+     */
+    private WebDriver startDriver()
+    {
+        WebDriver driver = ConferenceFixture.startParticipantDriver();
+        synchronized (drivers)
+        {
+            drivers.add(driver);
+        }
+
+        return driver;
+    }
+
+    /**
+     * Hangs up a browser and keeps it for the next joins, or quits it if it
+     * cannot hang up.
+     * @param driver the browser.
+     */
+    private void recycle(WebDriver driver)
+    {
+        try
+        {
+            ConferenceFixture.close(driver);
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println("Failed to recycle a browser: " + e);
+            synchronized (drivers)
+            {
+                drivers.remove(driver);
+            }
+            try
+            {
+                ConferenceFixture.quit(driver, false);
+            }
+            catch (RuntimeException ex)
+            {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        synchronized (idle)
+        {
+            idle.push(driver);
+        }
+    }
+
+    /**
+     * Writes all the joins to {@link #PARTICIPANTS_FILE}.
+     * @throws IOException if writing fails.
+     */
+    private void writeParticipants()
+        throws IOException
+    {
+        String reportsDir = System.getProperty("test.reports.dir");
+        File folder
+            = new File(reportsDir == null ? "test-reports" : reportsDir);
+        folder.mkdirs();
+
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(new File(folder, PARTICIPANTS_FILE)),
+                "UTF-8"))
+        {
+            synchronized (joins)
+            {
+                for (Join join : joins)
+                {
+                    StringWriter line = new StringWriter();
+                    JsonWriter json = new JsonWriter(line);
+                    join.write(json);
+                    json.close();
+                    out.write(line.toString());
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Records and prints the load curve: for every {@link #step}
+     * participants of every cycle, the join success ratio and times of
+     * these participants and the last bridge statistics read before the
+     * last of them joined.
+     * @return the join success ratio of the whole test.
+     */
+    private double recordCurve()
+    {
+        StringBuilder curve = new StringBuilder(
+            "cycle\tparticipants\tsuccess\tp95JoinMs"
+                + "\tbridgeParticipants\tcpuUsage\tstressLevel");
+        int attempts = 0;
+        int successes = 0;
+
+        synchronized (joins)
+        {
+            int from = 0;
+            while (from < joins.size())
+            {
+                Join first = joins.get(from);
+                LatencyHistogram times = new LatencyHistogram();
+                int bucketAttempts = 0;
+                int bucketSuccesses = 0;
+                long end = 0;
+                int to = from;
+                for (; to < joins.size() && to < from + step
+                        && joins.get(to).cycle == first.cycle; to++)
+                {
+                    Join join = joins.get(to);
+                    bucketAttempts++;
+                    end = Math.max(end, join.end);
+                    if (join.success)
+                    {
+                        bucketSuccesses++;
+                        times.record(join.joinMs * 1000);
+                    }
+                }
+                // the last bucket of a cycle may be smaller than the step
+                from = to;
+
+                attempts += bucketAttempts;
+                successes += bucketSuccesses;
+
+                Join last = joins.get(to - 1);
+                Map<String, Number> extra = new LinkedHashMap<>();
+                extra.put("cycle", last.cycle);
+                extra.put("participants", last.index + 1);
+                extra.put("joins", bucketAttempts);
+                extra.put("joinSuccessRatio",
+                    (double) bucketSuccesses / bucketAttempts);
+                if (times.getCount() > 0)
+                    extra.put("p95JoinMs", times.getQuantile(0.95) / 1000.0);
+                ColibriClient.Stats stats = getBridgeStats(end);
+                if (stats != null)
+                {
+                    extra.put("bridgeConferences", stats.getConferences());
+                    extra.put("bridgeParticipants", stats.getParticipants());
+                    extra.put("bridgeCpuUsage", stats.getCpuUsage());
+                    extra.put("bridgeStressLevel", stats.getStressLevel());
+                    extra.put("bridgeDownloadKbps", stats.getBitrateDownload());
+                    extra.put("bridgeUploadKbps", stats.getBitrateUpload());
+                }
+                BenchmarkResults.record(BENCHMARK,
+                    "c" + last.cycle + ".n" + (last.index + 1),
+                    times.getCount() > 0 ? times : null, extra);
+
+                curve.append('\n').append(last.cycle)
+                    .append('\t').append(last.index + 1)
+                    .append('\t').append(extra.get("joinSuccessRatio"))
+                    .append('\t').append(extra.get("p95JoinMs"))
+                    .append('\t').append(extra.get("bridgeParticipants"))
+                    .append('\t').append(extra.get("bridgeCpuUsage"))
+                    .append('\t').append(extra.get("bridgeStressLevel"));
+            }
+        }
+
+        System.err.println(curve);
+
+        return attempts == 0 ? 1 : (double) successes / attempts;
+    }
+
+    /**
+     * Returns the last bridge statistics read before a time.
+     * @param time the time in milliseconds.
+     * @return the statistics, <tt>null</tt> if none.
+     */
+    private ColibriClient.Stats getBridgeStats(long time)
+    {
+        ColibriClient.Stats result = null;
+        synchronized (bridgeStats)
+        {
+            for (ColibriClient.Stats stats : bridgeStats)
+            {
+                if (stats.getTimestamp() > time)
+                    break;
+                result = stats;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The join of a participant.
+     */
+    private class Join
+        implements Runnable
+    {
+        /**
+         * The cycle of the join.
+         */
+        private final int cycle;
+
+        /**
+         * The number of the participant in the cycle.
+         */
+        private final int index;
+
+        /**
+         * The room to join.
+         */
+        private final String room;
+
+        /**
+         * The browser, <tt>null</tt> if it could not be started.
+         */
+        private WebDriver driver;
+
+        /**
+         * Whether the browser was recycled.
+         */
+        private boolean recycled;
+
+        /**
+         * The time it took to start the browser in milliseconds.
+         */
+        private long driverMs;
+
+        /**
+         * The time from opening the room to joining the MUC in
+         * milliseconds.
+         */
+        private long joinMs;
+
+        /**
+         * Whether the participant joined.
+         */
+        private boolean success;
+
+        /**
+         * Why the join failed.
+         */
+        private String error;
+
+        /**
+         * The time the join ended.
+         */
+        private long end;
+
+        /**
+         * Creates new join.
+         * @param cycle the cycle.
+         * @param index the number of the participant in the cycle.
+         * @param room the room to join.
+         */
+        Join(int cycle, int index, String room)
+        {
+            this.cycle = cycle;
+            this.index = index;
+            this.room = room;
+        }
+
+        /**
+         * Joins the room, recycling the browser on failure.
+         */
+        @Override
+        public void run()
+        {
+            long start = System.nanoTime();
+            try
+            {
+                driver = pollIdleDriver();
+                recycled = driver != null;
+                if (driver == null)
+                    driver = startDriver();
+                driverMs = (System.nanoTime() - start) / 1000000;
+
+                long opened = System.nanoTime();
+                ConferenceFixture.openRoom(driver, room, null,
+                    ConferenceFixture.getBrowserType(driver));
+                MeetUtils.waitForParticipantToJoinMUC(driver, joinTimeout);
+                joinMs = (System.nanoTime() - opened) / 1000000;
+                success = true;
+            }
+            catch (RuntimeException e)
+            {
+                error = e.toString();
+                if (driver != null)
+                    recycle(driver);
+            }
+            finally
+            {
+                end = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Writes the join as a JSON object.
+         * @param json the writer.
+         * @throws IOException if writing fails.
+         */
+        void write(JsonWriter json)
+            throws IOException
+        {
+            json.beginObject();
+            json.name("t").value(end);
+            json.name("cycle").value(cycle);
+            json.name("index").value(index);
+            json.name("room").value(room);
+            json.name("recycled").value(recycled);
+            json.name("driverMs").value(driverMs);
+            json.name("success").value(success);
+            if (success)
+                json.name("joinMs").value(joinMs);
+            if (error != null)
+                json.name("error").value(error);
+            json.endObject();
+        }
+    }
+}
@@ -33,6 +33,7 @@ import java.util.*;
  *
  * @author Damian Minkov
  */
+@FixtureRequirements(starts = 3)
 public class LockRoomTest
     extends TestCase
 {
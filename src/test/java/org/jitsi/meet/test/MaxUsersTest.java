@@ -28,6 +28,7 @@ import junit.framework.*;
  *
  * @author Hristo Terezov
  */
+@FixtureRequirements(starts = 1)
 public class MaxUsersTest
     extends TestCase
 {
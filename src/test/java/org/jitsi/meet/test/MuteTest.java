@@ -26,6 +26,7 @@ import org.openqa.selenium.interactions.*;
  * @author Damian Minkov
  * @author Lyubomir Marinov
  */
+@FixtureRequirements(starts = 1)
 public class MuteTest
     extends TestCase
 {
@@ -0,0 +1,149 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test;
+
+import junit.framework.*;
+
+import org.jitsi.meet.test.perf.*;
+import org.jitsi.meet.test.util.*;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+
+/**
+ * Runs the conference under the network impairment profiles of
+ * {@link NetworkImpairment}, applied to the media port of the second
+ * participant one after the other. For every profile the bitrates seen by
+ * both participants and the time the second participant spent
+ * disconnected are recorded with {@link BenchmarkResults}, the profile
+ * switches themselves are in <tt>netem-events.jsonl</tt>.
+ *
+ * Needs <tt>tc</tt> and sudo, so it is not run by default (like
+ * {@link PeerConnectionStatusTest}).
+ */
+public class NetworkImpairmentTest
+    extends TestCase
+{
+    /**
+     * The name of the property with the comma separated profiles to run.
+     */
+    public static final String PROFILES_PNAME = "jitsi-meet.netem.profiles";
+
+    /**
+     * The name of the property with how long every profile is run in
+     * seconds.
+     */
+    public static final String DURATION_PNAME = "jitsi-meet.netem.duration";
+
+    /**
+     * The impairments of the test.
+     */
+    private final NetworkImpairment impairment = new NetworkImpairment();
+
+    /**
+     * Runs every profile and records the metrics.
+     */
+    public void testProfiles()
+        throws Exception
+    {
+        ConferenceFixture.ensureTwoParticipants();
+        WebDriver owner = ConferenceFixture.getOwner();
+        WebDriver secondPeer = ConferenceFixture.getSecondParticipant();
+        MeetUtils.waitForIceConnected(secondPeer);
+
+        int port = MeetUtils.getBundlePort(secondPeer);
+        String participant = ConferenceFixture.getParticipantName(secondPeer);
+        long duration = Long.getLong(DURATION_PNAME, 20) * 1000;
+
+        try
+        {
+            for (String name : System.getProperty(
+                        PROFILES_PNAME, "3g,lossy,congested,none")
+                    .split(","))
+            {
+                NetworkImpairment.Profile profile
+                    = NetworkImpairment.getProfile(name.trim());
+                impairment.apply(participant, port, profile);
+
+                Map<String, Number> extra = sample(owner, secondPeer, duration);
+                BenchmarkResults.record("netem", profile.name, null, extra);
+            }
+        }
+        finally
+        {
+            impairment.clear();
+        }
+
+        // whatever happened, the call must recover once unimpaired
+        MeetUtils.waitForIceConnected(secondPeer);
+    }
+
+    /**
+     * Samples the bitrates and the ICE state once a second.
+     * @param owner the owner.
+     * @param secondPeer the impaired participant.
+     * @param duration how long to sample in milliseconds.
+     * @return the means of the samples.
+     */
+    private Map<String, Number> sample(
+        WebDriver owner, WebDriver secondPeer, long duration)
+    {
+        long ownerDownload = 0;
+        long secondUpload = 0;
+        long secondDownload = 0;
+        int disconnected = 0;
+        int samples = 0;
+
+        long end = System.currentTimeMillis() + duration;
+        while (System.currentTimeMillis() < end)
+        {
+            TestUtils.waitMillis(1000);
+
+            ownerDownload += getBitrate(owner, "download");
+            secondUpload += getBitrate(secondPeer, "upload");
+            secondDownload += getBitrate(secondPeer, "download");
+            if (!MeetUtils.isIceConnected(secondPeer))
+                disconnected++;
+            samples++;
+        }
+
+        Map<String, Number> extra = new LinkedHashMap<>();
+        extra.put("samples", samples);
+        extra.put("ownerDownloadKbps", ownerDownload / Math.max(1, samples));
+        extra.put("secondUploadKbps", secondUpload / Math.max(1, samples));
+        extra.put("secondDownloadKbps", secondDownload / Math.max(1, samples));
+        extra.put("secondDisconnectedSeconds", disconnected);
+
+        return extra;
+    }
+
+    /**
+     * Returns a bitrate from <tt>APP.conference.getStats()</tt>.
+     * @param participant the participant.
+     * @param direction <tt>upload</tt> or <tt>download</tt>.
+     * @return the bitrate in kbps, 0 if not available.
+     */
+    private static long getBitrate(WebDriver participant, String direction)
+    {
+        Object res = ((JavascriptExecutor) participant).executeScript(
+            "try { return APP.conference.getStats().bitrate[arguments[0]]; }"
+                + " catch (e) { return 0; }",
+            direction);
+
+        return res instanceof Number ? ((Number) res).longValue() : 0;
+    }
+}
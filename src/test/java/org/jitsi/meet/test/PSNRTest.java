@@ -18,6 +18,7 @@ package org.jitsi.meet.test;
 import junit.framework.*;
 
 import org.jitsi.meet.test.capture.*;
+import org.jitsi.meet.test.perf.*;
 import org.jitsi.meet.test.tasks.*;
 import org.jitsi.meet.test.util.*;
 
@@ -34,6 +35,7 @@ import java.util.concurrent.*;
  * @author George Politis
  * @author Ivan Symchych
  */
+@FixtureRequirements(leaves = 1)
 public class PSNRTest
     extends TestCase
 {
@@ -135,11 +137,16 @@ public class PSNRTest
         // now close second participant to maximize performance
         ConferenceFixture.closeSecondParticipant();
 
-        for (String id : ids)
+        for (int index = 0; index < ids.size(); index++)
         {
+            String id = ids.get(index);
             Long framesCount = ownerVideoOperator.getFramesCount(id);
             System.err.printf("frames count for %s: %s\n", id, framesCount);
 
+            float minPsnr = Float.NaN;
+            double psnrSum = 0;
+            int psnrCount = 0;
+
             for (int i = 0; i < framesCount; i += 1)
             {
                 byte[] data = ownerVideoOperator.getFrame(id, i);
@@ -174,8 +181,13 @@ public class PSNRTest
                     while ((s = stdInput.readLine()) != null)
                     {
                         System.err.println(s);
+                        float psnr = Float.parseFloat(s.split(" ")[1]);
+                        if (Float.isNaN(minPsnr) || psnr < minPsnr)
+                            minPsnr = psnr;
+                        psnrSum += psnr;
+                        psnrCount++;
                         assertTrue("Frame is bellow the PSNR threshold",
-                                Float.parseFloat(s.split(" ")[1]) > MIN_PSNR);
+                                psnr > MIN_PSNR);
                     }
 
                     // read any errors from the attempted command
@@ -196,6 +208,18 @@ public class PSNRTest
                 File outputFrameFile = new File(outputFrame);
                 outputFrameFile.delete();
             }
+
+            if (psnrCount > 0)
+            {
+                Map<String, Number> results = new LinkedHashMap<>();
+                results.put("frames", psnrCount);
+                results.put("minPsnr", minPsnr);
+                results.put("meanPsnr", psnrSum / psnrCount);
+                // the ids of the videos change with every conference, so
+                // the results are recorded by the position of the video
+                BenchmarkResults.record(
+                    "psnr", "remoteVideo" + index, null, results);
+            }
         }
 
         ownerVideoOperator.dispose();
@@ -0,0 +1,554 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test;
+
+import com.google.common.util.concurrent.*;
+import org.apache.tools.ant.taskdefs.optional.junit.*;
+import org.jitsi.meet.test.fake.*;
+import org.w3c.dom.*;
+
+import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the tests of {@link TestsRunner} in parallel. The fixture of the
+ * tests ({@link ConferenceFixture}) is static, so every group of tests is
+ * run by a worker in its own JVM, with its own participants and its own
+ * room, through {@link TestsRunner} with <tt>jitsi-meet.tests.toRun</tt> set
+ * to the group. Every worker runs <tt>SetupConference</tt> first and
+ * <tt>DisposeConference</tt> last.
+ *
+ * The tests are split into {@link #GROUPS_PNAME} groups from their
+ * {@link FixtureRequirements}: the tests which can share the participants
+ * (same config and media) are kept in the same group as far as the size of
+ * the groups allows, and the destructive tests are spread over the groups.
+ * Every worker orders its group with {@link FixtureScheduler}. As many
+ * workers as the browser budget {@link #BROWSERS_PNAME} allows run at the
+ * same time, each using up to {@link #BROWSERS_PER_WORKER_PNAME} browsers.
+ * The tests which do not tolerate other conferences running at the same
+ * time ({@link #SERIAL_PNAME}), because they measure timing or media
+ * quality, change the network of the host or restart or end the shared
+ * deployment and conference, are run by a last worker alone, after all the
+ * others.
+ *
+ * Every worker writes its reports, its output and its JUnit XML in its own
+ * folder <tt>worker-N</tt> of the reports folder. The JUnit XML of the
+ * workers are merged into a single report in the reports folder, named
+ * after the first argument (defaults to
+ * <tt>TEST-org.jitsi.meet.test.TestsRunner</tt>), so it can be processed
+ * like the one of a serial run.
+ */
+public class ParallelTestsRunner
+{
+    /**
+     * The name of the property with the number of browsers which can run at
+     * the same time.
+     */
+    public static final String BROWSERS_PNAME = "jitsi-meet.parallel.browsers";
+
+    /**
+     * The name of the property with the number of browsers a worker can
+     * start.
+     */
+    public static final String BROWSERS_PER_WORKER_PNAME
+        = "jitsi-meet.parallel.browsersPerWorker";
+
+    /**
+     * The name of the property with the number of groups the tests are
+     * split into, defaults to the number of workers which can run at the
+     * same time.
+     */
+    public static final String GROUPS_PNAME = "jitsi-meet.parallel.groups";
+
+    /**
+     * The name of the property with the comma separated tests which are run
+     * alone, after the parallel groups.
+     */
+    public static final String SERIAL_PNAME = "jitsi-meet.parallel.serial";
+
+    /**
+     * The tests run alone by default.
+     */
+    private static final String DEFAULT_SERIAL_TESTS
+        = "ConnectionTimeTest,PSNRTest,LipSyncTest,PeerConnectionStatusTest,"
+            + "MaxUsersTest,LoadTest,JoinStormTest,ReloadTest,RingOverlayTest,"
+            + "EndConferenceTest";
+
+    /**
+     * The name of the property with the reports folder.
+     */
+    private static final String TEST_REPORT_DIR = "test.reports.dir";
+
+    /**
+     * The prefixes of the system properties which are not passed to the
+     * workers, as they belong to the JVM.
+     */
+    private static final String[] JVM_PROPERTY_PREFIXES = {
+        "java.", "javax.", "jdk.", "sun.", "os.", "user.", "file.", "line.",
+        "path.", "awt.", "native.", "stdout.", "stderr."
+    };
+
+    /**
+     * Splits the tests, runs the workers and merges their reports.
+     * @param args the name of the merged report, without the extension.
+     * @throws Exception if the tests could not be run.
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        String resultName = args.length > 0
+            ? args[0] : "TEST-" + TestsRunner.class.getName();
+        File reportsDir
+            = new File(System.getProperty(TEST_REPORT_DIR, "test-reports"));
+        reportsDir.mkdirs();
+
+        long start = System.currentTimeMillis();
+        List<String> tests = TestsRunner.getTestsToRun();
+        tests.remove(SetupConference.class.getSimpleName());
+        tests.remove(DisposeConference.class.getSimpleName());
+
+        Set<String> serialNames = new HashSet<>();
+        for (String name : System.getProperty(SERIAL_PNAME,
+                DEFAULT_SERIAL_TESTS).split(","))
+        {
+            serialNames.add(name.trim());
+        }
+
+        int browsersPerWorker
+            = Math.max(1, Integer.getInteger(BROWSERS_PER_WORKER_PNAME, 3));
+        int workers = Math.max(1,
+            Integer.getInteger(BROWSERS_PNAME, 6) / browsersPerWorker);
+        int groupCount = Math.max(1, Integer.getInteger(GROUPS_PNAME, workers));
+
+        List<String> parallel = new ArrayList<>();
+        List<String> serial = new ArrayList<>();
+        for (String test : tests)
+        {
+            if (serialNames.contains(test))
+                serial.add(test);
+            else
+                parallel.add(test);
+        }
+        List<List<String>> groups = group(parallel, groupCount);
+
+        List<Worker> all = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+            workers,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("parallel-runner-%d")
+                .build());
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (List<String> group : groups)
+            {
+                if (group.isEmpty())
+                    continue;
+                Worker worker = new Worker(all.size() + 1, group, reportsDir);
+                all.add(worker);
+                results.add(pool.submit(worker));
+            }
+            System.err.println("Running " + results.size() + " groups, "
+                + workers + " at a time");
+            for (Future<Integer> result : results)
+                result.get();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        if (!serial.isEmpty())
+        {
+            Worker worker = new Worker(all.size() + 1, serial, reportsDir);
+            all.add(worker);
+            worker.call();
+        }
+
+        boolean failed = merge(all, new File(reportsDir, resultName + ".xml"),
+            (System.currentTimeMillis() - start) / 1000.0);
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Splits tests into groups of compatible tests. The tests sharing the
+     * same config and media are added together, the largest set first, and
+     * a group is only started when the previous one is full, so a set is
+     * split only when it does not fit. The destructive tests, which end the
+     * reuse of the participants, are then added one by one to the smallest
+     * group.
+     * @param tests the simple class names of the tests.
+     * @param groupCount the number of groups.
+     * @return the groups, some possibly empty.
+     */
+    static List<List<String>> group(List<String> tests, int groupCount)
+    {
+        Map<String, List<String>> compatible = new LinkedHashMap<>();
+        List<String> destructive = new ArrayList<>();
+        for (String test : tests)
+        {
+            FixtureRequirements requirements
+                = FixtureScheduler.getRequirements(test);
+            if (requirements.destructive())
+            {
+                destructive.add(test);
+                continue;
+            }
+
+            String key = FixtureScheduler.getKey(requirements);
+            List<String> set = compatible.get(key);
+            if (set == null)
+            {
+                set = new ArrayList<>();
+                compatible.put(key, set);
+            }
+            set.add(test);
+        }
+
+        List<List<String>> sets = new ArrayList<>(compatible.values());
+        Collections.sort(sets, new Comparator<List<String>>()
+        {
+            @Override
+            public int compare(List<String> a, List<String> b)
+            {
+                return b.size() - a.size();
+            }
+        });
+
+        List<List<String>> groups = new ArrayList<>();
+        for (int i = 0; i < groupCount; i++)
+            groups.add(new ArrayList<String>());
+        int size = (tests.size() + groupCount - 1) / groupCount;
+        int current = 0;
+        for (List<String> set : sets)
+        {
+            for (String test : set)
+            {
+                if (groups.get(current).size() >= size
+                    && current < groupCount - 1)
+                {
+                    current++;
+                }
+                groups.get(current).add(test);
+            }
+        }
+
+        for (String test : destructive)
+        {
+            List<String> smallest = groups.get(0);
+            for (List<String> group : groups)
+            {
+                if (group.size() < smallest.size())
+                    smallest = group;
+            }
+            smallest.add(test);
+        }
+
+        return groups;
+    }
+
+    /**
+     * Merges the JUnit XML of the workers into a single report.
+     * @param workers the workers.
+     * @param out the merged report.
+     * @param time the wall time of the run in seconds.
+     * @return whether a test failed or a worker did not complete.
+     * @throws Exception if the report could not be written.
+     */
+    private static boolean merge(List<Worker> workers, File out, double time)
+        throws Exception
+    {
+        DocumentBuilder builder
+            = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        Document merged = builder.newDocument();
+        Element suite = merged.createElement("testsuite");
+        merged.appendChild(suite);
+        suite.setAttribute("name", TestsRunner.class.getName());
+
+        int tests = 0;
+        int failures = 0;
+        int errors = 0;
+        int skipped = 0;
+        StringBuilder systemOut = new StringBuilder();
+        StringBuilder systemErr = new StringBuilder();
+        for (Worker worker : workers)
+        {
+            if (!worker.result.isFile())
+            {
+                // the worker crashed before writing its report
+                Element testCase = merged.createElement("testcase");
+                testCase.setAttribute("classname", TestsRunner.class.getName());
+                testCase.setAttribute("name", worker.getName());
+                testCase.setAttribute("time", "0");
+                Element error = merged.createElement("error");
+                error.setAttribute("type", "WorkerCrash");
+                error.setAttribute("message", worker.getName()
+                    + " exited with " + worker.exitCode + " running "
+                    + worker.tests + ", see " + worker.output);
+                testCase.appendChild(error);
+                suite.appendChild(testCase);
+                tests++;
+                errors++;
+                continue;
+            }
+
+            Element workerSuite
+                = builder.parse(worker.result).getDocumentElement();
+            tests += getInt(workerSuite, "tests");
+            failures += getInt(workerSuite, "failures");
+            errors += getInt(workerSuite, "errors");
+            skipped += getInt(workerSuite, "skipped");
+            if (!suite.hasAttribute("timestamp"))
+            {
+                suite.setAttribute(
+                    "timestamp", workerSuite.getAttribute("timestamp"));
+                suite.setAttribute(
+                    "hostname", workerSuite.getAttribute("hostname"));
+            }
+
+            NodeList children = workerSuite.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++)
+            {
+                Node child = children.item(i);
+                String name = child.getNodeName();
+                if (name.equals("properties"))
+                {
+                    if (suite.getElementsByTagName("properties").getLength()
+                            == 0)
+                    {
+                        suite.insertBefore(
+                            merged.importNode(child, true),
+                            suite.getFirstChild());
+                    }
+                }
+                else if (name.equals("testcase"))
+                {
+                    suite.appendChild(merged.importNode(child, true));
+                }
+                else if (name.equals("system-out"))
+                {
+                    systemOut.append("----- ").append(worker.getName())
+                        .append(" -----\n").append(child.getTextContent());
+                }
+                else if (name.equals("system-err"))
+                {
+                    systemErr.append("----- ").append(worker.getName())
+                        .append(" -----\n").append(child.getTextContent());
+                }
+            }
+        }
+
+        suite.setAttribute("tests", String.valueOf(tests));
+        suite.setAttribute("failures", String.valueOf(failures));
+        suite.setAttribute("errors", String.valueOf(errors));
+        suite.setAttribute("skipped", String.valueOf(skipped));
+        // the workers overlap, so it is the wall time rather than their sum
+        suite.setAttribute("time", String.valueOf(time));
+
+        Element outElement = merged.createElement("system-out");
+        outElement.appendChild(merged.createCDATASection(systemOut.toString()));
+        suite.appendChild(outElement);
+        Element errElement = merged.createElement("system-err");
+        errElement.appendChild(merged.createCDATASection(systemErr.toString()));
+        suite.appendChild(errElement);
+
+        Transformer transformer
+            = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.transform(new DOMSource(merged), new StreamResult(out));
+
+        System.err.println("Parallel run: " + tests + " tests, " + failures
+            + " failures, " + errors + " errors, report " + out);
+
+        return failures > 0 || errors > 0;
+    }
+
+    /**
+     * Returns an integer attribute.
+     * @param element the element.
+     * @param name the name of the attribute.
+     * @return the value, 0 if missing.
+     */
+    private static int getInt(Element element, String name)
+    {
+        String value = element.getAttribute(name);
+
+        return value.isEmpty() ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Runs a group of tests in its own JVM.
+     */
+    private static class Worker
+        implements Callable<Integer>
+    {
+        /**
+         * The number of the worker.
+         */
+        private final int index;
+
+        /**
+         * The tests of the worker.
+         */
+        private final List<String> tests;
+
+        /**
+         * The reports folder of the worker.
+         */
+        private final File dir;
+
+        /**
+         * The JUnit XML of the worker.
+         */
+        private final File result;
+
+        /**
+         * The output of the worker.
+         */
+        private final File output;
+
+        /**
+         * The exit code of the JVM of the worker, -1 until it exits.
+         */
+        private int exitCode = -1;
+
+        /**
+         * Creates new worker.
+         * @param index the number of the worker.
+         * @param tests the tests of the worker.
+         * @param reportsDir the reports folder of the run.
+         */
+        Worker(int index, List<String> tests, File reportsDir)
+        {
+            this.index = index;
+            this.tests = tests;
+            this.dir = new File(reportsDir, "worker-" + index);
+            this.result = new File(
+                dir, "TEST-" + TestsRunner.class.getName() + ".xml");
+            this.output = new File(dir, "output.txt");
+        }
+
+        /**
+         * Returns the name of the worker.
+         * @return the name of the worker.
+         */
+        String getName()
+        {
+            return "worker-" + index;
+        }
+
+        /**
+         * Runs the tests of the worker and waits for them.
+         * @return the exit code of the JVM of the worker.
+         * @throws Exception if the JVM could not be started.
+         */
+        @Override
+        public Integer call()
+            throws Exception
+        {
+            dir.mkdirs();
+            result.delete();
+
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"), "bin/java")
+                .getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            for (String name : System.getProperties().stringPropertyNames())
+            {
+                if (isPassed(name))
+                    command.add("-D" + name + "=" + System.getProperty(name));
+            }
+            command.add("-D" + TestsRunner.TESTS_TO_RUN_PNAME + "="
+                + join(tests));
+            // the group is listed, so it is only scheduled if asked to
+            if (System.getProperty(FixtureScheduler.SCHEDULE_PNAME) == null)
+                command.add("-D" + FixtureScheduler.SCHEDULE_PNAME + "=true");
+            command.add("-D" + TEST_REPORT_DIR + "=" + dir.getPath());
+            command.add("-D" + ConferenceFixture.ROOM_PREFIX_PROP + "="
+                + System.getProperty(
+                    ConferenceFixture.ROOM_PREFIX_PROP, "torture")
+                + "w" + index + "-");
+            command.add(JUnitTestRunner.class.getName());
+            command.add(TestsRunner.class.getName());
+            command.add("formatter="
+                + XMLJUnitResultFormatter.class.getName() + ","
+                + result.getPath());
+            command.add("formatter=" + FailureListener.class.getName());
+            command.add("showoutput=true");
+
+            System.err.println(getName() + " running " + tests);
+            long start = System.currentTimeMillis();
+            Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(output)
+                .start();
+            exitCode = process.waitFor();
+            System.err.println(getName() + " exited with " + exitCode
+                + " after " + (System.currentTimeMillis() - start) / 1000
+                + "s, output in " + output);
+
+            return exitCode;
+        }
+
+        /**
+         * Checks whether a system property is passed to the worker.
+         * @param name the name of the property.
+         * @return <tt>true</tt> if the property is passed.
+         */
+        private static boolean isPassed(String name)
+        {
+            for (String prefix : JVM_PROPERTY_PREFIXES)
+            {
+                if (name.startsWith(prefix))
+                    return false;
+            }
+
+            // the worker gets its own tests, reports folder and room, and
+            // its own fake app on a free port
+            return !name.equals(TestsRunner.TESTS_TO_RUN_PNAME)
+                && !name.equals(TestsRunner.TESTS_TO_EXCLUDE_PNAME)
+                && !name.equals(TestsRunner.TESTS_TO_INCLUDE_PNAME)
+                && !name.equals(TEST_REPORT_DIR)
+                && !name.equals(ConferenceFixture.ROOM_PREFIX_PROP)
+                && !name.equals(FakeMeetServer.PORT_PNAME);
+        }
+
+        /**
+         * Joins the tests with commas.
+         * @param tests the tests.
+         * @return the joined tests.
+         */
+        private static String join(List<String> tests)
+        {
+            StringBuilder joined = new StringBuilder();
+            for (String test : tests)
+            {
+                if (joined.length() > 0)
+                    joined.append(',');
+                joined.append(test);
+            }
+
+            return joined.toString();
+        }
+    }
+}
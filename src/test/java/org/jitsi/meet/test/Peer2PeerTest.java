@@ -24,6 +24,7 @@ import org.openqa.selenium.*;
  *
  * @author Pawel Domas
  */
+@FixtureRequirements(fresh = true, starts = 5, leaves = 0, destructive = true)
 public class Peer2PeerTest
     extends TestCase
 {
@@ -42,6 +42,7 @@ import java.util.*;
  *
  * @author Pawel Domas
  */
+@FixtureRequirements(starts = 4)
 public class PeerConnectionStatusTest
     extends TestCase
 {
@@ -69,6 +70,10 @@ public class PeerConnectionStatusTest
      *
      * 2. "--unblock-port {port number}" will remove the rules blocking given
      *    port(should revert "--block-port {port number}").
+     *
+     * 3. "--batch" followed by any number of the above commands and their
+     *    ports, which are applied in a single invocation. The tests always
+     *    use this mode, see {@link FirewallScript}.
      */
     private static String firewallScript;
 
@@ -77,6 +82,12 @@ public class PeerConnectionStatusTest
      */
     private static int peer2bundlePort = -1;
 
+    /**
+     * The ports which are blocked, unblocked together at the end of the
+     * suite.
+     */
+    private static final Set<Integer> blockedPorts = new LinkedHashSet<>();
+
     /**
      * Creates new instance of <tt>PeerConnectionStatusTest</tt> for the given
      * test method name.
@@ -135,55 +146,57 @@ public class PeerConnectionStatusTest
     }
 
     /**
-     * Calls {@link #firewallScript} to block given port.
+     * Calls {@link #firewallScript} once to block the given ports.
      *
-     * @param portNumber the port number to be blocked.
+     * @param portNumbers the port numbers to be blocked.
      *
      * @throws Exception if anything goes wrong.
      */
-    private static void blockPort(int portNumber)
+    private static void blockPorts(int... portNumbers)
         throws Exception
     {
-        if (portNumber == -1)
-            throw new IllegalArgumentException("Trying to block port -1");
-
-        CmdExecutor cmdExecutor = new CmdExecutor();
-
-        List<String> cmdArgs = new LinkedList<>();
-
-        cmdArgs.add(firewallScript);
-        cmdArgs.add("--block-port");
-        cmdArgs.add(String.valueOf(portNumber));
-
-        System.err.println("Will block port: " + portNumber);
-
-        cmdExecutor.executeCmd(cmdArgs);
+        FirewallScript script = new FirewallScript(firewallScript);
+        for (int portNumber : portNumbers)
+        {
+            if (portNumber == -1)
+                throw new IllegalArgumentException("Trying to block port -1");
+
+            System.err.println("Will block port: " + portNumber);
+            script.block(portNumber);
+            // recorded before applying, as the rules may be installed even
+            // if applying them fails or times out
+            blockedPorts.add(portNumber);
+        }
+        script.apply();
     }
 
     /**
-     * Unblocks the previously blocked port.
+     * Calls {@link #firewallScript} once to unblock the given ports, which
+     * were previously blocked.
      *
-     * @param portNumber the port number to unblock.
+     * @param portNumbers the port numbers to unblock.
      *
      * @throws Exception if anything goes wrong.
      */
-    private static void unblockPort(int portNumber)
+    private static void unblockPorts(int... portNumbers)
         throws Exception
     {
-        if (portNumber == -1)
-            throw new IllegalArgumentException("Trying to unblock port -1");
-
-        CmdExecutor cmdExecutor = new CmdExecutor();
-
-        List<String> cmdArgs = new LinkedList<>();
-
-        cmdArgs.add(firewallScript);
-        cmdArgs.add("--unblock-port");
-        cmdArgs.add(String.valueOf(portNumber));
+        FirewallScript script = new FirewallScript(firewallScript);
+        for (int portNumber : portNumbers)
+        {
+            if (portNumber == -1)
+            {
+                throw new IllegalArgumentException(
+                    "Trying to unblock port -1");
+            }
 
-        System.err.println("Will unblock port: " + portNumber);
+            System.err.println("Will unblock port: " + portNumber);
+            script.unblock(portNumber);
+        }
+        script.apply();
 
-        cmdExecutor.executeCmd(cmdArgs);
+        for (int portNumber : portNumbers)
+            blockedPorts.remove(portNumber);
     }
 
     /**
@@ -220,7 +233,7 @@ public class PeerConnectionStatusTest
         peer2bundlePort = MeetUtils.getBundlePort(secondPeer);
         System.err.println(
             "Local bundle port for 2: " + peer2bundlePort);
-        blockPort(peer2bundlePort);
+        blockPorts(peer2bundlePort);
 
         // 2. Select 2nd participant on Owner
         MeetUIUtils.selectRemoteVideo(owner, secondPeer);
@@ -270,7 +283,7 @@ public class PeerConnectionStatusTest
         WebDriver secondPeer = ConferenceFixture.getSecondParticipantInstance();
 
         // 1. Unlock the port and see if we recover
-        unblockPort(peer2bundlePort);
+        unblockPorts(peer2bundlePort);
 
         // 2. Verify if connection has restored
         MeetUIUtils.verifyUserConnStatusIndication(owner, secondPeer, true);
@@ -300,7 +313,7 @@ public class PeerConnectionStatusTest
 
         // Block the port and wait for the channels to expire on
         // the bridge(unrecoverable)
-        blockPort(peer2bundlePort);
+        blockPorts(peer2bundlePort);
         MeetUIUtils.verifyUserConnStatusIndication(owner, secondPeer, false);
         MeetUIUtils.verifyLocalConnStatusIndication(secondPeer, false);
 
@@ -340,7 +353,7 @@ public class PeerConnectionStatusTest
         MeetUIUtils.assertGreyAvatarOnLarge(thirdPeer);
 
         // Unblock the port
-        unblockPort(peer2bundlePort);
+        unblockPorts(peer2bundlePort);
     }
 
     /**
@@ -378,13 +391,22 @@ public class PeerConnectionStatusTest
 
     /**
      * The test is executed at the end of the suite to clear any blocked ports
-     * in case any of the tests fails.
+     * in case any of the tests fails. The bundle port of the second
+     * participant is always unblocked.
      */
     public void testUnblockPorts()
         throws Exception
     {
-        if (peer2bundlePort != -1) {
-            unblockPort(peer2bundlePort);
+        Set<Integer> ports = new LinkedHashSet<>(blockedPorts);
+        if (peer2bundlePort != -1)
+            ports.add(peer2bundlePort);
+        if (!ports.isEmpty())
+        {
+            int[] portNumbers = new int[ports.size()];
+            int i = 0;
+            for (int port : ports)
+                portNumbers[i++] = port;
+            unblockPorts(portNumbers);
         }
 
         // Restart the second participant, because we specifically started it
@@ -30,6 +30,7 @@ import org.openqa.selenium.support.ui.*;
  * if the client reloads the conference and if the conference is working after
  * the reload. 
  */
+@FixtureRequirements(fresh = true)
 public class ReloadTest
     extends TestCase
 {
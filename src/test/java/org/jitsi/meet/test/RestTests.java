@@ -17,11 +17,8 @@ package org.jitsi.meet.test;
 
 import com.google.gson.*;
 import junit.framework.*;
-import org.apache.http.*;
-import org.apache.http.client.config.*;
-import org.apache.http.client.methods.*;
-import org.apache.http.impl.client.*;
-import org.apache.http.util.*;
+import org.apache.http.client.*;
+import org.jitsi.meet.test.util.*;
 
 import java.io.*;
 import java.net.*;
@@ -100,34 +97,14 @@ public class RestTests
     private static String runRestClient(
         String serverAddress, int port, String queryURL)
     {
-        RequestConfig defaultRequestConfig = RequestConfig.custom()
-            .setSocketTimeout(5000)
-            .setConnectTimeout(5000)
-            .setConnectionRequestTimeout(5000)
-            .build();
-        CloseableHttpClient httpclient = HttpClientBuilder.create()
-            .setDefaultRequestConfig(defaultRequestConfig).build();
-
-        HttpHost targetHost = new HttpHost(serverAddress, port, "http");
-
         try
         {
-            HttpGet httpget = new HttpGet(queryURL);
-            CloseableHttpResponse response = httpclient.execute(
-                targetHost, httpget);
-            try
-            {
-                if(response.getStatusLine().getStatusCode() != 200)
-                    assertFalse("REST returned error:"
-                        + response.getStatusLine(), true);
-
-                HttpEntity entity = response.getEntity();
-                return EntityUtils.toString(entity);
-            }
-            finally
-            {
-                response.close();
-            }
+            return ColibriClient.getString(
+                "http://" + serverAddress + ":" + port, queryURL);
+        }
+        catch (HttpResponseException e)
+        {
+            assertFalse("REST returned error:" + e.getMessage(), true);
         }
         catch (IOException e)
         {
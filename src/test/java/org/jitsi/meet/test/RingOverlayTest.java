@@ -26,6 +26,7 @@ import org.openqa.selenium.support.ui.*;
  * the values seen (display name and avatar).
  * @author Damian Minkov
  */
+@FixtureRequirements(fresh = true, destructive = true)
 public class RingOverlayTest
     extends TestCase
 {
@@ -24,6 +24,7 @@ import org.openqa.selenium.support.ui.*;
  * Tests shared video functionality.
  * @author Damian Minkov
  */
+@FixtureRequirements(starts = 4)
 public class SharedVideoTest
     extends TestCase
 {
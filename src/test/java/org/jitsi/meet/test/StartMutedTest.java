@@ -25,6 +25,7 @@ import org.openqa.selenium.*;
  * @author Hristo Terezov
  * @author Pawel Domas
  */
+@FixtureRequirements(starts = 5)
 public class StartMutedTest
     extends TestCase
 {
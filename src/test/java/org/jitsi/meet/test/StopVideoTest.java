@@ -23,6 +23,7 @@ import org.openqa.selenium.*;
  * To stop the video on owner and participant side.
  * @author Damian Minkov
  */
+@FixtureRequirements(starts = 1)
 public class StopVideoTest
     extends TestCase
 {
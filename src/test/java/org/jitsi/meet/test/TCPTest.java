@@ -26,6 +26,7 @@ import org.openqa.selenium.*;
  * @author Damian Minkov
  * @author Boris Grozev
  */
+@FixtureRequirements(starts = 2)
 public class TCPTest
     extends TestCase
 {
@@ -16,6 +16,7 @@
 package org.jitsi.meet.test;
 
 import junit.framework.*;
+import org.jitsi.meet.test.fake.*;
 
 import java.io.*;
 import java.lang.reflect.*;
@@ -30,20 +31,26 @@ public class TestsRunner
     /**
      * The name of the property which controls the list of tests to be run.
      */
-    private static final String TESTS_TO_RUN_PNAME = "jitsi-meet.tests.toRun";
+    static final String TESTS_TO_RUN_PNAME = "jitsi-meet.tests.toRun";
+
+    /**
+     * The package of the unit tests, relative to this package, which are
+     * never run with the conference tests.
+     */
+    private static final String UNIT_TESTS_PACKAGE = "unit.";
 
     /**
      * The name of the property which controls the set of tests to be excluded
      * (i.e. not run).
      */
-    private static final String TESTS_TO_EXCLUDE_PNAME
+    static final String TESTS_TO_EXCLUDE_PNAME
             = "jitsi-meet.tests.toExclude";
 
     /**
      * The name of the property which controls the set of tests to be include
      * to the default set of tests.
      */
-    private static final String TESTS_TO_INCLUDE_PNAME
+    static final String TESTS_TO_INCLUDE_PNAME
         = "jitsi-meet.tests.toInclude";
 
     /**
@@ -131,7 +138,7 @@ public class TestsRunner
      * @return a list of (the simple class names of) the {@code TestCase}s to
      * run
      */
-    private static List<String> getTestsToRun()
+    static List<String> getTestsToRun()
     {
         List<String> testsToRun = new LinkedList<String>();
 
@@ -181,6 +188,19 @@ public class TestsRunner
             }
         }
 
+        // the unit tests need no browser, they are run by the unit-test
+        // target
+        Iterator<String> tests = testsToRun.iterator();
+        while (tests.hasNext())
+        {
+            String test = tests.next();
+            if (test.startsWith(UNIT_TESTS_PACKAGE))
+            {
+                System.err.println("Not running unit test " + test);
+                tests.remove();
+            }
+        }
+
         // SetupConference and DisposeConference must always be run exactly
         // once in the beginning and end of the tests. They could potentially be
         // moved to setUp() and tearDown().
@@ -196,7 +216,7 @@ public class TestsRunner
      * Sets the audio file to be streamed through a fake audio device by the
      * conference participants.
      */
-    private static void setFakeAudioStreamFile()
+    static void setFakeAudioStreamFile()
     {
         String fakeStreamAudioFile
             = System.getProperty(ConferenceFixture.FAKE_AUDIO_FNAME_PROP);
@@ -211,9 +231,9 @@ public class TestsRunner
 
     /**
      * Sets the video file to be streamed through a fake video device by the
-     * conference participants.
+     * conference participants, none if not configured.
      */
-    private static void setFakeVideoStreamFile()
+    static void setFakeVideoStreamFile()
     {
         String fakeStreamVideoFile
             = System.getProperty(ConferenceFixture.FAKE_VIDEO_FNAME_PROP);
@@ -224,12 +244,17 @@ public class TestsRunner
             ConferenceFixture.setFakeStreamVideoFile(
                 fakeStreamVideoFile.trim());
         }
+        else
+        {
+            ConferenceFixture.setFakeStreamVideoFile(null);
+        }
     }
 
     /**
      * Gets (a suite of) the tests to run. If the property
      * {@code jitsi-meet.tests.toRun} exists, we use its value to add only the
-     * tests it mentions.
+     * tests it mentions. The tests are ordered by {@link FixtureScheduler}
+     * if {@link FixtureScheduler#SCHEDULE_PNAME} is set.
      *
      * @return (a suite of) the tests to run
      */
@@ -237,10 +262,64 @@ public class TestsRunner
     {
         List<String> testsToRun = getTestsToRun();
         System.err.println("Will run the following tests: " + testsToRun);
-        TestSuite suite = suite(testsToRun);
+
+        TestSuite suite = Boolean.getBoolean(FixtureScheduler.SCHEDULE_PNAME)
+            ? scheduledSuite(testsToRun) : suite(testsToRun);
 
         setFakeAudioStreamFile();
         setFakeVideoStreamFile();
+        useFakeMeet();
+
+        return suite;
+    }
+
+    /**
+     * Points the tests to the fake jitsi-meet app, if it is enabled, and
+     * runs chrome headless unless configured otherwise.
+     */
+    private static void useFakeMeet()
+    {
+        FakeMeetServer fakeMeet = FakeMeetServer.getInstance();
+        if (fakeMeet == null)
+            return;
+
+        System.setProperty(
+            ConferenceFixture.JITSI_MEET_URL_PROP, fakeMeet.getEndpoint());
+        if (System.getProperty(ConferenceFixture.ENABLE_HEADLESS_PARAM)
+                == null)
+        {
+            System.setProperty(
+                ConferenceFixture.ENABLE_HEADLESS_PARAM, "true");
+        }
+    }
+
+    /**
+     * Initializes a new {@code TestSuite} instance from test cases ordered by
+     * {@link FixtureScheduler}, with the restarts of the participants it
+     * needs.
+     *
+     * @param testsToRun the simple class names of the {@code TestCase}s which
+     * comprise the new {@code TestSuite} instance, starting with
+     * {@code SetupConference} and ending with {@code DisposeConference}
+     * @return a new {@code TestSuite} instance which consists of the specified
+     * {@code testsToRun}
+     */
+    private static TestSuite scheduledSuite(List<String> testsToRun)
+    {
+        FixtureScheduler scheduler = new FixtureScheduler(
+            testsToRun.subList(1, testsToRun.size() - 1));
+        System.err.println(scheduler);
+
+        TestSuite suite = new TestSuite();
+        addTest(suite, testsToRun.get(0));
+        for (FixtureScheduler.Step step : scheduler.getSteps())
+        {
+            if (step.getTest() == null)
+                suite.addTest(step.getRestart());
+            else
+                addTest(suite, step.getTest());
+        }
+        addTest(suite, testsToRun.get(testsToRun.size() - 1));
 
         return suite;
     }
@@ -256,48 +335,59 @@ public class TestsRunner
      */
     private static TestSuite suite(List<String> testsToRun)
     {
-        String packageName = TestsRunner.class.getPackage().getName();
         TestSuite suite = new TestSuite();
 
         for (String testName : testsToRun)
         {
-            // class names are relative to this package
-            String className = packageName + "." + testName;
+            addTest(suite, testName);
+        }
 
-            try
-            {
-                Class<? extends TestCase> cl
-                    = Class.forName(className).asSubclass(TestCase.class);
+        return suite;
+    }
 
-                Method suiteMethod = null;
-                for(Method m : cl.getDeclaredMethods())
-                {
-                    if(m.getName().equals("suite"))
-                    {
-                        suiteMethod = m;
-                        break;
-                    }
-                }
+    /**
+     * Adds a test case to a {@code TestSuite}.
+     *
+     * @param suite the {@code TestSuite} to add the test case to
+     * @param testName the simple class name of the {@code TestCase}
+     */
+    private static void addTest(TestSuite suite, String testName)
+    {
+        // class names are relative to this package
+        String className
+            = TestsRunner.class.getPackage().getName() + "." + testName;
 
-                // if suite method exists use it
-                if(suiteMethod != null)
-                {
-                    Object test = suiteMethod.invoke(null);
-                    suite.addTest((Test)test);
-                }
-                else
+        try
+        {
+            Class<? extends TestCase> cl
+                = Class.forName(className).asSubclass(TestCase.class);
+
+            Method suiteMethod = null;
+            for(Method m : cl.getDeclaredMethods())
+            {
+                if(m.getName().equals("suite"))
                 {
-                    // otherwise just use the class
-                    suite.addTestSuite(cl);
+                    suiteMethod = m;
+                    break;
                 }
             }
-            catch(Throwable t)
+
+            // if suite method exists use it
+            if(suiteMethod != null)
+            {
+                Object test = suiteMethod.invoke(null);
+                suite.addTest((Test)test);
+            }
+            else
             {
-                System.err.println("Not running " + testName);
-                t.printStackTrace();
+                // otherwise just use the class
+                suite.addTestSuite(cl);
             }
         }
-
-        return suite;
+        catch(Throwable t)
+        {
+            System.err.println("Not running " + testName);
+            t.printStackTrace();
+        }
     }
 }
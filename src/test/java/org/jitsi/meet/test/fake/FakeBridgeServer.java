@@ -0,0 +1,589 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.fake;
+
+import com.google.common.util.concurrent.*;
+import com.google.gson.stream.*;
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An in-JVM stand-in for the REST API of a videobridge (and of Jicofo, which
+ * only needs <tt>/about/health</tt>). Serves <tt>/colibri/stats</tt>,
+ * <tt>/colibri/conferences</tt>, <tt>/colibri/shutdown</tt> and
+ * <tt>/about/health</tt> with a configurable number of conferences,
+ * response latency, error rate and payload size, so the REST code of the
+ * tests can be run and measured without a deployment.
+ *
+ * After a graceful shutdown the conferences go away following a
+ * {@link DrainCurve}, a force shutdown removes them at once.
+ */
+public class FakeBridgeServer
+{
+    /**
+     * How the conferences go away after a graceful shutdown.
+     */
+    public enum DrainCurve
+    {
+        /**
+         * The number of conferences decreases linearly to 0.
+         */
+        LINEAR,
+
+        /**
+         * Most conferences end quickly and a few last until the end.
+         */
+        EXPONENTIAL,
+
+        /**
+         * All conferences end together at the end of the drain.
+         */
+        STEP
+    }
+
+    static
+    {
+        // the headers and the body are written separately, without
+        // TCP_NODELAY every keep-alive response waits for the delayed ack
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * The underlying server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads serving the requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The ids of the current conferences, oldest first.
+     */
+    private final LinkedHashSet<String> conferences = new LinkedHashSet<>();
+
+    /**
+     * Generates the conference ids.
+     */
+    private final AtomicLong nextConferenceId = new AtomicLong();
+
+    /**
+     * The number of requests served, by path.
+     */
+    private final ConcurrentMap<String, AtomicLong> requestCounts
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The random source for latencies and errors.
+     */
+    private final Random random = new Random();
+
+    /**
+     * The minimum latency added to every response in milliseconds.
+     */
+    private volatile long minLatency = 0;
+
+    /**
+     * The maximum latency added to every response in milliseconds.
+     */
+    private volatile long maxLatency = 0;
+
+    /**
+     * The probability (0 to 1) that a request fails with status 500.
+     */
+    private volatile double errorRate = 0;
+
+    /**
+     * The number of padding characters added to every conference in
+     * <tt>/colibri/conferences</tt>, to simulate the size of real entries.
+     */
+    private volatile int conferencePadding = 0;
+
+    /**
+     * The number of participants reported per conference.
+     */
+    private volatile int participantsPerConference = 3;
+
+    /**
+     * Whether <tt>/about/health</tt> reports healthy.
+     */
+    private volatile boolean healthy = true;
+
+    /**
+     * The curve of graceful shutdowns.
+     */
+    private volatile DrainCurve drainCurve = DrainCurve.LINEAR;
+
+    /**
+     * The duration of graceful shutdowns in milliseconds.
+     */
+    private volatile long drainDuration = 5000;
+
+    /**
+     * The time the graceful shutdown started, -1 if not shutting down.
+     */
+    private long shutdownStart = -1;
+
+    /**
+     * The number of conferences when the graceful shutdown started.
+     */
+    private int shutdownConferences;
+
+    /**
+     * Creates new server listening on the loopback interface.
+     * @param port the port, 0 for any free port.
+     * @param threads the number of threads serving requests.
+     * @throws IOException if the server cannot be created.
+     */
+    public FakeBridgeServer(int port, int threads)
+        throws IOException
+    {
+        server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+            1024);
+
+        executor = Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fake-bridge-%d")
+                .build());
+        server.setExecutor(executor);
+
+        server.createContext("/colibri/stats", new Handler()
+        {
+            @Override
+            void handle(HttpExchange exchange, JsonWriter json)
+                throws IOException
+            {
+                writeStats(json);
+            }
+        });
+        server.createContext("/colibri/conferences", new Handler()
+        {
+            @Override
+            void handle(HttpExchange exchange, JsonWriter json)
+                throws IOException
+            {
+                writeConferences(json);
+            }
+        });
+        server.createContext("/colibri/shutdown", new Handler()
+        {
+            @Override
+            void handle(HttpExchange exchange, JsonWriter json)
+                throws IOException
+            {
+                shutdown(exchange);
+            }
+        });
+        server.createContext("/about/health", new Handler()
+        {
+            @Override
+            int getStatus()
+            {
+                return healthy ? 200 : 500;
+            }
+
+            @Override
+            void handle(HttpExchange exchange, JsonWriter json)
+            {
+            }
+        });
+    }
+
+    /**
+     * Starts serving.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the base URL of the server.
+     * @return the base URL, e.g. <tt>http://127.0.0.1:34567</tt>.
+     */
+    public String getEndpoint()
+    {
+        InetSocketAddress address = server.getAddress();
+
+        return "http://" + address.getAddress().getHostAddress()
+            + ":" + address.getPort();
+    }
+
+    /**
+     * Sets the latency added to every response, chosen uniformly between
+     * the bounds.
+     * @param minMs the minimum latency in milliseconds.
+     * @param maxMs the maximum latency in milliseconds.
+     */
+    public void setLatency(long minMs, long maxMs)
+    {
+        this.minLatency = minMs;
+        this.maxLatency = Math.max(minMs, maxMs);
+    }
+
+    /**
+     * Sets the probability that a request fails with status 500.
+     * @param errorRate the probability between 0 and 1.
+     */
+    public void setErrorRate(double errorRate)
+    {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the number of padding characters added to every conference.
+     * @param conferencePadding the number of characters.
+     */
+    public void setConferencePadding(int conferencePadding)
+    {
+        this.conferencePadding = conferencePadding;
+    }
+
+    /**
+     * Sets the number of participants reported per conference.
+     * @param participantsPerConference the number of participants.
+     */
+    public void setParticipantsPerConference(int participantsPerConference)
+    {
+        this.participantsPerConference = participantsPerConference;
+    }
+
+    /**
+     * Sets whether <tt>/about/health</tt> reports healthy.
+     * @param healthy whether healthy.
+     */
+    public void setHealthy(boolean healthy)
+    {
+        this.healthy = healthy;
+    }
+
+    /**
+     * Sets how the conferences go away after a graceful shutdown.
+     * @param curve the drain curve.
+     * @param durationMs the time until all conferences are gone.
+     */
+    public void setDrain(DrainCurve curve, long durationMs)
+    {
+        this.drainCurve = curve;
+        this.drainDuration = durationMs;
+    }
+
+    /**
+     * Creates conferences.
+     * @param count the number of conferences to create.
+     * @return the ids of the new conferences.
+     */
+    public synchronized List<String> createConferences(int count)
+    {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String id = Long.toHexString(
+                0x10000000L + nextConferenceId.getAndIncrement());
+            conferences.add(id);
+            ids.add(id);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Expires the oldest conferences.
+     * @param count the number of conferences to expire.
+     * @return the ids of the expired conferences.
+     */
+    public synchronized List<String> expireConferences(int count)
+    {
+        List<String> ids = new ArrayList<>(count);
+        Iterator<String> iter = conferences.iterator();
+        while (ids.size() < count && iter.hasNext())
+        {
+            ids.add(iter.next());
+            iter.remove();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Returns the number of conferences, applying the drain.
+     * @return the number of conferences.
+     */
+    public synchronized int getConferenceCount()
+    {
+        drain();
+
+        return conferences.size();
+    }
+
+    /**
+     * Returns whether the server is in graceful shutdown.
+     * @return whether the server is in graceful shutdown.
+     */
+    public synchronized boolean isShuttingDown()
+    {
+        return shutdownStart != -1;
+    }
+
+    /**
+     * Returns the number of requests served for a path.
+     * @param path the path, e.g. <tt>/colibri/stats</tt>.
+     * @return the number of requests.
+     */
+    public long getRequestCount(String path)
+    {
+        AtomicLong count = requestCounts.get(path);
+
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Expires the conferences which should have gone away since the start
+     * of the graceful shutdown.
+     */
+    private synchronized void drain()
+    {
+        if (shutdownStart == -1)
+            return;
+
+        double elapsed = (double) (System.currentTimeMillis() - shutdownStart)
+            / Math.max(1, drainDuration);
+
+        int remaining;
+        if (elapsed >= 1)
+        {
+            remaining = 0;
+        }
+        else
+        {
+            switch (drainCurve)
+            {
+            case EXPONENTIAL:
+                remaining = (int) Math.ceil(
+                    shutdownConferences * Math.exp(-5 * elapsed));
+                break;
+            case STEP:
+                remaining = shutdownConferences;
+                break;
+            default:
+                remaining
+                    = (int) Math.ceil(shutdownConferences * (1 - elapsed));
+            }
+        }
+
+        if (conferences.size() > remaining)
+            expireConferences(conferences.size() - remaining);
+    }
+
+    /**
+     * Starts a graceful or a force shutdown, depending on the request body.
+     * @param exchange the request.
+     * @throws IOException if the body cannot be read.
+     */
+    private void shutdown(HttpExchange exchange)
+        throws IOException
+    {
+        StringBuilder body = new StringBuilder();
+        try (Reader reader = new InputStreamReader(
+                exchange.getRequestBody(), "UTF-8"))
+        {
+            char[] buf = new char[1024];
+            int read;
+            while ((read = reader.read(buf)) != -1)
+                body.append(buf, 0, read);
+        }
+
+        synchronized (this)
+        {
+            if (body.indexOf("force-shutdown") != -1)
+            {
+                conferences.clear();
+            }
+            else if (shutdownStart == -1)
+            {
+                shutdownStart = System.currentTimeMillis();
+                shutdownConferences = conferences.size();
+            }
+        }
+    }
+
+    /**
+     * Writes <tt>/colibri/stats</tt>.
+     * @param json where to write.
+     * @throws IOException if writing fails.
+     */
+    private void writeStats(JsonWriter json)
+        throws IOException
+    {
+        int count;
+        boolean shuttingDown;
+        synchronized (this)
+        {
+            count = getConferenceCount();
+            shuttingDown = isShuttingDown();
+        }
+
+        int participants = count * participantsPerConference;
+
+        json.beginObject();
+        json.name("current_timestamp").value(System.currentTimeMillis());
+        // the bridge reports the counts as strings in some versions
+        json.name("conferences").value(String.valueOf(count));
+        json.name("participants").value(participants);
+        json.name("videochannels").value(participants);
+        json.name("bit_rate_download").value(participants * 1500);
+        json.name("bit_rate_upload").value(participants * 1500);
+        json.name("cpu_usage").value(Math.min(1.0, participants / 1000.0));
+        json.name("stress_level").value(participants / 2000.0);
+        json.name("graceful_shutdown").value(shuttingDown);
+        json.endObject();
+    }
+
+    /**
+     * Writes <tt>/colibri/conferences</tt>.
+     * @param json where to write.
+     * @throws IOException if writing fails.
+     */
+    private void writeConferences(JsonWriter json)
+        throws IOException
+    {
+        List<String> ids;
+        synchronized (this)
+        {
+            drain();
+            ids = new ArrayList<>(conferences);
+        }
+
+        char[] padding = new char[conferencePadding];
+        Arrays.fill(padding, 'x');
+        String paddingString = new String(padding);
+
+        json.beginArray();
+        for (String id : ids)
+        {
+            json.beginObject();
+            json.name("id").value(id);
+            if (conferencePadding > 0)
+                json.name("name").value(paddingString);
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Counts the request, applies the latency and the error rate and
+     * writes the JSON response.
+     */
+    private abstract class Handler
+        implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange)
+            throws IOException
+        {
+            String path = exchange.getHttpContext().getPath();
+            AtomicLong count = requestCounts.get(path);
+            if (count == null)
+            {
+                requestCounts.putIfAbsent(path, new AtomicLong());
+                count = requestCounts.get(path);
+            }
+            count.incrementAndGet();
+
+            try
+            {
+                long latency = minLatency;
+                if (maxLatency > minLatency)
+                {
+                    latency += (long) (random.nextDouble()
+                        * (maxLatency - minLatency));
+                }
+                if (latency > 0)
+                    Thread.sleep(latency);
+
+                int status = getStatus();
+                if (errorRate > 0 && random.nextDouble() < errorRate)
+                    status = 500;
+
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                if (status == 200)
+                {
+                    // not closed, an empty document is not complete
+                    JsonWriter json = new JsonWriter(
+                        new OutputStreamWriter(body, "UTF-8"));
+                    handle(exchange, json);
+                    json.flush();
+                }
+
+                exchange.getResponseHeaders()
+                    .set("Content-Type", "application/json; charset=UTF-8");
+                // a fixed length keeps the connection alive without chunks
+                if (body.size() == 0)
+                {
+                    // a response without body closes the connection
+                    body.write("{}".getBytes("UTF-8"));
+                }
+                exchange.sendResponseHeaders(status, body.size());
+                body.writeTo(exchange.getResponseBody());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Returns the status of a successful response.
+         * @return the status.
+         */
+        int getStatus()
+        {
+            return 200;
+        }
+
+        /**
+         * Writes the response.
+         * @param exchange the request.
+         * @param json where to write.
+         * @throws IOException if writing fails.
+         */
+        abstract void handle(HttpExchange exchange, JsonWriter json)
+            throws IOException;
+    }
+}
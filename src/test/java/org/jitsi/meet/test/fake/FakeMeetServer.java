@@ -0,0 +1,548 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.fake;
+
+import com.google.common.util.concurrent.*;
+import com.google.gson.stream.*;
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Serves the fake jitsi-meet app of <tt>resources/fake-meet</tt>: a page
+ * implementing the <tt>APP</tt>, <tt>JitsiMeetJS</tt> and DOM surface the
+ * tests use, with simulated connection times, ICE, bitrates and canvas
+ * drawn thumbnails. Every path which is not a file of the app opens a room
+ * with that name, the participants of a room see each other through the
+ * server. The harness can so be run and measured without a deployment.
+ *
+ * When {@link #ENABLE_PNAME} is set the instance returned by
+ * {@link #getInstance()} is started and the tests are pointed to it.
+ */
+public class FakeMeetServer
+{
+    /**
+     * The name of the property which enables the fake app for the run.
+     */
+    public static final String ENABLE_PNAME = "jitsi-meet.fakeMeet";
+
+    /**
+     * The name of the property with the port of the server, any free port
+     * by default.
+     */
+    public static final String PORT_PNAME = "jitsi-meet.fakeMeet.port";
+
+    /**
+     * The name of the property with the simulated XMPP connect delay in
+     * milliseconds.
+     */
+    public static final String CONNECT_DELAY_PNAME
+        = "jitsi-meet.fakeMeet.connectDelay";
+
+    /**
+     * The name of the property with the simulated MUC join delay in
+     * milliseconds.
+     */
+    public static final String MUC_JOIN_DELAY_PNAME
+        = "jitsi-meet.fakeMeet.mucJoinDelay";
+
+    /**
+     * The name of the property with the simulated ICE connect delay in
+     * milliseconds.
+     */
+    public static final String ICE_DELAY_PNAME
+        = "jitsi-meet.fakeMeet.iceDelay";
+
+    /**
+     * The name of the property with the simulated bitrate per stream in
+     * kbps.
+     */
+    public static final String BITRATE_PNAME = "jitsi-meet.fakeMeet.bitrate";
+
+    /**
+     * The directory with the files of the app.
+     */
+    public static final String APP_DIR = "resources/fake-meet";
+
+    /**
+     * The path prefix of the files of the app.
+     */
+    private static final String APP_PATH = "/fake-meet/";
+
+    /**
+     * The single instance of the run, created on first use.
+     */
+    private static FakeMeetServer instance;
+
+    /**
+     * Whether the instance was created, it is <tt>null</tt> when disabled.
+     */
+    private static boolean instanceCreated = false;
+
+    /**
+     * The underlying server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads serving the requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The directory with the files of the app.
+     */
+    private final File appDir;
+
+    /**
+     * The members of every room and the time they were last seen.
+     */
+    private final Map<String, Map<String, Long>> rooms = new HashMap<>();
+
+    /**
+     * The simulated delays, the bitrate and the other options of the page.
+     */
+    private final Map<String, Number> options
+        = Collections.synchronizedMap(new LinkedHashMap<String, Number>());
+
+    /**
+     * Returns the instance of the run, starting it on first use.
+     * @return the instance or <tt>null</tt> if disabled or it cannot be
+     * started.
+     */
+    public static synchronized FakeMeetServer getInstance()
+    {
+        if (!instanceCreated)
+        {
+            instanceCreated = true;
+
+            if (Boolean.getBoolean(ENABLE_PNAME))
+            {
+                try
+                {
+                    FakeMeetServer server = new FakeMeetServer(
+                        Integer.getInteger(PORT_PNAME, 0), new File(APP_DIR));
+                    server.setConnectDelay(
+                        Long.getLong(CONNECT_DELAY_PNAME, 300));
+                    server.setMucJoinDelay(
+                        Long.getLong(MUC_JOIN_DELAY_PNAME, 200));
+                    server.setIceDelay(Long.getLong(ICE_DELAY_PNAME, 400));
+                    server.setBitrate(Integer.getInteger(BITRATE_PNAME, 500));
+                    server.start();
+                    instance = server;
+
+                    System.err.println(
+                        "Fake jitsi-meet served at " + server.getEndpoint());
+                }
+                catch (IOException e)
+                {
+                    System.err.println("Failed to start the fake jitsi-meet");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Creates new server listening on the loopback interface.
+     * @param port the port, 0 for any free port.
+     * @param appDir the directory with the files of the app.
+     * @throws IOException if the server cannot be created.
+     */
+    public FakeMeetServer(int port, File appDir)
+        throws IOException
+    {
+        this.appDir = appDir;
+
+        options.put("connectDelay", 300);
+        options.put("mucJoinDelay", 200);
+        options.put("sessionDelay", 300);
+        options.put("iceDelay", 400);
+        options.put("dataChannelDelay", 200);
+        options.put("jitter", 0.2);
+        options.put("bitrate", 500);
+        options.put("frameRate", 15);
+        options.put("pollInterval", 500);
+        options.put("statsInterval", 1000);
+
+        server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+            128);
+
+        executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("fake-meet-%d")
+                .build());
+        server.setExecutor(executor);
+
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                try
+                {
+                    serve(exchange);
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts serving.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops serving.
+     */
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the base URL of the server, rooms are opened below it.
+     * @return the base URL, e.g. <tt>http://127.0.0.1:34567</tt>.
+     */
+    public String getEndpoint()
+    {
+        InetSocketAddress address = server.getAddress();
+
+        return "http://" + address.getAddress().getHostAddress()
+            + ":" + address.getPort();
+    }
+
+    /**
+     * Sets the simulated delay between the document being ready and the
+     * XMPP connection being established.
+     * @param ms the delay in milliseconds.
+     */
+    public void setConnectDelay(long ms)
+    {
+        options.put("connectDelay", ms);
+    }
+
+    /**
+     * Sets the simulated delay of joining the MUC after connecting.
+     * @param ms the delay in milliseconds.
+     */
+    public void setMucJoinDelay(long ms)
+    {
+        options.put("mucJoinDelay", ms);
+    }
+
+    /**
+     * Sets the simulated delay of the session-initiate after joining.
+     * @param ms the delay in milliseconds.
+     */
+    public void setSessionDelay(long ms)
+    {
+        options.put("sessionDelay", ms);
+    }
+
+    /**
+     * Sets the simulated time ICE takes from checking to connected.
+     * @param ms the delay in milliseconds.
+     */
+    public void setIceDelay(long ms)
+    {
+        options.put("iceDelay", ms);
+    }
+
+    /**
+     * Sets the simulated delay of opening the data channel after ICE.
+     * @param ms the delay in milliseconds.
+     */
+    public void setDataChannelDelay(long ms)
+    {
+        options.put("dataChannelDelay", ms);
+    }
+
+    /**
+     * Sets how much the delays and bitrates vary randomly.
+     * @param jitter the maximum deviation, as a fraction of the value.
+     */
+    public void setJitter(double jitter)
+    {
+        options.put("jitter", jitter);
+    }
+
+    /**
+     * Sets the simulated bitrate of every stream.
+     * @param kbps the bitrate in kbps.
+     */
+    public void setBitrate(int kbps)
+    {
+        options.put("bitrate", kbps);
+    }
+
+    /**
+     * Sets the frame rate of the canvas drawn videos.
+     * @param fps the frames per second.
+     */
+    public void setFrameRate(int fps)
+    {
+        options.put("frameRate", fps);
+    }
+
+    /**
+     * Returns the simulated time from the document being ready until ICE
+     * is connected, without jitter. The time the harness needs to get a
+     * participant connected beyond it is its own overhead.
+     * @return the time in milliseconds.
+     */
+    public long getSimulatedConnectTime()
+    {
+        return options.get("connectDelay").longValue()
+            + options.get("mucJoinDelay").longValue()
+            + options.get("sessionDelay").longValue()
+            + options.get("iceDelay").longValue();
+    }
+
+    /**
+     * Returns the members of a room.
+     * @param room the name of the room.
+     * @return the ids of the members.
+     */
+    public synchronized Set<String> getMembers(String room)
+    {
+        Map<String, Long> members = rooms.get(room);
+
+        return members == null
+            ? Collections.<String>emptySet()
+            : new HashSet<>(members.keySet());
+    }
+
+    /**
+     * Serves a request.
+     * @param exchange the request.
+     * @throws IOException if the response cannot be written.
+     */
+    private void serve(HttpExchange exchange)
+        throws IOException
+    {
+        String path = exchange.getRequestURI().getPath();
+
+        if (path.equals(APP_PATH + "options.js"))
+        {
+            StringWriter js = new StringWriter();
+            JsonWriter json = new JsonWriter(js);
+            json.beginObject();
+            synchronized (options)
+            {
+                for (Map.Entry<String, Number> e : options.entrySet())
+                    json.name(e.getKey()).value(e.getValue());
+            }
+            json.endObject();
+            json.close();
+
+            respond(exchange, 200, "application/javascript",
+                ("window.fakeMeetOptions = " + js + ";").getBytes("UTF-8"));
+        }
+        else if (path.startsWith(APP_PATH + "room/"))
+        {
+            String room = path.substring((APP_PATH + "room/").length());
+            Map<String, String> query
+                = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            StringWriter members = new StringWriter();
+            JsonWriter json = new JsonWriter(members);
+            json.beginArray();
+            Set<String> ids = updateRoom(
+                room, query.get("id"), query.containsKey("leave"));
+            for (String id : ids)
+                json.value(id);
+            json.endArray();
+            json.close();
+
+            respond(exchange, 200, "application/json",
+                members.toString().getBytes("UTF-8"));
+        }
+        else if (path.startsWith(APP_PATH))
+        {
+            File file = new File(appDir, path.substring(APP_PATH.length()));
+            // only the files directly in the directory of the app
+            if (file.isFile()
+                    && file.getCanonicalFile().getParentFile()
+                        .equals(appDir.getCanonicalFile()))
+            {
+                respond(exchange, 200, getContentType(file.getName()),
+                    readFile(file));
+            }
+            else
+            {
+                respond(exchange, 404, "text/plain",
+                    "Not found".getBytes("UTF-8"));
+            }
+        }
+        else if (path.equals("/favicon.ico"))
+        {
+            respond(exchange, 404, "text/plain",
+                "Not found".getBytes("UTF-8"));
+        }
+        else
+        {
+            respond(exchange, 200, "text/html",
+                readFile(new File(appDir, "index.html")));
+        }
+    }
+
+    /**
+     * Refreshes a member of a room, or removes it, and expires the members
+     * which stopped polling.
+     * @param room the name of the room.
+     * @param id the id of the member, can be <tt>null</tt>.
+     * @param leave whether the member leaves.
+     * @return the ids of the members.
+     */
+    private synchronized Set<String> updateRoom(
+        String room, String id, boolean leave)
+    {
+        Map<String, Long> members = rooms.get(room);
+        if (members == null)
+        {
+            members = new HashMap<>();
+            rooms.put(room, members);
+        }
+
+        long now = System.currentTimeMillis();
+        if (id != null)
+        {
+            if (leave)
+                members.remove(id);
+            else
+                members.put(id, now);
+        }
+
+        long timeout = Math.max(
+            5000, 10 * options.get("pollInterval").longValue());
+        Iterator<Long> iter = members.values().iterator();
+        while (iter.hasNext())
+        {
+            if (now - iter.next() > timeout)
+                iter.remove();
+        }
+
+        if (members.isEmpty())
+            rooms.remove(room);
+
+        return new TreeSet<>(members.keySet());
+    }
+
+    /**
+     * Writes a response.
+     * @param exchange the request.
+     * @param status the status.
+     * @param contentType the content type.
+     * @param body the body.
+     * @throws IOException if writing fails.
+     */
+    private static void respond(
+        HttpExchange exchange, int status, String contentType, byte[] body)
+        throws IOException
+    {
+        exchange.getResponseHeaders()
+            .set("Content-Type", contentType + "; charset=UTF-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Reads a file of the app.
+     * @param file the file.
+     * @return the contents.
+     * @throws IOException if reading fails.
+     */
+    private static byte[] readFile(File file)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new FileInputStream(file))
+        {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1)
+                out.write(buf, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the content type of a file of the app.
+     * @param name the name of the file.
+     * @return the content type.
+     */
+    private static String getContentType(String name)
+    {
+        if (name.endsWith(".js"))
+            return "application/javascript";
+        else if (name.endsWith(".html"))
+            return "text/html";
+        else if (name.endsWith(".css"))
+            return "text/css";
+        else
+            return "application/octet-stream";
+    }
+
+    /**
+     * Parses a query string.
+     * @param query the raw query, can be <tt>null</tt>.
+     * @return the parameters.
+     * @throws UnsupportedEncodingException never, UTF-8 is supported.
+     */
+    private static Map<String, String> parseQuery(String query)
+        throws UnsupportedEncodingException
+    {
+        Map<String, String> params = new HashMap<>();
+        if (query == null)
+            return params;
+
+        for (String param : query.split("&"))
+        {
+            int idx = param.indexOf('=');
+            if (idx == -1)
+            {
+                params.put(URLDecoder.decode(param, "UTF-8"), "");
+            }
+            else
+            {
+                params.put(
+                    URLDecoder.decode(param.substring(0, idx), "UTF-8"),
+                    URLDecoder.decode(param.substring(idx + 1), "UTF-8"));
+            }
+        }
+
+        return params;
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import com.google.gson.*;
+import com.google.gson.stream.*;
+import org.jitsi.meet.test.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Keeps the history of the benchmark metrics across runs in a plain
+ * directory and compares every run with the previous ones. Every metric of
+ * a run is appended as a JSON line to <tt>history.jsonl</tt> together with
+ * the instance URL, the browser and the lib-jitsi-meet version, and compared
+ * with the last {@link #RUNS_PNAME} runs with the same metric, URL and
+ * browser. A value is a regression when it is worse than the mean of these
+ * runs by at least {@link #MIN_CHANGE_PNAME} of the mean and by more than
+ * {@link #SIGMAS_PNAME} standard deviations, so a noisy metric needs a
+ * bigger change than a stable one. The comparisons are written to
+ * <tt>baseline-report.json</tt> in the reports folder and the regressions
+ * are printed.
+ *
+ * Every measured value recorded with {@link BenchmarkResults} is added,
+ * the values describing the setup of a measurement are not. Disabled by
+ * default, enabled by setting {@link #DIR_PNAME}.
+ */
+public class BaselineStore
+{
+    /**
+     * The name of the property with the directory of the history, which
+     * enables the store.
+     */
+    public static final String DIR_PNAME = "jitsi-meet.baseline.dir";
+
+    /**
+     * The name of the property with the number of previous runs a value is
+     * compared with.
+     */
+    public static final String RUNS_PNAME = "jitsi-meet.baseline.runs";
+
+    /**
+     * The name of the property with the smallest change relative to the
+     * mean of the previous runs which is reported, e.g. <tt>0.1</tt> for
+     * 10%.
+     */
+    public static final String MIN_CHANGE_PNAME
+        = "jitsi-meet.baseline.minChange";
+
+    /**
+     * The name of the property with the number of standard deviations of
+     * the previous runs a change must exceed to be reported.
+     */
+    public static final String SIGMAS_PNAME = "jitsi-meet.baseline.sigmas";
+
+    /**
+     * The name of the file with the history.
+     */
+    public static final String HISTORY_FILE = "history.jsonl";
+
+    /**
+     * The name of the report file.
+     */
+    public static final String REPORT_FILE = "baseline-report.json";
+
+    /**
+     * The smallest number of previous runs needed to judge a value.
+     */
+    private static final int MIN_RUNS = 3;
+
+    /**
+     * Which values of a metric are better.
+     */
+    public enum Direction
+    {
+        LOWER_IS_BETTER,
+        HIGHER_IS_BETTER,
+        UNKNOWN;
+
+        /**
+         * Returns the direction of a field of the benchmark results, from
+         * its name: times, sizes and failures are better lower, rates and
+         * ratios higher.
+         * @param field the name of the field.
+         * @return the direction.
+         */
+        public static Direction of(String field)
+        {
+            for (String suffix
+                    : new String[] { "Ms", "Bytes", "Seconds", "Lost",
+                        "failed", "failures", "Errors" })
+            {
+                if (field.endsWith(suffix))
+                    return LOWER_IS_BETTER;
+            }
+            for (String suffix
+                    : new String[] { "Kbps", "PerSecond", "Psnr", "Ratio" })
+            {
+                if (field.endsWith(suffix))
+                    return HIGHER_IS_BETTER;
+            }
+
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * The single instance, <tt>null</tt> when disabled.
+     */
+    private static BaselineStore instance;
+
+    /**
+     * Whether the instance was created.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * The directory of the history.
+     */
+    private final File dir;
+
+    /**
+     * The id of this run.
+     */
+    private final String run = Long.toString(System.currentTimeMillis());
+
+    /**
+     * The number of previous runs a value is compared with.
+     */
+    private final int runs = Integer.getInteger(RUNS_PNAME, 10);
+
+    /**
+     * The smallest relative change which is reported.
+     */
+    private final double minChange
+        = Double.parseDouble(System.getProperty(MIN_CHANGE_PNAME, "0.1"));
+
+    /**
+     * The number of standard deviations a change must exceed.
+     */
+    private final double sigmas
+        = Double.parseDouble(System.getProperty(SIGMAS_PNAME, "3"));
+
+    /**
+     * The values added since the last flush, by metric.
+     */
+    private final Map<String, List<Double>> pending = new LinkedHashMap<>();
+
+    /**
+     * The directions of the metrics.
+     */
+    private final Map<String, Direction> directions = new HashMap<>();
+
+    /**
+     * The comparisons of this run.
+     */
+    private final List<Comparison> comparisons = new ArrayList<>();
+
+    /**
+     * Creates new store.
+     * @param dir the directory of the history.
+     */
+    private BaselineStore(File dir)
+    {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the store, creating it on first use.
+     * @return the store, <tt>null</tt> if disabled.
+     */
+    public static synchronized BaselineStore getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            String dir = System.getProperty(DIR_PNAME);
+            if (dir != null && dir.trim().length() > 0)
+                instance = new BaselineStore(new File(dir.trim()));
+        }
+
+        return instance;
+    }
+
+    /**
+     * Adds a value of a metric of this run. Several values of the same
+     * metric are averaged.
+     * @param metric the name of the metric.
+     * @param value the value.
+     * @param direction which values are better.
+     */
+    public synchronized void add(
+        String metric, double value, Direction direction)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return;
+
+        List<Double> values = pending.get(metric);
+        if (values == null)
+        {
+            values = new ArrayList<>();
+            pending.put(metric, values);
+        }
+        values.add(value);
+        directions.put(metric, direction);
+    }
+
+    /**
+     * Compares the values added since the previous call with the history,
+     * appends them to it and prints the regressions.
+     * @return the comparisons of the values.
+     * @throws IOException if reading or writing the history fails.
+     */
+    public synchronized List<Comparison> flush()
+        throws IOException
+    {
+        if (pending.isEmpty())
+            return Collections.emptyList();
+
+        String url = System.getProperty(ConferenceFixture.JITSI_MEET_URL_PROP);
+        String browser = String.valueOf(
+            ConferenceFixture.BrowserType.valueOfString(
+                System.getProperty(
+                    ConferenceFixture.BROWSER_OWNER_NAME_PROP)));
+        String version = ConferenceFixture.getLibJitsiMeetVersion();
+        Map<String, LinkedHashMap<String, Double>> history
+            = readHistory(url, browser);
+
+        List<Comparison> flushed = new ArrayList<>();
+        dir.mkdirs();
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, HISTORY_FILE), true),
+                "UTF-8"))
+        {
+            for (Map.Entry<String, List<Double>> e : pending.entrySet())
+            {
+                double value = 0;
+                for (double v : e.getValue())
+                    value += v;
+                value /= e.getValue().size();
+
+                LinkedHashMap<String, Double> previous
+                    = history.get(e.getKey());
+                List<Double> baseline = previous == null
+                    ? new ArrayList<Double>()
+                    : new ArrayList<>(previous.values());
+                baseline = baseline.subList(
+                    Math.max(0, baseline.size() - runs), baseline.size());
+                flushed.add(new Comparison(
+                    e.getKey(), version, value, baseline,
+                    directions.get(e.getKey())));
+
+                StringWriter line = new StringWriter();
+                JsonWriter json = new JsonWriter(line);
+                json.beginObject();
+                json.name("run").value(run);
+                json.name("t").value(System.currentTimeMillis());
+                json.name("metric").value(e.getKey());
+                json.name("url").value(url);
+                json.name("browser").value(browser);
+                json.name("version").value(version);
+                json.name("value").value(value);
+                json.endObject();
+                json.close();
+                out.write(line.toString());
+                out.write('\n');
+            }
+        }
+        pending.clear();
+        comparisons.addAll(flushed);
+
+        for (Comparison c : flushed)
+        {
+            if ("regression".equals(c.status))
+                System.err.println("REGRESSION " + c);
+        }
+
+        return flushed;
+    }
+
+    /**
+     * Reads the values of the previous runs with an instance URL and a
+     * browser.
+     * @param url the instance URL.
+     * @param browser the browser.
+     * @return the last value of every previous run, by metric and run, in
+     * the order of the runs.
+     * @throws IOException if reading fails.
+     */
+    private Map<String, LinkedHashMap<String, Double>> readHistory(
+        String url, String browser)
+        throws IOException
+    {
+        Map<String, LinkedHashMap<String, Double>> history = new HashMap<>();
+        File file = new File(dir, HISTORY_FILE);
+        if (!file.exists())
+            return history;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8")))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.trim().isEmpty())
+                    continue;
+
+                JsonObject o;
+                try
+                {
+                    o = new JsonParser().parse(line).getAsJsonObject();
+                }
+                catch (JsonParseException | IllegalStateException e)
+                {
+                    // a line cut by a killed run
+                    continue;
+                }
+                if (run.equals(getString(o, "run"))
+                    || !Objects.equals(url, getString(o, "url"))
+                    || !Objects.equals(browser, getString(o, "browser")))
+                {
+                    continue;
+                }
+
+                String metric = getString(o, "metric");
+                LinkedHashMap<String, Double> byRun = history.get(metric);
+                if (byRun == null)
+                {
+                    byRun = new LinkedHashMap<>();
+                    history.put(metric, byRun);
+                }
+                String r = getString(o, "run");
+                byRun.remove(r);
+                byRun.put(r, o.get("value").getAsDouble());
+            }
+        }
+
+        return history;
+    }
+
+    /**
+     * Returns a string member of a JSON object.
+     * @param o the object.
+     * @param name the name of the member.
+     * @return the value, <tt>null</tt> if missing or null.
+     */
+    private static String getString(JsonObject o, String name)
+    {
+        JsonElement e = o.get(name);
+
+        return e == null || e.isJsonNull() ? null : e.getAsString();
+    }
+
+    /**
+     * Writes the comparisons of this run to {@link #REPORT_FILE}.
+     * @param folder the reports folder.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void writeReport(File folder)
+        throws IOException
+    {
+        folder.mkdirs();
+        try (JsonWriter json = new JsonWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(folder, REPORT_FILE)),
+                "UTF-8")))
+        {
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("run").value(run);
+            json.name("history").value(dir.getAbsolutePath());
+            json.name("comparisons").beginArray();
+            for (Comparison c : comparisons)
+                c.write(json);
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    /**
+     * The comparison of a value with the previous runs.
+     */
+    public class Comparison
+    {
+        /**
+         * The name of the metric.
+         */
+        private final String metric;
+
+        /**
+         * The lib-jitsi-meet version of the run.
+         */
+        private final String version;
+
+        /**
+         * The value of this run.
+         */
+        private final double value;
+
+        /**
+         * The number of previous runs.
+         */
+        private final int count;
+
+        /**
+         * The mean of the previous runs.
+         */
+        private final double mean;
+
+        /**
+         * The standard deviation of the previous runs.
+         */
+        private final double stdDev;
+
+        /**
+         * The change relative to the mean.
+         */
+        private final double change;
+
+        /**
+         * One of <tt>new</tt>, <tt>ok</tt>, <tt>changed</tt>,
+         * <tt>improvement</tt> and <tt>regression</tt>.
+         */
+        private final String status;
+
+        /**
+         * Compares a value with the previous runs.
+         * @param metric the name of the metric.
+         * @param version the lib-jitsi-meet version.
+         * @param value the value.
+         * @param baseline the values of the previous runs.
+         * @param direction which values are better.
+         */
+        Comparison(String metric, String version, double value,
+            List<Double> baseline, Direction direction)
+        {
+            this.metric = metric;
+            this.version = version;
+            this.value = value;
+            this.count = baseline.size();
+
+            double sum = 0;
+            for (double v : baseline)
+                sum += v;
+            mean = count == 0 ? Double.NaN : sum / count;
+
+            double squares = 0;
+            for (double v : baseline)
+                squares += (v - mean) * (v - mean);
+            stdDev = count < 2 ? 0 : Math.sqrt(squares / (count - 1));
+
+            change = mean == 0 ? Double.NaN : (value - mean) / Math.abs(mean);
+
+            boolean significant
+                = Math.abs(value - mean) > sigmas * stdDev
+                    && (Double.isNaN(change)
+                        ? value != mean : Math.abs(change) >= minChange);
+            if (count < MIN_RUNS)
+                status = "new";
+            else if (!significant)
+                status = "ok";
+            else if (direction == Direction.UNKNOWN)
+                status = "changed";
+            else if ((value > mean)
+                    == (direction == Direction.LOWER_IS_BETTER))
+                status = "regression";
+            else
+                status = "improvement";
+        }
+
+        /**
+         * Returns the name of the metric.
+         * @return the name of the metric.
+         */
+        public String getMetric()
+        {
+            return metric;
+        }
+
+        /**
+         * Returns the result of the comparison.
+         * @return one of <tt>new</tt>, <tt>ok</tt>, <tt>changed</tt>,
+         * <tt>improvement</tt> and <tt>regression</tt>.
+         */
+        public String getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * Writes the comparison as a JSON object.
+         * @param json the writer.
+         * @throws IOException if writing fails.
+         */
+        void write(JsonWriter json)
+            throws IOException
+        {
+            json.beginObject();
+            json.name("metric").value(metric);
+            json.name("version").value(version);
+            json.name("value").value(value);
+            json.name("runs").value(count);
+            if (count > 0)
+            {
+                json.name("mean").value(mean);
+                json.name("stdDev").value(stdDev);
+            }
+            if (!Double.isNaN(change))
+                json.name("change").value(change);
+            json.name("status").value(status);
+            json.endObject();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(
+                "%s: %.3f vs %.3f +/- %.3f over %d runs (%+.1f%%)",
+                metric, value, mean, stdDev, count, change * 100);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import com.google.gson.stream.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Appends the results of the benchmarks as JSON lines to
+ * <tt>benchmarks.jsonl</tt> in the reports folder and prints them. Every
+ * line has the benchmark and the measurement names, the latency
+ * distribution in milliseconds and any extra values of the measurement.
+ * The measured values are also added to the {@link BaselineStore}, if
+ * enabled, but not the ones describing the setup (see {@link #isConfig}).
+ */
+public class BenchmarkResults
+{
+    /**
+     * The name of the file with the results.
+     */
+    public static final String RESULTS_FILE = "benchmarks.jsonl";
+
+    /**
+     * The extra values which are set by the benchmarks rather than
+     * measured: the size of the workload and the number of samples.
+     */
+    private static final Set<String> CONFIG_FIELDS
+        = new HashSet<>(Arrays.asList(
+            "concurrency", "threads", "samples", "participants",
+            "conferences", "churn", "cycle", "joins", "launched",
+            "simulatedMs"));
+
+    /**
+     * Returns the file with the results.
+     * @return the file with the results.
+     */
+    public static File getResultsFile()
+    {
+        String reportsDir = System.getProperty("test.reports.dir");
+
+        return new File(
+            reportsDir == null ? "test-reports" : reportsDir, RESULTS_FILE);
+    }
+
+    /**
+     * Returns whether an extra value describes the setup of a measurement,
+     * e.g. its concurrency or a threshold, rather than its result. Such
+     * values are recorded but not tracked by the {@link BaselineStore}.
+     * @param field the name of the value.
+     * @return <tt>true</tt> for a setup value.
+     */
+    public static boolean isConfig(String field)
+    {
+        return CONFIG_FIELDS.contains(field) || field.endsWith("ThresholdMs");
+    }
+
+    /**
+     * Records the result of a measurement.
+     * @param benchmark the name of the benchmark.
+     * @param name the name of the measurement.
+     * @param latenciesMicros the latencies in microseconds, can be
+     * <tt>null</tt>.
+     * @param extra additional values, can be <tt>null</tt>.
+     */
+    public static synchronized void record(
+        String benchmark,
+        String name,
+        LatencyHistogram latenciesMicros,
+        Map<String, ? extends Number> extra)
+    {
+        StringWriter line = new StringWriter();
+        try
+        {
+            JsonWriter json = new JsonWriter(line);
+            json.beginObject();
+            json.name("t").value(System.currentTimeMillis());
+            json.name("benchmark").value(benchmark);
+            json.name("name").value(name);
+            if (latenciesMicros != null)
+            {
+                json.name("count").value(latenciesMicros.getCount());
+                json.name("meanMs").value(latenciesMicros.getMean() / 1000.0);
+                json.name("p50Ms")
+                    .value(latenciesMicros.getQuantile(0.5) / 1000.0);
+                json.name("p90Ms")
+                    .value(latenciesMicros.getQuantile(0.9) / 1000.0);
+                json.name("p99Ms")
+                    .value(latenciesMicros.getQuantile(0.99) / 1000.0);
+                json.name("maxMs").value(latenciesMicros.getMax() / 1000.0);
+            }
+            if (extra != null)
+            {
+                for (Map.Entry<String, ? extends Number> e : extra.entrySet())
+                    json.name(e.getKey()).value(e.getValue());
+            }
+            json.endObject();
+            json.close();
+
+            File file = getResultsFile();
+            file.getParentFile().mkdirs();
+            try (Writer out = new OutputStreamWriter(
+                    new FileOutputStream(file, true), "UTF-8"))
+            {
+                out.write(line.toString());
+                out.write('\n');
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+
+        System.err.println("BENCHMARK " + line);
+
+        BaselineStore baseline = BaselineStore.getInstance();
+        if (baseline != null)
+        {
+            String metric = benchmark + "/" + name + "/";
+            if (latenciesMicros != null && latenciesMicros.getCount() > 0)
+            {
+                for (double q : new double[] { 0.5, 0.9, 0.99 })
+                {
+                    String field = "p" + Math.round(q * 100) + "Ms";
+                    baseline.add(metric + field,
+                        latenciesMicros.getQuantile(q) / 1000.0,
+                        BaselineStore.Direction.LOWER_IS_BETTER);
+                }
+            }
+            if (extra != null)
+            {
+                for (Map.Entry<String, ? extends Number> e : extra.entrySet())
+                {
+                    if (e.getValue() != null && !isConfig(e.getKey()))
+                    {
+                        baseline.add(metric + e.getKey(),
+                            e.getValue().doubleValue(),
+                            BaselineStore.Direction.of(e.getKey()));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import com.google.gson.stream.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Collects the latencies of the WebDriver commands executed by the
+ * instrumented drivers, per test, participant and command. Commands executed
+ * by other threads than the one running the current test (e.g. the log
+ * drainers) are attributed to {@link #BACKGROUND}.
+ */
+public class DriverCommandStats
+{
+    /**
+     * The name under which the commands executed outside the test thread
+     * are recorded.
+     */
+    public static final String BACKGROUND = "(background)";
+
+    /**
+     * The name under which the commands executed while no test is running
+     * are recorded.
+     */
+    private static final String NO_TEST = "(no test)";
+
+    /**
+     * The histograms in microseconds, by test, participant and command.
+     */
+    private static final ConcurrentMap<String,
+            ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>>
+        histograms = new ConcurrentHashMap<>();
+
+    /**
+     * The wall time of the finished tests in milliseconds, in the order they
+     * were run.
+     */
+    private static final Map<String, Long> testWallTimes
+        = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+    /**
+     * The name of the test currently running.
+     */
+    private static volatile String currentTest = NO_TEST;
+
+    /**
+     * The thread running the current test.
+     */
+    private static volatile Thread testThread = null;
+
+    /**
+     * The time the current test started.
+     */
+    private static volatile long testStartTime;
+
+    /**
+     * Marks the start of a test, the commands executed from now on by
+     * the current thread are attributed to it.
+     * @param testName the name of the test.
+     */
+    public static void testStarted(String testName)
+    {
+        currentTest = testName;
+        testThread = Thread.currentThread();
+        testStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the end of the current test.
+     */
+    public static void testEnded()
+    {
+        if (testThread != null)
+        {
+            testWallTimes.put(
+                currentTest, System.currentTimeMillis() - testStartTime);
+        }
+
+        currentTest = NO_TEST;
+        testThread = null;
+    }
+
+    /**
+     * Records the latency of a command.
+     * @param participant the name of the participant.
+     * @param command the name of the command.
+     * @param nanos the latency in nanoseconds.
+     */
+    public static void record(String participant, String command, long nanos)
+    {
+        String test
+            = Thread.currentThread() == testThread ? currentTest : BACKGROUND;
+
+        getHistogram(test, participant, command).record(nanos / 1000);
+    }
+
+    /**
+     * Returns the histogram for a test, participant and command, creating it
+     * if needed.
+     * @param test the test name.
+     * @param participant the participant name.
+     * @param command the command name.
+     * @return the histogram.
+     */
+    private static LatencyHistogram getHistogram(
+        String test, String participant, String command)
+    {
+        ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>
+            byParticipant = histograms.get(test);
+        if (byParticipant == null)
+        {
+            histograms.putIfAbsent(
+                test,
+                new ConcurrentHashMap<String,
+                    ConcurrentMap<String, LatencyHistogram>>());
+            byParticipant = histograms.get(test);
+        }
+
+        ConcurrentMap<String, LatencyHistogram> byCommand
+            = byParticipant.get(participant);
+        if (byCommand == null)
+        {
+            byParticipant.putIfAbsent(
+                participant, new ConcurrentHashMap<String, LatencyHistogram>());
+            byCommand = byParticipant.get(participant);
+        }
+
+        LatencyHistogram histogram = byCommand.get(command);
+        if (histogram == null)
+        {
+            byCommand.putIfAbsent(command, new LatencyHistogram());
+            histogram = byCommand.get(command);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Returns the total time in milliseconds spent in driver commands by
+     * a test.
+     * @param test the name of the test.
+     * @return the time in milliseconds.
+     */
+    public static double getDriverTimeMs(String test)
+    {
+        ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>>
+            byParticipant = histograms.get(test);
+        if (byParticipant == null)
+            return 0;
+
+        long micros = 0;
+        for (Map<String, LatencyHistogram> byCommand : byParticipant.values())
+            for (LatencyHistogram h : byCommand.values())
+                micros += h.getSum();
+
+        return micros / 1000.0;
+    }
+
+    /**
+     * Returns the totals per command of all tests and participants.
+     * @return the histograms by command name.
+     */
+    private static Map<String, LatencyHistogram> getTotalsByCommand()
+    {
+        Map<String, LatencyHistogram> totals = new TreeMap<>();
+        for (Map<String, ConcurrentMap<String, LatencyHistogram>> byParticipant
+                : histograms.values())
+        {
+            for (Map<String, LatencyHistogram> byCommand
+                    : byParticipant.values())
+            {
+                for (Map.Entry<String, LatencyHistogram> e
+                        : byCommand.entrySet())
+                {
+                    LatencyHistogram total = totals.get(e.getKey());
+                    if (total == null)
+                    {
+                        total = new LatencyHistogram();
+                        totals.put(e.getKey(), total);
+                    }
+                    total.add(e.getValue());
+                }
+            }
+        }
+
+        return totals;
+    }
+
+    /**
+     * Writes the collected statistics as JSON.
+     * @param file the file to write to.
+     * @throws IOException if writing fails.
+     */
+    public static void writeReport(File file)
+        throws IOException
+    {
+        try (JsonWriter json = new JsonWriter(
+                new BufferedWriter(new FileWriter(file))))
+        {
+            json.setIndent("  ");
+            json.beginObject();
+
+            json.name("totals");
+            writeHistograms(json, getTotalsByCommand());
+
+            json.name("tests").beginArray();
+            Set<String> tests = new LinkedHashSet<>(testWallTimes.keySet());
+            tests.addAll(histograms.keySet());
+            for (String test : tests)
+            {
+                json.beginObject();
+                json.name("test").value(test);
+
+                Long wallTime = testWallTimes.get(test);
+                if (wallTime != null)
+                    json.name("wallMs").value(wallTime);
+                json.name("driverMs").value(getDriverTimeMs(test));
+
+                json.name("participants").beginObject();
+                Map<String, ConcurrentMap<String, LatencyHistogram>>
+                    byParticipant = histograms.get(test);
+                if (byParticipant != null)
+                {
+                    for (Map.Entry<String,
+                            ConcurrentMap<String, LatencyHistogram>> e
+                                : new TreeMap<>(byParticipant).entrySet())
+                    {
+                        json.name(e.getKey());
+                        writeHistograms(json, new TreeMap<>(e.getValue()));
+                    }
+                }
+                json.endObject();
+
+                json.endObject();
+            }
+            json.endArray();
+
+            json.endObject();
+        }
+    }
+
+    /**
+     * Writes histograms by command name as a JSON object.
+     * @param json where to write.
+     * @param byCommand the histograms by command name.
+     * @throws IOException if writing fails.
+     */
+    private static void writeHistograms(
+        JsonWriter json, Map<String, LatencyHistogram> byCommand)
+        throws IOException
+    {
+        json.beginObject();
+        for (Map.Entry<String, LatencyHistogram> e : byCommand.entrySet())
+        {
+            LatencyHistogram h = e.getValue();
+
+            json.name(e.getKey()).beginObject();
+            json.name("count").value(h.getCount());
+            json.name("totalMs").value(h.getSum() / 1000.0);
+            json.name("meanMs").value(h.getMean() / 1000.0);
+            json.name("p50Ms").value(h.getQuantile(0.5) / 1000.0);
+            json.name("p90Ms").value(h.getQuantile(0.9) / 1000.0);
+            json.name("p99Ms").value(h.getQuantile(0.99) / 1000.0);
+            json.name("maxMs").value(h.getMax() / 1000.0);
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    /**
+     * Prints a short summary per command.
+     * @param out where to print.
+     */
+    public static void printSummary(PrintStream out)
+    {
+        out.println("WebDriver command latencies (ms):");
+        out.println(String.format("%-24s %8s %10s %8s %8s %8s %8s",
+            "command", "count", "total", "p50", "p90", "p99", "max"));
+
+        for (Map.Entry<String, LatencyHistogram> e
+                : getTotalsByCommand().entrySet())
+        {
+            LatencyHistogram h = e.getValue();
+            out.println(String.format(
+                "%-24s %8d %10.1f %8.1f %8.1f %8.1f %8.1f",
+                e.getKey(), h.getCount(), h.getSum() / 1000.0,
+                h.getQuantile(0.5) / 1000.0, h.getQuantile(0.9) / 1000.0,
+                h.getQuantile(0.99) / 1000.0, h.getMax() / 1000.0));
+        }
+    }
+}
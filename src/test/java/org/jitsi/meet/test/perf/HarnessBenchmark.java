@@ -0,0 +1,265 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import junit.framework.*;
+import org.jitsi.meet.test.*;
+import org.jitsi.meet.test.fake.*;
+import org.jitsi.meet.test.util.*;
+import org.openqa.selenium.*;
+
+import java.util.*;
+
+/**
+ * Measures the overhead of the harness itself: the waits, the snapshot
+ * scripts and the capture paths the tests use, run with the owner and the
+ * second participant. Meant to be run against the fake jitsi-meet app
+ * (<tt>-Djitsi-meet.fakeMeet=true</tt>), where the page answers at once and
+ * its connection times are known, so what is measured is the cost of the
+ * harness and the browser. The results are recorded with
+ * {@link BenchmarkResults}.
+ *
+ * Run with <tt>-Djitsi-meet.tests.toRun=perf.HarnessBenchmark</tt>.
+ */
+public class HarnessBenchmark
+    extends TestCase
+{
+    /**
+     * The name of the property with the number of runs of every
+     * measurement.
+     */
+    public static final String ITERATIONS_PNAME
+        = "jitsi-meet.harnessBenchmark.iterations";
+
+    /**
+     * The name of the property with the number of times the second
+     * participant rejoins.
+     */
+    public static final String REJOINS_PNAME
+        = "jitsi-meet.harnessBenchmark.rejoins";
+
+    /**
+     * The name of the benchmark in the results.
+     */
+    private static final String BENCHMARK = "harness";
+
+    /**
+     * The number of runs of every measurement.
+     */
+    private final int iterations
+        = Integer.getInteger(ITERATIONS_PNAME, 50);
+
+    /**
+     * The owner.
+     */
+    private WebDriver owner;
+
+    @Override
+    protected void setUp()
+    {
+        ConferenceFixture.ensureTwoParticipants();
+        owner = ConferenceFixture.getOwner();
+    }
+
+    /**
+     * Measures the waits when their condition already holds, i.e. the cost
+     * of one poll.
+     */
+    public void testWaits()
+    {
+        measure("waitForMucJoined", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUtils.waitForParticipantToJoinMUC(owner, 5);
+            }
+        });
+        measure("waitForIceConnected", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUtils.waitForIceConnected(owner, 5);
+            }
+        });
+        measure("waitForSendReceiveData", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUtils.waitForSendReceiveData(owner);
+            }
+        });
+        measure("waitForRemoteStreams", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUtils.waitForRemoteStreams(owner, 1, 5);
+            }
+        });
+        measure("waitForLocalVideo", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                TestUtils.waitForDisplayedElementByXPath(
+                    owner, "//span[@id='localVideoWrapper']/video", 5);
+            }
+        });
+    }
+
+    /**
+     * Measures the scripts which take a snapshot of the state of the page.
+     */
+    public void testSnapshots()
+    {
+        measure("isInMuc", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUtils.isInMuc(owner);
+            }
+        });
+        measure("getStats", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUtils.getDownloadBitrate(owner);
+            }
+        });
+        measure("getResourceJid", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUtils.getResourceJid(owner);
+            }
+        });
+        measure("getLocalVideoID", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUIUtils.getLocalVideoID(owner);
+            }
+        });
+        measure("getLargeVideoID", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MeetUIUtils.getLargeVideoID(owner);
+            }
+        });
+    }
+
+    /**
+     * Measures the capture paths used for the failure artifacts and the
+     * flight recorder.
+     */
+    public void testCaptures()
+    {
+        final long[] bytes = new long[1];
+
+        LatencyHistogram screenshots = measure("screenshot", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                bytes[0] += ((TakesScreenshot) owner)
+                    .getScreenshotAs(OutputType.BYTES).length;
+            }
+        });
+        Map<String, Number> extra = new LinkedHashMap<>();
+        // the bytes include the first run
+        extra.put("meanBytes", bytes[0] / (screenshots.getCount() + 1));
+        BenchmarkResults.record(
+            BENCHMARK, "screenshotSize", null, extra);
+
+        measure("pageSource", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                owner.getPageSource();
+            }
+        });
+    }
+
+    /**
+     * Measures reopening the room with the second participant until it is
+     * connected and sees the owner. Against the fake app the time beyond
+     * the simulated connection time is the overhead of the harness.
+     */
+    public void testRejoin()
+    {
+        final WebDriver second = ConferenceFixture.getSecondParticipant();
+        final ConferenceFixture.BrowserType browser
+            = ConferenceFixture.getBrowserType(second);
+        int rejoins = Integer.getInteger(REJOINS_PNAME, 5);
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < rejoins; i++)
+        {
+            long start = System.nanoTime();
+            ConferenceFixture.openRoom(
+                second, ConferenceFixture.currentRoomName, null, browser);
+            MeetUtils.waitForParticipantToJoinMUC(second, 10);
+            MeetUtils.waitForIceConnected(second);
+            MeetUtils.waitForRemoteStreams(second, 1);
+            histogram.record((System.nanoTime() - start) / 1000);
+        }
+
+        Map<String, Number> extra = new LinkedHashMap<>();
+        FakeMeetServer fakeMeet = FakeMeetServer.getInstance();
+        if (fakeMeet != null)
+        {
+            long simulated = fakeMeet.getSimulatedConnectTime();
+            extra.put("simulatedMs", simulated);
+            extra.put("overheadMs",
+                histogram.getMean() / 1000.0 - simulated);
+        }
+        BenchmarkResults.record(BENCHMARK, "rejoin", histogram, extra);
+    }
+
+    /**
+     * Runs a task {@link #iterations} times and records its latencies.
+     * @param name the name of the measurement.
+     * @param task the task.
+     * @return the latencies in microseconds.
+     */
+    private LatencyHistogram measure(String name, Runnable task)
+    {
+        // the first run pays for lazy initializations
+        task.run();
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < iterations; i++)
+        {
+            long start = System.nanoTime();
+            task.run();
+            histogram.record((System.nanoTime() - start) / 1000);
+        }
+
+        BenchmarkResults.record(BENCHMARK, name, histogram, null);
+
+        return histogram;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.internal.*;
+
+import java.lang.reflect.*;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Wraps a <tt>WebDriver</tt> in a proxy which implements all interfaces of
+ * the driver (<tt>JavascriptExecutor</tt>, <tt>TakesScreenshot</tt>...) and
+ * records the latency of every command in {@link DriverCommandStats}.
+ *
+ * Only the calls on the driver itself are measured, the calls on the
+ * returned <tt>WebElement</tt>s and on the objects returned by
+ * <tt>manage()</tt>, <tt>navigate()</tt> and <tt>switchTo()</tt> go directly
+ * to the browser. The original driver can be obtained through
+ * <tt>WrapsDriver</tt>.
+ */
+public class InstrumentedDriver
+    implements InvocationHandler
+{
+    /**
+     * The methods which only return helper objects and are not measured.
+     */
+    private static final Set<String> NOT_MEASURED
+        = new HashSet<>(Arrays.asList("manage", "navigate", "switchTo"));
+
+    /**
+     * The methods reported as script execution in {@link PhaseTimes}.
+     */
+    private static final Set<String> SCRIPT_METHODS
+        = new HashSet<>(Arrays.asList("executeScript", "executeAsyncScript"));
+
+    /**
+     * The wrapped driver.
+     */
+    private final WebDriver driver;
+
+    /**
+     * The name of the participant the statistics are recorded for.
+     */
+    private final String participant;
+
+    /**
+     * Creates new handler.
+     * @param driver the wrapped driver.
+     * @param participant the name of the participant.
+     */
+    private InstrumentedDriver(WebDriver driver, String participant)
+    {
+        this.driver = driver;
+        this.participant = participant;
+    }
+
+    /**
+     * Wraps a driver.
+     * @param driver the driver to wrap.
+     * @param participant the name of the participant the statistics are
+     * recorded for.
+     * @return the instrumented driver.
+     */
+    public static WebDriver wrap(WebDriver driver, String participant)
+    {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> c = driver.getClass(); c != null; c = c.getSuperclass())
+            collectInterfaces(c, interfaces);
+        interfaces.add(WrapsDriver.class);
+
+        return (WebDriver) Proxy.newProxyInstance(
+            InstrumentedDriver.class.getClassLoader(),
+            interfaces.toArray(new Class<?>[interfaces.size()]),
+            new InstrumentedDriver(driver, participant));
+    }
+
+    /**
+     * Returns the original driver if the given one is instrumented.
+     * @param driver the driver.
+     * @return the original driver.
+     */
+    public static WebDriver unwrap(WebDriver driver)
+    {
+        if (driver != null && Proxy.isProxyClass(driver.getClass())
+            && Proxy.getInvocationHandler(driver)
+                    instanceof InstrumentedDriver)
+        {
+            return ((WrapsDriver) driver).getWrappedDriver();
+        }
+
+        return driver;
+    }
+
+    /**
+     * Adds the public interfaces of a class and their super interfaces.
+     * @param c the class.
+     * @param interfaces where to add the interfaces.
+     */
+    private static void collectInterfaces(Class<?> c, Set<Class<?>> interfaces)
+    {
+        for (Class<?> i : c.getInterfaces())
+        {
+            if (Modifier.isPublic(i.getModifiers()) && interfaces.add(i))
+                collectInterfaces(i, interfaces);
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable
+    {
+        String name = method.getName();
+
+        // the proxy must be equal only to itself, the fixture and the
+        // background tasks use the drivers as keys
+        if (method.getDeclaringClass() == Object.class)
+        {
+            switch (name)
+            {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return method.invoke(driver, args);
+            }
+        }
+
+        if (method.getDeclaringClass() == WrapsDriver.class)
+            return driver;
+
+        if (NOT_MEASURED.contains(name))
+            return invokeOnDriver(method, args);
+
+        long start = System.nanoTime();
+        PhaseTimes.Scope scope = SCRIPT_METHODS.contains(name)
+            ? PhaseTimes.enter(PhaseTimes.Phase.SCRIPT) : null;
+        try
+        {
+            return invokeOnDriver(method, args);
+        }
+        finally
+        {
+            if (scope != null)
+                scope.end();
+            DriverCommandStats.record(
+                participant, name, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Invokes a method on the wrapped driver, rethrowing what the driver
+     * throws.
+     * @param method the method.
+     * @param args the arguments.
+     * @return the returned value.
+     * @throws Throwable what the driver throws.
+     */
+    private Object invokeOnDriver(Method method, Object[] args)
+        throws Throwable
+    {
+        try
+        {
+            return method.invoke(driver, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A fixed size histogram of non-negative values with log-linear buckets:
+ * every power of two is split in {@link #SUB_BUCKETS} linear buckets, so
+ * the relative error of the reported quantiles is below
+ * 1/{@link #SUB_BUCKETS}. Recording does not allocate and is safe from
+ * several threads.
+ *
+ * The unit of the values is up to the user, e.g. microseconds for command
+ * latencies.
+ */
+public class LatencyHistogram
+{
+    /**
+     * The number of linear buckets per power of two, must be a power of two.
+     */
+    private static final int SUB_BUCKETS = 16;
+
+    /**
+     * log2 of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS
+        = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /**
+     * The number of buckets, enough for any positive long value.
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * The bucket counts.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of the recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The maximum recorded value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * The minimum recorded value.
+     */
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * Records a value, negative values are recorded as 0.
+     * @param value the value to record.
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value));
+        while (value < (m = min.get()) && !min.compareAndSet(m, value));
+    }
+
+    /**
+     * Adds all values recorded by another histogram to this one.
+     * @param other the histogram to add.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            long c = other.counts.get(i);
+            if (c != 0)
+                counts.addAndGet(i, c);
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+
+        long m;
+        long otherMax = other.max.get();
+        while (otherMax > (m = max.get()) && !max.compareAndSet(m, otherMax));
+        long otherMin = other.min.get();
+        while (otherMin < (m = min.get()) && !min.compareAndSet(m, otherMin));
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return the number of recorded values.
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the recorded values.
+     * @return the sum of the recorded values.
+     */
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    /**
+     * Returns the maximum recorded value.
+     * @return the maximum recorded value or 0 if nothing was recorded.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the minimum recorded value.
+     * @return the minimum recorded value or 0 if nothing was recorded.
+     */
+    public long getMin()
+    {
+        long m = min.get();
+        return m == Long.MAX_VALUE ? 0 : m;
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * @return the mean of the recorded values or 0 if nothing was recorded.
+     */
+    public double getMean()
+    {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * Returns an estimate of a quantile of the recorded values, the upper
+     * bound of the bucket where the quantile falls, capped to the maximum.
+     * @param quantile the quantile between 0 and 1, e.g. 0.99.
+     * @return the estimated value or 0 if nothing was recorded.
+     */
+    public long getQuantile(double quantile)
+    {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(quantile * total);
+        if (rank < 1)
+            rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(bucketUpperBound(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Returns the index of the bucket of a value.
+     * @param value the non-negative value.
+     * @return the bucket index.
+     */
+    private static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        // the position of the highest bit, at least SUB_BUCKET_BITS
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value which falls in a bucket.
+     * @param index the bucket index.
+     * @return the largest value of the bucket.
+     */
+    private static long bucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import com.google.gson.stream.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Attributes the wall time of every test to phases like browser startup,
+ * page load or polling waits. The harness marks the phases with
+ * {@link #enter(Phase)}:
+ * <pre>
+ * PhaseTimes.Scope scope = PhaseTimes.enter(Phase.PAGE_LOAD);
+ * try
+ * {
+ *     ...
+ * }
+ * finally
+ * {
+ *     scope.end();
+ * }
+ * </pre>
+ *
+ * Every moment of a test is charged to a single phase, so the phases of
+ * a test add up to its wall time. A nested phase interrupts the enclosing
+ * one, except for the generic phases (sleeps, polling waits and scripts)
+ * which are charged to the enclosing specific phase, e.g. the polling while
+ * waiting for ICE is ICE connect time. The time not in any phase is
+ * {@link Phase#OTHER}.
+ *
+ * Only the thread running the test is measured.
+ */
+public class PhaseTimes
+{
+    /**
+     * The phases of a test.
+     */
+    public enum Phase
+    {
+        BROWSER_STARTUP("browser startup", false),
+        PAGE_LOAD("page load", false),
+        MUC_JOIN("MUC join", false),
+        ICE_CONNECT("ICE connect", false),
+        FAILURE_ARTIFACTS("failure artifacts", false),
+        SLEEP("sleeps", true),
+        POLLING_WAIT("polling waits", true),
+        SCRIPT("script execution", true),
+        OTHER("other", false);
+
+        /**
+         * The name used in the reports.
+         */
+        private final String displayName;
+
+        /**
+         * Whether the phase is charged to the enclosing phase when nested.
+         */
+        private final boolean generic;
+
+        /**
+         * Creates phase.
+         * @param displayName the name used in the reports.
+         * @param generic whether the phase is charged to the enclosing
+         * phase when nested.
+         */
+        Phase(String displayName, boolean generic)
+        {
+            this.displayName = displayName;
+            this.generic = generic;
+        }
+
+        /**
+         * Returns the name used in the reports.
+         * @return the name used in the reports.
+         */
+        public String getDisplayName()
+        {
+            return displayName;
+        }
+    }
+
+    /**
+     * A phase entered with {@link #enter(Phase)}.
+     */
+    public interface Scope
+    {
+        /**
+         * Ends the phase, it is called in the <tt>finally</tt> block of the
+         * code the phase times.
+         */
+        void end();
+    }
+
+    /**
+     * The scope returned for threads which are not measured.
+     */
+    private static final Scope NO_SCOPE = new Scope()
+    {
+        @Override
+        public void end()
+        {
+        }
+    };
+
+    /**
+     * The scope returned for the thread running the test, ending it ends
+     * the innermost phase.
+     */
+    private static final Scope TEST_SCOPE = new Scope()
+    {
+        @Override
+        public void end()
+        {
+            exit();
+        }
+    };
+
+    /**
+     * The phase times in nanoseconds of the finished tests, by test name in
+     * the order they were run.
+     */
+    private static final Map<String, long[]> results = new LinkedHashMap<>();
+
+    /**
+     * The wall times in nanoseconds of the finished tests.
+     */
+    private static final Map<String, Long> wallTimes = new HashMap<>();
+
+    /**
+     * The thread running the current test.
+     */
+    private static volatile Thread testThread = null;
+
+    /**
+     * The name of the current test.
+     */
+    private static String currentTest;
+
+    /**
+     * The phase times in nanoseconds of the current test, by phase ordinal.
+     */
+    private static long[] current;
+
+    /**
+     * The phases entered and not yet exited, innermost last.
+     */
+    private static final ArrayDeque<Phase> stack = new ArrayDeque<>();
+
+    /**
+     * The time the current test started.
+     */
+    private static long testStart;
+
+    /**
+     * The last time the time was charged to a phase.
+     */
+    private static long lastSwitch;
+
+    /**
+     * Marks the start of a test.
+     * @param testName the name of the test.
+     */
+    public static synchronized void testStarted(String testName)
+    {
+        currentTest = testName;
+        current = new long[Phase.values().length];
+        stack.clear();
+        testStart = lastSwitch = System.nanoTime();
+        testThread = Thread.currentThread();
+    }
+
+    /**
+     * Marks the end of the current test and stores its phase times.
+     */
+    public static synchronized void testEnded()
+    {
+        if (testThread == null)
+            return;
+
+        long now = System.nanoTime();
+        charge(now);
+        testThread = null;
+
+        long[] previous = results.get(currentTest);
+        if (previous != null)
+        {
+            // the same test run again, sum up
+            for (int i = 0; i < current.length; i++)
+                current[i] += previous[i];
+        }
+        results.put(currentTest, current);
+
+        Long previousWall = wallTimes.get(currentTest);
+        wallTimes.put(currentTest,
+            (now - testStart) + (previousWall == null ? 0 : previousWall));
+    }
+
+    /**
+     * Enters a phase, the returned scope must be ended when the phase ends.
+     * Calls from threads other than the one running the test are ignored.
+     * @param phase the phase.
+     * @return the scope to end when the phase ends.
+     */
+    public static Scope enter(Phase phase)
+    {
+        if (Thread.currentThread() != testThread)
+            return NO_SCOPE;
+
+        synchronized (PhaseTimes.class)
+        {
+            charge(System.nanoTime());
+
+            Phase top = stack.peekLast();
+            // a generic phase nested in a specific one keeps charging the
+            // specific phase
+            stack.addLast(
+                phase.generic && top != null && !top.generic ? top : phase);
+        }
+
+        return TEST_SCOPE;
+    }
+
+    /**
+     * Exits the innermost phase.
+     */
+    private static synchronized void exit()
+    {
+        if (Thread.currentThread() != testThread || stack.isEmpty())
+            return;
+
+        charge(System.nanoTime());
+        stack.removeLast();
+    }
+
+    /**
+     * Charges the time since the last switch to the innermost phase.
+     * @param now the current time.
+     */
+    private static void charge(long now)
+    {
+        Phase top = stack.peekLast();
+        current[(top == null ? Phase.OTHER : top).ordinal()]
+            += now - lastSwitch;
+        lastSwitch = now;
+    }
+
+    /**
+     * Writes the phase times of the finished tests as JSON, in milliseconds.
+     * @param file the file to write to.
+     * @throws IOException if writing fails.
+     */
+    public static synchronized void writeReport(File file)
+        throws IOException
+    {
+        try (JsonWriter json = new JsonWriter(
+                new BufferedWriter(new FileWriter(file))))
+        {
+            json.setIndent("  ");
+            json.beginArray();
+            for (Map.Entry<String, long[]> e : results.entrySet())
+            {
+                json.beginObject();
+                json.name("test").value(e.getKey());
+                json.name("wallMs").value(toMs(wallTimes.get(e.getKey())));
+                json.name("phases").beginObject();
+                for (Phase phase : Phase.values())
+                {
+                    json.name(phase.name().toLowerCase())
+                        .value(toMs(e.getValue()[phase.ordinal()]));
+                }
+                json.endObject();
+                json.endObject();
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * Writes the phase times of the finished tests as a html table with
+     * a bar per test.
+     * @param file the file to write to.
+     * @throws IOException if writing fails.
+     */
+    public static synchronized void writeHtml(File file)
+        throws IOException
+    {
+        String[] colors = { "#4e79a7", "#f28e2b", "#e15759", "#76b7b2",
+            "#b07aa1", "#59a14f", "#edc948", "#ff9da7", "#bab0ac" };
+
+        try (PrintWriter out = new PrintWriter(
+                new BufferedWriter(new FileWriter(file))))
+        {
+            out.println("<html><head><title>Test phase times</title>");
+            out.println("<style>body{font-family:sans-serif}"
+                + "td,th{padding:2px 6px;text-align:right}"
+                + "td:first-child{text-align:left}"
+                + ".bar{display:flex;width:300px;height:12px}</style>");
+            out.println("</head><body><h2>Test phase times (s)</h2>");
+            out.println("<table><tr><th>test</th><th>wall</th>");
+            for (Phase phase : Phase.values())
+            {
+                out.println("<th style=\"color:"
+                    + colors[phase.ordinal() % colors.length] + "\">"
+                    + phase.getDisplayName() + "</th>");
+            }
+            out.println("<th></th></tr>");
+
+            long[] totals = new long[Phase.values().length];
+            long totalWall = 0;
+            for (Map.Entry<String, long[]> e : results.entrySet())
+            {
+                long wall = wallTimes.get(e.getKey());
+                totalWall += wall;
+                for (int i = 0; i < totals.length; i++)
+                    totals[i] += e.getValue()[i];
+
+                printRow(out, e.getKey(), wall, e.getValue(), colors);
+            }
+            printRow(out, "<b>total</b>", totalWall, totals, colors);
+
+            out.println("</table></body></html>");
+        }
+    }
+
+    /**
+     * Prints a row of the html table.
+     * @param out where to print.
+     * @param name the name of the test.
+     * @param wall the wall time in nanoseconds.
+     * @param phases the phase times in nanoseconds.
+     * @param colors the colors of the phases.
+     */
+    private static void printRow(
+        PrintWriter out, String name, long wall, long[] phases,
+        String[] colors)
+    {
+        out.print("<tr><td>" + name + "</td>");
+        out.print(String.format("<td>%.1f</td>", wall / 1e9));
+        StringBuilder bar = new StringBuilder("<div class=\"bar\">");
+        for (int i = 0; i < phases.length; i++)
+        {
+            out.print(String.format("<td>%.1f</td>", phases[i] / 1e9));
+            if (wall > 0 && phases[i] > 0)
+            {
+                bar.append(String.format(
+                    "<div style=\"width:%.1f%%;background:%s\"></div>",
+                    100.0 * phases[i] / wall, colors[i % colors.length]));
+            }
+        }
+        bar.append("</div>");
+        out.println("<td>" + bar + "</td></tr>");
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds.
+     * @param nanos the nanoseconds.
+     * @return the milliseconds.
+     */
+    private static double toMs(long nanos)
+    {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import junit.framework.*;
+import org.apache.http.client.*;
+import org.jitsi.meet.test.fake.*;
+import org.jitsi.meet.test.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Drives the REST code of the tests (<tt>ColibriClient</tt>,
+ * <tt>ConferenceTracker</tt>, <tt>JvbUtil</tt>) against
+ * {@link FakeBridgeServer}s standing in for the bridge and Jicofo, so it can
+ * be measured without a deployment. The results are recorded with
+ * {@link BenchmarkResults}.
+ *
+ * Run with <tt>-Djitsi-meet.tests.toRun=perf.RestBenchmark</tt>.
+ */
+public class RestBenchmark
+    extends TestCase
+{
+    /**
+     * The name of the property with the number of conferences on the fake
+     * bridge.
+     */
+    public static final String CONFERENCES_PNAME
+        = "jitsi-meet.restBenchmark.conferences";
+
+    /**
+     * The name of the property with the number of client threads.
+     */
+    public static final String THREADS_PNAME
+        = "jitsi-meet.restBenchmark.threads";
+
+    /**
+     * The name of the property with the number of requests per measurement.
+     */
+    public static final String REQUESTS_PNAME
+        = "jitsi-meet.restBenchmark.requests";
+
+    /**
+     * The name of the property with the latency in milliseconds added by
+     * the fake servers to every response.
+     */
+    public static final String LATENCY_PNAME
+        = "jitsi-meet.restBenchmark.latency";
+
+    /**
+     * The name of the property with the padding characters per conference
+     * in <tt>/colibri/conferences</tt>.
+     */
+    public static final String PADDING_PNAME
+        = "jitsi-meet.restBenchmark.padding";
+
+    /**
+     * The name of the benchmark in the results.
+     */
+    private static final String BENCHMARK = "rest";
+
+    /**
+     * The number of conferences.
+     */
+    private final int conferences
+        = Integer.getInteger(CONFERENCES_PNAME, 5000);
+
+    /**
+     * The number of client threads.
+     */
+    private final int threads = Integer.getInteger(THREADS_PNAME, 8);
+
+    /**
+     * The number of requests per measurement.
+     */
+    private final int requests = Integer.getInteger(REQUESTS_PNAME, 2000);
+
+    /**
+     * The latency of the fake servers.
+     */
+    private final long latency = Long.getLong(LATENCY_PNAME, 0);
+
+    /**
+     * The fake bridge.
+     */
+    private FakeBridgeServer jvb;
+
+    /**
+     * The fake Jicofo.
+     */
+    private FakeBridgeServer jicofo;
+
+    /**
+     * The client threads.
+     */
+    private ExecutorService clients;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        jvb = new FakeBridgeServer(0, threads);
+        jvb.setLatency(latency, latency);
+        jvb.setConferencePadding(Integer.getInteger(PADDING_PNAME, 200));
+        jvb.createConferences(conferences);
+        jvb.start();
+
+        jicofo = new FakeBridgeServer(0, threads);
+        jicofo.setLatency(latency, latency);
+        jicofo.start();
+
+        clients = Executors.newFixedThreadPool(threads);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        clients.shutdownNow();
+        jvb.stop();
+        jicofo.stop();
+    }
+
+    /**
+     * Measures <tt>/colibri/stats</tt> retrieval and parsing.
+     */
+    public void testStats()
+        throws Exception
+    {
+        final String endpoint = jvb.getEndpoint();
+
+        Result result = run(requests, new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws Exception
+            {
+                ColibriClient.Stats stats = ColibriClient.getStats(endpoint);
+                assertEquals(conferences, stats.getConferences());
+                return null;
+            }
+        });
+
+        result.record("stats");
+        assertEquals(0, result.errors.get());
+    }
+
+    /**
+     * Measures the health checks of the bridge and Jicofo.
+     */
+    public void testHealth()
+        throws Exception
+    {
+        final String[] endpoints
+            = { jvb.getEndpoint(), jicofo.getEndpoint() };
+        final AtomicInteger next = new AtomicInteger();
+
+        Result result = run(requests, new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws Exception
+            {
+                String endpoint
+                    = endpoints[next.getAndIncrement() % endpoints.length];
+                assertEquals(200,
+                    ColibriClient.getStatus(endpoint, "/about/health"));
+                return null;
+            }
+        });
+
+        result.record("health");
+        assertEquals(0, result.errors.get());
+    }
+
+    /**
+     * Measures following the conferences of a large bridge while they are
+     * created and expired.
+     */
+    public void testConferenceTracking()
+        throws Exception
+    {
+        ConferenceTracker tracker = new ConferenceTracker(jvb.getEndpoint());
+        assertEquals(conferences, tracker.sample().created.size());
+
+        int churn = Math.max(1, conferences / 100);
+        int samples = Math.max(10, requests / 100);
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < samples; i++)
+        {
+            Set<String> expired = new HashSet<>(jvb.expireConferences(churn));
+            Set<String> created = new HashSet<>(jvb.createConferences(churn));
+
+            long start = System.nanoTime();
+            ConferenceTracker.Diff diff = tracker.sample();
+            histogram.record((System.nanoTime() - start) / 1000);
+
+            assertEquals(created, diff.created);
+            assertEquals(expired, diff.expired);
+            assertEquals(conferences, diff.total);
+        }
+
+        Map<String, Number> extra = new LinkedHashMap<>();
+        extra.put("conferences", conferences);
+        extra.put("churn", churn);
+        BenchmarkResults.record(
+            BENCHMARK, "conferenceTracking", histogram, extra);
+    }
+
+    /**
+     * Checks that failing requests are reported as such and do not leak
+     * pooled connections, and measures them.
+     */
+    public void testErrors()
+        throws Exception
+    {
+        jvb.setErrorRate(0.2);
+
+        final String endpoint = jvb.getEndpoint();
+        final AtomicInteger httpErrors = new AtomicInteger();
+
+        Result result = run(requests, new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws Exception
+            {
+                try
+                {
+                    ColibriClient.getStats(endpoint);
+                }
+                catch (HttpResponseException e)
+                {
+                    assertEquals(500, e.getStatusCode());
+                    httpErrors.incrementAndGet();
+                }
+                return null;
+            }
+        });
+
+        result.extra.put("httpErrors", httpErrors.get());
+        result.record("errors");
+
+        // every request completed, so no connection was leaked
+        assertEquals(0, result.errors.get());
+        assertTrue("Expected some failed requests", httpErrors.get() > 0);
+    }
+
+    /**
+     * Measures how late the end of a graceful shutdown is noticed for every
+     * drain curve.
+     */
+    public void testShutdownDrain()
+        throws Exception
+    {
+        long drainDuration = 2000;
+
+        for (FakeBridgeServer.DrainCurve curve
+                : FakeBridgeServer.DrainCurve.values())
+        {
+            FakeBridgeServer bridge = new FakeBridgeServer(0, 2);
+            try
+            {
+                bridge.createConferences(500);
+                bridge.setDrain(curve, drainDuration);
+                bridge.start();
+
+                long start = System.currentTimeMillis();
+                JvbUtil.shutdownBridge(bridge.getEndpoint(), false);
+                long lag = System.currentTimeMillis() - start - drainDuration;
+
+                assertEquals(0, bridge.getConferenceCount());
+
+                Map<String, Number> extra = new LinkedHashMap<>();
+                extra.put("lagMs", lag);
+                extra.put("statsRequests",
+                    bridge.getRequestCount("/colibri/stats"));
+                BenchmarkResults.record(
+                    BENCHMARK, "shutdownDrain-" + curve.name().toLowerCase(),
+                    null, extra);
+            }
+            finally
+            {
+                bridge.stop();
+            }
+        }
+    }
+
+    /**
+     * Runs a task a number of times from the client threads and measures
+     * every run.
+     * @param count the number of runs.
+     * @param task the task.
+     * @return the result.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private Result run(int count, final Callable<Void> task)
+        throws InterruptedException
+    {
+        final Result result = new Result();
+        final CountDownLatch done = new CountDownLatch(count);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+        {
+            clients.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long taskStart = System.nanoTime();
+                    try
+                    {
+                        task.call();
+                    }
+                    catch (Throwable t)
+                    {
+                        if (result.errors.getAndIncrement() == 0)
+                            t.printStackTrace();
+                    }
+                    finally
+                    {
+                        result.histogram.record(
+                            (System.nanoTime() - taskStart) / 1000);
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        result.extra.put("threads", threads);
+        result.extra.put("requestsPerSecond",
+            Math.round(count * 1e9 / Math.max(1, elapsed)));
+        result.extra.put("failures", result.errors.get());
+
+        return result;
+    }
+
+    /**
+     * The result of a measurement.
+     */
+    private static class Result
+    {
+        /**
+         * The latencies in microseconds.
+         */
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        /**
+         * The number of runs which failed unexpectedly.
+         */
+        private final AtomicInteger errors = new AtomicInteger();
+
+        /**
+         * The extra values reported.
+         */
+        private final Map<String, Number> extra = new LinkedHashMap<>();
+
+        /**
+         * Records the result.
+         * @param name the name of the measurement.
+         */
+        private void record(String name)
+        {
+            BenchmarkResults.record(BENCHMARK, name, histogram, extra);
+        }
+    }
+}
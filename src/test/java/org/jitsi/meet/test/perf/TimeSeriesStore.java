@@ -0,0 +1,335 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.perf;
+
+import com.google.gson.stream.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A columnar store of time series. Every series has the same metrics, its
+ * values are kept in one primitive array per metric next to an array of
+ * times, so long runs cost a few bytes per value and summarizing a metric
+ * over a time range is a scan of two arrays. Missing values are stored as
+ * <tt>NaN</tt> and skipped by the summaries.
+ *
+ * Safe to use from several threads.
+ */
+public class TimeSeriesStore
+{
+    /**
+     * The initial capacity of a series.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The names of the metrics.
+     */
+    private final List<String> metrics;
+
+    /**
+     * The series by key, in the order they were created.
+     */
+    private final Map<String, Series> series = new LinkedHashMap<>();
+
+    /**
+     * Creates new store.
+     * @param metrics the names of the metrics of every series.
+     */
+    public TimeSeriesStore(String... metrics)
+    {
+        this.metrics
+            = Collections.unmodifiableList(Arrays.asList(metrics.clone()));
+    }
+
+    /**
+     * Returns the names of the metrics.
+     * @return the names of the metrics, in the order of the values.
+     */
+    public List<String> getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Appends a point to a series, creating it if needed.
+     * @param key the key of the series.
+     * @param time the time of the point in milliseconds.
+     * @param values the values of the metrics, in the order of
+     * {@link #getMetrics()}, <tt>NaN</tt> when missing.
+     */
+    public synchronized void append(String key, long time, double[] values)
+    {
+        if (values.length != metrics.size())
+        {
+            throw new IllegalArgumentException(
+                "Expected " + metrics.size() + " values: "
+                    + values.length);
+        }
+
+        Series s = series.get(key);
+        if (s == null)
+        {
+            s = new Series(key);
+            series.put(key, s);
+        }
+        s.append(time, values);
+    }
+
+    /**
+     * Returns the keys of the series.
+     * @return the keys, in the order the series were created.
+     */
+    public synchronized List<String> getKeys()
+    {
+        return new ArrayList<>(series.keySet());
+    }
+
+    /**
+     * Summarizes a metric of a series over a time range.
+     * @param key the key of the series.
+     * @param metric the name of the metric.
+     * @param from the start of the range in milliseconds, inclusive.
+     * @param to the end of the range in milliseconds, inclusive.
+     * @return the summary, empty if there is no such series.
+     */
+    public synchronized Stats getStats(
+        String key, String metric, long from, long to)
+    {
+        Stats stats = new Stats();
+        Series s = series.get(key);
+        if (s != null)
+            s.addTo(stats, getIndex(metric), from, to);
+
+        return stats;
+    }
+
+    /**
+     * Returns the index of a metric.
+     * @param metric the name of the metric.
+     * @return the index in the values.
+     */
+    private int getIndex(String metric)
+    {
+        int index = metrics.indexOf(metric);
+        if (index < 0)
+            throw new IllegalArgumentException("Unknown metric: " + metric);
+
+        return index;
+    }
+
+    /**
+     * Writes all the series as JSON, one object per series with an array
+     * per column.
+     * @param json the writer.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void write(JsonWriter json)
+        throws IOException
+    {
+        json.beginArray();
+        for (Series s : series.values())
+        {
+            json.beginObject();
+            json.name("key").value(s.key);
+            json.name("time").beginArray();
+            for (int i = 0; i < s.size; i++)
+                json.value(s.times[i]);
+            json.endArray();
+            for (int m = 0; m < metrics.size(); m++)
+            {
+                json.name(metrics.get(m)).beginArray();
+                for (int i = 0; i < s.size; i++)
+                {
+                    double value = s.columns[m][i];
+                    if (Double.isNaN(value))
+                        json.nullValue();
+                    else
+                        json.value(value);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * A single series.
+     */
+    private class Series
+    {
+        /**
+         * The key of the series.
+         */
+        private final String key;
+
+        /**
+         * The times of the points.
+         */
+        private long[] times = new long[INITIAL_CAPACITY];
+
+        /**
+         * The values, one column per metric.
+         */
+        private double[][] columns
+            = new double[metrics.size()][INITIAL_CAPACITY];
+
+        /**
+         * The number of points.
+         */
+        private int size;
+
+        /**
+         * Creates new series.
+         * @param key the key of the series.
+         */
+        Series(String key)
+        {
+            this.key = key;
+        }
+
+        /**
+         * Appends a point, growing the arrays when needed.
+         * @param time the time of the point.
+         * @param values the values.
+         */
+        void append(long time, double[] values)
+        {
+            if (size == times.length)
+            {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                for (int m = 0; m < columns.length; m++)
+                    columns[m] = Arrays.copyOf(columns[m], capacity);
+            }
+
+            times[size] = time;
+            for (int m = 0; m < columns.length; m++)
+                columns[m][size] = values[m];
+            size++;
+        }
+
+        /**
+         * Adds the values of a column in a time range to a summary.
+         * @param stats the summary.
+         * @param m the index of the column.
+         * @param from the start of the range, inclusive.
+         * @param to the end of the range, inclusive.
+         */
+        void addTo(Stats stats, int m, long from, long to)
+        {
+            // the points are appended in time order
+            int i = Arrays.binarySearch(times, 0, size, from);
+            if (i < 0)
+                i = -i - 1;
+            while (i > 0 && times[i - 1] >= from)
+                i--;
+
+            for (; i < size && times[i] <= to; i++)
+                stats.add(columns[m][i]);
+        }
+    }
+
+    /**
+     * The summary of a metric over a time range.
+     */
+    public static class Stats
+    {
+        /**
+         * The number of values, missing ones excluded.
+         */
+        private int count;
+
+        /**
+         * The sum of the values.
+         */
+        private double sum;
+
+        /**
+         * The minimum value.
+         */
+        private double min = Double.NaN;
+
+        /**
+         * The maximum value.
+         */
+        private double max = Double.NaN;
+
+        /**
+         * Adds a value, ignoring missing ones.
+         * @param value the value.
+         */
+        void add(double value)
+        {
+            if (Double.isNaN(value))
+                return;
+
+            count++;
+            sum += value;
+            if (Double.isNaN(min) || value < min)
+                min = value;
+            if (Double.isNaN(max) || value > max)
+                max = value;
+        }
+
+        /**
+         * Returns the number of values.
+         * @return the number of values, missing ones excluded.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Returns the sum of the values.
+         * @return the sum, 0 if there are none.
+         */
+        public double getSum()
+        {
+            return sum;
+        }
+
+        /**
+         * Returns the mean of the values.
+         * @return the mean, <tt>NaN</tt> if there are none.
+         */
+        public double getMean()
+        {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        /**
+         * Returns the minimum value.
+         * @return the minimum, <tt>NaN</tt> if there are none.
+         */
+        public double getMin()
+        {
+            return min;
+        }
+
+        /**
+         * Returns the maximum value.
+         * @return the maximum, <tt>NaN</tt> if there are none.
+         */
+        public double getMax()
+        {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,729 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.tasks;
+
+import com.google.gson.stream.*;
+import org.jitsi.meet.test.*;
+import org.jitsi.meet.test.util.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Samples the load and the health of the bridge and Jicofo during the whole
+ * run: <tt>/colibri/stats</tt> of the bridge and <tt>/about/health</tt> of
+ * both. The samples are written as JSON lines to
+ * <tt>bridge-stats.jsonl</tt> in the reports folder, together with
+ * the start and the end of every test, so a slow test can be matched with
+ * what the bridge was doing at that time. At the end of the run a summary
+ * per test is written to <tt>bridge-stats-summary.json</tt>.
+ *
+ * Disabled by default, enabled by setting {@link #INTERVAL_PNAME}.
+ */
+public class BridgeStatsSampler
+    extends TimerTask
+{
+    /**
+     * The name of the property with the interval in milliseconds between two
+     * samples. A value of 0 (the default) disables the sampler.
+     */
+    public static final String INTERVAL_PNAME
+        = "jitsi-meet.bridgeStats.interval";
+
+    /**
+     * The name of the property with the base URL of the bridge REST API.
+     * Defaults to <tt>jitsi-meet.jvb.address</tt> or port 8080 of the meet
+     * host.
+     */
+    public static final String JVB_ENDPOINT_PNAME
+        = "jitsi-meet.bridgeStats.jvb";
+
+    /**
+     * The name of the property with the base URL of the Jicofo REST API.
+     * Defaults to port 8888 of the meet host.
+     */
+    public static final String JICOFO_ENDPOINT_PNAME
+        = "jitsi-meet.bridgeStats.jicofo";
+
+    /**
+     * The name of the property which enables following the conferences of
+     * the bridge, every sample then lists the conferences created and
+     * expired since the previous one.
+     */
+    public static final String TRACK_CONFERENCES_PNAME
+        = "jitsi-meet.bridgeStats.trackConferences";
+
+    /**
+     * The name of the file with the samples.
+     */
+    private static final String SAMPLES_FILE = "bridge-stats.jsonl";
+
+    /**
+     * The name of the file with the summary per test.
+     */
+    private static final String SUMMARY_FILE = "bridge-stats-summary.json";
+
+    /**
+     * The single instance, created on first use.
+     */
+    private static BridgeStatsSampler instance;
+
+    /**
+     * Whether the instance was created, it is <tt>null</tt> when disabled.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * The timer taking the samples.
+     */
+    private final Timer timer = new Timer("bridge-stats-sampler", true);
+
+    /**
+     * The base URL of the bridge REST API.
+     */
+    private final String jvbEndpoint;
+
+    /**
+     * The base URL of the Jicofo REST API, <tt>null</tt> to not check it.
+     */
+    private final String jicofoEndpoint;
+
+    /**
+     * The folder where the files are written.
+     */
+    private final File reportsFolder;
+
+    /**
+     * Follows the conferences of the bridge, <tt>null</tt> if disabled.
+     */
+    private ConferenceTracker conferenceTracker;
+
+    /**
+     * Where the samples and the test events are written.
+     */
+    private final Writer out;
+
+    /**
+     * Whether the sampler was stopped and the samples file closed.
+     */
+    private boolean stopped = false;
+
+    /**
+     * The summaries of the tests, in the order they were run.
+     */
+    private final Map<String, Summary> summaries = new LinkedHashMap<>();
+
+    /**
+     * The summary of the test currently running, <tt>null</tt> between
+     * tests.
+     */
+    private Summary currentSummary;
+
+    /**
+     * Creates new sampler.
+     * @param jvbEndpoint the base URL of the bridge REST API.
+     * @param jicofoEndpoint the base URL of the Jicofo REST API,
+     * <tt>null</tt> to not check it.
+     * @param reportsFolder the folder where the files are written.
+     * @throws IOException if the samples file cannot be created.
+     */
+    public BridgeStatsSampler(
+        String jvbEndpoint, String jicofoEndpoint, File reportsFolder)
+        throws IOException
+    {
+        this.jvbEndpoint = jvbEndpoint;
+        this.jicofoEndpoint = jicofoEndpoint;
+        this.reportsFolder = reportsFolder;
+
+        reportsFolder.mkdirs();
+        out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(new File(reportsFolder, SAMPLES_FILE)),
+            "UTF-8"));
+    }
+
+    /**
+     * Returns the sampler, starting it on first use.
+     * @param reportsFolder the folder where the files are written.
+     * @return the sampler or <tt>null</tt> if it is disabled.
+     */
+    public static synchronized BridgeStatsSampler getInstance(
+        File reportsFolder)
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            long interval = Long.getLong(INTERVAL_PNAME, 0);
+            if (interval > 0)
+            {
+                try
+                {
+                    instance = new BridgeStatsSampler(
+                        getDefaultJvbEndpoint(),
+                        getDefaultJicofoEndpoint(),
+                        reportsFolder);
+                    if (Boolean.getBoolean(TRACK_CONFERENCES_PNAME))
+                        instance.setTrackConferences(true);
+                    instance.start(interval);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the sampler if it was started.
+     * @return the sampler or <tt>null</tt>.
+     */
+    public static synchronized BridgeStatsSampler getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Returns the bridge endpoint from the properties.
+     * @return the base URL of the bridge REST API.
+     */
+    public static String getDefaultJvbEndpoint()
+    {
+        String endpoint = System.getProperty(JVB_ENDPOINT_PNAME);
+        if (endpoint == null)
+            endpoint = System.getProperty("jitsi-meet.jvb.address");
+
+        return endpoint != null
+            ? endpoint : "http://" + getMeetHost() + ":8080";
+    }
+
+    /**
+     * Returns the Jicofo endpoint from the properties.
+     * @return the base URL of the Jicofo REST API.
+     */
+    private static String getDefaultJicofoEndpoint()
+    {
+        String endpoint = System.getProperty(JICOFO_ENDPOINT_PNAME);
+
+        return endpoint != null
+            ? endpoint : "http://" + getMeetHost() + ":8888";
+    }
+
+    /**
+     * Returns the host of the meet instance.
+     * @return the host of the meet instance.
+     */
+    private static String getMeetHost()
+    {
+        try
+        {
+            return new URL(System.getProperty(
+                ConferenceFixture.JITSI_MEET_URL_PROP)).getHost();
+        }
+        catch (MalformedURLException e)
+        {
+            return "localhost";
+        }
+    }
+
+    /**
+     * Enables or disables following the conferences of the bridge.
+     * @param trackConferences whether to follow the conferences.
+     */
+    public synchronized void setTrackConferences(boolean trackConferences)
+    {
+        conferenceTracker
+            = trackConferences ? new ConferenceTracker(jvbEndpoint) : null;
+    }
+
+    /**
+     * Starts sampling.
+     * @param intervalMs the interval between two samples in milliseconds.
+     */
+    public void start(long intervalMs)
+    {
+        timer.schedule(this, 0, intervalMs);
+    }
+
+    /**
+     * Stops sampling and closes the samples file.
+     */
+    public synchronized void stop()
+    {
+        timer.cancel();
+        stopped = true;
+
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Marks the start of a test in the samples.
+     * @param testName the name of the test.
+     */
+    public synchronized void testStarted(String testName)
+    {
+        currentSummary = new Summary(testName);
+        summaries.put(testName, currentSummary);
+
+        if (!stopped)
+            writeEvent("testStart", testName);
+    }
+
+    /**
+     * Marks the end of the current test in the samples.
+     */
+    public synchronized void testEnded()
+    {
+        if (currentSummary == null)
+            return;
+
+        if (!stopped)
+            writeEvent("testEnd", currentSummary.testName);
+        currentSummary = null;
+    }
+
+    /**
+     * Returns the summaries of the tests run so far.
+     * @return the summaries of the tests.
+     */
+    public synchronized List<Summary> getSummaries()
+    {
+        return new ArrayList<>(summaries.values());
+    }
+
+    /**
+     * Takes a sample.
+     */
+    @Override
+    public void run()
+    {
+        Sample sample = new Sample();
+
+        try
+        {
+            sample.stats = ColibriClient.getStats(jvbEndpoint);
+        }
+        catch (IOException e)
+        {
+            sample.error = e.toString();
+        }
+
+        ConferenceTracker tracker;
+        synchronized (this)
+        {
+            tracker = conferenceTracker;
+        }
+        if (tracker != null)
+        {
+            try
+            {
+                sample.conferences = tracker.sample();
+            }
+            catch (IOException e)
+            {
+                if (sample.error == null)
+                    sample.error = e.toString();
+            }
+        }
+
+        sample.jvbHealthMs = checkHealth(jvbEndpoint);
+        if (jicofoEndpoint != null)
+        {
+            sample.jicofoChecked = true;
+            sample.jicofoHealthMs = checkHealth(jicofoEndpoint);
+        }
+
+        synchronized (this)
+        {
+            if (stopped)
+                return;
+
+            if (currentSummary != null)
+                currentSummary.add(sample);
+
+            writeSample(sample);
+        }
+    }
+
+    /**
+     * Checks the health of an endpoint.
+     * @param endpoint the base URL.
+     * @return the time in milliseconds the check took or -1 if the endpoint
+     * is not healthy.
+     */
+    private static long checkHealth(String endpoint)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            int status = ColibriClient.getStatus(endpoint, "/about/health");
+            if (status != 200)
+                return -1;
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Writes a sample as a JSON line.
+     * @param sample the sample.
+     */
+    private void writeSample(Sample sample)
+    {
+        try
+        {
+            StringWriter line = new StringWriter();
+            JsonWriter json = new JsonWriter(line);
+            json.beginObject();
+            json.name("t").value(sample.timestamp);
+            json.name("type").value("sample");
+            if (sample.stats != null)
+            {
+                json.name("conferences").value(sample.stats.getConferences());
+                json.name("participants")
+                    .value(sample.stats.getParticipants());
+                json.name("bitrateDownload")
+                    .value(sample.stats.getBitrateDownload());
+                json.name("bitrateUpload")
+                    .value(sample.stats.getBitrateUpload());
+                json.name("cpuUsage").value(sample.stats.getCpuUsage());
+                json.name("stressLevel").value(sample.stats.getStressLevel());
+            }
+            if (sample.conferences != null)
+            {
+                json.name("conferencesCreated").beginArray();
+                for (String id : sample.conferences.created)
+                    json.value(id);
+                json.endArray();
+                json.name("conferencesExpired").beginArray();
+                for (String id : sample.conferences.expired)
+                    json.value(id);
+                json.endArray();
+            }
+            if (sample.error != null)
+                json.name("error").value(sample.error);
+            json.name("jvbHealthMs").value(sample.jvbHealthMs);
+            if (sample.jicofoChecked)
+                json.name("jicofoHealthMs").value(sample.jicofoHealthMs);
+            json.endObject();
+            json.close();
+
+            out.write(line.toString());
+            out.write('\n');
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a test event as a JSON line.
+     * @param type the type of the event.
+     * @param testName the name of the test.
+     */
+    private void writeEvent(String type, String testName)
+    {
+        try
+        {
+            StringWriter line = new StringWriter();
+            JsonWriter json = new JsonWriter(line);
+            json.beginObject();
+            json.name("t").value(System.currentTimeMillis());
+            json.name("type").value(type);
+            json.name("test").value(testName);
+            json.endObject();
+            json.close();
+
+            out.write(line.toString());
+            out.write('\n');
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the summary of every test.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void writeSummary()
+        throws IOException
+    {
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(
+                new FileWriter(new File(reportsFolder, SUMMARY_FILE)))))
+        {
+            json.setIndent("  ");
+            json.beginArray();
+            for (Summary s : summaries.values())
+            {
+                json.beginObject();
+                json.name("test").value(s.testName);
+                json.name("samples").value(s.samples);
+                json.name("failedSamples").value(s.failedSamples);
+                json.name("maxConferences").value(s.maxConferences);
+                json.name("maxParticipants").value(s.maxParticipants);
+                json.name("maxCpuUsage").value(s.maxCpuUsage);
+                json.name("maxStressLevel").value(s.maxStressLevel);
+                json.name("meanBitrateDownload")
+                    .value(s.getMean(s.sumBitrateDownload));
+                json.name("meanBitrateUpload")
+                    .value(s.getMean(s.sumBitrateUpload));
+                json.name("conferencesCreated").value(s.conferencesCreated);
+                json.name("conferencesExpired").value(s.conferencesExpired);
+                json.name("maxJvbHealthMs").value(s.maxJvbHealthMs);
+                json.name("jvbUnhealthy").value(s.jvbUnhealthy);
+                json.name("maxJicofoHealthMs").value(s.maxJicofoHealthMs);
+                json.name("jicofoUnhealthy").value(s.jicofoUnhealthy);
+                json.endObject();
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * A single sample.
+     */
+    private static class Sample
+    {
+        /**
+         * The time the sample was started.
+         */
+        private final long timestamp = System.currentTimeMillis();
+
+        /**
+         * The bridge statistics, <tt>null</tt> if they could not be
+         * retrieved.
+         */
+        private ColibriClient.Stats stats;
+
+        /**
+         * The conferences created and expired since the previous sample,
+         * <tt>null</tt> if not followed.
+         */
+        private ConferenceTracker.Diff conferences;
+
+        /**
+         * Why the statistics could not be retrieved.
+         */
+        private String error;
+
+        /**
+         * The duration of the bridge health check, -1 if unhealthy.
+         */
+        private long jvbHealthMs = -1;
+
+        /**
+         * Whether Jicofo health was checked.
+         */
+        private boolean jicofoChecked = false;
+
+        /**
+         * The duration of the Jicofo health check, -1 if unhealthy.
+         */
+        private long jicofoHealthMs = -1;
+    }
+
+    /**
+     * The bridge load and health during a single test.
+     */
+    public static class Summary
+    {
+        /**
+         * The name of the test.
+         */
+        public final String testName;
+
+        /**
+         * The number of samples taken during the test.
+         */
+        public int samples;
+
+        /**
+         * The number of samples without bridge statistics.
+         */
+        public int failedSamples;
+
+        /**
+         * The maximum number of conferences.
+         */
+        public int maxConferences;
+
+        /**
+         * The maximum number of participants.
+         */
+        public int maxParticipants;
+
+        /**
+         * The maximum CPU usage.
+         */
+        public double maxCpuUsage;
+
+        /**
+         * The maximum stress level.
+         */
+        public double maxStressLevel;
+
+        /**
+         * The sum of the download bitrates.
+         */
+        private double sumBitrateDownload;
+
+        /**
+         * The sum of the upload bitrates.
+         */
+        private double sumBitrateUpload;
+
+        /**
+         * The number of conferences created during the test, when the
+         * conferences are followed.
+         */
+        public int conferencesCreated;
+
+        /**
+         * The number of conferences expired during the test, when the
+         * conferences are followed.
+         */
+        public int conferencesExpired;
+
+        /**
+         * The longest bridge health check in milliseconds.
+         */
+        public long maxJvbHealthMs;
+
+        /**
+         * The number of failed bridge health checks.
+         */
+        public int jvbUnhealthy;
+
+        /**
+         * The longest Jicofo health check in milliseconds.
+         */
+        public long maxJicofoHealthMs;
+
+        /**
+         * The number of failed Jicofo health checks.
+         */
+        public int jicofoUnhealthy;
+
+        /**
+         * Creates new summary.
+         * @param testName the name of the test.
+         */
+        Summary(String testName)
+        {
+            this.testName = testName;
+        }
+
+        /**
+         * Adds a sample.
+         * @param sample the sample.
+         */
+        private void add(Sample sample)
+        {
+            samples++;
+
+            ColibriClient.Stats stats = sample.stats;
+            if (stats == null)
+            {
+                failedSamples++;
+            }
+            else
+            {
+                maxConferences
+                    = Math.max(maxConferences, stats.getConferences());
+                maxParticipants
+                    = Math.max(maxParticipants, stats.getParticipants());
+                maxCpuUsage = Math.max(maxCpuUsage, stats.getCpuUsage());
+                maxStressLevel
+                    = Math.max(maxStressLevel, stats.getStressLevel());
+                sumBitrateDownload += Math.max(0, stats.getBitrateDownload());
+                sumBitrateUpload += Math.max(0, stats.getBitrateUpload());
+            }
+
+            if (sample.conferences != null)
+            {
+                conferencesCreated += sample.conferences.created.size();
+                conferencesExpired += sample.conferences.expired.size();
+            }
+
+            if (sample.jvbHealthMs < 0)
+                jvbUnhealthy++;
+            else
+                maxJvbHealthMs = Math.max(maxJvbHealthMs, sample.jvbHealthMs);
+
+            if (!sample.jicofoChecked)
+            {
+                // nothing to count
+            }
+            else if (sample.jicofoHealthMs < 0)
+            {
+                jicofoUnhealthy++;
+            }
+            else
+            {
+                maxJicofoHealthMs
+                    = Math.max(maxJicofoHealthMs, sample.jicofoHealthMs);
+            }
+        }
+
+        /**
+         * Returns the mean of a sum over the successful samples.
+         * @param sum the sum.
+         * @return the mean.
+         */
+        private double getMean(double sum)
+        {
+            int n = samples - failedSamples;
+            return n == 0 ? 0 : sum / n;
+        }
+
+        /**
+         * Returns the mean download bitrate.
+         * @return the mean download bitrate.
+         */
+        public double getMeanBitrateDownload()
+        {
+            return getMean(sumBitrateDownload);
+        }
+
+        /**
+         * Returns the mean upload bitrate.
+         * @return the mean upload bitrate.
+         */
+        public double getMeanBitrateUpload()
+        {
+            return getMean(sumBitrateUpload);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.tasks;
+
+import org.jitsi.meet.test.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.logging.*;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Periodically pulls the browser console logs of all participants, so the
+ * driver buffers never overflow during long runs. The logs are written to
+ * per participant rolling files in the logs folder and the last lines are
+ * kept in memory, to be added to the failure reports.
+ *
+ * The drainer is enabled by default, setting {@link #DRAIN_INTERVAL_PNAME}
+ * to 0 disables it and the browser logs are only fetched on failure.
+ */
+public class BrowserLogDrainer
+    extends ParticipantPollingTask<BrowserLogDrainer.ParticipantLog>
+{
+    /**
+     * The name of the property with the interval in seconds between two
+     * drains. A value of 0 disables the drainer.
+     */
+    public static final String DRAIN_INTERVAL_PNAME
+        = "jitsi-meet.browserLogs.drainInterval";
+
+    /**
+     * The name of the property with the size in MB after which the log file
+     * of a participant is rolled.
+     */
+    public static final String MAX_FILE_SIZE_PNAME
+        = "jitsi-meet.browserLogs.maxFileSize";
+
+    /**
+     * The name of the property with the number of rolled files to keep per
+     * participant.
+     */
+    public static final String MAX_FILES_PNAME
+        = "jitsi-meet.browserLogs.maxFiles";
+
+    /**
+     * The name of the property with the number of last log lines kept in
+     * memory per participant.
+     */
+    public static final String TAIL_SIZE_PNAME
+        = "jitsi-meet.browserLogs.tailSize";
+
+    /**
+     * The default interval in seconds between two drains.
+     */
+    private static final long DEFAULT_DRAIN_INTERVAL = 10;
+
+    /**
+     * The default size in MB of a log file.
+     */
+    private static final long DEFAULT_MAX_FILE_SIZE = 20;
+
+    /**
+     * The default number of rolled files per participant.
+     */
+    private static final int DEFAULT_MAX_FILES = 5;
+
+    /**
+     * The default number of log lines kept in memory per participant.
+     */
+    private static final int DEFAULT_TAIL_SIZE = 500;
+
+    /**
+     * The single instance, created on first use.
+     */
+    private static BrowserLogDrainer instance;
+
+    /**
+     * Whether the instance was created, it is <tt>null</tt> when disabled.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * Creates new drainer.
+     */
+    private BrowserLogDrainer()
+    {
+        super("browser-log-drainer");
+    }
+
+    /**
+     * Returns the drainer, starting it on first use.
+     * @return the drainer or <tt>null</tt> if it is disabled.
+     */
+    public static synchronized BrowserLogDrainer getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            long interval = Long.getLong(
+                DRAIN_INTERVAL_PNAME, DEFAULT_DRAIN_INTERVAL);
+            if (interval > 0)
+            {
+                instance = new BrowserLogDrainer();
+                instance.start(interval * 1000);
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Drains the logs of a participant now and returns the last lines.
+     * @param driver the driver of the participant.
+     * @return the last log lines of the participant or <tt>null</tt> if
+     * the participant is not registered.
+     */
+    public List<String> drainAndGetTail(WebDriver driver)
+    {
+        ParticipantLog log = getState(driver);
+
+        if (log == null)
+            return null;
+
+        synchronized (log)
+        {
+            poll(log);
+
+            return new ArrayList<>(log.tail);
+        }
+    }
+
+    @Override
+    protected ParticipantLog createState(String name)
+    {
+        return new ParticipantLog(name);
+    }
+
+    @Override
+    protected void attached(ParticipantLog log)
+    {
+        log.supported = true;
+    }
+
+    /**
+     * Drains the participant one last time and closes its log file, which
+     * is opened again if the participant starts again.
+     */
+    @Override
+    protected void detached(ParticipantLog log)
+    {
+        try
+        {
+            super.detached(log);
+        }
+        finally
+        {
+            log.close();
+        }
+    }
+
+    @Override
+    protected void stopped(ParticipantLog log)
+    {
+        log.close();
+    }
+
+    /**
+     * Pulls the entries buffered by the driver and writes them to the
+     * log file.
+     */
+    @Override
+    protected void poll(ParticipantLog log)
+    {
+        if (!log.supported)
+            return;
+
+        LogEntries entries;
+        try
+        {
+            entries = log.driver.manage().logs().get(LogType.BROWSER);
+        }
+        catch (UnsupportedCommandException e)
+        {
+            System.err.println("Browser logs not supported for " + log.name);
+            log.supported = false;
+            return;
+        }
+        catch (WebDriverException e)
+        {
+            // the browser may be gone already, we will try next time
+            return;
+        }
+
+        try
+        {
+            for (LogEntry e : entries)
+            {
+                String line
+                    = log.dateFormat.format(new Date(e.getTimestamp()))
+                        + " " + e.getLevel() + " " + e.getMessage();
+
+                log.write(line);
+
+                log.tail.addLast(line);
+                if (log.tail.size() > log.tailSize)
+                    log.tail.removeFirst();
+            }
+
+            log.flush();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The browser log of a single participant.
+     */
+    static class ParticipantLog
+        extends ParticipantPollingTask.State
+    {
+        /**
+         * The last log lines.
+         */
+        private final ArrayDeque<String> tail = new ArrayDeque<>();
+
+        /**
+         * The maximum number of lines in {@link #tail}.
+         */
+        private final int tailSize
+            = Integer.getInteger(TAIL_SIZE_PNAME, DEFAULT_TAIL_SIZE);
+
+        /**
+         * The size in bytes after which the file is rolled.
+         */
+        private final long maxFileSize
+            = Long.getLong(MAX_FILE_SIZE_PNAME, DEFAULT_MAX_FILE_SIZE)
+                * 1024 * 1024;
+
+        /**
+         * The number of rolled files to keep.
+         */
+        private final int maxFiles
+            = Integer.getInteger(MAX_FILES_PNAME, DEFAULT_MAX_FILES);
+
+        /**
+         * Formats the timestamps of the entries.
+         */
+        private final DateFormat dateFormat
+            = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+        /**
+         * Whether the driver supports fetching browser logs.
+         */
+        private boolean supported = true;
+
+        /**
+         * The current log file.
+         */
+        private final File file;
+
+        /**
+         * Writes to {@link #file}.
+         */
+        private Writer writer;
+
+        /**
+         * The number of bytes in {@link #file}.
+         */
+        private long fileSize;
+
+        /**
+         * Creates new participant log.
+         * @param name the name of the participant.
+         */
+        ParticipantLog(String name)
+        {
+            super(name);
+            this.file = new File(FailureListener.createLogsFolder(),
+                "browser-console-" + name + ".log");
+        }
+
+        /**
+         * Writes a line to the log file, rolling it when needed.
+         * @param line the line to write.
+         * @throws IOException if writing fails.
+         */
+        private void write(String line)
+            throws IOException
+        {
+            if (writer != null && fileSize >= maxFileSize)
+            {
+                writer.close();
+                writer = null;
+                roll();
+            }
+
+            if (writer == null)
+            {
+                fileSize = file.length();
+                writer = new BufferedWriter(new FileWriter(file, true));
+            }
+
+            writer.write(line);
+            writer.write('\n');
+            fileSize += line.length() + 1;
+        }
+
+        /**
+         * Flushes the written lines to the disk.
+         * @throws IOException if writing fails.
+         */
+        private void flush()
+            throws IOException
+        {
+            if (writer != null)
+                writer.flush();
+        }
+
+        /**
+         * Closes the log file.
+         */
+        private void close()
+        {
+            if (writer == null)
+                return;
+
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+            writer = null;
+        }
+
+        /**
+         * Renames the current file to <tt>.1</tt>, the <tt>.1</tt> to
+         * <tt>.2</tt> and so on, dropping the oldest one.
+         */
+        private void roll()
+        {
+            new File(file.getPath() + "." + maxFiles).delete();
+
+            for (int i = maxFiles - 1; i >= 1; i--)
+            {
+                File f = new File(file.getPath() + "." + i);
+                if (f.exists())
+                    f.renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+
+            if (maxFiles > 0)
+                file.renameTo(new File(file.getPath() + ".1"));
+            else
+                file.delete();
+        }
+    }
+}
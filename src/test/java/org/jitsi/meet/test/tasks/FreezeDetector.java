@@ -0,0 +1,483 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.tasks;
+
+import com.google.gson.stream.*;
+import org.openqa.selenium.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Detects frozen remote videos of every participant. A script injected in
+ * the page (<tt>resources/FreezeDetector.js</tt>) hashes a 16x12 sample of
+ * every displayed remote video each interval and records only the intervals
+ * during which the hash did not change, with the frames decoded meanwhile.
+ * The freezes are drained from the pages, appended to
+ * <tt>freezes.jsonl</tt> in the reports folder with the test during which
+ * they ended, and kept in memory for the assertions of
+ * {@link org.jitsi.meet.test.util.MeetUIUtils#assertNoFreezeLongerThan}.
+ *
+ * The sampling costs a tiny canvas draw per video and interval, so the
+ * detector is enabled by default, setting {@link #INTERVAL_PNAME} to 0
+ * disables it.
+ */
+public class FreezeDetector
+    extends ParticipantPollingTask<FreezeDetector.ParticipantFreezes>
+{
+    /**
+     * The name of the property with the interval in milliseconds between two
+     * samples of the videos. A value of 0 disables the detector.
+     */
+    public static final String INTERVAL_PNAME
+        = "jitsi-meet.freezeDetector.interval";
+
+    /**
+     * The name of the property with the minimum duration in milliseconds of
+     * a recorded freeze.
+     */
+    public static final String MIN_FREEZE_PNAME
+        = "jitsi-meet.freezeDetector.minFreeze";
+
+    /**
+     * The name of the property with the interval in milliseconds between two
+     * drains of the freezes recorded in the pages.
+     */
+    public static final String DRAIN_INTERVAL_PNAME
+        = "jitsi-meet.freezeDetector.drainInterval";
+
+    /**
+     * The default interval between two samples.
+     */
+    private static final long DEFAULT_INTERVAL = 250;
+
+    /**
+     * The default minimum duration of a freeze.
+     */
+    private static final long DEFAULT_MIN_FREEZE = 500;
+
+    /**
+     * The default interval between two drains.
+     */
+    private static final long DEFAULT_DRAIN_INTERVAL = 10000;
+
+    /**
+     * The number of freezes kept in memory per participant.
+     */
+    private static final int MAX_FREEZES = 1000;
+
+    /**
+     * The script detecting the freezes in the page.
+     */
+    private static final String SCRIPT = "resources/FreezeDetector.js";
+
+    /**
+     * The name of the file with the freezes.
+     */
+    private static final String FREEZES_FILE = "freezes.jsonl";
+
+    /**
+     * The single instance, created on first use.
+     */
+    private static FreezeDetector instance;
+
+    /**
+     * Whether the instance was created, it is <tt>null</tt> when disabled.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * The interval in milliseconds between two samples in the page.
+     */
+    private final long interval;
+
+    /**
+     * The minimum duration in milliseconds of a recorded freeze.
+     */
+    private final long minFreeze;
+
+    /**
+     * The source of the script, read on first use.
+     */
+    private String script;
+
+    /**
+     * The name of the test currently running, <tt>null</tt> between tests.
+     */
+    private String currentTest;
+
+    /**
+     * The start of the test currently running, 0 between tests.
+     */
+    private long currentTestStart;
+
+    /**
+     * Creates new detector.
+     * @param interval the interval between two samples in the page.
+     * @param minFreeze the minimum duration of a recorded freeze.
+     */
+    private FreezeDetector(long interval, long minFreeze)
+    {
+        super("freeze-detector");
+        this.interval = interval;
+        this.minFreeze = minFreeze;
+    }
+
+    /**
+     * Returns the detector, starting it on first use.
+     * @return the detector or <tt>null</tt> if it is disabled.
+     */
+    public static synchronized FreezeDetector getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            long interval = Long.getLong(INTERVAL_PNAME, DEFAULT_INTERVAL);
+            if (interval > 0)
+            {
+                long minFreeze = Math.max(
+                    Long.getLong(MIN_FREEZE_PNAME, DEFAULT_MIN_FREEZE),
+                    2 * interval);
+                instance = new FreezeDetector(interval, minFreeze);
+                instance.start(
+                    Long.getLong(
+                        DRAIN_INTERVAL_PNAME, DEFAULT_DRAIN_INTERVAL));
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Marks the start of a test, the assertions only look at the freezes
+     * since then.
+     * @param testName the name of the test.
+     */
+    public synchronized void testStarted(String testName)
+    {
+        currentTest = testName;
+        currentTestStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Drains all participants, so the freezes of the test which just ended
+     * are written with its name.
+     */
+    public void testEnded()
+    {
+        run();
+
+        synchronized (this)
+        {
+            currentTest = null;
+            currentTestStart = 0;
+        }
+    }
+
+    /**
+     * Returns the start of the test currently running.
+     * @return the start in milliseconds since the epoch, 0 between tests.
+     */
+    public synchronized long getCurrentTestStart()
+    {
+        return currentTestStart;
+    }
+
+    /**
+     * Drains a participant now and returns its freezes which ended after a
+     * time, including the ongoing ones.
+     * @param driver the driver of the participant.
+     * @param since the time in milliseconds since the epoch.
+     * @return the freezes, <tt>null</tt> if the participant is not
+     * registered.
+     */
+    public List<Freeze> getFreezes(WebDriver driver, long since)
+    {
+        ParticipantFreezes freezes = getState(driver);
+
+        return freezes == null ? null : getFreezes(freezes, since);
+    }
+
+    /**
+     * Drains all participants now and returns their freezes which ended
+     * after a time, including the ongoing ones.
+     * @param since the time in milliseconds since the epoch.
+     * @return the freezes.
+     */
+    public List<Freeze> getFreezes(long since)
+    {
+        List<Freeze> result = new ArrayList<>();
+        for (ParticipantFreezes freezes : getStates())
+            result.addAll(getFreezes(freezes, since));
+
+        return result;
+    }
+
+    /**
+     * Drains a participant and returns its freezes which ended after a
+     * time.
+     * @param freezes the state of the participant.
+     * @param since the time in milliseconds since the epoch.
+     * @return the freezes, ongoing ones included.
+     */
+    private List<Freeze> getFreezes(ParticipantFreezes freezes, long since)
+    {
+        List<Freeze> result = new ArrayList<>();
+        synchronized (freezes)
+        {
+            if (freezes.driver != null)
+                poll(freezes);
+
+            for (Freeze freeze : freezes.ended)
+            {
+                if (freeze.end >= since)
+                    result.add(freeze);
+            }
+            for (Freeze freeze : freezes.ongoing)
+            {
+                if (freeze.end >= since)
+                    result.add(freeze);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    protected ParticipantFreezes createState(String name)
+    {
+        return new ParticipantFreezes(name);
+    }
+
+    /**
+     * Drains the freezes recorded in the page, injecting the script when it
+     * is not there, i.e. on the first poll and after the page was reloaded.
+     */
+    @Override
+    protected void poll(ParticipantFreezes freezes)
+    {
+        Object result;
+        try
+        {
+            JavascriptExecutor js = (JavascriptExecutor) freezes.driver;
+            result = js.executeScript(
+                "return window._freezeDetector"
+                    + " ? window._freezeDetector.drain() : null;");
+            if (result == null)
+            {
+                js.executeScript(getScript(), interval, minFreeze);
+                return;
+            }
+        }
+        catch (WebDriverException | IOException e)
+        {
+            // the page may be loading or the browser gone already
+            return;
+        }
+
+        Map<?, ?> drained = (Map<?, ?>) result;
+        List<Freeze> ended = new ArrayList<>();
+        for (Object row : (List<?>) drained.get("freezes"))
+            ended.add(new Freeze(freezes.name, (List<?>) row, false));
+
+        freezes.ongoing.clear();
+        for (Object row : (List<?>) drained.get("ongoing"))
+            freezes.ongoing.add(new Freeze(freezes.name, (List<?>) row, true));
+
+        if (ended.isEmpty())
+            return;
+
+        freezes.ended.addAll(ended);
+        while (freezes.ended.size() > MAX_FREEZES)
+            freezes.ended.removeFirst();
+
+        write(ended);
+    }
+
+    /**
+     * Appends freezes to the freezes file.
+     * @param freezes the freezes.
+     */
+    private void write(List<Freeze> freezes)
+    {
+        String testName;
+        synchronized (this)
+        {
+            testName = currentTest;
+        }
+
+        String reportsDir = System.getProperty("test.reports.dir");
+        File file = new File(
+            reportsDir == null ? "test-reports" : reportsDir, FREEZES_FILE);
+        file.getParentFile().mkdirs();
+
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(file, true), "UTF-8"))
+        {
+            for (Freeze freeze : freezes)
+            {
+                JsonWriter json = new JsonWriter(out);
+                json.beginObject();
+                json.name("test").value(testName);
+                json.name("participant").value(freeze.participant);
+                json.name("video").value(freeze.video);
+                json.name("start").value(freeze.start);
+                json.name("end").value(freeze.end);
+                json.name("durationMs").value(freeze.getDuration());
+                json.name("framesDecoded").value(freeze.framesDecoded);
+                json.endObject();
+                json.flush();
+                out.write('\n');
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the source of the script, reading it on first use.
+     * @return the source of the script.
+     * @throws IOException if the script cannot be read.
+     */
+    private synchronized String getScript()
+        throws IOException
+    {
+        if (script == null)
+        {
+            script = new String(
+                Files.readAllBytes(Paths.get(SCRIPT)), "UTF-8");
+        }
+
+        return script;
+    }
+
+    /**
+     * The freezes seen by a single participant.
+     */
+    static class ParticipantFreezes
+        extends ParticipantPollingTask.State
+    {
+        /**
+         * The freezes which ended, oldest first.
+         */
+        private final ArrayDeque<Freeze> ended = new ArrayDeque<>();
+
+        /**
+         * The freezes ongoing at the last drain.
+         */
+        private final List<Freeze> ongoing = new ArrayList<>();
+
+        /**
+         * Creates new participant state.
+         * @param name the name of the participant.
+         */
+        ParticipantFreezes(String name)
+        {
+            super(name);
+        }
+    }
+
+    /**
+     * A remote video which did not change for a while.
+     */
+    public static class Freeze
+    {
+        /**
+         * The name of the participant who saw the freeze.
+         */
+        public final String participant;
+
+        /**
+         * The id of the thumbnail of the frozen video.
+         */
+        public final String video;
+
+        /**
+         * The time the frozen frame was first seen.
+         */
+        public final long start;
+
+        /**
+         * The time a new frame was seen, or the video was hidden, or the
+         * freeze was drained when it is ongoing.
+         */
+        public final long end;
+
+        /**
+         * The frames the video element decoded during the freeze,
+         * <tt>null</tt> if unknown.
+         */
+        public final Long framesDecoded;
+
+        /**
+         * Whether the video was still frozen when drained.
+         */
+        public final boolean ongoing;
+
+        /**
+         * Creates new freeze from a row of the script.
+         * @param participant the name of the participant.
+         * @param row the key, start, end and frames decoded.
+         * @param ongoing whether the freeze is ongoing.
+         */
+        Freeze(String participant, List<?> row, boolean ongoing)
+        {
+            this.participant = participant;
+            this.video = String.valueOf(row.get(0));
+            this.start = ((Number) row.get(1)).longValue();
+            this.end = ((Number) row.get(2)).longValue();
+            this.framesDecoded = row.get(3) instanceof Number
+                ? ((Number) row.get(3)).longValue() : null;
+            this.ongoing = ongoing;
+        }
+
+        /**
+         * Returns how long the video was frozen.
+         * @return the duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return end - start;
+        }
+
+        /**
+         * Returns whether no frame was decoded during the freeze. A video
+         * which decoded frames without changing is most likely a static
+         * picture, e.g. a shared screen, rather than a freeze. A freeze
+         * whose decoded frames are unknown, e.g. in a browser which does not
+         * report them, is not considered stalled.
+         * @return <tt>true</tt> if it is known that no frame was decoded.
+         */
+        public boolean isStalled()
+        {
+            return framesDecoded != null && framesDecoded == 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return video + " seen by " + participant + " frozen for "
+                + getDuration() + "ms from " + new Date(start)
+                + (ongoing ? " (ongoing)" : "")
+                + (framesDecoded == null
+                    ? "" : ", " + framesDecoded + " frames decoded");
+        }
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.tasks;
+
+import org.jitsi.meet.test.*;
+import org.openqa.selenium.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Retrieves the meet debug logs (<tt>APP.conference.getLogs()</tt>)
+ * incrementally. The page keeps a cursor of what was already retrieved, so
+ * every drain transfers only the new entries, split in chunks of limited
+ * size. The entries are written as JSON lines (<tt>{"p": path, "e": entry}
+ * </tt>) to a gzip file per participant in the logs folder.
+ *
+ * When enabled with {@link #DRAIN_INTERVAL_PNAME} the logs are drained
+ * periodically during the whole run and on failure only the tail has to be
+ * fetched. A new gzip member is started with the first drain of every
+ * test, so the part of the log of the failing test can be attached to its
+ * failure without the rest of the run.
+ */
+public class MeetLogDrainer
+    extends ParticipantPollingTask<MeetLogDrainer.ParticipantLog>
+{
+    /**
+     * The name of the property with the interval in seconds between two
+     * drains. A value of 0 (the default) disables periodic drains, the logs
+     * are then retrieved only on failure.
+     */
+    public static final String DRAIN_INTERVAL_PNAME
+        = "jitsi-meet.meetLogs.drainInterval";
+
+    /**
+     * The name of the property with the maximum size in KB of a single chunk
+     * transferred from the browser.
+     */
+    public static final String CHUNK_SIZE_PNAME
+        = "jitsi-meet.meetLogs.chunkSize";
+
+    /**
+     * The default chunk size in KB.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 512;
+
+    /**
+     * Returns the next chunk of new log entries. Walks the logs object and
+     * treats every array as a list of entries, remembering how many entries
+     * of each array were already returned. Values which are not arrays are
+     * returned whenever they change.
+     *
+     * The cursor advanced by a chunk is committed only when the next chunk
+     * is requested with <tt>arguments[1]</tt> set to <tt>true</tt> (or by
+     * {@link #COMMIT_SCRIPT}), so a chunk lost on the way is sent again. The
+     * cursor is kept in the window property named <tt>arguments[2]</tt>.
+     */
+    private static final String DRAIN_SCRIPT =
+        "var maxChars = arguments[0];"
+        + "var ack = arguments[1];"
+        + "var logs;"
+        + "try { logs = APP.conference.getLogs(); } catch (e) { return null; }"
+        + "var s = window[arguments[2]]"
+        + "    || (window[arguments[2]] = { committed: {}, pending: null });"
+        + "if (ack && s.pending) { s.committed = s.pending; }"
+        + "s.pending = null;"
+        + "var cursor = {};"
+        + "for (var c in s.committed) { cursor[c] = s.committed[c]; }"
+        + "var out = [];"
+        + "var size = 0;"
+        + "var more = false;"
+        + "function emit(path, value) {"
+        + "    var line = JSON.stringify({ p: path, e: value });"
+        + "    out.push(line);"
+        + "    size += line.length;"
+        + "    if (size >= maxChars) { more = true; }"
+        + "}"
+        + "function walk(path, value, depth) {"
+        + "    if (more) { return; }"
+        + "    if (Array.isArray(value)) {"
+        + "        var from = cursor[path] || 0;"
+        + "        if (from > value.length) { from = 0; }"
+        + "        for (var i = from; i < value.length && !more; i++) {"
+        + "            emit(path, value[i]);"
+        + "            cursor[path] = i + 1;"
+        + "        }"
+        + "    } else if (value && typeof value === 'object' && depth < 3) {"
+        + "        for (var key in value) {"
+        + "            if (value.hasOwnProperty(key)) {"
+        + "                walk(path + '/' + key, value[key], depth + 1);"
+        + "            }"
+        + "        }"
+        + "    } else {"
+        + "        var str = JSON.stringify(value);"
+        + "        if (cursor['=' + path] !== str) {"
+        + "            emit(path, value);"
+        + "            cursor['=' + path] = str;"
+        + "        }"
+        + "    }"
+        + "}"
+        + "walk('', logs, 0);"
+        + "s.pending = cursor;"
+        + "return { data: out.join('\\n'), more: more };";
+
+    /**
+     * Commits the cursor advanced by the last returned chunk.
+     */
+    private static final String COMMIT_SCRIPT =
+        "var s = window[arguments[0]];"
+        + "if (s && s.pending) { s.committed = s.pending; s.pending = null; }";
+
+    /**
+     * Removes a cursor, so the next drain with it starts from the first
+     * entry.
+     */
+    private static final String RESET_SCRIPT = "delete window[arguments[0]];";
+
+    /**
+     * The window property with the cursor of the drains.
+     */
+    private static final String DRAIN_CURSOR = "_tortureMeetLogs";
+
+    /**
+     * The window property with the cursor of the dumps, which is removed
+     * after every dump.
+     */
+    private static final String DUMP_CURSOR = "_tortureMeetLogsDump";
+
+    /**
+     * The single instance, created on first use.
+     */
+    private static MeetLogDrainer instance;
+
+    /**
+     * Whether the instance was created, it is <tt>null</tt> when disabled.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * The number of tests started, the logs start a new gzip member when it
+     * changes.
+     */
+    private volatile int testCount = 0;
+
+    /**
+     * Creates new drainer.
+     */
+    private MeetLogDrainer()
+    {
+        super("meet-log-drainer");
+    }
+
+    /**
+     * Returns the drainer, starting it on first use.
+     * @return the drainer or <tt>null</tt> if it is disabled.
+     */
+    public static synchronized MeetLogDrainer getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            long interval = Long.getLong(DRAIN_INTERVAL_PNAME, 0);
+            if (interval > 0)
+            {
+                instance = new MeetLogDrainer();
+                instance.start(interval * 1000);
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Retrieves all entries not retrieved so far from the page in chunks and
+     * writes them to <tt>out</tt>, one JSON entry per line.
+     *
+     * @param driver the driver of the participant.
+     * @param out where to write the entries.
+     * @return the number of characters written.
+     * @throws IOException if writing fails, the entries of the failed chunk
+     * will be retrieved again on the next drain.
+     */
+    public static long drain(WebDriver driver, Writer out)
+        throws IOException
+    {
+        return drain(driver, out, DRAIN_CURSOR);
+    }
+
+    /**
+     * Retrieves all the entries from the page in chunks, whether they were
+     * drained or not, and writes them to <tt>out</tt>, one JSON entry per
+     * line. It does not move the cursor of the drains, so it can be used on
+     * failure, as many times as needed, without losing entries.
+     *
+     * @param driver the driver of the participant.
+     * @param out where to write the entries.
+     * @return the number of characters written.
+     * @throws IOException if writing fails.
+     */
+    public static long dump(WebDriver driver, Writer out)
+        throws IOException
+    {
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        js.executeScript(RESET_SCRIPT, DUMP_CURSOR);
+        try
+        {
+            return drain(driver, out, DUMP_CURSOR);
+        }
+        finally
+        {
+            js.executeScript(RESET_SCRIPT, DUMP_CURSOR);
+        }
+    }
+
+    /**
+     * Retrieves the entries after a cursor and writes them to <tt>out</tt>,
+     * moving the cursor.
+     *
+     * @param driver the driver of the participant.
+     * @param out where to write the entries.
+     * @param cursor the window property with the cursor.
+     * @return the number of characters written.
+     * @throws IOException if writing fails.
+     */
+    private static long drain(WebDriver driver, Writer out, String cursor)
+        throws IOException
+    {
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        int chunkChars
+            = Integer.getInteger(CHUNK_SIZE_PNAME, DEFAULT_CHUNK_SIZE) * 1024;
+
+        long written = 0;
+        boolean ack = false;
+        while (true)
+        {
+            Object res
+                = js.executeScript(DRAIN_SCRIPT, chunkChars, ack, cursor);
+            if (!(res instanceof Map))
+            {
+                // no conference in the page
+                return written;
+            }
+
+            Map<?, ?> chunk = (Map<?, ?>) res;
+            String data = (String) chunk.get("data");
+            if (data != null && data.length() > 0)
+            {
+                out.write(data);
+                out.write('\n');
+                written += data.length() + 1;
+            }
+            out.flush();
+
+            ack = true;
+
+            if (!Boolean.TRUE.equals(chunk.get("more")))
+                break;
+        }
+
+        js.executeScript(COMMIT_SCRIPT, cursor);
+
+        return written;
+    }
+
+    /**
+     * Marks the start of a test, the entries drained from now on are
+     * written to new gzip members.
+     */
+    public void testStarted()
+    {
+        testCount++;
+    }
+
+    /**
+     * Drains the logs of a participant and closes its current gzip member,
+     * so the part of the file written since the current test started is
+     * complete and can be copied.
+     * @param driver the driver of the participant.
+     * @return the gzipped entries drained since the current test started,
+     * and the ones not drained before it, or <tt>null</tt> if the
+     * participant is not registered.
+     * @throws IOException if the log file cannot be read.
+     */
+    public byte[] drainForFailure(WebDriver driver)
+        throws IOException
+    {
+        ParticipantLog log = getState(driver);
+
+        if (log == null)
+            return null;
+
+        synchronized (log)
+        {
+            poll(log);
+            log.finishMember();
+
+            return log.readTestPart();
+        }
+    }
+
+    /**
+     * Closes the log files still open.
+     */
+    @Override
+    protected void stopped(ParticipantLog log)
+    {
+        log.finishMember();
+    }
+
+    @Override
+    protected ParticipantLog createState(String name)
+    {
+        return new ParticipantLog(name);
+    }
+
+    @Override
+    protected void poll(ParticipantLog log)
+    {
+        try
+        {
+            if (log.test != testCount)
+            {
+                log.finishMember();
+                log.testStart = log.file.length();
+                log.test = testCount;
+            }
+            drain(log.driver, log.getWriter());
+        }
+        catch (WebDriverException e)
+        {
+            System.err.println("Failed to drain meet logs of " + log.name
+                + ": " + e.getMessage());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void detached(ParticipantLog log)
+    {
+        try
+        {
+            poll(log);
+        }
+        finally
+        {
+            log.finishMember();
+        }
+    }
+
+    /**
+     * The meet log of a single participant.
+     */
+    static class ParticipantLog
+        extends ParticipantPollingTask.State
+    {
+        /**
+         * The gzip file with the log.
+         */
+        private final File file;
+
+        /**
+         * Writes the current gzip member of the file.
+         */
+        private Writer writer;
+
+        /**
+         * The number of the test the current gzip member belongs to.
+         */
+        private int test = -1;
+
+        /**
+         * The size of the file when the current test started.
+         */
+        private long testStart;
+
+        /**
+         * Creates new participant log.
+         * @param name the name of the participant.
+         */
+        ParticipantLog(String name)
+        {
+            super(name);
+            this.file = new File(FailureListener.createLogsFolder(),
+                "meetlog-" + name + ".jsonl.gz");
+        }
+
+        /**
+         * Returns the writer, starting a new gzip member appended to the file
+         * if needed. A file of several concatenated members is a valid gzip
+         * file.
+         * @return the writer.
+         * @throws IOException if the file cannot be opened.
+         */
+        private Writer getWriter()
+            throws IOException
+        {
+            if (writer == null)
+            {
+                writer = new BufferedWriter(
+                    new OutputStreamWriter(
+                        new GZIPOutputStream(
+                            new FileOutputStream(file, true), true),
+                        "UTF-8"));
+            }
+
+            return writer;
+        }
+
+        /**
+         * Reads the gzip members written since the current test started.
+         * @return the gzipped entries.
+         * @throws IOException if the file cannot be read.
+         */
+        private byte[] readTestPart()
+            throws IOException
+        {
+            if (!file.isFile())
+                return new byte[0];
+
+            try (RandomAccessFile in = new RandomAccessFile(file, "r"))
+            {
+                long start = Math.min(testStart, in.length());
+                byte[] part = new byte[(int) (in.length() - start)];
+                in.seek(start);
+                in.readFully(part);
+
+                return part;
+            }
+        }
+
+        /**
+         * Completes the current gzip member.
+         */
+        private void finishMember()
+        {
+            if (writer == null)
+                return;
+
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+            writer = null;
+        }
+    }
+}
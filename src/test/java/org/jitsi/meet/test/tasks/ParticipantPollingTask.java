@@ -0,0 +1,383 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.tasks;
+
+import com.google.common.util.concurrent.*;
+import org.openqa.selenium.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Base of the tasks which periodically poll every started participant in
+ * the background. Participants are registered by name, a participant which
+ * quits and starts again under the same name keeps its state (e.g. continues
+ * writing the same log files).
+ *
+ * Every participant is polled in its own task, so a hung driver only delays
+ * its own participant: the timer waits for the polls at most
+ * {@link #POLL_TIMEOUT_PNAME} seconds, and a participant whose previous poll
+ * has not returned yet is skipped. The last poll of a participant which
+ * quits is run the same way, so a hung driver cannot block its quit.
+ *
+ * @param <S> the type of the per participant state.
+ */
+public abstract class ParticipantPollingTask<S extends ParticipantPollingTask.State>
+    extends TimerTask
+{
+    /**
+     * The name of the property with the time in seconds the polls of all
+     * participants are waited for.
+     */
+    public static final String POLL_TIMEOUT_PNAME
+        = "jitsi-meet.tasks.pollTimeout";
+
+    /**
+     * The timer which runs the polls.
+     */
+    private final Timer timer;
+
+    /**
+     * Runs the poll of every participant.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The states of the currently registered participants.
+     */
+    private final Map<WebDriver, S> states = new HashMap<>();
+
+    /**
+     * The states by participant name, kept after the participant quits.
+     */
+    private final Map<String, S> statesByName = new HashMap<>();
+
+    /**
+     * Creates new task.
+     * @param name the name of the timer thread.
+     */
+    protected ParticipantPollingTask(String name)
+    {
+        timer = new Timer(name, true);
+        executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat(name + "-%d")
+                .build());
+    }
+
+    /**
+     * Starts polling the registered participants.
+     * @param intervalMs the interval between two polls in milliseconds.
+     */
+    public void start(long intervalMs)
+    {
+        timer.schedule(this, intervalMs, intervalMs);
+    }
+
+    /**
+     * Stops polling and releases the states of all participants.
+     */
+    public void stop()
+    {
+        timer.cancel();
+        executor.shutdownNow();
+
+        List<S> all;
+        synchronized (this)
+        {
+            all = new ArrayList<>(statesByName.values());
+        }
+        for (S state : all)
+        {
+            synchronized (state)
+            {
+                stopped(state);
+            }
+        }
+    }
+
+    /**
+     * Starts polling a participant.
+     * @param driver the driver of the participant.
+     * @param name the name of the participant.
+     */
+    public void register(WebDriver driver, String name)
+    {
+        S state;
+        synchronized (this)
+        {
+            state = statesByName.get(name);
+            if (state == null)
+            {
+                state = createState(name);
+                statesByName.put(name, state);
+            }
+
+            states.put(driver, state);
+        }
+
+        synchronized (state)
+        {
+            state.driver = driver;
+            attached(state);
+        }
+    }
+
+    /**
+     * Stops polling a participant which is about to quit, polling it one
+     * last time. Waits for the last poll at most {@link #POLL_TIMEOUT_PNAME}
+     * seconds.
+     * @param driver the driver of the participant.
+     */
+    public void unregister(WebDriver driver)
+    {
+        final S state;
+        synchronized (this)
+        {
+            state = states.remove(driver);
+        }
+
+        if (state == null)
+            return;
+
+        // queued after a poll still running, to not lose the last one
+        Future<?> last = submit(state, true, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (state)
+                {
+                    try
+                    {
+                        detached(state);
+                    }
+                    finally
+                    {
+                        state.driver = null;
+                    }
+                }
+            }
+        });
+        if (last != null)
+            await(state, last, getDeadline());
+    }
+
+    /**
+     * Returns the state of a registered participant.
+     * @param driver the driver of the participant.
+     * @return the state or <tt>null</tt> if the participant is not
+     * registered.
+     */
+    protected synchronized S getState(WebDriver driver)
+    {
+        return states.get(driver);
+    }
+
+    /**
+     * Returns the states of the registered participants.
+     * @return the states of the registered participants.
+     */
+    protected synchronized List<S> getStates()
+    {
+        return new ArrayList<>(states.values());
+    }
+
+    /**
+     * Polls all registered participants, each in its own task, and waits
+     * for them up to {@link #POLL_TIMEOUT_PNAME} seconds. It is run by the
+     * timer and by the tests, e.g. when a test ends.
+     */
+    @Override
+    public void run()
+    {
+        Map<S, Future<?>> polled = new LinkedHashMap<>();
+        for (final S state : getStates())
+        {
+            Future<?> poll = submit(state, false, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (state)
+                    {
+                        if (state.driver != null)
+                            poll(state);
+                    }
+                }
+            });
+            if (poll != null)
+                polled.put(state, poll);
+        }
+
+        long deadline = getDeadline();
+        for (Map.Entry<S, Future<?>> poll : polled.entrySet())
+        {
+            if (!await(poll.getKey(), poll.getValue(), deadline))
+                return;
+        }
+    }
+
+    /**
+     * Runs a poll of a participant in the executor. The polls hold the lock
+     * of the state, so the pending polls are guarded by the lock of the task.
+     * @param state the state of the participant.
+     * @param always whether to run it even if the previous poll has not
+     * returned yet, rather than skipping it.
+     * @param poll the poll.
+     * @return the poll or <tt>null</tt> if it was skipped or the task is
+     * stopped.
+     */
+    private synchronized Future<?> submit(
+        S state, boolean always, Runnable poll)
+    {
+        if (!always && state.pending != null && !state.pending.isDone())
+        {
+            System.err.println("Skipping " + state.name
+                + ", its previous poll has not returned");
+            return null;
+        }
+
+        try
+        {
+            state.pending = executor.submit(poll);
+
+            return state.pending;
+        }
+        catch (RejectedExecutionException e)
+        {
+            // stopped
+            return null;
+        }
+    }
+
+    /**
+     * Returns the time until which the polls started now are waited for.
+     * @return the deadline in milliseconds.
+     */
+    private static long getDeadline()
+    {
+        return System.currentTimeMillis()
+            + Long.getLong(POLL_TIMEOUT_PNAME, 30) * 1000;
+    }
+
+    /**
+     * Waits for a poll of a participant.
+     * @param state the state of the participant.
+     * @param poll the poll.
+     * @param deadline the time until which it is waited for.
+     * @return <tt>false</tt> if the waiting thread was interrupted.
+     */
+    private static boolean await(State state, Future<?> poll, long deadline)
+    {
+        try
+        {
+            poll.get(
+                Math.max(0, deadline - System.currentTimeMillis()),
+                TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            System.err.println("Polling " + state.name + " timed out");
+        }
+        catch (ExecutionException e)
+        {
+            e.getCause().printStackTrace();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates the state of a newly seen participant.
+     * @param name the name of the participant.
+     * @return the new state.
+     */
+    protected abstract S createState(String name);
+
+    /**
+     * Polls a participant. Called with the state locked.
+     * @param state the state of the participant.
+     */
+    protected abstract void poll(S state);
+
+    /**
+     * Called with the state locked when a new driver is registered for
+     * the participant.
+     * @param state the state of the participant.
+     */
+    protected void attached(S state)
+    {
+    }
+
+    /**
+     * Called with the state locked when the participant is about to quit,
+     * from the executor. Polls the participant one last time by default.
+     * @param state the state of the participant.
+     */
+    protected void detached(S state)
+    {
+        poll(state);
+    }
+
+    /**
+     * Called with the state locked when the task is stopped, for every
+     * participant seen.
+     * @param state the state of the participant.
+     */
+    protected void stopped(S state)
+    {
+    }
+
+    /**
+     * The state kept for a single participant.
+     */
+    public static class State
+    {
+        /**
+         * The name of the participant.
+         */
+        protected final String name;
+
+        /**
+         * The driver of the participant, <tt>null</tt> while the participant
+         * is not started.
+         */
+        protected WebDriver driver;
+
+        /**
+         * The last poll of the participant, run by the executor. Guarded by
+         * the lock of the task.
+         */
+        Future<?> pending;
+
+        /**
+         * Creates new state.
+         * @param name the name of the participant.
+         */
+        protected State(String name)
+        {
+            this.name = name;
+        }
+    }
+}
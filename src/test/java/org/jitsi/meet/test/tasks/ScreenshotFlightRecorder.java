@@ -0,0 +1,372 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.tasks;
+
+import org.openqa.selenium.*;
+
+import javax.imageio.*;
+import javax.imageio.stream.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Keeps the screenshots of the last seconds of every participant, so that
+ * on failure we can see what happened before the failure was detected.
+ * Screenshots are downscaled and stored as jpeg bytes in a ring buffer
+ * bounded both by time and by memory.
+ *
+ * Taking a screenshot costs the browser some time, so the recorder is
+ * disabled by default. It is enabled by setting {@link #INTERVAL_PNAME}.
+ */
+public class ScreenshotFlightRecorder
+    extends ParticipantPollingTask<ScreenshotFlightRecorder.Recording>
+{
+    /**
+     * The name of the property with the interval in milliseconds between
+     * two screenshots of a participant. A value of 0 (the default) disables
+     * the recorder.
+     */
+    public static final String INTERVAL_PNAME
+        = "jitsi-meet.flightRecorder.interval";
+
+    /**
+     * The name of the property with the number of seconds of screenshots
+     * kept per participant.
+     */
+    public static final String DURATION_PNAME
+        = "jitsi-meet.flightRecorder.duration";
+
+    /**
+     * The name of the property with the memory in KB the screenshots of
+     * a participant can use.
+     */
+    public static final String MAX_MEMORY_PNAME
+        = "jitsi-meet.flightRecorder.maxMemory";
+
+    /**
+     * The name of the property with the scale factor (0 to 1) applied to
+     * the screenshots.
+     */
+    public static final String SCALE_PNAME
+        = "jitsi-meet.flightRecorder.scale";
+
+    /**
+     * The name of the property with the jpeg quality (0 to 1) of the stored
+     * screenshots.
+     */
+    public static final String QUALITY_PNAME
+        = "jitsi-meet.flightRecorder.quality";
+
+    /**
+     * The default number of seconds of screenshots kept.
+     */
+    private static final long DEFAULT_DURATION = 10;
+
+    /**
+     * The default memory in KB per participant.
+     */
+    private static final long DEFAULT_MAX_MEMORY = 8 * 1024;
+
+    /**
+     * The default scale factor.
+     */
+    private static final float DEFAULT_SCALE = 0.5f;
+
+    /**
+     * The default jpeg quality.
+     */
+    private static final float DEFAULT_QUALITY = 0.6f;
+
+    /**
+     * The single instance, created on first use.
+     */
+    private static ScreenshotFlightRecorder instance;
+
+    /**
+     * Whether the instance was created, it is <tt>null</tt> when disabled.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * The time in milliseconds screenshots are kept.
+     */
+    private final long durationMs
+        = Long.getLong(DURATION_PNAME, DEFAULT_DURATION) * 1000;
+
+    /**
+     * The maximum bytes kept per participant.
+     */
+    private final long maxBytes
+        = Long.getLong(MAX_MEMORY_PNAME, DEFAULT_MAX_MEMORY) * 1024;
+
+    /**
+     * The scale factor.
+     */
+    private final float scale = getFloat(SCALE_PNAME, DEFAULT_SCALE);
+
+    /**
+     * The jpeg quality.
+     */
+    private final float quality = getFloat(QUALITY_PNAME, DEFAULT_QUALITY);
+
+    /**
+     * Creates new recorder.
+     */
+    private ScreenshotFlightRecorder()
+    {
+        super("screenshot-flight-recorder");
+    }
+
+    /**
+     * Returns the recorder, starting it on first use.
+     * @return the recorder or <tt>null</tt> if it is disabled.
+     */
+    public static synchronized ScreenshotFlightRecorder getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            long interval = Long.getLong(INTERVAL_PNAME, 0);
+            if (interval > 0)
+            {
+                instance = new ScreenshotFlightRecorder();
+                instance.start(interval);
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the screenshots currently recorded for a participant, oldest
+     * first.
+     * @param driver the driver of the participant.
+     * @return the recorded screenshots, empty if the participant is not
+     * registered.
+     */
+    public List<Frame> getFrames(WebDriver driver)
+    {
+        Recording recording = getState(driver);
+
+        if (recording == null)
+            return Collections.emptyList();
+
+        synchronized (recording)
+        {
+            return new ArrayList<>(recording.frames);
+        }
+    }
+
+    @Override
+    protected Recording createState(String name)
+    {
+        return new Recording(name);
+    }
+
+    @Override
+    protected void attached(Recording recording)
+    {
+        // the frames of the previous browser are not relevant anymore
+        recording.frames.clear();
+        recording.bytes = 0;
+    }
+
+    @Override
+    protected void detached(Recording recording)
+    {
+        // no need of a last screenshot of a browser which is closing
+    }
+
+    /**
+     * Takes a screenshot of the participant and adds it to its recording.
+     */
+    @Override
+    protected void poll(Recording recording)
+    {
+        byte[] png;
+        try
+        {
+            png = ((TakesScreenshot) recording.driver)
+                .getScreenshotAs(OutputType.BYTES);
+        }
+        catch (WebDriverException e)
+        {
+            // the browser may be closing, we will try next time
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        try
+        {
+            recording.add(new Frame(now, compress(png)));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+
+        recording.evict(now - durationMs, maxBytes);
+    }
+
+    /**
+     * Downscales a png screenshot and encodes it as jpeg.
+     * @param png the screenshot.
+     * @return the jpeg bytes.
+     * @throws IOException if the image cannot be decoded or encoded.
+     */
+    private byte[] compress(byte[] png)
+        throws IOException
+    {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null)
+            throw new IOException("Cannot decode screenshot");
+
+        int width = Math.max(1, Math.round(image.getWidth() * scale));
+        int height = Math.max(1, Math.round(image.getHeight() * scale));
+
+        BufferedImage scaled
+            = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try
+        {
+            g.setRenderingHint(
+                RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        }
+        finally
+        {
+            g.dispose();
+        }
+
+        ImageWriter writer
+            = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out))
+        {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(scaled, null, null), param);
+        }
+        finally
+        {
+            writer.dispose();
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Parses a float property.
+     * @param pname the name of the property.
+     * @param defaultValue the value used when the property is not set.
+     * @return the value of the property.
+     */
+    private static float getFloat(String pname, float defaultValue)
+    {
+        String value = System.getProperty(pname);
+
+        return value == null || value.trim().length() == 0
+            ? defaultValue : Float.parseFloat(value.trim());
+    }
+
+    /**
+     * A recorded screenshot.
+     */
+    public static class Frame
+    {
+        /**
+         * The time the screenshot was taken.
+         */
+        public final long timestamp;
+
+        /**
+         * The jpeg bytes.
+         */
+        public final byte[] jpeg;
+
+        /**
+         * Creates new frame.
+         * @param timestamp the time the screenshot was taken.
+         * @param jpeg the jpeg bytes.
+         */
+        Frame(long timestamp, byte[] jpeg)
+        {
+            this.timestamp = timestamp;
+            this.jpeg = jpeg;
+        }
+    }
+
+    /**
+     * The recorded screenshots of a single participant.
+     */
+    static class Recording
+        extends ParticipantPollingTask.State
+    {
+        /**
+         * The screenshots, oldest first.
+         */
+        private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+
+        /**
+         * The bytes used by {@link #frames}.
+         */
+        private long bytes = 0;
+
+        /**
+         * Creates new recording.
+         * @param name the name of the participant.
+         */
+        Recording(String name)
+        {
+            super(name);
+        }
+
+        /**
+         * Adds a screenshot.
+         * @param frame the screenshot.
+         */
+        private void add(Frame frame)
+        {
+            frames.addLast(frame);
+            bytes += frame.jpeg.length;
+        }
+
+        /**
+         * Removes the oldest screenshots until all of them are newer than
+         * <tt>oldest</tt> and they fit in <tt>maxBytes</tt>.
+         * @param oldest the timestamp of the oldest screenshot to keep.
+         * @param maxBytes the maximum bytes to keep.
+         */
+        private void evict(long oldest, long maxBytes)
+        {
+            while (!frames.isEmpty()
+                && (frames.peekFirst().timestamp < oldest || bytes > maxBytes))
+            {
+                bytes -= frames.removeFirst().jpeg.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,669 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.tasks;
+
+import com.google.gson.stream.*;
+import org.jitsi.meet.test.perf.*;
+import org.openqa.selenium.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Collects the WebRTC statistics of every participant. A script injected in
+ * the page (<tt>resources/WebRTCStatsCollector.js</tt>) reads the
+ * <tt>getStats()</tt> reports of the JVB and the P2P peer connections every
+ * interval and turns them into one row of deltas per RTP stream: packets,
+ * packets lost, bitrate, jitter, RTT, frames decoded or encoded and dropped,
+ * frame size, frame rate and audio concealment. The rows are drained into a
+ * {@link TimeSeriesStore}, one series per participant, peer connection,
+ * kind, direction and SSRC, and summarized per test.
+ *
+ * At the end of the run the series are written to
+ * <tt>webrtc-stats.json</tt> and the summaries to
+ * <tt>webrtc-stats-summary.json</tt> in the reports folder.
+ *
+ * Disabled by default, enabled by setting {@link #INTERVAL_PNAME}.
+ */
+public class WebRTCStatsCollector
+    extends ParticipantPollingTask<WebRTCStatsCollector.ParticipantStats>
+{
+    /**
+     * The name of the property with the interval in milliseconds between two
+     * reads of the reports in the page. A value of 0 (the default) disables
+     * the collector.
+     */
+    public static final String INTERVAL_PNAME
+        = "jitsi-meet.webrtcStats.interval";
+
+    /**
+     * The name of the property with the interval in milliseconds between two
+     * drains of the rows collected in the page.
+     */
+    public static final String DRAIN_INTERVAL_PNAME
+        = "jitsi-meet.webrtcStats.drainInterval";
+
+    /**
+     * The script collecting the reports in the page.
+     */
+    private static final String SCRIPT = "resources/WebRTCStatsCollector.js";
+
+    /**
+     * The columns of a row before the metrics, in the order of the script.
+     */
+    private static final int TIME = 0, PC = 1, SSRC = 2, KIND = 3,
+        DIRECTION = 4, FIRST_METRIC = 5;
+
+    /**
+     * The metrics of a row, in the order of the script.
+     */
+    public static final String[] METRICS = {
+        "packets", "packetsLost", "bitrate", "jitter", "rtt",
+        "frames", "framesDropped", "frameWidth", "frameHeight", "fps",
+        "concealedSamples", "totalSamples"
+    };
+
+    /**
+     * The name of the file with the series.
+     */
+    private static final String SERIES_FILE = "webrtc-stats.json";
+
+    /**
+     * The name of the file with the summaries.
+     */
+    private static final String SUMMARY_FILE = "webrtc-stats-summary.json";
+
+    /**
+     * The single instance, created on first use.
+     */
+    private static WebRTCStatsCollector instance;
+
+    /**
+     * Whether the instance was created, it is <tt>null</tt> when disabled.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * The interval in milliseconds between two reads in the page.
+     */
+    private final long interval;
+
+    /**
+     * The collected series.
+     */
+    private final TimeSeriesStore store = new TimeSeriesStore(METRICS);
+
+    /**
+     * The source of the script, read on first use.
+     */
+    private String script;
+
+    /**
+     * The summaries of the tests, in the order they were run.
+     */
+    private final List<Summary> summaries = new ArrayList<>();
+
+    /**
+     * The name of the test currently running, <tt>null</tt> between tests.
+     */
+    private String currentTest;
+
+    /**
+     * The start of the test currently running.
+     */
+    private long currentTestStart;
+
+    /**
+     * Creates new collector.
+     * @param interval the interval in milliseconds between two reads in the
+     * page.
+     */
+    private WebRTCStatsCollector(long interval)
+    {
+        super("webrtc-stats-collector");
+        this.interval = interval;
+    }
+
+    /**
+     * Returns the collector, starting it on first use.
+     * @return the collector or <tt>null</tt> if it is disabled.
+     */
+    public static synchronized WebRTCStatsCollector getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            long interval = Long.getLong(INTERVAL_PNAME, 0);
+            if (interval > 0)
+            {
+                instance = new WebRTCStatsCollector(interval);
+                instance.start(
+                    Long.getLong(
+                        DRAIN_INTERVAL_PNAME, Math.max(interval, 5000)));
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the collected series.
+     * @return the store with the series.
+     */
+    public TimeSeriesStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Drains the rows collected in the page of a participant now, so the
+     * store is up to date with it, e.g. before asserting on its summary.
+     * @param driver the driver of the participant.
+     */
+    public void drain(WebDriver driver)
+    {
+        ParticipantStats stats = getState(driver);
+
+        if (stats == null)
+            return;
+
+        synchronized (stats)
+        {
+            if (stats.driver != null)
+                poll(stats);
+        }
+    }
+
+    /**
+     * Summarizes the streams of a participant of one kind and direction
+     * over a time range, all peer connections and SSRCs together.
+     * @param participant the name of the participant.
+     * @param kind <tt>audio</tt> or <tt>video</tt>.
+     * @param direction <tt>in</tt> or <tt>out</tt>.
+     * @param from the start of the range in milliseconds, inclusive.
+     * @param to the end of the range in milliseconds, inclusive.
+     * @return the summary.
+     */
+    public Summary getSummary(
+        String participant, String kind, String direction, long from, long to)
+    {
+        Summary summary = new Summary(
+            currentTest, participant, kind, direction);
+
+        String suffix = "/" + kind + "/" + direction + "/";
+        for (String key : store.getKeys())
+        {
+            if (key.startsWith(participant + "/") && key.contains(suffix))
+                summary.add(store, key, from, to);
+        }
+
+        return summary;
+    }
+
+    /**
+     * Marks the start of a test.
+     * @param testName the name of the test.
+     */
+    public synchronized void testStarted(String testName)
+    {
+        currentTest = testName;
+        currentTestStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Drains all participants and summarizes the test which just ended.
+     */
+    public void testEnded()
+    {
+        String testName;
+        long start;
+        synchronized (this)
+        {
+            if (currentTest == null)
+                return;
+            testName = currentTest;
+            start = currentTestStart;
+            currentTest = null;
+        }
+
+        run();
+        long end = System.currentTimeMillis();
+
+        Set<String> streams = new LinkedHashSet<>();
+        for (String key : store.getKeys())
+        {
+            // participant/pc/kind/direction/ssrc
+            String[] parts = key.split("/");
+            streams.add(parts[0] + "/" + parts[2] + "/" + parts[3]);
+        }
+
+        List<Summary> testSummaries = new ArrayList<>();
+        for (String stream : streams)
+        {
+            String[] parts = stream.split("/");
+            Summary summary
+                = getSummary(parts[0], parts[1], parts[2], start, end);
+            if (summary.samples > 0)
+            {
+                summary.testName = testName;
+                testSummaries.add(summary);
+            }
+        }
+
+        synchronized (this)
+        {
+            summaries.addAll(testSummaries);
+        }
+    }
+
+    /**
+     * Returns the summaries of the tests run so far.
+     * @return the summaries, per test, participant, kind and direction.
+     */
+    public synchronized List<Summary> getSummaries()
+    {
+        return new ArrayList<>(summaries);
+    }
+
+    /**
+     * Writes the series and the summaries.
+     * @param reportsFolder the folder of the files.
+     * @throws IOException if writing fails.
+     */
+    public void writeReport(File reportsFolder)
+        throws IOException
+    {
+        reportsFolder.mkdirs();
+
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(
+                new FileWriter(new File(reportsFolder, SERIES_FILE)))))
+        {
+            store.write(json);
+        }
+
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(
+                new FileWriter(new File(reportsFolder, SUMMARY_FILE)))))
+        {
+            json.setIndent("  ");
+            json.beginArray();
+            for (Summary s : getSummaries())
+            {
+                json.beginObject();
+                json.name("test").value(s.testName);
+                json.name("participant").value(s.participant);
+                json.name("kind").value(s.kind);
+                json.name("direction").value(s.direction);
+                json.name("samples").value(s.samples);
+                json.name("packets").value(s.packets);
+                json.name("packetsLost").value(s.packetsLost);
+                value(json.name("lossPercent"), s.getLossPercent());
+                value(json.name("meanBitrate"), s.meanBitrate);
+                value(json.name("meanJitterMs"), s.meanJitter);
+                value(json.name("maxJitterMs"), s.maxJitter);
+                value(json.name("meanRttMs"), s.meanRtt);
+                value(json.name("maxRttMs"), s.maxRtt);
+                if ("video".equals(s.kind))
+                {
+                    json.name("frames").value(s.frames);
+                    json.name("framesDropped").value(s.framesDropped);
+                    value(json.name("meanFps"), s.meanFps);
+                    value(json.name("minFps"), s.minFps);
+                    value(json.name("maxFrameHeight"), s.maxFrameHeight);
+                }
+                else if ("in".equals(s.direction))
+                {
+                    value(json.name("concealmentPercent"),
+                        s.getConcealmentPercent());
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+    }
+
+    /**
+     * Writes a value which may be missing.
+     * @param json the writer, after the name.
+     * @param value the value, <tt>NaN</tt> when missing.
+     * @throws IOException if writing fails.
+     */
+    private static void value(JsonWriter json, double value)
+        throws IOException
+    {
+        if (Double.isNaN(value))
+            json.nullValue();
+        else
+            json.value(value);
+    }
+
+    @Override
+    protected ParticipantStats createState(String name)
+    {
+        return new ParticipantStats(name);
+    }
+
+    /**
+     * Drains the rows collected in the page, injecting the script when it
+     * is not there, i.e. on the first poll and after the page was reloaded.
+     */
+    @Override
+    protected void poll(ParticipantStats stats)
+    {
+        Object result;
+        try
+        {
+            JavascriptExecutor js = (JavascriptExecutor) stats.driver;
+            result = js.executeScript(
+                "return window._webrtcStats"
+                    + " ? window._webrtcStats.drain() : null;");
+            if (result == null)
+            {
+                js.executeScript(getScript(), interval);
+                return;
+            }
+        }
+        catch (WebDriverException | IOException e)
+        {
+            // the page may be loading or the browser gone already
+            return;
+        }
+
+        Map<?, ?> drained = (Map<?, ?>) result;
+        Object dropped = drained.get("dropped");
+        if (dropped instanceof Number && ((Number) dropped).intValue() > 0)
+        {
+            System.err.println("WebRTC stats of " + stats.name + ": "
+                + dropped + " rows dropped, drain more often");
+        }
+
+        for (Object row : (List<?>) drained.get("rows"))
+            add(stats.name, (List<?>) row);
+    }
+
+    /**
+     * Adds a row to the store.
+     * @param participant the name of the participant.
+     * @param row the row from the page.
+     */
+    private void add(String participant, List<?> row)
+    {
+        String key = participant
+            + "/" + row.get(PC)
+            + "/" + row.get(KIND)
+            + "/" + row.get(DIRECTION)
+            + "/" + row.get(SSRC);
+
+        double[] values = new double[METRICS.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            Object value = row.get(FIRST_METRIC + i);
+            values[i] = value instanceof Number
+                ? ((Number) value).doubleValue() : Double.NaN;
+        }
+
+        store.append(key, ((Number) row.get(TIME)).longValue(), values);
+    }
+
+    /**
+     * Returns the source of the script, reading it on first use.
+     * @return the source of the script.
+     * @throws IOException if the script cannot be read.
+     */
+    private synchronized String getScript()
+        throws IOException
+    {
+        if (script == null)
+        {
+            script = new String(
+                Files.readAllBytes(Paths.get(SCRIPT)), "UTF-8");
+        }
+
+        return script;
+    }
+
+    /**
+     * The state of a single participant.
+     */
+    static class ParticipantStats
+        extends ParticipantPollingTask.State
+    {
+        /**
+         * Creates new participant state.
+         * @param name the name of the participant.
+         */
+        ParticipantStats(String name)
+        {
+            super(name);
+        }
+    }
+
+    /**
+     * The summary of the streams of a participant of one kind and direction
+     * over a time range.
+     */
+    public static class Summary
+    {
+        /**
+         * The name of the test, <tt>null</tt> outside of a test.
+         */
+        public String testName;
+
+        /**
+         * The name of the participant.
+         */
+        public final String participant;
+
+        /**
+         * <tt>audio</tt> or <tt>video</tt>.
+         */
+        public final String kind;
+
+        /**
+         * <tt>in</tt> or <tt>out</tt>.
+         */
+        public final String direction;
+
+        /**
+         * The number of rows.
+         */
+        public int samples;
+
+        /**
+         * The packets received or sent.
+         */
+        public long packets;
+
+        /**
+         * The packets lost, as seen by the receiver.
+         */
+        public long packetsLost;
+
+        /**
+         * The mean bitrate in kbps of a stream.
+         */
+        public double meanBitrate = Double.NaN;
+
+        /**
+         * The mean jitter in milliseconds.
+         */
+        public double meanJitter = Double.NaN;
+
+        /**
+         * The maximum jitter in milliseconds.
+         */
+        public double maxJitter = Double.NaN;
+
+        /**
+         * The mean round trip time in milliseconds.
+         */
+        public double meanRtt = Double.NaN;
+
+        /**
+         * The maximum round trip time in milliseconds.
+         */
+        public double maxRtt = Double.NaN;
+
+        /**
+         * The frames decoded or encoded.
+         */
+        public long frames;
+
+        /**
+         * The frames dropped.
+         */
+        public long framesDropped;
+
+        /**
+         * The mean frame rate.
+         */
+        public double meanFps = Double.NaN;
+
+        /**
+         * The minimum frame rate.
+         */
+        public double minFps = Double.NaN;
+
+        /**
+         * The maximum frame height.
+         */
+        public double maxFrameHeight = Double.NaN;
+
+        /**
+         * The audio samples concealed.
+         */
+        public long concealedSamples;
+
+        /**
+         * The audio samples received.
+         */
+        public long totalSamples;
+
+        /**
+         * Per metric sums used for the means, weighted by the number of
+         * values of every series.
+         */
+        private final Map<String, double[]> means = new HashMap<>();
+
+        /**
+         * Creates new summary.
+         * @param testName the name of the test.
+         * @param participant the name of the participant.
+         * @param kind the kind of the streams.
+         * @param direction the direction of the streams.
+         */
+        Summary(
+            String testName, String participant, String kind, String direction)
+        {
+            this.testName = testName;
+            this.participant = participant;
+            this.kind = kind;
+            this.direction = direction;
+        }
+
+        /**
+         * Adds a series over a time range.
+         * @param store the store.
+         * @param key the key of the series.
+         * @param from the start of the range.
+         * @param to the end of the range.
+         */
+        private void add(TimeSeriesStore store, String key, long from, long to)
+        {
+            TimeSeriesStore.Stats s
+                = store.getStats(key, "packets", from, to);
+            samples += s.getCount();
+            packets += (long) s.getSum();
+            packetsLost += (long) store.getStats(
+                key, "packetsLost", from, to).getSum();
+            frames += (long) store.getStats(key, "frames", from, to).getSum();
+            framesDropped += (long) store.getStats(
+                key, "framesDropped", from, to).getSum();
+            concealedSamples += (long) store.getStats(
+                key, "concealedSamples", from, to).getSum();
+            totalSamples += (long) store.getStats(
+                key, "totalSamples", from, to).getSum();
+
+            meanBitrate = mean("bitrate", store.getStats(
+                key, "bitrate", from, to));
+            s = store.getStats(key, "jitter", from, to);
+            meanJitter = mean("jitter", s);
+            maxJitter = max(maxJitter, s.getMax());
+            s = store.getStats(key, "rtt", from, to);
+            meanRtt = mean("rtt", s);
+            maxRtt = max(maxRtt, s.getMax());
+            s = store.getStats(key, "fps", from, to);
+            meanFps = mean("fps", s);
+            minFps = Double.isNaN(minFps) || s.getMin() < minFps
+                ? s.getMin() : minFps;
+            maxFrameHeight = max(maxFrameHeight, store.getStats(
+                key, "frameHeight", from, to).getMax());
+        }
+
+        /**
+         * Adds the values of a series to the mean of a metric.
+         * @param metric the name of the metric.
+         * @param s the values of the series.
+         * @return the mean of the metric so far.
+         */
+        private double mean(String metric, TimeSeriesStore.Stats s)
+        {
+            double[] sumAndCount = means.get(metric);
+            if (sumAndCount == null)
+            {
+                sumAndCount = new double[2];
+                means.put(metric, sumAndCount);
+            }
+            sumAndCount[0] += s.getSum();
+            sumAndCount[1] += s.getCount();
+
+            return sumAndCount[1] == 0
+                ? Double.NaN : sumAndCount[0] / sumAndCount[1];
+        }
+
+        /**
+         * Returns the maximum of two values which may be missing.
+         */
+        private static double max(double a, double b)
+        {
+            if (Double.isNaN(a))
+                return b;
+            return Double.isNaN(b) ? a : Math.max(a, b);
+        }
+
+        /**
+         * Returns the packets lost in percent of the packets expected.
+         * @return the loss, <tt>NaN</tt> without packets.
+         */
+        public double getLossPercent()
+        {
+            long expected = packets + packetsLost;
+            return expected == 0 ? Double.NaN : 100.0 * packetsLost / expected;
+        }
+
+        /**
+         * Returns the audio samples concealed in percent of the samples
+         * received.
+         * @return the concealment, <tt>NaN</tt> without samples.
+         */
+        public double getConcealmentPercent()
+        {
+            return totalSamples == 0
+                ? Double.NaN : 100.0 * concealedSamples / totalSamples;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.unit;
+
+import junit.framework.*;
+import org.jitsi.meet.test.fake.*;
+import org.jitsi.meet.test.tasks.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks the samples and the summary {@link BridgeStatsSampler} writes for
+ * a {@link FakeBridgeServer} whose conferences and health change during a
+ * test. It needs no deployment or browser and is run by
+ * <tt>ant unit-test</tt>.
+ */
+public class BridgeStatsSamplerTest
+    extends TestCase
+{
+    /**
+     * The fake bridge, which also serves the health of Jicofo.
+     */
+    private FakeBridgeServer bridge;
+
+    /**
+     * The folder the sampler writes to.
+     */
+    private File reportsFolder;
+
+    /**
+     * Starts the fake bridge with 4 conferences of 3 participants.
+     * @throws Exception if the bridge cannot be started.
+     */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        bridge = new FakeBridgeServer(0, 2);
+        bridge.createConferences(4);
+        bridge.start();
+
+        reportsFolder = Files.createTempDirectory("bridge-stats").toFile();
+    }
+
+    /**
+     * Stops the fake bridge and removes the written files.
+     */
+    @Override
+    protected void tearDown()
+    {
+        bridge.stop();
+
+        for (File file : reportsFolder.listFiles())
+            file.delete();
+        reportsFolder.delete();
+    }
+
+    /**
+     * Samples the bridge while its conferences and health change and checks
+     * the summary of the test and the lines of the samples file, which must
+     * not grow once the sampler is stopped.
+     * @throws Exception if the files cannot be read.
+     */
+    public void testSamples()
+        throws Exception
+    {
+        BridgeStatsSampler sampler = new BridgeStatsSampler(
+            bridge.getEndpoint(), bridge.getEndpoint(), reportsFolder);
+        sampler.setTrackConferences(true);
+
+        sampler.testStarted("FakeTest.testBridge");
+        sampler.run();
+        bridge.createConferences(2);
+        sampler.run();
+        bridge.setHealthy(false);
+        sampler.run();
+        bridge.setHealthy(true);
+        bridge.expireConferences(3);
+        sampler.run();
+        sampler.testEnded();
+        sampler.stop();
+        // a sample taken by the timer after the stop is dropped
+        sampler.run();
+
+        List<BridgeStatsSampler.Summary> summaries = sampler.getSummaries();
+        assertEquals(1, summaries.size());
+        BridgeStatsSampler.Summary summary = summaries.get(0);
+        assertEquals("FakeTest.testBridge", summary.testName);
+        assertEquals(4, summary.samples);
+        assertEquals(0, summary.failedSamples);
+        assertEquals(6, summary.maxConferences);
+        assertEquals(18, summary.maxParticipants);
+        // (12 + 18 + 18 + 9) participants at 1500 each, over 4 samples
+        assertEquals(
+            57 * 1500 / 4.0, summary.getMeanBitrateDownload(), 0.001);
+        // the first sample reports all the conferences as created
+        assertEquals(6, summary.conferencesCreated);
+        assertEquals(3, summary.conferencesExpired);
+        assertEquals(1, summary.jvbUnhealthy);
+        assertEquals(1, summary.jicofoUnhealthy);
+
+        List<String> lines = Files.readAllLines(
+            new File(reportsFolder, "bridge-stats.jsonl").toPath(),
+            StandardCharsets.UTF_8);
+        assertEquals(6, lines.size());
+        assertTrue(lines.get(0).contains("\"type\":\"testStart\""));
+        assertTrue(lines.get(1).contains("\"conferences\":4"));
+        assertTrue(lines.get(2).contains("\"conferences\":6"));
+        assertTrue(lines.get(3).contains("\"jvbHealthMs\":-1"));
+        assertTrue(lines.get(4).contains("\"conferences\":3"));
+        assertTrue(lines.get(5).contains("\"type\":\"testEnd\""));
+    }
+}
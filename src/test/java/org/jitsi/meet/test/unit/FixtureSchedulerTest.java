@@ -0,0 +1,146 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.unit;
+
+import junit.framework.*;
+import org.jitsi.meet.test.*;
+
+import java.util.*;
+
+/**
+ * Checks the order and the restarts {@link FixtureScheduler} gives to the
+ * default tests and to a few lists which need restarts. It needs no
+ * deployment or browser and is run by <tt>ant unit-test</tt>, never by
+ * {@link TestsRunner}.
+ */
+public class FixtureSchedulerTest
+    extends TestCase
+{
+    /**
+     * The default tests of {@link TestsRunner}, without the optional
+     * <tt>RestTests</tt> and <tt>PSNRTest</tt>.
+     */
+    private static final List<String> DEFAULT_TESTS = Arrays.asList(
+        "AvatarTest", "MuteTest", "StopVideoTest", "SwitchVideoTest",
+        "EtherpadTest", "ActiveSpeakerTest", "StartMutedTest",
+        "DisplayNameTest", "DataChannelTest", "ContactListTest",
+        "VideoLayoutTest", "FollowMeTest", "DesktopSharingTest", "UDPTest",
+        "SinglePortTest", "TCPTest", "SharedVideoTest", "LockRoomTest",
+        "ConnectionTimeTest", "JibriTest", "LipSyncTest", "ReloadTest",
+        "RingOverlayTest", "EndConferenceTest", "Peer2PeerTest");
+
+    /**
+     * The default tests need no restart and the schedule only moves the
+     * fresh <tt>ReloadTest</tt> before the destructive tests, so it starts
+     * as many browsers as the given order.
+     */
+    public void testDefaultTests()
+    {
+        FixtureScheduler scheduler = new FixtureScheduler(DEFAULT_TESTS);
+
+        List<String> expected = new ArrayList<>(DEFAULT_TESTS);
+        expected.remove("ReloadTest");
+        expected.add(expected.indexOf("LipSyncTest"), "ReloadTest");
+        assertEquals(expected, getOrder(scheduler));
+
+        for (FixtureScheduler.Step step : scheduler.getSteps())
+            assertNotNull("Unexpected restart", step.getTest());
+
+        // the browsers the tests start themselves, and the fresh starts of
+        // LipSyncTest, ReloadTest, RingOverlayTest and Peer2PeerTest
+        assertEquals(48, scheduler.getGivenStarts());
+        assertEquals(48, scheduler.getScheduledStarts());
+    }
+
+    /**
+     * A test reusing the participants after a destructive test is moved
+     * before it, which saves the restart of the given order.
+     */
+    public void testDestructiveTestsLast()
+    {
+        FixtureScheduler scheduler = new FixtureScheduler(
+            Arrays.asList("LipSyncTest", "AvatarTest"));
+
+        assertEquals(
+            Arrays.asList("AvatarTest", "LipSyncTest"), getOrder(scheduler));
+        assertEquals(6, scheduler.getGivenStarts());
+        assertEquals(4, scheduler.getScheduledStarts());
+    }
+
+    /**
+     * A test which runs with any participants reuses the ones of a
+     * destructive test, and needs a restart after a test which leaves none.
+     */
+    public void testRestarts()
+    {
+        FixtureScheduler scheduler = new FixtureScheduler(
+            Arrays.asList("RingOverlayTest", "EndConferenceTest"));
+
+        assertEquals(2, scheduler.getSteps().size());
+        assertEquals(
+            Arrays.asList("RingOverlayTest", "EndConferenceTest"),
+            getOrder(scheduler));
+
+        scheduler = new FixtureScheduler(
+            Arrays.asList("Peer2PeerTest", "EndConferenceTest"));
+
+        List<FixtureScheduler.Step> steps = scheduler.getSteps();
+        assertEquals(3, steps.size());
+        assertEquals("Peer2PeerTest", steps.get(0).getTest());
+        assertNull(steps.get(1).getTest());
+        assertNotNull(steps.get(1).getRestart());
+        assertEquals("EndConferenceTest", steps.get(2).getTest());
+        assertEquals(
+            scheduler.getGivenStarts(), scheduler.getScheduledStarts());
+    }
+
+    /**
+     * The browsers a test starts itself are read from its property when it
+     * is set.
+     */
+    public void testStartsProperty()
+    {
+        List<String> tests = Collections.singletonList("ConnectionTimeTest");
+        assertEquals(10, new FixtureScheduler(tests).getGivenStarts());
+
+        System.setProperty(ConnectionTimeTest.SAMPLES_PNAME, "3");
+        try
+        {
+            assertEquals(3, new FixtureScheduler(tests).getGivenStarts());
+        }
+        finally
+        {
+            System.clearProperty(ConnectionTimeTest.SAMPLES_PNAME);
+        }
+    }
+
+    /**
+     * Returns the tests of a schedule, without the restarts.
+     * @param scheduler the scheduler.
+     * @return the simple class names of the tests, in order.
+     */
+    private static List<String> getOrder(FixtureScheduler scheduler)
+    {
+        List<String> order = new ArrayList<>();
+        for (FixtureScheduler.Step step : scheduler.getSteps())
+        {
+            if (step.getTest() != null)
+                order.add(step.getTest());
+        }
+
+        return order;
+    }
+}
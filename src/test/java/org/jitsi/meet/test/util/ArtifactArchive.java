@@ -0,0 +1,264 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * A zip archive where the artifacts collected for a single failed test are
+ * stored. Entries can be added from several threads, they are serialized
+ * and compressed while written to the disk.
+ *
+ * All archives created in the current run share a common disk budget. Once
+ * the budget is exhausted entries are no longer written, instead their names
+ * are listed in a <tt>skipped-artifacts.txt</tt> entry, so the report still
+ * tells what was lost.
+ */
+public class ArtifactArchive
+    implements Closeable
+{
+    /**
+     * The name of the entry listing the artifacts which were not saved.
+     */
+    private static final String SKIPPED_ENTRY_NAME = "skipped-artifacts.txt";
+
+    /**
+     * The size of the buffer used when copying streams into the archive.
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes written to the disk by all archives in this run.
+     */
+    private static final AtomicLong totalBytesWritten = new AtomicLong();
+
+    /**
+     * The maximum number of bytes all archives are allowed to write.
+     */
+    private final long maxTotalBytes;
+
+    /**
+     * The zip stream we write to.
+     */
+    private final ZipOutputStream zip;
+
+    /**
+     * The names and reasons of the entries which were not written.
+     */
+    private final List<String> skipped = new LinkedList<>();
+
+    /**
+     * Whether this archive was closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates new archive.
+     * @param file the zip file to create.
+     * @param maxTotalBytes the maximum number of bytes all archives in this
+     * run can write to the disk.
+     * @throws IOException if the file cannot be created.
+     */
+    public ArtifactArchive(File file, long maxTotalBytes)
+        throws IOException
+    {
+        this.maxTotalBytes = maxTotalBytes;
+
+        File parent = file.getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+
+        // counts above the buffer, so the budget sees every compressed byte
+        // as soon as it is produced rather than when the buffer is flushed
+        zip = new ZipOutputStream(
+            new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file))));
+    }
+
+    /**
+     * Returns the number of bytes written by all archives in this run.
+     * @return the number of bytes written by all archives in this run.
+     */
+    public static long getTotalBytesWritten()
+    {
+        return totalBytesWritten.get();
+    }
+
+    /**
+     * Adds an entry to the archive.
+     * @param name the name of the entry.
+     * @param data the content.
+     * @return <tt>true</tt> if the entry was written.
+     */
+    public boolean add(String name, byte[] data)
+    {
+        return add(name, new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Adds the content of a file to the archive, if the file exists.
+     * @param name the name of the entry.
+     * @param source the file to add.
+     * @return <tt>true</tt> if the entry was written.
+     */
+    public boolean add(String name, File source)
+    {
+        if (!source.exists())
+            return false;
+
+        try (InputStream in = new FileInputStream(source))
+        {
+            return add(name, in);
+        }
+        catch (IOException e)
+        {
+            skip(name, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Copies a stream into a new entry of the archive. If the disk budget is
+     * exhausted while copying the entry is truncated.
+     * @param name the name of the entry.
+     * @param in the stream to copy, it is not closed by this method.
+     * @return <tt>true</tt> if the entry was written (even truncated).
+     */
+    public synchronized boolean add(String name, InputStream in)
+    {
+        if (closed)
+            return false;
+
+        if (isBudgetExhausted())
+        {
+            skip(name, "disk usage limit reached");
+            return false;
+        }
+
+        try
+        {
+            zip.putNextEntry(new ZipEntry(name));
+
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                zip.write(buffer, 0, read);
+
+                if (isBudgetExhausted())
+                {
+                    skip(name, "truncated, disk usage limit reached");
+                    break;
+                }
+            }
+
+            zip.closeEntry();
+            return true;
+        }
+        catch (IOException e)
+        {
+            skip(name, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Remembers that an entry was not written.
+     * @param name the name of the entry.
+     * @param reason why it was skipped.
+     */
+    public synchronized void skip(String name, String reason)
+    {
+        skipped.add(name + ": " + reason);
+    }
+
+    /**
+     * Whether all archives wrote the maximum allowed bytes.
+     * @return <tt>true</tt> if no more data should be written.
+     */
+    private boolean isBudgetExhausted()
+    {
+        return totalBytesWritten.get() >= maxTotalBytes;
+    }
+
+    /**
+     * Writes the list of skipped entries, if any, and closes the archive.
+     * @throws IOException if closing fails.
+     */
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        try
+        {
+            if (!skipped.isEmpty())
+            {
+                StringBuilder content = new StringBuilder();
+                for (String s : skipped)
+                    content.append(s).append('\n');
+
+                // the list is tiny, we write it even over budget
+                zip.putNextEntry(new ZipEntry(SKIPPED_ENTRY_NAME));
+                zip.write(content.toString().getBytes());
+                zip.closeEntry();
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Counts the compressed bytes of the archive into
+     * {@link #totalBytesWritten}.
+     */
+    private static class CountingOutputStream
+        extends FilterOutputStream
+    {
+        /**
+         * Creates new counting stream.
+         * @param out the stream to write to.
+         */
+        CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b)
+            throws IOException
+        {
+            out.write(b);
+            totalBytesWritten.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+            throws IOException
+        {
+            out.write(b, off, len);
+            totalBytesWritten.addAndGet(len);
+        }
+    }
+}
@@ -16,11 +16,12 @@
 package org.jitsi.meet.test.util;
 
 import java.util.*;
-import java.util.concurrent.*;
 import java.util.concurrent.TimeoutException;
 
 /**
- * Utility class for running command through the {@link ProcessBuilder}.
+ * Utility class for running command through the {@link ProcessExecutor}.
+ * The output of the command is printed while it runs, so that the output
+ * of a long running hook script shows up as it happens.
  * Note that instance can bu used only once.
  *
  * @author Pawel Domas
@@ -28,84 +29,53 @@ import java.util.concurrent.TimeoutException;
 public class CmdExecutor
 {
     /**
-     * The <tt>Exception</tt> thrown during command execution.
+     * The time after which the command is killed, in milliseconds.
      */
-    private Exception cmdException;
+    private long timeout = ProcessExecutor.getDefaultTimeout();
 
     /**
-     * The {@link Thread} which executes the command.
+     * The result of the command, <tt>null</tt> before it is executed.
      */
-    private Thread executorThread;
+    private ProcessExecutor.Result result;
 
     /**
-     * The {@link Process} that executes the command.
+     * Sets the time after which the command is killed.
+     * @param timeout the timeout in milliseconds.
      */
-    private Process process;
-
-    /**
-     * The exit value returned by the process executing the command.
-     */
-    private Integer result;
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
 
     /**
-     * A count down latch used to wait for the end of command execution.
+     * Returns the result of the executed command, with its output.
+     * @return the result or <tt>null</tt> if not executed.
      */
-    private final CountDownLatch waitEndSignal = new CountDownLatch(1);
+    public ProcessExecutor.Result getResult()
+    {
+        return result;
+    }
 
     /**
-     * Executes a command through the {@link ProcessBuilder}.
+     * Executes a command through the {@link ProcessExecutor}.
      *
      * @param cmd the <tt>List<String></tt> which will be passed to
      * {@link ProcessBuilder} to build and execute the process.
+     * @return the exit value of the command.
+     * @throws TimeoutException if the command did not end in time, it was
+     * killed with all its child processes.
      */
     public int executeCmd(final List<String> cmd)
         throws Exception
     {
-        if (executorThread != null)
+        if (result != null)
             throw new IllegalStateException();
 
-        // this will fire a hook script, which needs to launch a browser that
-        // will join our room
-        executorThread = new Thread(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                ProcessBuilder pb = new ProcessBuilder(cmd);
-                pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
-                pb.redirectError(ProcessBuilder.Redirect.INHERIT);
-
-                try
-                {
-                    process = pb.start();
-                    result = process.waitFor();
-                }
-                catch (Exception e)
-                {
-                    cmdException = e;
-                }
-                finally
-                {
-                    waitEndSignal.countDown();
-                }
-            }
-        });
-
-        executorThread.start();
-
-        if (!waitEndSignal.await(5, TimeUnit.SECONDS)
-                && process != null && result == null)
-        {
-            System.err.println("Killing the process: " + cmd);
-
-            process.destroy();
+        result = ProcessExecutor.execute(cmd, timeout, null, true);
 
+        if (result.isTimedOut())
             throw new TimeoutException("Command execution timeout");
-        }
-
-        if (cmdException != null)
-            throw new Exception(cmdException);
 
-        return result;
+        return result.getExitCode();
     }
 }
@@ -0,0 +1,530 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import com.google.gson.stream.*;
+import org.apache.http.*;
+import org.apache.http.client.*;
+import org.apache.http.client.config.*;
+import org.apache.http.client.methods.*;
+import org.apache.http.entity.*;
+import org.apache.http.impl.client.*;
+import org.apache.http.impl.conn.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A REST client for the JVB and Jicofo endpoints shared by all tests. The
+ * connections are pooled and kept alive between requests and the JSON
+ * responses are parsed while they are read, without loading the whole
+ * document in memory.
+ *
+ * The endpoints are given as base URLs, e.g. <tt>http://host:8080</tt>.
+ */
+public class ColibriClient
+{
+    /**
+     * The name of the property with the connect and read timeout in
+     * milliseconds of the REST requests.
+     */
+    public static final String TIMEOUT_PNAME = "jitsi-meet.rest.timeout";
+
+    /**
+     * The default timeout in milliseconds.
+     */
+    private static final int DEFAULT_TIMEOUT = 5000;
+
+    /**
+     * The maximum number of pooled connections per endpoint.
+     */
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    /**
+     * The maximum number of pooled connections.
+     */
+    private static final int MAX_CONNECTIONS = 100;
+
+    /**
+     * The shared client, created on first use.
+     */
+    private static CloseableHttpClient httpClient;
+
+    /**
+     * Returns the shared client, creating it on first use.
+     * @return the shared client.
+     */
+    public static synchronized CloseableHttpClient getHttpClient()
+    {
+        if (httpClient == null)
+        {
+            int timeout = Integer.getInteger(TIMEOUT_PNAME, DEFAULT_TIMEOUT);
+
+            PoolingHttpClientConnectionManager connectionManager
+                = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(MAX_CONNECTIONS);
+            connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+            httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(
+                    RequestConfig.custom()
+                        .setSocketTimeout(timeout)
+                        .setConnectTimeout(timeout)
+                        .setConnectionRequestTimeout(timeout)
+                        .build())
+                .setKeepAliveStrategy(
+                    DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build();
+        }
+
+        return httpClient;
+    }
+
+    /**
+     * Executes a GET request and returns the body.
+     * @param endpoint the base URL.
+     * @param path the path of the resource.
+     * @return the body of the response.
+     * @throws HttpResponseException if the status is not 200.
+     * @throws IOException if the request fails.
+     */
+    public static String getString(String endpoint, String path)
+        throws IOException
+    {
+        return getHttpClient().execute(
+            new HttpGet(endpoint + path),
+            new JsonResponseHandler<String>()
+            {
+                @Override
+                protected String parse(Reader reader)
+                    throws IOException
+                {
+                    StringWriter out = new StringWriter();
+                    char[] buf = new char[4096];
+                    int read;
+                    while ((read = reader.read(buf)) != -1)
+                        out.write(buf, 0, read);
+                    return out.toString();
+                }
+            });
+    }
+
+    /**
+     * Executes a GET request and returns the status code, reading and
+     * discarding the body.
+     * @param endpoint the base URL.
+     * @param path the path of the resource.
+     * @return the status code of the response.
+     * @throws IOException if the request fails.
+     */
+    public static int getStatus(String endpoint, String path)
+        throws IOException
+    {
+        return getHttpClient().execute(
+            new HttpGet(endpoint + path),
+            new ResponseHandler<Integer>()
+            {
+                @Override
+                public Integer handleResponse(HttpResponse response)
+                {
+                    return response.getStatusLine().getStatusCode();
+                }
+            });
+    }
+
+    /**
+     * Retrieves and parses <tt>/colibri/stats</tt>.
+     * @param endpoint the base URL of the bridge.
+     * @return the statistics.
+     * @throws IOException if the request fails or the response is not
+     * a JSON object.
+     */
+    public static Stats getStats(String endpoint)
+        throws IOException
+    {
+        return getHttpClient().execute(
+            new HttpGet(endpoint + "/colibri/stats"),
+            new JsonResponseHandler<Stats>()
+            {
+                @Override
+                protected Stats parse(Reader reader)
+                    throws IOException
+                {
+                    return Stats.parse(new JsonReader(reader));
+                }
+            });
+    }
+
+    /**
+     * Retrieves <tt>/colibri/conferences</tt> and passes the id of every
+     * conference to a handler while the response is read, so the memory
+     * used does not depend on the number of conferences.
+     * @param endpoint the base URL of the bridge.
+     * @param handler receives the conference ids.
+     * @return the number of conferences.
+     * @throws IOException if the request fails or the response is not
+     * a JSON array.
+     */
+    public static int enumerateConferences(
+        String endpoint, final ConferenceHandler handler)
+        throws IOException
+    {
+        return getHttpClient().execute(
+            new HttpGet(endpoint + "/colibri/conferences"),
+            new JsonResponseHandler<Integer>()
+            {
+                @Override
+                protected Integer parse(Reader reader)
+                    throws IOException
+                {
+                    int count = 0;
+                    JsonReader json = new JsonReader(reader);
+
+                    json.beginArray();
+                    while (json.hasNext())
+                    {
+                        json.beginObject();
+                        while (json.hasNext())
+                        {
+                            if ("id".equals(json.nextName()))
+                                handler.conference(json.nextString());
+                            else
+                                json.skipValue();
+                        }
+                        json.endObject();
+                        count++;
+                    }
+                    json.endArray();
+
+                    return count;
+                }
+            });
+    }
+
+    /**
+     * Retrieves <tt>/colibri/conferences</tt> and returns the ids of the
+     * conferences.
+     * @param endpoint the base URL of the bridge.
+     * @return the ids of the conferences.
+     * @throws IOException if the request fails or the response is not
+     * a JSON array.
+     */
+    public static Set<String> getConferenceIds(String endpoint)
+        throws IOException
+    {
+        final Set<String> ids = new HashSet<>();
+
+        enumerateConferences(endpoint, new ConferenceHandler()
+        {
+            @Override
+            public void conference(String id)
+            {
+                ids.add(id);
+            }
+        });
+
+        return ids;
+    }
+
+    /**
+     * Triggers a shutdown of the bridge.
+     * @param endpoint the base URL of the bridge.
+     * @param force <tt>true</tt> for a force shutdown, <tt>false</tt> for
+     * a graceful one.
+     * @throws HttpResponseException if the bridge does not answer with 200.
+     * @throws IOException if the request fails.
+     */
+    public static void shutdown(String endpoint, boolean force)
+        throws IOException
+    {
+        HttpPost post = new HttpPost(endpoint + "/colibri/shutdown");
+        post.setEntity(new StringEntity(
+            force ?
+                "{ \"force-shutdown\": \"true\" }"
+                : "{ \"graceful-shutdown\": \"true\" }",
+            ContentType.APPLICATION_JSON));
+
+        getHttpClient().execute(post, new ResponseHandler<Void>()
+        {
+            @Override
+            public Void handleResponse(HttpResponse response)
+                throws IOException
+            {
+                int responseCode = response.getStatusLine().getStatusCode();
+                if (200 != responseCode)
+                {
+                    throw new HttpResponseException(responseCode,
+                        "Failed to trigger shutdown, response code: "
+                            + responseCode);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Receives the conferences enumerated by
+     * {@link #enumerateConferences(String, ConferenceHandler)}.
+     */
+    public interface ConferenceHandler
+    {
+        /**
+         * Called for every conference.
+         * @param id the id of the conference.
+         */
+        void conference(String id);
+    }
+
+    /**
+     * Checks the status of a response and parses its body from a reader.
+     * The response is always fully consumed, so the connection is returned
+     * to the pool.
+     * @param <T> the type of the parsed result.
+     */
+    private static abstract class JsonResponseHandler<T>
+        implements ResponseHandler<T>
+    {
+        @Override
+        public T handleResponse(HttpResponse response)
+            throws IOException
+        {
+            StatusLine status = response.getStatusLine();
+            if (status.getStatusCode() != 200)
+            {
+                throw new HttpResponseException(
+                    status.getStatusCode(), status.toString());
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null)
+                throw new ClientProtocolException("Empty response");
+
+            Charset charset = null;
+            ContentType contentType = ContentType.get(entity);
+            if (contentType != null)
+                charset = contentType.getCharset();
+            if (charset == null)
+                charset = StandardCharsets.UTF_8;
+
+            try (Reader reader = new BufferedReader(
+                    new InputStreamReader(entity.getContent(), charset)))
+            {
+                return parse(reader);
+            }
+            catch (IllegalStateException | NumberFormatException e)
+            {
+                throw new ClientProtocolException(
+                    "Unexpected response: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Parses the body of the response.
+         * @param reader the body.
+         * @return the parsed result.
+         * @throws IOException if reading or parsing fails.
+         */
+        protected abstract T parse(Reader reader)
+            throws IOException;
+    }
+
+    /**
+     * The statistics of a bridge from <tt>/colibri/stats</tt>. Only the top
+     * level values are kept, nested objects and arrays are skipped.
+     */
+    public static class Stats
+    {
+        /**
+         * The values by name, as they appear in the response.
+         */
+        private final Map<String, String> values = new HashMap<>();
+
+        /**
+         * The time the statistics were retrieved.
+         */
+        private final long timestamp = System.currentTimeMillis();
+
+        /**
+         * Parses the statistics object.
+         * @param json the reader positioned at the object.
+         * @return the parsed statistics.
+         * @throws IOException if reading fails.
+         */
+        static Stats parse(JsonReader json)
+            throws IOException
+        {
+            Stats stats = new Stats();
+
+            json.beginObject();
+            while (json.hasNext())
+            {
+                String name = json.nextName();
+                switch (json.peek())
+                {
+                case STRING:
+                case NUMBER:
+                    stats.values.put(name, json.nextString());
+                    break;
+                case BOOLEAN:
+                    stats.values.put(name, String.valueOf(json.nextBoolean()));
+                    break;
+                default:
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+
+            return stats;
+        }
+
+        /**
+         * Returns the time the statistics were retrieved.
+         * @return the time the statistics were retrieved.
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        /**
+         * Returns the number of conferences.
+         * @return the number of conferences or -1 if not reported.
+         */
+        public int getConferences()
+        {
+            return (int) getLong("conferences", -1);
+        }
+
+        /**
+         * Returns the number of participants.
+         * @return the number of participants or -1 if not reported.
+         */
+        public int getParticipants()
+        {
+            return (int) getLong("participants", -1);
+        }
+
+        /**
+         * Returns the download bitrate in kbps.
+         * @return the download bitrate or -1 if not reported.
+         */
+        public double getBitrateDownload()
+        {
+            return getDouble("bit_rate_download", -1);
+        }
+
+        /**
+         * Returns the upload bitrate in kbps.
+         * @return the upload bitrate or -1 if not reported.
+         */
+        public double getBitrateUpload()
+        {
+            return getDouble("bit_rate_upload", -1);
+        }
+
+        /**
+         * Returns the CPU usage between 0 and 1.
+         * @return the CPU usage or -1 if not reported.
+         */
+        public double getCpuUsage()
+        {
+            return getDouble("cpu_usage", -1);
+        }
+
+        /**
+         * Returns the stress level of the bridge.
+         * @return the stress level or -1 if not reported.
+         */
+        public double getStressLevel()
+        {
+            return getDouble("stress_level", -1);
+        }
+
+        /**
+         * Returns whether the bridge is in graceful shutdown.
+         * @return whether the bridge is in graceful shutdown.
+         */
+        public boolean isGracefulShutdown()
+        {
+            return Boolean.parseBoolean(values.get("graceful_shutdown"));
+        }
+
+        /**
+         * Returns a value as a <tt>long</tt>.
+         * @param name the name of the value.
+         * @param defaultValue returned if the value is missing or is not
+         * a number.
+         * @return the value.
+         */
+        public long getLong(String name, long defaultValue)
+        {
+            String value = values.get(name);
+            if (value == null)
+                return defaultValue;
+
+            try
+            {
+                return Long.parseLong(value);
+            }
+            catch (NumberFormatException e)
+            {
+                return (long) getDouble(name, defaultValue);
+            }
+        }
+
+        /**
+         * Returns a value as a <tt>double</tt>.
+         * @param name the name of the value.
+         * @param defaultValue returned if the value is missing or is not
+         * a number.
+         * @return the value.
+         */
+        public double getDouble(String name, double defaultValue)
+        {
+            String value = values.get(name);
+            if (value == null)
+                return defaultValue;
+
+            try
+            {
+                return Double.parseDouble(value);
+            }
+            catch (NumberFormatException e)
+            {
+                return defaultValue;
+            }
+        }
+
+        /**
+         * Returns all values.
+         * @return the values by name.
+         */
+        public Map<String, String> getValues()
+        {
+            return Collections.unmodifiableMap(values);
+        }
+
+        @Override
+        public String toString()
+        {
+            return values.toString();
+        }
+    }
+}
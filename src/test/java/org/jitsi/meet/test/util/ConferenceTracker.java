@@ -0,0 +1,145 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Follows the conferences of a bridge between samples of
+ * <tt>/colibri/conferences</tt>. Every sample reports the conferences
+ * created and expired since the previous one. The response is streamed and
+ * compared with the previous sample while it is read, so a sample costs
+ * linear time in the number of conferences and only the ids are kept.
+ */
+public class ConferenceTracker
+{
+    /**
+     * The base URL of the bridge.
+     */
+    private final String endpoint;
+
+    /**
+     * The conference ids of the last sample, <tt>null</tt> before the first
+     * sample.
+     */
+    private Set<String> previous = null;
+
+    /**
+     * Creates new tracker.
+     * @param endpoint the base URL of the bridge.
+     */
+    public ConferenceTracker(String endpoint)
+    {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Retrieves the conferences and compares them with the previous sample.
+     * On the first sample all conferences are reported as created.
+     * @return the changes since the previous sample.
+     * @throws IOException if the conferences cannot be retrieved, the
+     * previous sample is kept.
+     */
+    public synchronized Diff sample()
+        throws IOException
+    {
+        final Set<String> last
+            = previous == null ? Collections.<String>emptySet() : previous;
+        final Set<String> current = new HashSet<>(Math.max(16, last.size()));
+        final Set<String> created = new HashSet<>();
+
+        ColibriClient.enumerateConferences(
+            endpoint,
+            new ColibriClient.ConferenceHandler()
+            {
+                @Override
+                public void conference(String id)
+                {
+                    if (current.add(id) && !last.contains(id))
+                        created.add(id);
+                }
+            });
+
+        Set<String> expired = new HashSet<>();
+        // every current id was seen in last unless created
+        if (last.size() + created.size() != current.size())
+        {
+            for (String id : last)
+            {
+                if (!current.contains(id))
+                    expired.add(id);
+            }
+        }
+
+        previous = current;
+
+        return new Diff(current.size(), created, expired);
+    }
+
+    /**
+     * Returns the conference ids of the last sample.
+     * @return the conference ids of the last sample, empty before the first
+     * sample.
+     */
+    public synchronized Set<String> getConferences()
+    {
+        return previous == null
+            ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(previous);
+    }
+
+    /**
+     * The changes between two samples.
+     */
+    public static class Diff
+    {
+        /**
+         * The number of conferences in the new sample.
+         */
+        public final int total;
+
+        /**
+         * The ids of the conferences created since the previous sample.
+         */
+        public final Set<String> created;
+
+        /**
+         * The ids of the conferences expired since the previous sample.
+         */
+        public final Set<String> expired;
+
+        /**
+         * Creates new diff.
+         * @param total the number of conferences in the new sample.
+         * @param created the created conferences.
+         * @param expired the expired conferences.
+         */
+        Diff(int total, Set<String> created, Set<String> expired)
+        {
+            this.total = total;
+            this.created = created;
+            this.expired = expired;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "total=" + total + " created=" + created
+                + " expired=" + expired;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Applies firewall rule changes through a firewall script (see
+ * <tt>scripts/firewall_script.sh</tt>). The changes are queued and applied
+ * together by {@link #apply()} in a single invocation of the script in
+ * batch mode (<tt>--batch --block-port 1 --unblock-port 2 ...</tt>), so a
+ * test switching the network state pays for one process and one privilege
+ * escalation instead of one per port. If the script times out, the
+ * <tt>iptables</tt> commands it runs through <tt>sudo</tt> cannot be killed
+ * by the tests and may still change the rules after {@link #apply()}
+ * returned.
+ */
+public class FirewallScript
+{
+    /**
+     * The path to the script.
+     */
+    private final String script;
+
+    /**
+     * The queued arguments.
+     */
+    private final List<String> changes = new ArrayList<>();
+
+    /**
+     * Creates new instance.
+     * @param script the path to the firewall script.
+     */
+    public FirewallScript(String script)
+    {
+        this.script = script;
+    }
+
+    /**
+     * Queues blocking a port.
+     * @param port the port to block.
+     * @return this instance.
+     */
+    public FirewallScript block(int port)
+    {
+        return queue("--block-port", port);
+    }
+
+    /**
+     * Queues unblocking a previously blocked port.
+     * @param port the port to unblock.
+     * @return this instance.
+     */
+    public FirewallScript unblock(int port)
+    {
+        return queue("--unblock-port", port);
+    }
+
+    /**
+     * Applies the queued changes with one invocation of the script and
+     * clears them.
+     * @return the result of the script, <tt>null</tt> if nothing was
+     * queued.
+     * @throws TimeoutException if the script did not end in time.
+     * @throws Exception if the script cannot be run.
+     */
+    public ProcessExecutor.Result apply()
+        throws Exception
+    {
+        if (changes.isEmpty())
+            return null;
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(script);
+        cmd.add("--batch");
+        cmd.addAll(changes);
+        changes.clear();
+
+        CmdExecutor executor = new CmdExecutor();
+        executor.executeCmd(cmd);
+        ProcessExecutor.Result result = executor.getResult();
+        System.err.println("Firewall: " + result);
+
+        return result;
+    }
+
+    /**
+     * Queues a change.
+     * @param command the command of the script.
+     * @param port the port.
+     * @return this instance.
+     */
+    private FirewallScript queue(String command, int port)
+    {
+        if (port < 0 || port > 65535)
+            throw new IllegalArgumentException("Invalid port: " + port);
+
+        changes.add(command);
+        changes.add(String.valueOf(port));
+
+        return this;
+    }
+}
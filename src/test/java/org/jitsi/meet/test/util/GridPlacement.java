@@ -0,0 +1,480 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import org.jitsi.meet.test.perf.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.remote.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Places the remote browsers on several Selenium endpoints (grid hubs or
+ * standalone servers), each with a capacity. A new browser goes to a
+ * healthy endpoint with free capacity: the least loaded one, or with
+ * {@link Strategy#SPREAD} the one on the host with the fewest browsers, so
+ * that the media of a conference does not all come from one machine. The
+ * health of every endpoint is checked with <tt>/status</tt> at most every
+ * {@link #HEALTH_INTERVAL_PNAME} milliseconds. An endpoint which fails to
+ * create a session is considered saturated until one of its browsers quits
+ * or its health is checked again, and the browser is started on the next
+ * endpoint.
+ *
+ * Disabled by default, enabled by setting {@link #ADDRESSES_PNAME}. The
+ * participants which are remote then use it instead of
+ * <tt>browser.remote.address</tt>.
+ */
+public class GridPlacement
+{
+    /**
+     * The name of the property with the comma separated endpoints, each
+     * with an optional capacity, e.g.
+     * <tt>http://a:4444/wd/hub=8,http://b:4444/wd/hub=4</tt>.
+     */
+    public static final String ADDRESSES_PNAME = "browser.remote.addresses";
+
+    /**
+     * The name of the property with the strategy, <tt>leastLoaded</tt> (the
+     * default) or <tt>spread</tt>.
+     */
+    public static final String STRATEGY_PNAME = "browser.remote.placement";
+
+    /**
+     * The name of the property with the interval between two health checks
+     * of an endpoint in milliseconds.
+     */
+    public static final String HEALTH_INTERVAL_PNAME
+        = "browser.remote.healthInterval";
+
+    /**
+     * The capacity of an endpoint without one.
+     */
+    private static final int DEFAULT_CAPACITY = 4;
+
+    /**
+     * How the endpoint of a new browser is chosen.
+     */
+    public enum Strategy
+    {
+        /**
+         * The endpoint with the lowest ratio of browsers to capacity.
+         */
+        LEAST_LOADED,
+
+        /**
+         * The endpoint on the host with the fewest browsers, then the least
+         * loaded.
+         */
+        SPREAD;
+
+        /**
+         * Returns the strategy with a name.
+         * @param name the name in the properties.
+         * @return the strategy.
+         */
+        public static Strategy of(String name)
+        {
+            if ("spread".equalsIgnoreCase(name.trim()))
+                return SPREAD;
+            if ("leastLoaded".equalsIgnoreCase(name.trim()))
+                return LEAST_LOADED;
+
+            throw new IllegalArgumentException("Unknown placement: " + name);
+        }
+    }
+
+    /**
+     * The single instance, <tt>null</tt> when disabled.
+     */
+    private static GridPlacement instance;
+
+    /**
+     * Whether the instance was created.
+     */
+    private static boolean initialized = false;
+
+    /**
+     * The endpoints.
+     */
+    private final List<Endpoint> endpoints;
+
+    /**
+     * The strategy.
+     */
+    private final Strategy strategy;
+
+    /**
+     * The interval between two health checks of an endpoint.
+     */
+    private final long healthInterval;
+
+    /**
+     * The endpoint of every browser started.
+     */
+    private final Map<WebDriver, Endpoint> placed = new IdentityHashMap<>();
+
+    /**
+     * Creates new placement.
+     * @param endpoints the endpoints.
+     * @param strategy the strategy.
+     * @param healthInterval the interval between two health checks of an
+     * endpoint in milliseconds.
+     */
+    public GridPlacement(
+        List<Endpoint> endpoints, Strategy strategy, long healthInterval)
+    {
+        this.endpoints = new ArrayList<>(endpoints);
+        this.strategy = strategy;
+        this.healthInterval = healthInterval;
+    }
+
+    /**
+     * Returns the placement, creating it on first use.
+     * @return the placement, <tt>null</tt> if disabled.
+     */
+    public static synchronized GridPlacement getInstance()
+    {
+        if (!initialized)
+        {
+            initialized = true;
+
+            String addresses = System.getProperty(ADDRESSES_PNAME);
+            if (addresses != null && addresses.trim().length() > 0)
+            {
+                instance = new GridPlacement(
+                    parse(addresses),
+                    Strategy.of(
+                        System.getProperty(STRATEGY_PNAME, "leastLoaded")),
+                    Long.getLong(HEALTH_INTERVAL_PNAME, 10000));
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Parses the endpoints of {@link #ADDRESSES_PNAME}.
+     * @param addresses the comma separated endpoints, each optionally
+     * followed by <tt>=</tt> and its capacity.
+     * @return the endpoints.
+     */
+    public static List<Endpoint> parse(String addresses)
+    {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String address : addresses.split(","))
+        {
+            address = address.trim();
+            if (address.isEmpty())
+                continue;
+
+            int capacity = DEFAULT_CAPACITY;
+            int separator = address.lastIndexOf('=');
+            if (separator > 0)
+            {
+                capacity = Integer.parseInt(
+                    address.substring(separator + 1).trim());
+                address = address.substring(0, separator).trim();
+            }
+            try
+            {
+                endpoints.add(new Endpoint(new URL(address), capacity));
+            }
+            catch (MalformedURLException e)
+            {
+                throw new IllegalArgumentException(
+                    "Invalid remote address: " + address, e);
+            }
+        }
+
+        return endpoints;
+    }
+
+    /**
+     * Starts a browser on an endpoint, failing over to the next one when an
+     * endpoint cannot create the session.
+     * @param capabilities the capabilities of the browser.
+     * @return the browser.
+     * @throws WebDriverException if no endpoint could start it.
+     */
+    public WebDriver start(Capabilities capabilities)
+    {
+        Set<Endpoint> tried = new HashSet<>();
+        WebDriverException lastError = null;
+        while (true)
+        {
+            checkHealth();
+
+            Endpoint endpoint;
+            synchronized (this)
+            {
+                endpoint = choose(tried);
+                if (endpoint == null)
+                    break;
+                // reserve the slot while the session is created
+                endpoint.active++;
+            }
+            tried.add(endpoint);
+
+            try
+            {
+                WebDriver driver = createDriver(endpoint.url, capabilities);
+                synchronized (this)
+                {
+                    placed.put(driver, endpoint);
+                    System.err.println("Placed browser on " + endpoint);
+                }
+                return driver;
+            }
+            catch (WebDriverException e)
+            {
+                synchronized (this)
+                {
+                    endpoint.active--;
+                    endpoint.saturated = true;
+                    System.err.println("Failed to place browser on "
+                        + endpoint + ", failing over: " + e.getMessage());
+                }
+                lastError = e;
+            }
+        }
+
+        throw new WebDriverException(
+            "No remote endpoint can start a browser: " + getEndpoints(),
+            lastError);
+    }
+
+    /**
+     * Creates a browser on an endpoint.
+     * @param url the URL of the endpoint.
+     * @param capabilities the capabilities of the browser.
+     * @return the browser.
+     */
+    protected WebDriver createDriver(URL url, Capabilities capabilities)
+    {
+        return new RemoteWebDriver(url, capabilities);
+    }
+
+    /**
+     * Frees the slot of a browser which quit.
+     * @param driver the browser, possibly instrumented.
+     */
+    public synchronized void release(WebDriver driver)
+    {
+        Endpoint endpoint = placed.remove(InstrumentedDriver.unwrap(driver));
+        if (endpoint != null)
+        {
+            endpoint.active--;
+            endpoint.saturated = false;
+        }
+    }
+
+    /**
+     * Returns the endpoints.
+     * @return the endpoints, in the order of the properties.
+     */
+    public synchronized List<Endpoint> getEndpoints()
+    {
+        return new ArrayList<>(endpoints);
+    }
+
+    /**
+     * Checks the health of the endpoints which were not checked during the
+     * last interval.
+     */
+    private void checkHealth()
+    {
+        for (Endpoint endpoint : getEndpoints())
+        {
+            long now = System.currentTimeMillis();
+            synchronized (this)
+            {
+                if (now - endpoint.checked < healthInterval)
+                    continue;
+                endpoint.checked = now;
+            }
+
+            boolean healthy;
+            try
+            {
+                healthy = ColibriClient.getStatus(
+                    endpoint.url.toString(), "/status") == 200;
+            }
+            catch (IOException e)
+            {
+                healthy = false;
+            }
+
+            synchronized (this)
+            {
+                if (healthy != endpoint.healthy)
+                {
+                    System.err.println("Remote endpoint " + endpoint.url
+                        + (healthy ? " is healthy" : " is not healthy"));
+                }
+                endpoint.healthy = healthy;
+                if (healthy)
+                    endpoint.saturated = false;
+            }
+        }
+    }
+
+    /**
+     * Chooses the endpoint of a new browser.
+     * @param tried the endpoints which already failed to start it.
+     * @return the endpoint, <tt>null</tt> if none can take it.
+     */
+    private Endpoint choose(Set<Endpoint> tried)
+    {
+        Map<String, Integer> hosts = new HashMap<>();
+        for (Endpoint endpoint : endpoints)
+        {
+            Integer count = hosts.get(endpoint.host);
+            hosts.put(endpoint.host,
+                (count == null ? 0 : count) + endpoint.active);
+        }
+
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints)
+        {
+            if (tried.contains(endpoint) || !endpoint.healthy
+                || endpoint.saturated
+                || endpoint.active >= endpoint.capacity)
+            {
+                continue;
+            }
+
+            if (best == null)
+            {
+                best = endpoint;
+                continue;
+            }
+            if (strategy == Strategy.SPREAD)
+            {
+                int hostCount = hosts.get(endpoint.host);
+                int bestHostCount = hosts.get(best.host);
+                if (hostCount != bestHostCount)
+                {
+                    if (hostCount < bestHostCount)
+                        best = endpoint;
+                    continue;
+                }
+            }
+            if (endpoint.getLoad() < best.getLoad())
+                best = endpoint;
+        }
+
+        return best;
+    }
+
+    /**
+     * A Selenium endpoint.
+     */
+    public static class Endpoint
+    {
+        /**
+         * The URL of the endpoint.
+         */
+        private final URL url;
+
+        /**
+         * The host of the endpoint.
+         */
+        private final String host;
+
+        /**
+         * The number of browsers it can run.
+         */
+        private final int capacity;
+
+        /**
+         * The number of browsers it runs.
+         */
+        private int active;
+
+        /**
+         * Whether it failed to create the last session.
+         */
+        private boolean saturated;
+
+        /**
+         * Whether the last health check passed.
+         */
+        private boolean healthy = true;
+
+        /**
+         * The time of the last health check.
+         */
+        private long checked;
+
+        /**
+         * Creates new endpoint.
+         * @param url the URL of the endpoint.
+         * @param capacity the number of browsers it can run.
+         */
+        public Endpoint(URL url, int capacity)
+        {
+            this.url = url;
+            this.host = url.getHost();
+            this.capacity = capacity;
+        }
+
+        /**
+         * Returns the URL of the endpoint.
+         * @return the URL of the endpoint.
+         */
+        public URL getUrl()
+        {
+            return url;
+        }
+
+        /**
+         * Returns the number of browsers it can run.
+         * @return the capacity.
+         */
+        public int getCapacity()
+        {
+            return capacity;
+        }
+
+        /**
+         * Returns the number of browsers it runs.
+         * @return the number of browsers.
+         */
+        public int getActive()
+        {
+            return active;
+        }
+
+        /**
+         * Returns the ratio of browsers to capacity.
+         * @return the load.
+         */
+        private double getLoad()
+        {
+            return (double) active / capacity;
+        }
+
+        @Override
+        public String toString()
+        {
+            return url + " (" + active + "/" + capacity
+                + (healthy ? "" : ", unhealthy")
+                + (saturated ? ", saturated" : "") + ")";
+        }
+    }
+}
@@ -15,15 +15,10 @@
  */
 package org.jitsi.meet.test.util;
 
-import org.apache.http.*;
 import org.apache.http.client.*;
-import org.apache.http.client.methods.*;
 import org.apache.http.conn.*;
-import org.apache.http.entity.*;
-import org.apache.http.impl.client.*;
 
 import java.io.*;
-import java.util.regex.*;
 
 /**
  * Class gather utility methods for JVB operations.
@@ -32,6 +27,29 @@ import java.util.regex.*;
  */
 public class JvbUtil
 {
+    /**
+     * The name of the property with the time in seconds a bridge is given to
+     * shut down.
+     */
+    public static final String SHUTDOWN_TIMEOUT_PNAME
+        = "jitsi-meet.jvb.shutdownTimeout";
+
+    /**
+     * The default time in seconds a bridge is given to shut down.
+     */
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT = 300;
+
+    /**
+     * The initial interval in milliseconds between two checks of the number
+     * of conferences while waiting for a bridge to shut down.
+     */
+    private static final long MIN_SHUTDOWN_POLL_INTERVAL = 50;
+
+    /**
+     * The maximum interval in milliseconds between two checks of the number
+     * of conferences while waiting for a bridge to shut down.
+     */
+    private static final long MAX_SHUTDOWN_POLL_INTERVAL = 1000;
 
     /**
      * Triggers either force or graceful bridge shutdown and waits for it to
@@ -49,123 +67,110 @@ public class JvbUtil
         throws IOException,
                InterruptedException
     {
-        CloseableHttpClient client = HttpClientBuilder.create().build();
+        triggerShutdown(jvbEndpoint, force);
 
         try
         {
-            triggerShutdown(client, jvbEndpoint, force);
-
-            try
-            {
-                waitForBridgeShutdown(client, jvbEndpoint);
-            }
-            catch (HttpHostConnectException connectException)
-            {
-                // We ignore connect exception as JVB endpoint
-                // dies on shutdown and may not always send the OK response
-            }
+            waitForBridgeShutdown(jvbEndpoint);
         }
-        finally
+        catch (HttpHostConnectException connectException)
         {
-            client.close();
+            // We ignore connect exception as JVB endpoint
+            // dies on shutdown and may not always send the OK response
         }
     }
 
-    static private void triggerShutdown(HttpClient   client,
-                                        String       jvbEndpoint,
+    static private void triggerShutdown(String       jvbEndpoint,
                                         boolean      force)
         throws IOException
     {
-        String url = jvbEndpoint + "/colibri/shutdown";
-
-        HttpPost post = new HttpPost(url);
-
-        StringEntity requestEntity = new StringEntity(
-            force ?
-                "{ \"force-shutdown\": \"true\" }"
-                : "{ \"graceful-shutdown\": \"true\" }",
-            ContentType.APPLICATION_JSON);
-
-        post.setEntity(requestEntity);
+        System.out.println("\nSending shutdown request to: " + jvbEndpoint
+            + ", force: " + force);
 
-        System.out.println("\nSending 'POST' request to URL : " + url);
-        System.out.println("Post parameters : " + post.getEntity());
-
-        HttpResponse response = client.execute(post);
-
-        int responseCode = response.getStatusLine().getStatusCode();
-        if (200 != responseCode)
+        try
+        {
+            ColibriClient.shutdown(jvbEndpoint, force);
+        }
+        catch (HttpResponseException e)
         {
             throw new RuntimeException(
                 "Failed to trigger graceful shutdown on: "
-                    + jvbEndpoint + ", response code: " + responseCode);
+                    + jvbEndpoint + ", response code: " + e.getStatusCode());
         }
     }
 
-    static private void waitForBridgeShutdown(HttpClient    client,
-                                              String        jvbEndpoint)
+    /**
+     * Waits until the bridge reports no conferences. The interval between
+     * two checks starts at {@link #MIN_SHUTDOWN_POLL_INTERVAL} whenever the
+     * number of conferences changes and doubles up to
+     * {@link #MAX_SHUTDOWN_POLL_INTERVAL} while it does not, so the end of
+     * the drain is noticed quickly without flooding a bridge with long
+     * lasting conferences. The wait fails after
+     * {@link #SHUTDOWN_TIMEOUT_PNAME} seconds, and at once for a bridge whose
+     * stats do not report the conferences, as it would never end.
+     *
+     * @param jvbEndpoint the REST API endpoint of the bridge.
+     * @throws IOException if something goes wrong
+     * @throws InterruptedException if the waiting thread gets interrupted.
+     */
+    static private void waitForBridgeShutdown(String jvbEndpoint)
         throws IOException,
                InterruptedException
     {
-        String url = jvbEndpoint + "/colibri/stats";
-
-        HttpGet httpGet = new HttpGet(url);
+        long interval = MIN_SHUTDOWN_POLL_INTERVAL;
+        int lastConferenceCount = -1;
+        long timeout = Long.getLong(
+            SHUTDOWN_TIMEOUT_PNAME, DEFAULT_SHUTDOWN_TIMEOUT) * 1000;
+        long deadline = System.currentTimeMillis() + timeout;
 
-        int conferenceCount;
-        do
+        while (true)
         {
-            System.out.println("\nSending 'GET' request to URL : " + url);
-
-            HttpResponse response = client.execute(httpGet);
-
-            int responseCode = response.getStatusLine().getStatusCode();
-            if (200 != responseCode)
+            int conferenceCount;
+            try
+            {
+                conferenceCount
+                    = ColibriClient.getStats(jvbEndpoint).getConferences();
+            }
+            catch (HttpResponseException e)
             {
                 throw new RuntimeException(
                     "Failed to trigger graceful shutdown on: "
-                        + jvbEndpoint + ", response code: " + responseCode);
+                        + jvbEndpoint + ", response code: "
+                        + e.getStatusCode());
             }
 
-
-            // Read the response
-            BufferedReader rd
-                = new BufferedReader(
-                        new InputStreamReader(
-                                response.getEntity().getContent()));
-
-            StringBuffer result = new StringBuffer();
-            String line;
-            while ((line = rd.readLine()) != null)
+            if (conferenceCount == 0)
+                break;
+            if (conferenceCount < 0)
             {
-                result.append(line);
+                throw new RuntimeException(
+                    "Cannot wait for the shutdown of " + jvbEndpoint
+                        + ": its stats do not report the conferences");
             }
 
-            conferenceCount = getConferenceCount(result);
+            if (conferenceCount != lastConferenceCount)
+            {
+                System.out.println("Waiting for " + conferenceCount
+                    + " conferences on " + jvbEndpoint + " to end");
 
-            if (conferenceCount != 0)
+                // draining, check again soon
+                interval = MIN_SHUTDOWN_POLL_INTERVAL;
+            }
+            else
             {
-                Thread.sleep(5000);
+                interval
+                    = Math.min(interval * 2, MAX_SHUTDOWN_POLL_INTERVAL);
             }
-        }
-        while (conferenceCount != 0);
-    }
-
-    static private int getConferenceCount(CharSequence jvbStatsJson)
-    {
-        int conferenceCount = -1;
-
-        Pattern confPattern
-            = Pattern.compile("\"conferences\": +\"?((\\d+))\"?");
-
-        Matcher confMatcher = confPattern.matcher(jvbStatsJson);
+            lastConferenceCount = conferenceCount;
 
-        if (confMatcher.find())
-        {
-            String countTxt = confMatcher.group(1);
-
-            return Integer.parseInt(countTxt);
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                throw new RuntimeException(
+                    jvbEndpoint + " did not shut down in " + timeout / 1000
+                        + "s, " + conferenceCount + " conferences left");
+            }
+            Thread.sleep(Math.min(interval, remaining));
         }
-
-        return conferenceCount;
     }
 }
@@ -15,6 +15,7 @@
  */
 package org.jitsi.meet.test.util;
 
+import org.jitsi.meet.test.tasks.*;
 import org.openqa.selenium.*;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.interactions.*;
@@ -738,6 +739,69 @@ public class MeetUIUtils
             participant, "//span[@id='localVideoWrapper']/video", 5);
     }
 
+    /**
+     * Fails the current test if a remote video seen by a participant was
+     * frozen longer than a duration since the start of the test, see
+     * {@link FreezeDetector}. Freezes during which frames were decoded are
+     * static pictures and are ignored. Does nothing if the detector is
+     * disabled.
+     * @param participant the participant.
+     * @param ms the longest acceptable freeze in milliseconds.
+     */
+    public static void assertNoFreezeLongerThan(WebDriver participant, long ms)
+    {
+        FreezeDetector detector = FreezeDetector.getInstance();
+        if (detector == null)
+        {
+            System.err.println("Freeze detector disabled, not checking");
+            return;
+        }
+
+        List<FreezeDetector.Freeze> freezes = detector.getFreezes(
+            participant, detector.getCurrentTestStart());
+        assertNotNull("Participant not started by the fixture", freezes);
+        assertNoFreezeLongerThan(freezes, ms);
+    }
+
+    /**
+     * Fails the current test if a remote video seen by any participant was
+     * frozen longer than a duration since the start of the test, see
+     * {@link #assertNoFreezeLongerThan(WebDriver, long)}.
+     * @param ms the longest acceptable freeze in milliseconds.
+     */
+    public static void assertNoFreezeLongerThan(long ms)
+    {
+        FreezeDetector detector = FreezeDetector.getInstance();
+        if (detector == null)
+        {
+            System.err.println("Freeze detector disabled, not checking");
+            return;
+        }
+
+        assertNoFreezeLongerThan(
+            detector.getFreezes(detector.getCurrentTestStart()), ms);
+    }
+
+    /**
+     * Fails the current test if one of the freezes lasted longer than a
+     * duration.
+     * @param freezes the freezes.
+     * @param ms the longest acceptable freeze in milliseconds.
+     */
+    private static void assertNoFreezeLongerThan(
+        List<FreezeDetector.Freeze> freezes, long ms)
+    {
+        StringBuilder tooLong = new StringBuilder();
+        for (FreezeDetector.Freeze freeze : freezes)
+        {
+            if (freeze.isStalled() && freeze.getDuration() > ms)
+                tooLong.append("\n").append(freeze);
+        }
+
+        if (tooLong.length() > 0)
+            fail("Video frozen longer than " + ms + "ms:" + tooLong);
+    }
+
     /**
      * Returns the source of the large video currently shown.
      * @return the source of the large video currently shown.
@@ -959,7 +1023,7 @@ public class MeetUIUtils
     static private void waitForLargeVideoSwitch(WebDriver    where,
                                                 final String expectedVideoSrc)
     {
-        new WebDriverWait(where, 3)
+        TestUtils.newWait(where, 3)
             .withMessage(
                     "Failed to switch the large video at: "
                         + MeetUtils.getResourceJid(where)
@@ -15,6 +15,7 @@
  */
 package org.jitsi.meet.test.util;
 
+import org.jitsi.meet.test.perf.*;
 import org.openqa.selenium.*;
 import org.openqa.selenium.chrome.*;
 import org.openqa.selenium.support.ui.*;
@@ -69,6 +70,14 @@ public class MeetUtils
     public static final String ETHERPAD_ENABLED_CHECK_SCRIPT =
         "return config.etherpad_base !== undefined;";
 
+    /**
+     * The javascript code which returns the connection times of the room, or
+     * {@code null} if the room is not created yet.
+     */
+    public static final String ROOM_CONNECTION_TIMES_SCRIPT =
+        "try { return APP.conference._room.getConnectionTimes(); }"
+            + " catch (e) { return null; }";
+
 
     /**
      * Obtains the RTP bundle port used by the given <tt>participant</tt>.
@@ -135,7 +144,7 @@ public class MeetUtils
      */
     public static boolean areRtpStatsSupported(WebDriver driver)
     {
-        return driver instanceof ChromeDriver;
+        return InstrumentedDriver.unwrap(driver) instanceof ChromeDriver;
     }
 
     /**
@@ -187,7 +196,7 @@ public class MeetUtils
         final int n,
         int timeout)
     {
-        new WebDriverWait(participant, timeout)
+        TestUtils.newWait(participant, timeout)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -217,7 +226,7 @@ public class MeetUtils
                         .equals("complete");
                 }
             };
-        Wait<WebDriver> wait = new WebDriverWait(driver, 10);
+        Wait<WebDriver> wait = TestUtils.newWait(driver, 10);
         try
         {
             wait.until(expectation);
@@ -236,7 +245,7 @@ public class MeetUtils
      */
     public static void waitForSendReceiveData(final WebDriver participant)
     {
-        new WebDriverWait(participant, 15)
+        TestUtils.newWait(participant, 15)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -296,6 +305,35 @@ public class MeetUtils
         return res != null && res.equals(Boolean.TRUE);
     }
 
+    /**
+     * Returns the connection times of the room of a participant, e.g.
+     * <tt>muc.joined</tt> or <tt>ice.state.connected</tt>, in milliseconds
+     * since the page started to load.
+     * @param participant the participant.
+     * @return the times by name, empty if the room is not created yet.
+     */
+    public static Map<String, Double> getRoomConnectionTimes(
+        WebDriver participant)
+    {
+        Object res = ((JavascriptExecutor) participant)
+            .executeScript(ROOM_CONNECTION_TIMES_SCRIPT);
+
+        Map<String, Double> times = new HashMap<>();
+        if (res instanceof Map)
+        {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) res).entrySet())
+            {
+                if (e.getValue() instanceof Number)
+                {
+                    times.put(String.valueOf(e.getKey()),
+                        ((Number) e.getValue()).doubleValue());
+                }
+            }
+        }
+
+        return times;
+    }
+
     /**
      * Waits until {@code participant} joins the MUC.
      * @param participant the participant.
@@ -304,10 +342,19 @@ public class MeetUtils
     public static void waitForParticipantToJoinMUC(
         WebDriver participant, long timeout)
     {
-        TestUtils.waitForBoolean(
-            participant,
-            IS_MUC_JOINED,
-            timeout);
+        PhaseTimes.Scope scope
+            = PhaseTimes.enter(PhaseTimes.Phase.MUC_JOIN);
+        try
+        {
+            TestUtils.waitForBoolean(
+                participant,
+                IS_MUC_JOINED,
+                timeout);
+        }
+        finally
+        {
+            scope.end();
+        }
     }
 
     /**
@@ -343,8 +390,17 @@ public class MeetUtils
      */
     public static void waitForIceConnected(WebDriver participant, long timeout)
     {
-        TestUtils.waitForBoolean(
-            participant, ICE_CONNECTED_CHECK_SCRIPT, timeout);
+        PhaseTimes.Scope scope
+            = PhaseTimes.enter(PhaseTimes.Phase.ICE_CONNECT);
+        try
+        {
+            TestUtils.waitForBoolean(
+                participant, ICE_CONNECTED_CHECK_SCRIPT, timeout);
+        }
+        finally
+        {
+            scope.end();
+        }
     }
 
     public static boolean isP2PConnected(WebDriver participant)
@@ -369,8 +425,17 @@ public class MeetUtils
     public static void waitForP2PIceConnected(WebDriver participant)
     {
         // FIXME method with timeout
-        TestUtils.waitForBoolean(
-            participant, P2P_ICE_CONNECTED_CHECK_SCRIPT, 15);
+        PhaseTimes.Scope scope
+            = PhaseTimes.enter(PhaseTimes.Phase.ICE_CONNECT);
+        try
+        {
+            TestUtils.waitForBoolean(
+                participant, P2P_ICE_CONNECTED_CHECK_SCRIPT, 15);
+        }
+        finally
+        {
+            scope.end();
+        }
     }
 
     public static void waitForP2PIceDisconnected(WebDriver participant)
@@ -0,0 +1,558 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import com.google.gson.stream.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Impairs the traffic of participants with <tt>tc</tt>/<tt>netem</tt>
+ * through <tt>scripts/netem_script.sh</tt>. Every participant port gets its
+ * own htb class (the bandwidth cap) with a netem qdisc (latency, jitter,
+ * loss and reordering), selected by u32 filters on the source and the
+ * destination port, so both directions are impaired when the interface is
+ * the loopback (or both ends of a veth pair between network namespaces).
+ *
+ * Named {@link Profile}s can be switched at any time. Every switch is
+ * recorded with its time in {@link #EVENTS_FILE} and kept in memory, so
+ * the metrics of the tests can be matched with the profile in effect
+ * ({@link #getProfileAt(String, long)}).
+ */
+public class NetworkImpairment
+{
+    /**
+     * The name of the property with the path to the netem script.
+     */
+    public static final String SCRIPT_PNAME = "jitsi-meet.netem.script";
+
+    /**
+     * The name of the property with the interface to impair, the loopback
+     * by default.
+     */
+    public static final String INTERFACE_PNAME = "jitsi-meet.netem.interface";
+
+    /**
+     * The prefix of the properties defining custom profiles, e.g.
+     * <tt>jitsi-meet.netem.profile.mobile=delay=120,jitter=30,loss=2,
+     * rate=600,reorder=0</tt>.
+     */
+    public static final String PROFILE_PNAME_PREFIX
+        = "jitsi-meet.netem.profile.";
+
+    /**
+     * The default netem script.
+     */
+    public static final String DEFAULT_SCRIPT = "scripts/netem_script.sh";
+
+    /**
+     * The name of the file in the reports folder with the profile switches.
+     */
+    public static final String EVENTS_FILE = "netem-events.jsonl";
+
+    /**
+     * The profile removing any impairment.
+     */
+    public static final Profile NONE = new Profile("none", 0, 0, 0, 0, 0);
+
+    /**
+     * The built in profiles by name.
+     */
+    private static final Map<String, Profile> PROFILES = new LinkedHashMap<>();
+
+    static
+    {
+        addProfile(NONE);
+        addProfile(new Profile("3g", 100, 20, 1, 750, 0));
+        addProfile(new Profile("lossy", 20, 5, 5, 0, 0));
+        addProfile(new Profile("high-latency", 300, 50, 0, 0, 0));
+        addProfile(new Profile("congested", 50, 10, 2, 500, 1));
+        addProfile(new Profile("bad-wifi", 30, 30, 3, 2000, 2));
+    }
+
+    /**
+     * The path to the netem script.
+     */
+    private final String script;
+
+    /**
+     * The interface to impair.
+     */
+    private final String iface;
+
+    /**
+     * The htb class ids of the impaired ports.
+     */
+    private final Map<Integer, Integer> classIds = new HashMap<>();
+
+    /**
+     * The profile switches, oldest first.
+     */
+    private final List<Event> events = new ArrayList<>();
+
+    /**
+     * Whether the root qdisc was installed.
+     */
+    private boolean rootInstalled = false;
+
+    /**
+     * Creates new instance using {@link #SCRIPT_PNAME} and
+     * {@link #INTERFACE_PNAME}.
+     */
+    public NetworkImpairment()
+    {
+        this(System.getProperty(SCRIPT_PNAME, DEFAULT_SCRIPT),
+            System.getProperty(INTERFACE_PNAME, "lo"));
+    }
+
+    /**
+     * Creates new instance.
+     * @param script the path to the netem script.
+     * @param iface the interface to impair.
+     */
+    public NetworkImpairment(String script, String iface)
+    {
+        this.script = script;
+        this.iface = iface;
+    }
+
+    /**
+     * Returns a profile by name, a built in one or one defined with
+     * {@link #PROFILE_PNAME_PREFIX}.
+     * @param name the name of the profile.
+     * @return the profile.
+     * @throws IllegalArgumentException if there is no such profile.
+     */
+    public static Profile getProfile(String name)
+    {
+        String definition = System.getProperty(PROFILE_PNAME_PREFIX + name);
+        if (definition != null)
+            return Profile.parse(name, definition);
+
+        Profile profile = PROFILES.get(name);
+        if (profile == null)
+            throw new IllegalArgumentException("Unknown profile: " + name);
+
+        return profile;
+    }
+
+    /**
+     * Returns the names of the built in profiles.
+     * @return the names.
+     */
+    public static Set<String> getProfileNames()
+    {
+        return Collections.unmodifiableSet(PROFILES.keySet());
+    }
+
+    /**
+     * Adds a built in profile.
+     * @param profile the profile.
+     */
+    private static void addProfile(Profile profile)
+    {
+        PROFILES.put(profile.name, profile);
+    }
+
+    /**
+     * Applies a named profile to the traffic of a participant port.
+     * @param participant the name of the participant, for the events.
+     * @param port the port, e.g. the RTP bundle port of the participant.
+     * @param profile the name of the profile.
+     * @throws Exception if the script fails.
+     */
+    public void apply(String participant, int port, String profile)
+        throws Exception
+    {
+        apply(participant, port, getProfile(profile));
+    }
+
+    /**
+     * Applies a profile to the traffic of a participant port, replacing the
+     * previous one.
+     * @param participant the name of the participant, for the events.
+     * @param port the port, e.g. the RTP bundle port of the participant.
+     * @param profile the profile.
+     * @throws Exception if the script fails.
+     */
+    public synchronized void apply(
+        String participant, int port, Profile profile)
+        throws Exception
+    {
+        if (port <= 0 || port > 65535)
+            throw new IllegalArgumentException("Invalid port: " + port);
+
+        List<String> commands = new ArrayList<>();
+        if (!rootInstalled)
+        {
+            commands.add("qdisc replace dev " + iface
+                + " root handle 1: htb default 1");
+            commands.add("class replace dev " + iface
+                + " parent 1: classid 1:1 htb rate 10gbit");
+        }
+
+        Integer classId = classIds.get(port);
+        boolean newPort = classId == null;
+        if (newPort)
+            classId = 10 + classIds.size();
+
+        commands.add("class replace dev " + iface + " parent 1: classid 1:"
+            + classId + " htb rate "
+            + (profile.rateKbit > 0 ? profile.rateKbit + "kbit" : "10gbit"));
+        commands.add("qdisc replace dev " + iface + " parent 1:" + classId
+            + " handle " + classId + ": netem" + profile.getNetemParams());
+        if (newPort)
+        {
+            for (String match : new String[] { "sport", "dport" })
+            {
+                commands.add("filter add dev " + iface
+                    + " parent 1: protocol ip prio 1 u32 match ip " + match
+                    + " " + port + " 0xffff flowid 1:" + classId);
+            }
+        }
+
+        run(commands);
+        // in effect once the script returned
+        long time = System.currentTimeMillis();
+
+        rootInstalled = true;
+        if (newPort)
+            classIds.put(port, classId);
+
+        Event event = new Event(time, participant, port, profile);
+        events.add(event);
+        writeEvent(event);
+        System.err.println("netem: " + event);
+    }
+
+    /**
+     * Removes all impairments from the interface.
+     * @throws Exception if the script fails.
+     */
+    public synchronized void clear()
+        throws Exception
+    {
+        if (!rootInstalled)
+            return;
+
+        run(Collections.singletonList("qdisc del dev " + iface + " root"));
+        long time = System.currentTimeMillis();
+        rootInstalled = false;
+
+        for (Integer port : classIds.keySet())
+        {
+            String participant = null;
+            for (Event event : events)
+            {
+                if (event.port == port)
+                    participant = event.participant;
+            }
+
+            Event event = new Event(time, participant, port, NONE);
+            events.add(event);
+            writeEvent(event);
+        }
+        classIds.clear();
+    }
+
+    /**
+     * Returns the profile switches.
+     * @return the switches, oldest first.
+     */
+    public synchronized List<Event> getEvents()
+    {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * Returns the profile which was in effect for a port at a time.
+     * @param port the port.
+     * @param time the time in milliseconds since the epoch.
+     * @return the profile, {@link #NONE} before the first switch.
+     */
+    public synchronized Profile getProfileAt(int port, long time)
+    {
+        Profile profile = NONE;
+        for (Event event : events)
+        {
+            if (event.time > time)
+                break;
+            if (event.port == port)
+                profile = event.profile;
+        }
+
+        return profile;
+    }
+
+    /**
+     * Returns the profile which was in effect for a participant at a time.
+     * @param participant the name of the participant.
+     * @param time the time in milliseconds since the epoch.
+     * @return the profile, {@link #NONE} before the first switch.
+     */
+    public synchronized Profile getProfileAt(String participant, long time)
+    {
+        Integer port = null;
+        for (Event event : events)
+        {
+            if (event.time > time)
+                break;
+            if (participant.equals(event.participant))
+                port = event.port;
+        }
+
+        return port == null ? NONE : getProfileAt(port, time);
+    }
+
+    /**
+     * Runs tc commands with one invocation of the script.
+     * @param commands the tc commands, without <tt>tc</tt>.
+     * @throws Exception if the script fails.
+     */
+    private void run(List<String> commands)
+        throws Exception
+    {
+        StringBuilder input = new StringBuilder();
+        for (String command : commands)
+            input.append(command).append('\n');
+
+        ProcessExecutor.Result result = ProcessExecutor.execute(
+            Arrays.asList(script, "--apply"),
+            ProcessExecutor.getDefaultTimeout(),
+            input.toString());
+        if (!result.isSuccess())
+        {
+            throw new IOException("netem script failed: " + result
+                + "\n" + result.getStdout() + result.getStderr());
+        }
+    }
+
+    /**
+     * Appends an event to {@link #EVENTS_FILE}.
+     * @param event the event.
+     */
+    private static void writeEvent(Event event)
+    {
+        String reportsDir = System.getProperty("test.reports.dir");
+        File file = new File(
+            reportsDir == null ? "test-reports" : reportsDir, EVENTS_FILE);
+        file.getParentFile().mkdirs();
+
+        try (Writer out = new OutputStreamWriter(
+                new FileOutputStream(file, true), "UTF-8"))
+        {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject();
+            json.name("t").value(event.time);
+            json.name("participant").value(event.participant);
+            json.name("port").value(event.port);
+            json.name("profile").value(event.profile.name);
+            json.name("delayMs").value(event.profile.delayMs);
+            json.name("jitterMs").value(event.profile.jitterMs);
+            json.name("lossPercent").value(event.profile.lossPercent);
+            json.name("rateKbit").value(event.profile.rateKbit);
+            json.name("reorderPercent").value(event.profile.reorderPercent);
+            json.endObject();
+            json.flush();
+            out.write('\n');
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A named set of impairments.
+     */
+    public static class Profile
+    {
+        /**
+         * The name.
+         */
+        public final String name;
+
+        /**
+         * The added latency in milliseconds.
+         */
+        public final int delayMs;
+
+        /**
+         * The variation of the latency in milliseconds.
+         */
+        public final int jitterMs;
+
+        /**
+         * The percentage of lost packets.
+         */
+        public final double lossPercent;
+
+        /**
+         * The bandwidth cap in kbit/s, 0 for none.
+         */
+        public final int rateKbit;
+
+        /**
+         * The percentage of reordered packets.
+         */
+        public final double reorderPercent;
+
+        /**
+         * Creates new profile.
+         * @param name the name.
+         * @param delayMs the added latency in milliseconds.
+         * @param jitterMs the variation of the latency in milliseconds.
+         * @param lossPercent the percentage of lost packets.
+         * @param rateKbit the bandwidth cap in kbit/s, 0 for none.
+         * @param reorderPercent the percentage of reordered packets.
+         */
+        public Profile(
+            String name,
+            int delayMs,
+            int jitterMs,
+            double lossPercent,
+            int rateKbit,
+            double reorderPercent)
+        {
+            this.name = name;
+            this.delayMs = delayMs;
+            this.jitterMs = jitterMs;
+            this.lossPercent = lossPercent;
+            this.rateKbit = rateKbit;
+            this.reorderPercent = reorderPercent;
+        }
+
+        /**
+         * Parses a profile definition like
+         * <tt>delay=100,jitter=20,loss=1,rate=750,reorder=0</tt>, missing
+         * values are 0.
+         * @param name the name of the profile.
+         * @param definition the definition.
+         * @return the profile.
+         */
+        public static Profile parse(String name, String definition)
+        {
+            Map<String, String> values = new HashMap<>();
+            for (String pair : definition.split(","))
+            {
+                int idx = pair.indexOf('=');
+                if (idx != -1)
+                {
+                    values.put(
+                        pair.substring(0, idx).trim(),
+                        pair.substring(idx + 1).trim());
+                }
+            }
+
+            return new Profile(
+                name,
+                Integer.parseInt(get(values, "delay")),
+                Integer.parseInt(get(values, "jitter")),
+                Double.parseDouble(get(values, "loss")),
+                Integer.parseInt(get(values, "rate")),
+                Double.parseDouble(get(values, "reorder")));
+        }
+
+        /**
+         * Returns a value of a definition.
+         * @param values the values.
+         * @param key the key.
+         * @return the value, "0" if missing.
+         */
+        private static String get(Map<String, String> values, String key)
+        {
+            String value = values.get(key);
+
+            return value == null ? "0" : value;
+        }
+
+        /**
+         * Returns the parameters of the netem qdisc.
+         * @return the parameters, starting with a space.
+         */
+        String getNetemParams()
+        {
+            // netem reorders only delayed packets
+            int delay = reorderPercent > 0 ? Math.max(1, delayMs) : delayMs;
+            StringBuilder params = new StringBuilder();
+            params.append(" delay ").append(delay).append("ms");
+            if (jitterMs > 0)
+                params.append(' ').append(jitterMs).append("ms");
+            params.append(" loss ").append(lossPercent).append('%');
+            if (reorderPercent > 0)
+                params.append(" reorder ").append(reorderPercent).append('%');
+
+            return params.toString();
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + "(delay=" + delayMs + "ms jitter=" + jitterMs
+                + "ms loss=" + lossPercent + "% rate=" + rateKbit
+                + "kbit reorder=" + reorderPercent + "%)";
+        }
+    }
+
+    /**
+     * A profile switch.
+     */
+    public static class Event
+    {
+        /**
+         * The time of the switch in milliseconds since the epoch.
+         */
+        public final long time;
+
+        /**
+         * The name of the participant, <tt>null</tt> when all impairments
+         * were removed.
+         */
+        public final String participant;
+
+        /**
+         * The port.
+         */
+        public final int port;
+
+        /**
+         * The profile in effect from then on.
+         */
+        public final Profile profile;
+
+        /**
+         * Creates new event.
+         * @param time the time of the switch.
+         * @param participant the name of the participant.
+         * @param port the port.
+         * @param profile the new profile.
+         */
+        Event(long time, String participant, int port, Profile profile)
+        {
+            this.time = time;
+            this.participant = participant;
+            this.port = port;
+            this.profile = profile;
+        }
+
+        @Override
+        public String toString()
+        {
+            return participant + " port " + port + " -> " + profile;
+        }
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.meet.test.util;
+
+import com.google.common.util.concurrent.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs external commands on a shared pool. The output of every command is
+ * captured (up to {@link #MAX_OUTPUT} characters per stream) and returned
+ * with the exit code as a {@link Result}, and can also be echoed live. A
+ * command which does not end in time is killed together with all the
+ * processes it started, as far as the user running the tests may signal
+ * them: the children a command started through <tt>sudo</tt> run as root,
+ * cannot be killed and are left to end on their own.
+ */
+public class ProcessExecutor
+{
+    /**
+     * The name of the property with the default timeout of the commands in
+     * milliseconds.
+     */
+    public static final String TIMEOUT_PNAME = "jitsi-meet.process.timeout";
+
+    /**
+     * The maximum number of characters captured per output stream, the rest
+     * is read and dropped.
+     */
+    public static final int MAX_OUTPUT = 1024 * 1024;
+
+    /**
+     * The threads waiting for the commands and reading their output.
+     */
+    private static final ExecutorService pool
+        = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("process-executor-%d")
+                .build());
+
+    /**
+     * Returns the default timeout of the commands.
+     * @return the timeout in milliseconds.
+     */
+    public static long getDefaultTimeout()
+    {
+        return Long.getLong(TIMEOUT_PNAME, 5000);
+    }
+
+    /**
+     * Runs a command with the default timeout and waits for it.
+     * @param cmd the command and its arguments.
+     * @return the result.
+     * @throws IOException if the command cannot be started.
+     * @throws InterruptedException if interrupted while waiting, the
+     * command is killed.
+     */
+    public static Result execute(List<String> cmd)
+        throws IOException, InterruptedException
+    {
+        return execute(cmd, getDefaultTimeout(), null);
+    }
+
+    /**
+     * Runs a command and waits for it.
+     * @param cmd the command and its arguments.
+     * @param timeoutMs the time after which the command is killed.
+     * @param input what to write to the standard input of the command, can
+     * be <tt>null</tt>.
+     * @return the result.
+     * @throws IOException if the command cannot be started.
+     * @throws InterruptedException if interrupted while waiting, the
+     * command is killed.
+     */
+    public static Result execute(
+        List<String> cmd, long timeoutMs, String input)
+        throws IOException, InterruptedException
+    {
+        return execute(cmd, timeoutMs, input, false);
+    }
+
+    /**
+     * Runs a command and waits for it.
+     * @param cmd the command and its arguments.
+     * @param timeoutMs the time after which the command is killed.
+     * @param input what to write to the standard input of the command, can
+     * be <tt>null</tt>.
+     * @param echo whether to print the output of the command to
+     * <tt>System.out</tt> and <tt>System.err</tt> while it runs, in addition
+     * to capturing it.
+     * @return the result.
+     * @throws IOException if the command cannot be started.
+     * @throws InterruptedException if interrupted while waiting, the
+     * command is killed.
+     */
+    public static Result execute(
+        List<String> cmd, long timeoutMs, String input, boolean echo)
+        throws IOException, InterruptedException
+    {
+        final List<String> command = new ArrayList<>(cmd);
+        long start = System.nanoTime();
+
+        Process process = new ProcessBuilder(command).start();
+        Future<String> stdout = pool.submit(
+            new StreamReader(
+                process.getInputStream(), echo ? System.out : null));
+        Future<String> stderr = pool.submit(
+            new StreamReader(
+                process.getErrorStream(), echo ? System.err : null));
+
+        boolean timedOut = false;
+        try
+        {
+            try (Writer stdin = new OutputStreamWriter(
+                    process.getOutputStream(), "UTF-8"))
+            {
+                if (input != null)
+                    stdin.write(input);
+            }
+            catch (IOException e)
+            {
+                // the command does not read its input
+            }
+
+            if (!process.waitFor(timeoutMs, TimeUnit.MILLISECONDS))
+            {
+                timedOut = true;
+                System.err.println(
+                    "Killing the process after " + timeoutMs + "ms: "
+                        + command);
+                killTree(process);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            killTree(process);
+            throw e;
+        }
+
+        int exitCode = timedOut ? -1 : process.exitValue();
+        long durationMs = (System.nanoTime() - start) / 1000000;
+
+        return new Result(
+            command,
+            exitCode,
+            getOutput(stdout),
+            getOutput(stderr),
+            timedOut,
+            durationMs);
+    }
+
+    /**
+     * Runs a command on the pool with the default timeout.
+     * @param cmd the command and its arguments.
+     * @return the future result, it fails with <tt>IOException</tt> if the
+     * command cannot be started.
+     */
+    public static Future<Result> submit(List<String> cmd)
+    {
+        return submit(cmd, getDefaultTimeout(), null);
+    }
+
+    /**
+     * Runs a command on the pool.
+     * @param cmd the command and its arguments.
+     * @param timeoutMs the time after which the command is killed.
+     * @param input what to write to the standard input of the command, can
+     * be <tt>null</tt>.
+     * @return the future result, it fails with <tt>IOException</tt> if the
+     * command cannot be started.
+     */
+    public static Future<Result> submit(
+        final List<String> cmd, final long timeoutMs, final String input)
+    {
+        return pool.submit(new Callable<Result>()
+        {
+            @Override
+            public Result call()
+                throws Exception
+            {
+                return execute(cmd, timeoutMs, input);
+            }
+        });
+    }
+
+    /**
+     * Returns the output read from a stream of a process.
+     * @param output the future output.
+     * @return the output, empty if it cannot be read.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static String getOutput(Future<String> output)
+        throws InterruptedException
+    {
+        try
+        {
+            // the stream ends with the process, unless a child keeps it
+            return output.get(1, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException | TimeoutException e)
+        {
+            output.cancel(true);
+            return "";
+        }
+    }
+
+    /**
+     * Kills a process and all its descendants. The descendants owned by
+     * another user, e.g. started through <tt>sudo</tt>, cannot be killed
+     * without privileges; they are reported and left running.
+     * @param process the process.
+     * @throws InterruptedException if interrupted while waiting for the
+     * kill.
+     */
+    private static void killTree(Process process)
+        throws InterruptedException
+    {
+        Long pid = getPid(process);
+        if (pid != null)
+        {
+            List<String> kill = new ArrayList<>();
+            if (TestUtils.IS_LINUX || TestUtils.IS_MAC)
+            {
+                kill.add("kill");
+                kill.add("-KILL");
+                kill.add(pid.toString());
+                for (Long child : getDescendants(pid))
+                    kill.add(String.valueOf(child));
+            }
+            else if (String.valueOf(System.getProperty("os.name"))
+                        .startsWith("Windows"))
+            {
+                Collections.addAll(
+                    kill, "taskkill", "/T", "/F", "/PID", pid.toString());
+            }
+
+            if (!kill.isEmpty())
+            {
+                String failures = runQuietly(kill).trim();
+                if (!failures.isEmpty())
+                {
+                    System.err.println(
+                        "Could not kill all the processes of " + pid + ": "
+                            + failures);
+                }
+            }
+        }
+
+        process.destroy();
+        if (!process.waitFor(1, TimeUnit.SECONDS))
+        {
+            process.destroyForcibly();
+            process.waitFor(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns the descendants of a process, using <tt>pgrep</tt>.
+     * @param pid the id of the process.
+     * @return the ids of the descendants, children before their own
+     * children.
+     * @throws InterruptedException if interrupted.
+     */
+    private static List<Long> getDescendants(long pid)
+        throws InterruptedException
+    {
+        List<Long> descendants = new ArrayList<>();
+        Deque<Long> parents = new ArrayDeque<>();
+        parents.add(pid);
+        while (!parents.isEmpty())
+        {
+            String children = runQuietly(
+                Arrays.asList("pgrep", "-P", parents.poll().toString()));
+            for (String line : children.split("\\s+"))
+            {
+                if (line.isEmpty())
+                    continue;
+                try
+                {
+                    Long child = Long.valueOf(line);
+                    descendants.add(child);
+                    parents.add(child);
+                }
+                catch (NumberFormatException e)
+                {
+                    // not a pid
+                }
+            }
+        }
+
+        return descendants;
+    }
+
+    /**
+     * Runs a helper command, ignoring failures.
+     * @param cmd the command.
+     * @return the standard output, empty on failure.
+     * @throws InterruptedException if interrupted.
+     */
+    private static String runQuietly(List<String> cmd)
+        throws InterruptedException
+    {
+        try
+        {
+            Process process = new ProcessBuilder(cmd)
+                .redirectErrorStream(true)
+                .start();
+            String output
+                = new StreamReader(process.getInputStream(), null).call();
+            if (!process.waitFor(2, TimeUnit.SECONDS))
+                process.destroyForcibly();
+
+            return output;
+        }
+        catch (IOException e)
+        {
+            return "";
+        }
+    }
+
+    /**
+     * Returns the id of a process, through <tt>Process.pid()</tt> when
+     * available or the <tt>pid</tt> field of the unix implementation.
+     * @param process the process.
+     * @return the id or <tt>null</tt> if it cannot be obtained.
+     */
+    private static Long getPid(Process process)
+    {
+        try
+        {
+            Method pid = Process.class.getMethod("pid");
+            return ((Number) pid.invoke(process)).longValue();
+        }
+        catch (Exception e)
+        {
+            // before java 9
+        }
+        try
+        {
+            Field pid = process.getClass().getDeclaredField("pid");
+            pid.setAccessible(true);
+            return ((Number) pid.get(process)).longValue();
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a stream of a process to its end, keeping up to
+     * {@link #MAX_OUTPUT} characters and optionally echoing all of it.
+     */
+    private static class StreamReader
+        implements Callable<String>
+    {
+        /**
+         * The stream.
+         */
+        private final InputStream in;
+
+        /**
+         * Where the output is echoed while read, <tt>null</tt> to only
+         * capture it.
+         */
+        private final PrintStream echo;
+
+        /**
+         * Creates new reader.
+         * @param in the stream.
+         * @param echo where to echo the output, can be <tt>null</tt>.
+         */
+        StreamReader(InputStream in, PrintStream echo)
+        {
+            this.in = in;
+            this.echo = echo;
+        }
+
+        @Override
+        public String call()
+            throws IOException
+        {
+            StringBuilder out = new StringBuilder();
+            boolean truncated = false;
+            try (Reader reader = new InputStreamReader(in, "UTF-8"))
+            {
+                char[] buf = new char[4096];
+                int read;
+                while ((read = reader.read(buf)) != -1)
+                {
+                    if (echo != null)
+                    {
+                        echo.print(new String(buf, 0, read));
+                        echo.flush();
+                    }
+                    int keep = Math.min(read, MAX_OUTPUT - out.length());
+                    out.append(buf, 0, keep);
+                    truncated |= keep < read;
+                }
+            }
+            if (truncated)
+                out.append("\n[truncated]");
+
+            return out.toString();
+        }
+    }
+
+    /**
+     * The result of a command.
+     */
+    public static class Result
+    {
+        /**
+         * The command and its arguments.
+         */
+        private final List<String> command;
+
+        /**
+         * The exit code, -1 if the command timed out.
+         */
+        private final int exitCode;
+
+        /**
+         * The standard output.
+         */
+        private final String stdout;
+
+        /**
+         * The standard error.
+         */
+        private final String stderr;
+
+        /**
+         * Whether the command was killed after its timeout.
+         */
+        private final boolean timedOut;
+
+        /**
+         * How long the command ran.
+         */
+        private final long durationMs;
+
+        /**
+         * Creates new result.
+         * @param command the command.
+         * @param exitCode the exit code.
+         * @param stdout the standard output.
+         * @param stderr the standard error.
+         * @param timedOut whether the command timed out.
+         * @param durationMs how long the command ran.
+         */
+        Result(
+            List<String> command,
+            int exitCode,
+            String stdout,
+            String stderr,
+            boolean timedOut,
+            long durationMs)
+        {
+            this.command = Collections.unmodifiableList(command);
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.timedOut = timedOut;
+            this.durationMs = durationMs;
+        }
+
+        /**
+         * Returns the command.
+         * @return the command and its arguments.
+         */
+        public List<String> getCommand()
+        {
+            return command;
+        }
+
+        /**
+         * Returns the exit code.
+         * @return the exit code, -1 if the command timed out.
+         */
+        public int getExitCode()
+        {
+            return exitCode;
+        }
+
+        /**
+         * Returns the standard output.
+         * @return the standard output.
+         */
+        public String getStdout()
+        {
+            return stdout;
+        }
+
+        /**
+         * Returns the standard error.
+         * @return the standard error.
+         */
+        public String getStderr()
+        {
+            return stderr;
+        }
+
+        /**
+         * Returns whether the command was killed after its timeout.
+         * @return whether the command timed out.
+         */
+        public boolean isTimedOut()
+        {
+            return timedOut;
+        }
+
+        /**
+         * Returns how long the command ran.
+         * @return the duration in milliseconds.
+         */
+        public long getDurationMs()
+        {
+            return durationMs;
+        }
+
+        /**
+         * Returns whether the command ended in time with exit code 0.
+         * @return whether the command succeeded.
+         */
+        public boolean isSuccess()
+        {
+            return !timedOut && exitCode == 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return command + (timedOut ? " timed out" : " exited " + exitCode)
+                + " after " + durationMs + "ms";
+        }
+    }
+}
@@ -15,12 +15,14 @@
  */
 package org.jitsi.meet.test.util;
 
+import org.jitsi.meet.test.perf.*;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.*;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.function.Function;
 
 import static org.junit.Assert.fail;
 
@@ -93,6 +95,49 @@ public class TestUtils
         }
     }
 
+    /**
+     * Creates a wait whose time is reported as polling wait in
+     * {@link PhaseTimes}.
+     * @param participant where we check (poll)
+     * @param timeout time to wait in seconds
+     * @return the wait.
+     */
+    public static WebDriverWait newWait(WebDriver participant, long timeout)
+    {
+        return newWait(
+            participant, timeout, WebDriverWait.DEFAULT_SLEEP_TIMEOUT);
+    }
+
+    /**
+     * Creates a wait whose time is reported as polling wait in
+     * {@link PhaseTimes}.
+     * @param participant where we check (poll)
+     * @param timeout time to wait in seconds
+     * @param pollWaitTime time in milliseconds between the checks
+     * @return the wait.
+     */
+    public static WebDriverWait newWait(
+        WebDriver participant, long timeout, long pollWaitTime)
+    {
+        return new WebDriverWait(participant, timeout, pollWaitTime)
+        {
+            @Override
+            public <V> V until(Function<? super WebDriver, V> isTrue)
+            {
+                PhaseTimes.Scope scope
+                    = PhaseTimes.enter(PhaseTimes.Phase.POLLING_WAIT);
+                try
+                {
+                    return super.until(isTrue);
+                }
+                finally
+                {
+                    scope.end();
+                }
+            }
+        };
+    }
+
     /**
      * Waits until a javascript expression evaluates to {@code true}.
      * @param participant where we check (poll)
@@ -105,7 +150,7 @@ public class TestUtils
         final String scriptToExecute,
         long timeout)
     {
-        (new WebDriverWait(participant, timeout))
+        (newWait(participant, timeout))
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -131,7 +176,7 @@ public class TestUtils
         final String expectedResult,
         long timeout)
     {
-        (new WebDriverWait(participant, timeout))
+        (newWait(participant, timeout))
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -174,7 +219,7 @@ public class TestUtils
         String          errorMessage)
     {
         FluentWait<WebDriver> waitImpl
-            = new WebDriverWait(participant, timeout);
+            = newWait(participant, timeout);
 
         if (errorMessage != null)
             waitImpl = waitImpl.withMessage(errorMessage);
@@ -203,7 +248,7 @@ public class TestUtils
         long timeout)
     {
         final WebElement[] foundElement = new WebElement[1];
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -234,7 +279,7 @@ public class TestUtils
         final String xpath,
         long timeout)
     {
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -291,7 +336,7 @@ public class TestUtils
         long             timeout,
         final boolean    isDisplayed)
     {
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
             .withMessage(
                 "Is " + (isDisplayed ? "" : "not") + "displayed: " + xpath)
             .until(new ExpectedCondition<Boolean>()
@@ -324,7 +369,7 @@ public class TestUtils
             final Object attributeValue,
             long timeout)
     {
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
                 .until(new ExpectedCondition<Boolean>()
                 {
                     public Boolean apply(WebDriver d)
@@ -353,7 +398,7 @@ public class TestUtils
             long timeout
     )
     {
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -376,7 +421,7 @@ public class TestUtils
         final String xpath,
         long timeout)
     {
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -398,7 +443,7 @@ public class TestUtils
         final String id,
         long timeout)
     {
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -420,7 +465,7 @@ public class TestUtils
         final String id,
         long timeout)
     {
-        new WebDriverWait(participant, timeout)
+        newWait(participant, timeout)
             .until(new ExpectedCondition<Boolean>()
             {
                 public Boolean apply(WebDriver d)
@@ -442,7 +487,7 @@ public class TestUtils
                                         int timeoutSeconds,
                                         ExpectedCondition<?> condition)
     {
-        (new WebDriverWait(participant, timeoutSeconds)).until(condition);
+        (newWait(participant, timeoutSeconds)).until(condition);
     }
 
     /**
@@ -458,7 +503,7 @@ public class TestUtils
                                         ExpectedCondition<?> condition,
                                         long pollWaitTime)
     {
-        (new WebDriverWait(participant, timeoutSeconds, pollWaitTime))
+        (newWait(participant, timeoutSeconds, pollWaitTime))
             .until(condition);
     }
 
@@ -470,13 +515,22 @@ public class TestUtils
     public static void waitMillis(long time)
     {
         Object obj = new Object();
-        synchronized(obj)
+        PhaseTimes.Scope scope
+            = PhaseTimes.enter(PhaseTimes.Phase.SLEEP);
+        try
         {
-            try
+            synchronized(obj)
             {
-                obj.wait(time);
+                try
+                {
+                    obj.wait(time);
+                }
+                catch(Throwable t){}
             }
-            catch(Throwable t){}
+        }
+        finally
+        {
+            scope.end();
         }
     }
 